@@ -0,0 +1,54 @@
+package com.agonyforge.arbitrader.config;
+
+/**
+ * Configuration that governs adaptive entry and exit targets. When active, the entry and exit targets for each
+ * combination of exchanges and currency pair are taken from the recent distribution of its spreads, bounded by the
+ * static targets computed from entrySpreadTarget, exitSpreadTarget and minimumProfit.
+ */
+public class AdaptiveTargetConfiguration {
+    private Boolean active = false;
+    private Double entryQuantile = 0.995;
+    private Double exitQuantile = 0.1;
+    private Integer windowHours = 24;
+    private Long minimumSamples = 1000L;
+
+    public Boolean isActive() {
+        return active;
+    }
+
+    public void setActive(Boolean active) {
+        this.active = active;
+    }
+
+    public Double getEntryQuantile() {
+        return entryQuantile;
+    }
+
+    public void setEntryQuantile(Double entryQuantile) {
+        this.entryQuantile = entryQuantile;
+    }
+
+    public Double getExitQuantile() {
+        return exitQuantile;
+    }
+
+    public void setExitQuantile(Double exitQuantile) {
+        this.exitQuantile = exitQuantile;
+    }
+
+    public Integer getWindowHours() {
+        return windowHours;
+    }
+
+    public void setWindowHours(Integer windowHours) {
+        this.windowHours = windowHours;
+    }
+
+    public Long getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    public void setMinimumSamples(Long minimumSamples) {
+        this.minimumSamples = minimumSamples;
+    }
+}
@@ -0,0 +1,38 @@
+package com.agonyforge.arbitrader.config;
+
+import java.math.BigDecimal;
+
+/**
+ * Configuration that governs multi-hop cycle detection. When active, the tickers on each exchange are treated as a
+ * graph of currencies and every ticker update is checked for a cycle of trades, such as USD to BTC to ETH and back
+ * to USD, that ends with more than it started with after fees.
+ */
+public class CycleConfiguration {
+    private Boolean active = false;
+    private Integer maxHops = 4;
+    private BigDecimal minimumProfit = new BigDecimal("0.001");
+
+    public Boolean isActive() {
+        return active;
+    }
+
+    public void setActive(Boolean active) {
+        this.active = active;
+    }
+
+    public Integer getMaxHops() {
+        return maxHops;
+    }
+
+    public void setMaxHops(Integer maxHops) {
+        this.maxHops = maxHops;
+    }
+
+    public BigDecimal getMinimumProfit() {
+        return minimumProfit;
+    }
+
+    public void setMinimumProfit(BigDecimal minimumProfit) {
+        this.minimumProfit = minimumProfit;
+    }
+}
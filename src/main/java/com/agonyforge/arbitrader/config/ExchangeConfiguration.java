@@ -31,6 +31,7 @@ public class ExchangeConfiguration {
     private Currency homeCurrency = Currency.USD;
     private Map<String, Integer> ticker = new HashMap<>();
     private List<Object> tickerArguments = new ArrayList<>();
+    private Map<String, String> serverTime = new HashMap<>();
     private FeeComputation feeComputation = FeeComputation.SERVER;
     private Boolean active;
 
@@ -170,6 +171,14 @@ public class ExchangeConfiguration {
         this.tickerArguments = tickerArguments;
     }
 
+    public Map<String, String> getServerTime() {
+        return serverTime;
+    }
+
+    public void setServerTime(Map<String, String> serverTime) {
+        this.serverTime = serverTime;
+    }
+
     public FeeComputation getFeeComputation() {
         return feeComputation;
     }
@@ -2,25 +2,76 @@ package com.agonyforge.arbitrader.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
-import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
- * Configuration for the task executor.
+ * Configuration for the task executors.
+ *
+ * Each kind of work gets its own executor so that one can't starve another: a slow exchange API or mail server
+ * only ever fills up its own queue. Every executor has a fixed number of threads (idle ones time out), a bounded
+ * queue and a rejection policy that suits its work.
+ *
+ * Evaluating spreads isn't here: the SpreadEvaluator has its own single threaded shards, one per processor.
  */
 @Configuration
 public class ExecutorConfig {
+    public static final String MARKET_DATA_EXECUTOR = "marketDataExecutor";
+    public static final String ORDER_EXECUTOR = "orderExecutor";
+    public static final String NOTIFICATION_EXECUTOR = "notificationExecutor";
 
-    @Bean
-    public Executor taskExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
 
-        executor.setCorePoolSize(0);
-        executor.setMaxPoolSize(Runtime.getRuntime().availableProcessors() + 1);
-//        executor.setQueueCapacity(100);
-        executor.setThreadNamePrefix("async-trade-pool-");
-        executor.initialize();
+    /**
+     * Fetching tickers, order books and balances from exchanges. This work spends most of its time waiting on the network,
+     * so there are more threads than processors. Callers already fall back to fetching on their own thread when
+     * the queue is full.
+     *
+     * @return An executor for market data requests.
+     */
+    @Bean(name = MARKET_DATA_EXECUTOR)
+    public MonitoredTaskExecutor marketDataExecutor() {
+        return buildExecutor(MARKET_DATA_EXECUTOR, Math.max(4, PROCESSORS * 2), 500, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Watching orders until they fill. This work must never be dropped, so when the queue is full the caller
+     * runs it.
+     *
+     * @return An executor for order management.
+     */
+    @Bean(name = ORDER_EXECUTOR)
+    public MonitoredTaskExecutor orderExecutor() {
+        return buildExecutor(ORDER_EXECUTOR, 4, 100, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Formatting and delivering notifications. One thread is plenty, and it finishes what's queued before we
+     * shut down.
+     *
+     * @return An executor for notifications.
+     */
+    @Bean(name = NOTIFICATION_EXECUTOR)
+    public MonitoredTaskExecutor notificationExecutor() {
+        MonitoredTaskExecutor executor = buildExecutor(NOTIFICATION_EXECUTOR, 1, 1000, new ThreadPoolExecutor.AbortPolicy());
+
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
+
+        return executor;
+    }
+
+    // core and max are the same so the pool actually grows; with a bounded queue a pool only grows past its core
+    // size once the queue is full
+    private MonitoredTaskExecutor buildExecutor(String name, int threads, int queueCapacity, RejectedExecutionHandler rejectedExecutionHandler) {
+        MonitoredTaskExecutor executor = new MonitoredTaskExecutor(name);
+
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(rejectedExecutionHandler);
 
         return executor;
     }
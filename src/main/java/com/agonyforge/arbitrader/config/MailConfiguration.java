@@ -5,6 +5,7 @@ import com.agonyforge.arbitrader.service.NotificationServiceImpl;
 import com.agonyforge.arbitrader.service.model.Spread;
 import com.agonyforge.arbitrader.service.model.EntryTradeVolume;
 import com.agonyforge.arbitrader.service.model.ExitTradeVolume;
+import com.agonyforge.arbitrader.service.outbox.NotificationOutbox;
 import com.agonyforge.arbitrader.service.telegram.TelegramClient;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -24,8 +25,13 @@ public class MailConfiguration {
 
     @Bean
     @ConditionalOnProperty(prefix = "spring", value = "mail")
-    public NotificationService notificationService(JavaMailSender javaMailSender, NotificationConfiguration config, TelegramClient telegramClient) {
-        return new NotificationServiceImpl(javaMailSender, config, telegramClient);
+    public NotificationService notificationService(
+        JavaMailSender javaMailSender,
+        NotificationConfiguration config,
+        TelegramClient telegramClient,
+        NotificationOutbox notificationOutbox) {
+
+        return new NotificationServiceImpl(javaMailSender, config, telegramClient, notificationOutbox);
     }
 
     @Bean
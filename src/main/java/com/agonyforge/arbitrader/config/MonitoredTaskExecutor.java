@@ -0,0 +1,143 @@
+package com.agonyforge.arbitrader.config;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ThreadPoolTaskExecutor that keeps track of how busy it is: how long tasks wait in the queue, how much of the
+ * pool's time is spent running them and how many tasks were rejected because the queue was full.
+ */
+public class MonitoredTaskExecutor extends ThreadPoolTaskExecutor {
+    private final String name;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maximumWaitNanos = new AtomicLong();
+
+    private long lastReportNanos = System.nanoTime();
+    private long lastBusyNanos = 0;
+
+    public MonitoredTaskExecutor(String name) {
+        this.name = name;
+
+        setThreadNamePrefix(name + "-");
+        setTaskDecorator(this::decorate);
+        setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Count the tasks that are rejected before handing them to the real policy.
+     *
+     * @param rejectedExecutionHandler What to do with tasks that don't fit in the queue.
+     */
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler rejectedExecutionHandler) {
+        super.setRejectedExecutionHandler((runnable, executor) -> {
+            rejected.increment();
+            rejectedExecutionHandler.rejectedExecution(runnable, executor);
+        });
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Get the average time tasks have spent waiting in the queue before a thread picked them up.
+     *
+     * @return The average wait in milliseconds.
+     */
+    public double getAverageWait() {
+        final long count = completed.sum();
+
+        return count == 0 ? 0.0 : waitNanos.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Get the longest time any task has spent waiting in the queue.
+     *
+     * @return The maximum wait in milliseconds.
+     */
+    public double getMaximumWait() {
+        return maximumWaitNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Summarize how busy the executor has been since the last report.
+     *
+     * @return A one line summary.
+     */
+    public String report() {
+        return report(System.nanoTime());
+    }
+
+    // intended for testing
+    synchronized String report(long now) {
+        final long busy = busyNanos.sum();
+        final long elapsed = Math.max(1, now - lastReportNanos) * Math.max(1, getMaxPoolSize());
+        final double utilization = 100.0 * (busy - lastBusyNanos) / elapsed;
+
+        lastReportNanos = now;
+        lastBusyNanos = busy;
+
+        return String.format("%s: %.1f%% utilized, %d/%d threads, %d queued, %d completed, %d rejected, waited %.1f ms on average and %.1f ms at most",
+            name,
+            Math.min(utilization, 100.0),
+            getActiveCount(),
+            getMaxPoolSize(),
+            getQueued(),
+            getCompletedCount(),
+            getRejectedCount(),
+            getAverageWait(),
+            getMaximumWait());
+    }
+
+    private int getQueued() {
+        try {
+            return getThreadPoolExecutor().getQueue().size();
+        } catch (IllegalStateException e) {
+            return 0; // not initialized yet
+        }
+    }
+
+    // time how long each task waits for a thread and how long it runs
+    Runnable decorate(Runnable runnable) {
+        final long queued = System.nanoTime();
+
+        submitted.increment();
+
+        return () -> {
+            final long started = System.nanoTime();
+            final long waited = started - queued;
+
+            waitNanos.add(waited);
+            maximumWaitNanos.accumulateAndGet(waited, Math::max);
+
+            try {
+                runnable.run();
+            } finally {
+                busyNanos.add(System.nanoTime() - started);
+                completed.increment();
+            }
+        };
+    }
+}
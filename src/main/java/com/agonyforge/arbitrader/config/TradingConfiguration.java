@@ -25,7 +25,16 @@ public class TradingConfiguration {
     private List<ExchangeConfiguration> exchanges = new ArrayList<>();
     private List<String> tradeBlacklist = new ArrayList<>();
     private Long tradeTimeout;
+    private Integer orderVolumeCacheSize;
+    private BigDecimal prefetchDistance;
+    private Long orderBookMaxAge;
+    private Integer orderBookRequestsPerMinute;
+    private Long verificationCooldown;
+    private BigDecimal verificationPriceMove;
+    private Long tickerMaxAge;
     private PaperConfiguration paper;
+    private AdaptiveTargetConfiguration adaptiveTargets = new AdaptiveTargetConfiguration();
+    private CycleConfiguration cycles = new CycleConfiguration();
 
     public BigDecimal getEntrySpreadTarget() {
         return entrySpreadTarget;
@@ -91,6 +100,62 @@ public class TradingConfiguration {
         this.tradeTimeout = tradeTimeout;
     }
 
+    public Integer getOrderVolumeCacheSize() {
+        return orderVolumeCacheSize;
+    }
+
+    public void setOrderVolumeCacheSize(Integer orderVolumeCacheSize) {
+        this.orderVolumeCacheSize = orderVolumeCacheSize;
+    }
+
+    public BigDecimal getPrefetchDistance() {
+        return prefetchDistance;
+    }
+
+    public void setPrefetchDistance(BigDecimal prefetchDistance) {
+        this.prefetchDistance = prefetchDistance;
+    }
+
+    public Long getOrderBookMaxAge() {
+        return orderBookMaxAge;
+    }
+
+    public void setOrderBookMaxAge(Long orderBookMaxAge) {
+        this.orderBookMaxAge = orderBookMaxAge;
+    }
+
+    public Integer getOrderBookRequestsPerMinute() {
+        return orderBookRequestsPerMinute;
+    }
+
+    public void setOrderBookRequestsPerMinute(Integer orderBookRequestsPerMinute) {
+        this.orderBookRequestsPerMinute = orderBookRequestsPerMinute;
+    }
+
+    public Long getVerificationCooldown() {
+        return verificationCooldown;
+    }
+
+    public void setVerificationCooldown(Long verificationCooldown) {
+        this.verificationCooldown = verificationCooldown;
+    }
+
+    public BigDecimal getVerificationPriceMove() {
+        return verificationPriceMove;
+    }
+
+    public void setVerificationPriceMove(BigDecimal verificationPriceMove) {
+        this.verificationPriceMove = verificationPriceMove;
+    }
+
+    public Long getTickerMaxAge() {
+        return tickerMaxAge;
+    }
+
+    public void setTickerMaxAge(Long tickerMaxAge) {
+        this.tickerMaxAge = tickerMaxAge;
+    }
+
     public PaperConfiguration getPaper() {
         return paper;
     }
@@ -98,4 +163,20 @@ public class TradingConfiguration {
     public void setPaper(PaperConfiguration paper) {
         this.paper = paper;
     }
+
+    public AdaptiveTargetConfiguration getAdaptiveTargets() {
+        return adaptiveTargets;
+    }
+
+    public void setAdaptiveTargets(AdaptiveTargetConfiguration adaptiveTargets) {
+        this.adaptiveTargets = adaptiveTargets;
+    }
+
+    public CycleConfiguration getCycles() {
+        return cycles;
+    }
+
+    public void setCycles(CycleConfiguration cycles) {
+        this.cycles = cycles;
+    }
 }
@@ -0,0 +1,204 @@
+package com.agonyforge.arbitrader.logging;
+
+import ch.qos.logback.core.AppenderBase;
+import com.agonyforge.arbitrader.config.NotificationConfiguration;
+import org.springframework.context.ApplicationContext;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for appenders that send log messages to a chat service.
+ *
+ * Logging threads only put messages into a bounded queue, so they never wait on the network. A single shipping
+ * thread takes messages off the queue and combines as many as will fit into one chat message, and a TokenBucket
+ * keeps it within the service's rate limits. While it waits for a token more messages pile up, so the busier it
+ * gets the bigger the batches are. If the queue fills up anyway, new messages are dropped and the next batch says
+ * how many were lost.
+ *
+ * The queue size and rate limits can be changed with queueSize, burst and requestsPerMinute properties in the
+ * appender's logback configuration.
+ *
+ * @param <T> the log message to send.
+ */
+public abstract class BatchingAppender<T> extends AppenderBase<T> {
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    public static final int DEFAULT_BURST = 5;
+    public static final int DEFAULT_REQUESTS_PER_MINUTE = 30;
+
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private int burst = DEFAULT_BURST;
+    private int requestsPerMinute = DEFAULT_REQUESTS_PER_MINUTE;
+
+    private BlockingQueue<String> queue = new ArrayBlockingQueue<>(DEFAULT_QUEUE_SIZE);
+    private TokenBucket tokenBucket = new TokenBucket(DEFAULT_BURST, DEFAULT_REQUESTS_PER_MINUTE);
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread shipper;
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public void setRequestsPerMinute(int requestsPerMinute) {
+        this.requestsPerMinute = requestsPerMinute;
+    }
+
+    @Override
+    public void start() {
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        tokenBucket = new TokenBucket(burst, requestsPerMinute);
+
+        shipper = new Thread(this::run, getName() + "-shipper");
+        shipper.setDaemon(true);
+        shipper.start();
+
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+
+        if (shipper != null) {
+            shipper.interrupt();
+            shipper = null;
+        }
+    }
+
+    @Override
+    protected void append(T eventObject) {
+        // never block a logging thread, just count what we couldn't fit
+        if (!queue.offer(eventObject.toString())) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * The longest message the chat service accepts.
+     *
+     * @return The maximum number of characters in a message.
+     */
+    protected abstract int getMaxMessageLength();
+
+    /**
+     * Send one message to the chat service.
+     *
+     * @param notificationConfiguration The NotificationConfiguration with the credentials for the service.
+     * @param message The message to send.
+     * @return How many milliseconds the service asked us to wait before sending again, or 0 if it was sent.
+     * @throws IOException if the message couldn't be sent.
+     */
+    protected abstract long send(NotificationConfiguration notificationConfiguration, String message) throws IOException;
+
+    // the shipping thread
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                shipBatch(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for a message and send it, along with as many others as will fit.
+     *
+     * @param timeoutMillis How long to wait for a message.
+     * @return true if a batch was taken off the queue.
+     * @throws InterruptedException if we're interrupted while waiting.
+     */
+    boolean shipBatch(long timeoutMillis) throws InterruptedException {
+        final String first = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+
+        if (first == null) {
+            return false;
+        }
+
+        // while we wait for our turn more messages can arrive and join this batch
+        tokenBucket.acquire();
+
+        final String batch = buildBatch(first);
+        final NotificationConfiguration notificationConfiguration = getNotificationConfiguration();
+
+        if (notificationConfiguration == null) {
+            return true;
+        }
+
+        try {
+            long retryAfter = send(notificationConfiguration, batch);
+
+            if (retryAfter > 0) {
+                // rate limited anyway, so wait as long as we were told and try once more
+                tokenBucket.pause(retryAfter);
+                tokenBucket.acquire();
+                send(notificationConfiguration, batch);
+            }
+        } catch (IOException | RuntimeException e) {
+            // can't log here or we'll cause an endless loop...
+        }
+
+        return true;
+    }
+
+    // combine queued messages into one, up to the longest message the service accepts
+    String buildBatch(String first) {
+        final int maxLength = getMaxMessageLength();
+        final long droppedCount = dropped.getAndSet(0);
+        final String droppedNotice = droppedCount > 0 ? "\n(" + droppedCount + " more messages were dropped)" : "";
+        final int available = maxLength - droppedNotice.length();
+        final StringBuilder batch = new StringBuilder(truncate(first, available));
+
+        String next;
+        while ((next = queue.peek()) != null && batch.length() + 1 + next.length() <= available) {
+            batch.append('\n').append(queue.poll());
+        }
+
+        return batch.append(droppedNotice).toString();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    // the NotificationConfiguration from Spring, or null if Spring isn't ready yet
+    private static NotificationConfiguration getNotificationConfiguration() {
+        final SpringContextSingleton singleton = SpringContextSingleton.getInstance();
+        final ApplicationContext applicationContext = singleton == null ? null : singleton.getApplicationContext();
+
+        if (applicationContext == null) {
+            return null;
+        }
+
+        return (NotificationConfiguration) applicationContext.getBean("notificationConfiguration");
+    }
+
+    /**
+     * Convert a Retry-After header, in seconds, to milliseconds. Some services send fractional seconds.
+     *
+     * @param retryAfter The value of the Retry-After header.
+     * @return How many milliseconds to wait, or one second if the header is missing or invalid.
+     */
+    protected static long retryAfterMillis(String retryAfter) {
+        try {
+            return Math.max(1, (long) (Double.parseDouble(retryAfter) * TimeUnit.SECONDS.toMillis(1)));
+        } catch (NullPointerException | NumberFormatException e) {
+            return TimeUnit.SECONDS.toMillis(1);
+        }
+    }
+
+    private static String truncate(String message, int maxLength) {
+        if (message.length() <= maxLength) {
+            return message;
+        }
+
+        return message.substring(0, Math.max(0, maxLength - 3)) + "...";
+    }
+}
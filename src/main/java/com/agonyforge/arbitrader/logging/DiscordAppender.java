@@ -1,61 +1,56 @@
 package com.agonyforge.arbitrader.logging;
 
-import ch.qos.logback.core.AppenderBase;
 import com.agonyforge.arbitrader.config.NotificationConfiguration;
-import okhttp3.Call;
-import okhttp3.Callback;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import org.jetbrains.annotations.NotNull;
-import org.springframework.context.ApplicationContext;
 
 import java.io.IOException;
+import java.util.Collections;
 
 /**
  * Sends slf4j log messages to Discord.
  *
  * @param <T> the log message.
  */
-public class DiscordAppender<T> extends AppenderBase<T> {
+public class DiscordAppender<T> extends BatchingAppender<T> {
     public static final MediaType MEDIA_TYPE_JSON = MediaType.get("application/json; charset=utf-8");
+    public static final int MAX_MESSAGE_LENGTH = 2000;
 
     private final OkHttpClient client = new OkHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Override
-    protected void append(T eventObject) {
-        final ApplicationContext appContext = SpringContextSingleton.getInstance().getApplicationContext();
-
-        if (appContext == null) {
-            return;
-        }
+    protected int getMaxMessageLength() {
+        return MAX_MESSAGE_LENGTH;
+    }
 
-        final NotificationConfiguration notificationConfig = (NotificationConfiguration) appContext.getBean("notificationConfiguration");
+    @Override
+    protected long send(NotificationConfiguration notificationConfig, String message) throws IOException {
         final String url = "https://discord.com/api/webhooks/" + notificationConfig.getDiscord().getWebhookId() + "/" +
             notificationConfig.getDiscord().getWebhookToken();
 
-        final String bodyContent = "{\"content\": \"" + eventObject.toString() + "\" }";
-        final RequestBody body = RequestBody.create(bodyContent, MEDIA_TYPE_JSON);
+        final RequestBody body = RequestBody.create(toJson(message), MEDIA_TYPE_JSON);
         final Request request = new Request.Builder()
             .url(url)
             .post(body)
             .build();
 
-        // Send the log message asynchronously to Discord via webhook
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NotNull Call call, @NotNull IOException e) {
-                // Cancel the connection in case it is still active. There is no problem calling cancel() on an
-                // already canceled connection
-                call.cancel();
-            }
-            @Override
-            public void onResponse(@NotNull Call call, @NotNull Response response) {
-                // We need to close the response in order to avoid leaking it
-                response.close();
+        // the response has to be closed or we'll leak it
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 429) {
+                return retryAfterMillis(response.header("Retry-After"));
             }
-        });
+        }
+
+        return 0;
+    }
+
+    // build the webhook payload, with the message properly escaped
+    String toJson(String message) throws IOException {
+        return objectMapper.writeValueAsString(Collections.singletonMap("content", message));
     }
 }
@@ -1,11 +1,9 @@
 package com.agonyforge.arbitrader.logging;
 
-import ch.qos.logback.core.AppenderBase;
 import com.agonyforge.arbitrader.config.NotificationConfiguration;
 import com.github.seratch.jslack.Slack;
 import com.github.seratch.jslack.api.methods.SlackApiException;
 import com.github.seratch.jslack.api.methods.request.chat.ChatPostMessageRequest;
-import org.springframework.context.ApplicationContext;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -15,27 +13,30 @@ import java.util.Collections;
  *
  * @param <T> the log message to send.
  */
-public class SlackAppender<T> extends AppenderBase<T> {
-    @Override
-    protected void append(T eventObject) {
-        ApplicationContext applicationContext = SpringContextSingleton.getInstance().getApplicationContext();
-
-        if (applicationContext == null) {
-            return;
-        }
+public class SlackAppender<T> extends BatchingAppender<T> {
+    public static final int MAX_MESSAGE_LENGTH = 4000;
 
-        NotificationConfiguration notificationConfiguration = (NotificationConfiguration) applicationContext.getBean("notificationConfiguration");
+    @Override
+    protected int getMaxMessageLength() {
+        return MAX_MESSAGE_LENGTH;
+    }
 
+    @Override
+    protected long send(NotificationConfiguration notificationConfiguration, String message) throws IOException {
         try {
             Slack.getInstance().methods().chatPostMessage(ChatPostMessageRequest.builder()
                     .token(notificationConfiguration.getSlack().getAccessToken())
                     .asUser(false)
                     .channel(notificationConfiguration.getSlack().getChannel())
-                    .text(eventObject.toString())
+                    .text(message)
                     .attachments(Collections.emptyList())
                     .build());
-        } catch (IOException | SlackApiException e) {
-            // can't log here or we'll cause an endless loop...
+        } catch (SlackApiException e) {
+            if (e.getResponse() != null && e.getResponse().code() == 429) {
+                return retryAfterMillis(e.getResponse().header("Retry-After"));
+            }
         }
+
+        return 0;
     }
 }
@@ -0,0 +1,89 @@
+package com.agonyforge.arbitrader.logging;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A simple token bucket for rate limiting. The bucket holds up to a fixed number of tokens, which are refilled
+ * steadily over time. Taking a token waits until one is available.
+ *
+ * This is only used by one thread at a time, from the shipping thread of a BatchingAppender.
+ */
+public class TokenBucket {
+    private final int capacity;
+    private final long nanosPerToken;
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil = 0;
+
+    /**
+     * Create a full TokenBucket.
+     *
+     * @param capacity The largest number of tokens the bucket can hold, which is the largest possible burst.
+     * @param tokensPerMinute How many tokens are added per minute.
+     */
+    public TokenBucket(int capacity, int tokensPerMinute) {
+        this.capacity = Math.max(1, capacity);
+        this.nanosPerToken = TimeUnit.MINUTES.toNanos(1) / Math.max(1, tokensPerMinute);
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take a token if one is available right now.
+     *
+     * @return true if a token was taken.
+     */
+    public synchronized boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    // intended for testing so that you can control the time
+    synchronized boolean tryAcquire(long now) {
+        refill(now);
+
+        if (now < pausedUntil || tokens < 1) {
+            return false;
+        }
+
+        tokens -= 1;
+
+        return true;
+    }
+
+    /**
+     * Take a token, waiting until one is available.
+     *
+     * @throws InterruptedException if we're interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        while (!tryAcquire()) {
+            TimeUnit.NANOSECONDS.sleep(getWaitNanos());
+        }
+    }
+
+    /**
+     * Hand out no tokens for a while, for example because the server told us to slow down.
+     *
+     * @param millis How long to pause for.
+     */
+    public synchronized void pause(long millis) {
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+        tokens = 0;
+    }
+
+    // how long until the next token is worth waiting for
+    private synchronized long getWaitNanos() {
+        final long now = System.nanoTime();
+
+        return Math.max(pausedUntil - now, Math.max(1, (long) ((1 - tokens) * nanosPerToken)));
+    }
+
+    private void refill(long now) {
+        final long elapsed = now - lastRefill;
+
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + (double) elapsed / nanosPerToken);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.agonyforge.arbitrader.service;
+
+import org.knowm.xchange.Exchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker for each exchange, driven by the errors collected in the ErrorCollectorService.
+ *
+ * Each poll of an exchange counts as a failure if it threw or if any errors were collected for the exchange since
+ * the previous poll, which catches errors from streaming subscriptions and trades as well as from the poll itself.
+ * When FAILURE_THRESHOLD of the last WINDOW polls have failed the breaker opens: we stop polling the exchange and
+ * stop evaluating its TradeCombinations. After a probe interval one poll is let through (half open).
+ * If it succeeds the breaker closes again, otherwise it opens for twice as long as before, up to MAX_PROBE_INTERVAL.
+ */
+@Component
+public class CircuitBreakerService {
+    public static final int WINDOW = 10;
+    public static final int FAILURE_THRESHOLD = 5;
+    public static final long INITIAL_PROBE_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    public static final long MAX_PROBE_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreakerService.class);
+
+    /**
+     * The state of a circuit breaker.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final ErrorCollectorService errorCollectorService;
+    private final ConcurrentMap<Exchange, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public CircuitBreakerService(ErrorCollectorService errorCollectorService) {
+        this.errorCollectorService = errorCollectorService;
+    }
+
+    /**
+     * Whether an exchange is healthy enough to evaluate trades on.
+     *
+     * @param exchange The Exchange.
+     * @return true if the exchange's circuit breaker is closed.
+     */
+    public boolean isAvailable(Exchange exchange) {
+        return getState(exchange) == State.CLOSED;
+    }
+
+    public State getState(Exchange exchange) {
+        final Circuit circuit = circuits.get(exchange);
+
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    /**
+     * Poll an exchange through its circuit breaker. The poll only runs if the breaker is closed, or if it's open and
+     * it's time for a probe. Its outcome is recorded afterwards.
+     *
+     * @param exchange The Exchange to poll.
+     * @param poll The code that polls the exchange.
+     * @return true if the poll ran, false if it was skipped because the breaker is open.
+     */
+    public boolean call(Exchange exchange, Runnable poll) {
+        return call(exchange, poll, System.currentTimeMillis());
+    }
+
+    // intended for testing so that you can control the time
+    boolean call(Exchange exchange, Runnable poll, long now) {
+        final Circuit circuit = circuits.computeIfAbsent(exchange, key -> new Circuit(errorCollectorService.getErrorCount(key)));
+
+        if (!circuit.tryAcquire(now)) {
+            return false;
+        }
+
+        boolean threw = true;
+
+        try {
+            poll.run();
+            threw = false;
+        } finally {
+            circuit.record(exchange, threw, errorCollectorService.getErrorCount(exchange), now);
+        }
+
+        return true;
+    }
+
+    // the state of one exchange's circuit breaker
+    private static class Circuit {
+        private final boolean[] outcomes = new boolean[WINDOW];
+        private int next = 0;
+        private int failures = 0;
+        private State state = State.CLOSED;
+        private long probeInterval = INITIAL_PROBE_INTERVAL;
+        private long nextProbe = 0;
+        private long errorCount;
+
+        Circuit(long errorCount) {
+            this.errorCount = errorCount;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+
+        // decide whether a poll can go ahead, moving from open to half open when a probe is due
+        synchronized boolean tryAcquire(long now) {
+            if (state == State.CLOSED) {
+                return true;
+            }
+
+            if (state == State.OPEN && now >= nextProbe) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+
+            return false;
+        }
+
+        synchronized void record(Exchange exchange, boolean threw, long errorCount, long now) {
+            final String exchangeName = exchange.getExchangeSpecification().getExchangeName();
+            final boolean failed = threw || errorCount > this.errorCount;
+
+            this.errorCount = errorCount;
+
+            if (state == State.HALF_OPEN) {
+                if (failed) {
+                    probeInterval = Math.min(probeInterval * 2, MAX_PROBE_INTERVAL);
+                    open(now);
+
+                    LOGGER.info("{} is still failing, next probe in {} seconds",
+                        exchangeName,
+                        TimeUnit.MILLISECONDS.toSeconds(probeInterval));
+                } else {
+                    close();
+
+                    LOGGER.info("{} has recovered, resuming", exchangeName);
+                }
+
+                return;
+            }
+
+            // slide the window of recent outcomes along
+            if (outcomes[next]) {
+                failures--;
+            }
+
+            outcomes[next] = failed;
+            next = (next + 1) % WINDOW;
+
+            if (failed) {
+                failures++;
+            }
+
+            if (state == State.CLOSED && failures >= FAILURE_THRESHOLD) {
+                open(now);
+
+                LOGGER.warn("Pausing {} after {} of the last {} polls failed, next probe in {} seconds",
+                    exchangeName,
+                    failures,
+                    WINDOW,
+                    TimeUnit.MILLISECONDS.toSeconds(probeInterval));
+            }
+        }
+
+        private void open(long now) {
+            state = State.OPEN;
+            nextProbe = now + probeInterval;
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            probeInterval = INITIAL_PROBE_INTERVAL;
+            failures = 0;
+            next = 0;
+
+            for (int i = 0; i < WINDOW; i++) {
+                outcomes[i] = false;
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.agonyforge.arbitrader.service;
 
+import com.agonyforge.arbitrader.service.condition.BlackoutSchedule;
+import com.agonyforge.arbitrader.service.condition.ConditionSnapshot;
 import org.apache.commons.io.FileUtils;
 import org.knowm.xchange.Exchange;
 import org.knowm.xchange.currency.CurrencyPair;
@@ -7,17 +9,34 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.List;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 /**
  * A service to detect several different conditions that can control Arbitrader's behavior without exposing
  * the nature of the implementation of those conditions. Decoupling like this provides flexibility in the
  * future in case we want to change how these signals are generated or add other ways of sending the signals.
+ *
+ * The condition files are watched with a {@link WatchService} and parsed only when they change. Every check
+ * reads the most recent {@link ConditionSnapshot} so the trading path never has to touch the filesystem.
  */
 @Component
 public class ConditionService {
@@ -28,13 +47,142 @@ public class ConditionService {
     static final String BLACKOUT = "blackout";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ConditionService.class);
+    private static final Set<String> CONDITION_FILES = new HashSet<>(Arrays.asList(
+        FORCE_OPEN, FORCE_CLOSE, EXIT_WHEN_IDLE, STATUS, BLACKOUT));
 
+    private final Path workingDirectory = Paths.get("").toAbsolutePath();
     private final File forceOpenFile = new File(FORCE_OPEN);
     private final File forceCloseFile = new File(FORCE_CLOSE);
     private final File exitWhenIdleFile = new File(EXIT_WHEN_IDLE);
     private final File statusFile = new File(STATUS);
     private final File blackoutFile = new File(BLACKOUT);
 
+    private volatile ConditionSnapshot snapshot = ConditionSnapshot.EMPTY;
+    private WatchService watchService;
+
+    public ConditionService() {
+        refresh();
+    }
+
+    /**
+     * Start watching the working directory for changes to the condition files.
+     */
+    @PostConstruct
+    public void startWatching() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            workingDirectory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        } catch (IOException e) {
+            LOGGER.error("Unable to watch {} for condition files! Conditions will not be updated.", workingDirectory, e);
+            return;
+        }
+
+        Thread watcher = new Thread(this::watch, "condition-watcher");
+
+        watcher.setDaemon(true);
+        watcher.start();
+
+        // catch anything that changed between the constructor and the watch being registered
+        refresh();
+    }
+
+    /**
+     * Stop watching the working directory.
+     */
+    @PreDestroy
+    public void stopWatching() {
+        if (watchService == null) {
+            return;
+        }
+
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close condition watcher: {}", e.getMessage());
+        }
+    }
+
+    // waits for filesystem events and rebuilds the snapshot when a condition file changes
+    private void watch() {
+        while (true) {
+            WatchKey key;
+
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            boolean isConditionChanged = false;
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW || CONDITION_FILES.contains(String.valueOf(event.context()))) {
+                    isConditionChanged = true;
+                }
+            }
+
+            if (isConditionChanged) {
+                refresh();
+            }
+
+            if (!key.reset()) {
+                LOGGER.error("{} can no longer be watched! Conditions will not be updated.", workingDirectory);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read all the condition files and publish a new snapshot.
+     */
+    synchronized void refresh() {
+        snapshot = new ConditionSnapshot(
+            readForceOpen(),
+            forceCloseFile.exists(),
+            exitWhenIdleFile.exists(),
+            statusFile.exists(),
+            readBlackout());
+    }
+
+    /**
+     * Get the current state of all the conditions.
+     *
+     * @return The most recent ConditionSnapshot.
+     */
+    public ConditionSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private String readForceOpen() {
+        if (!forceOpenFile.exists()) {
+            return null;
+        }
+
+        try {
+            return FileUtils.readFileToString(forceOpenFile, Charset.defaultCharset()).trim();
+        } catch (IOException e) {
+            LOGGER.warn("IOException reading file '{}': {}", FORCE_OPEN, e.getMessage());
+            return null;
+        }
+    }
+
+    private BlackoutSchedule readBlackout() {
+        if (!blackoutFile.exists() || !blackoutFile.canRead()) {
+            return BlackoutSchedule.EMPTY;
+        }
+
+        try {
+            return BlackoutSchedule.compile(FileUtils.readLines(blackoutFile, Charset.defaultCharset()));
+        } catch (IOException e) {
+            LOGGER.error("Blackout file exists but cannot be read!", e);
+        }
+
+        return BlackoutSchedule.EMPTY;
+    }
+
     /**
      * Is the "force a trade to open" condition enabled?
      *
@@ -44,16 +192,9 @@ public class ConditionService {
      * @return true if we should force a trade to open.
      */
     public boolean isForceOpenCondition(CurrencyPair currencyPair, String longExchangeName, String shortExchangeName) {
-        return forceOpenFile.exists() && evaluateForceOpenCondition(currencyPair, longExchangeName, shortExchangeName);
-    }
+        String exchanges = snapshot.getForceOpen();
 
-    private boolean evaluateForceOpenCondition(CurrencyPair currencyPair, String longExchangeName, String shortExchangeName) {
-        String exchanges;
-
-        try {
-            exchanges = FileUtils.readFileToString(forceOpenFile, Charset.defaultCharset()).trim();
-        } catch (IOException e) {
-            LOGGER.warn("IOException reading file '{}': {}", FORCE_OPEN, e.getMessage());
+        if (exchanges == null) {
             return false;
         }
 
@@ -75,6 +216,7 @@ public class ConditionService {
      */
     public void clearForceOpenCondition() {
         FileUtils.deleteQuietly(forceOpenFile);
+        refresh();
     }
 
     /**
@@ -83,7 +225,7 @@ public class ConditionService {
      * @return true if we should force our open trades to close.
      */
     public boolean isForceCloseCondition() {
-        return forceCloseFile.exists();
+        return snapshot.isForceClose();
     }
 
     /**
@@ -91,6 +233,7 @@ public class ConditionService {
      */
     public void clearForceCloseCondition() {
         FileUtils.deleteQuietly(forceCloseFile);
+        refresh();
     }
 
     /**
@@ -99,7 +242,7 @@ public class ConditionService {
      * @return true if we should exit the next time the bot is idle.
      */
     public boolean isExitWhenIdleCondition() {
-        return exitWhenIdleFile.exists();
+        return snapshot.isExitWhenIdle();
     }
 
     /**
@@ -107,6 +250,7 @@ public class ConditionService {
      */
     public void clearExitWhenIdleCondition() {
         FileUtils.deleteQuietly(exitWhenIdleFile);
+        refresh();
     }
 
     /**
@@ -115,7 +259,7 @@ public class ConditionService {
      * @return true if we should generate a status report.
      */
     public boolean isStatusCondition() {
-        return statusFile.exists();
+        return snapshot.isStatus();
     }
 
     /**
@@ -123,6 +267,7 @@ public class ConditionService {
      */
     public void clearStatusCondition() {
         FileUtils.deleteQuietly(statusFile);
+        refresh();
     }
 
     /**
@@ -132,37 +277,8 @@ public class ConditionService {
      * @return true if we are within a blackout window for the given Exchange.
      */
     public boolean isBlackoutCondition(Exchange exchange) {
-        if (!blackoutFile.exists() || !blackoutFile.canRead()) {
-            return false;
-        }
-
-        try {
-            List<String> lines = FileUtils.readLines(blackoutFile, Charset.defaultCharset());
-
-            return lines
-                .stream()
-                .filter(line -> line.startsWith(exchange.getExchangeSpecification().getExchangeName()))
-                .anyMatch(this::checkBlackoutWindow);
-
-        } catch (IOException e) {
-            LOGGER.error("Blackout file exists but cannot be read!", e);
-        }
-
-        return false;
-    }
-
-    // checks a blackout window line to see if the current time is within it
-    private boolean checkBlackoutWindow(String line) {
-        String[] dateStrings = line.split("[,]");
-
-        if (dateStrings.length != 3) {
-            return false;
-        }
-
-        ZonedDateTime start = ZonedDateTime.parse(dateStrings[1], DateTimeFormatter.ISO_OFFSET_DATE_TIME);
-        ZonedDateTime end = ZonedDateTime.parse(dateStrings[2], DateTimeFormatter.ISO_OFFSET_DATE_TIME);
-        ZonedDateTime now = ZonedDateTime.now();
-
-        return now.isAfter(start) && now.isBefore(end);
+        return snapshot.getBlackoutSchedule().isBlackout(
+            exchange.getExchangeSpecification().getExchangeName(),
+            System.currentTimeMillis());
     }
 }
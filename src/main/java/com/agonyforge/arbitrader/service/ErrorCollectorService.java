@@ -6,22 +6,36 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 /**
  * Collect non-critical errors and report them together as a batch or summary.
  * This reduces unimportant things in the logs and saves from rate limiting when sending logs to other services.
+ *
+ * Errors arrive from websocket threads, parallel streams and the scheduler all at once, so everything here is
+ * lock free. Similar errors are grouped by a fingerprint of the exchange, the exception class and the message with
+ * anything containing a number (timestamps, nonces, order IDs) replaced by "#". There can be at most
+ * MAXIMUM_FINGERPRINTS different fingerprints between reports; anything beyond that is counted together per
+ * exchange. Stack traces are only logged for the first few occurrences of each fingerprint.
  */
 @Component
 public class ErrorCollectorService {
     static final String HEADER = "Noncritical error summary: [Exception name]: [Error message] x [Count]";
+    static final int MAXIMUM_FINGERPRINTS = 100;
+    static final int MAXIMUM_MESSAGE_LENGTH = 200;
+    static final int STACK_TRACE_SAMPLES = 3;
+    static final String OVERFLOW_CLASS = "Other";
+    static final String OVERFLOW_MESSAGE = "errors";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ErrorCollectorService.class);
 
-    private final Map<String, Integer> errors = new HashMap<>();
+    private final ConcurrentMap<Fingerprint, LongAdder> errors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> exchangeErrors = new ConcurrentHashMap<>();
 
     /**
      * Collect an error and store it.
@@ -30,11 +44,30 @@ public class ErrorCollectorService {
      * @param t The error object.
      */
     public void collect(Exchange exchange, Throwable t) {
-        // store the error in the map and increment the count if there's already a similar error
-        errors.compute(computeKey(exchange, t), (key, value) -> (value == null ? 0 : value) + 1);
+        final String exchangeName = exchange.getExchangeSpecification().getExchangeName();
+        Fingerprint fingerprint = new Fingerprint(exchangeName, t.getClass().getSimpleName(), normalize(t.getMessage()));
+        LongAdder count = errors.get(fingerprint);
 
-        // when DEBUG is enabled, show the exception to help with debugging problems
-        LOGGER.debug("Surfacing noncritical stack trace for debugging: ", t);
+        if (count == null) {
+            // don't let an endless variety of messages fill up memory
+            if (errors.size() >= MAXIMUM_FINGERPRINTS) {
+                fingerprint = new Fingerprint(exchangeName, OVERFLOW_CLASS, OVERFLOW_MESSAGE);
+            }
+
+            count = errors.computeIfAbsent(fingerprint, key -> new LongAdder());
+        }
+
+        count.increment();
+
+        // count errors per exchange as well, for the circuit breakers
+        exchangeErrors
+            .computeIfAbsent(exchangeName, key -> new LongAdder())
+            .increment();
+
+        // when DEBUG is enabled, show the first few exceptions to help with debugging problems
+        if (LOGGER.isDebugEnabled() && count.sum() <= STACK_TRACE_SAMPLES) {
+            LOGGER.debug("Surfacing noncritical stack trace for debugging: ", t);
+        }
     }
 
     /**
@@ -43,7 +76,20 @@ public class ErrorCollectorService {
      * @return true if the error collector is empty.
      */
     public boolean isEmpty() {
-        return errors.size() == 0;
+        return errors.isEmpty();
+    }
+
+    /**
+     * Get the number of errors collected for an exchange since we started. Unlike the summary, this is not reset by
+     * clear() so that the difference between two calls is the number of errors in between.
+     *
+     * @param exchange The Exchange.
+     * @return The total number of errors collected for the exchange.
+     */
+    public long getErrorCount(Exchange exchange) {
+        LongAdder count = exchangeErrors.get(exchange.getExchangeSpecification().getExchangeName());
+
+        return count == null ? 0 : count.sum();
     }
 
     /**
@@ -64,14 +110,87 @@ public class ErrorCollectorService {
         report.add(HEADER);
         report.addAll(errors.entrySet()
             .stream()
-            .map(entry -> entry.getKey() + " x " + entry.getValue())
+            .map(entry -> entry.getKey() + " x " + entry.getValue().sum())
             .collect(Collectors.toList()));
 
         return report;
     }
 
-    // compute a string based on an Exchange and a Throwable, suitable for use as a key in a Map
-    private String computeKey(Exchange exchange, Throwable t) {
-        return exchange.getExchangeSpecification().getExchangeName() + ": " + t.getClass().getSimpleName() + " " + t.getMessage();
+    // replace every word containing a digit with "#" and limit the length, so messages that only differ by
+    // timestamps, nonces or IDs end up the same
+    static String normalize(String message) {
+        if (message == null) {
+            return "null";
+        }
+
+        final int length = Math.min(message.length(), MAXIMUM_MESSAGE_LENGTH);
+        final StringBuilder normalized = new StringBuilder(length);
+        int wordStart = -1;
+        boolean wordHasDigit = false;
+
+        for (int i = 0; i <= length; i++) {
+            final char c = i < length ? message.charAt(i) : ' ';
+
+            if (Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.' || c == ':') {
+                if (wordStart < 0) {
+                    wordStart = i;
+                    wordHasDigit = false;
+                }
+
+                wordHasDigit |= Character.isDigit(c);
+                continue;
+            }
+
+            if (wordStart >= 0) {
+                if (wordHasDigit) {
+                    normalized.append('#');
+                } else {
+                    normalized.append(message, wordStart, i);
+                }
+
+                wordStart = -1;
+            }
+
+            if (i < length) {
+                normalized.append(c);
+            }
+        }
+
+        return normalized.toString();
+    }
+
+    // the parts of an error that make it "the same" as another one
+    private static class Fingerprint {
+        private final String exchange;
+        private final String className;
+        private final String message;
+        private final int hashCode;
+
+        public Fingerprint(String exchange, String className, String message) {
+            this.exchange = exchange;
+            this.className = className;
+            this.message = message;
+            this.hashCode = Objects.hash(exchange, className, message);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Fingerprint)) return false;
+            Fingerprint that = (Fingerprint) o;
+            return Objects.equals(exchange, that.exchange) &&
+                Objects.equals(className, that.className) &&
+                Objects.equals(message, that.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return exchange + ": " + className + " " + message;
+        }
     }
 }
@@ -26,6 +26,7 @@ import javax.inject.Inject;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -111,10 +112,12 @@ public class ExchangeService {
      * Perform the initial setup for an Exchange.
      *
      * @param exchange The Exchange to setup.
+     * @param tradingConfiguration The trading configuration.
+     * @param hasActivePosition true if we recovered an open position, in which case the wallets are expected to hold coins.
      */
-    public void setUpExchange(Exchange exchange, TradingConfiguration tradingConfiguration) {
+    public void setUpExchange(Exchange exchange, TradingConfiguration tradingConfiguration, boolean hasActivePosition) {
         try {
-            if (!Utils.stateFileExists()) {
+            if (!hasActivePosition) {
                 final Set<String> cryptoCoinsFromTradingPairs = getCryptoCoinsFromTradingPairs(exchange);
                 if (!cryptoCoinsFromTradingPairs.isEmpty()) {
                     cryptoCoinsFromTradingPairs.forEach(s -> LOGGER.error("Exchange {} is configured to trade with {} but the wallet for this coin is not empty! " +
@@ -341,34 +344,42 @@ public class ExchangeService {
             return exchangeFee;
         }
 
-        try {
-            // try to get dynamic trading fees from the exchange, if it's implemented
-            Map<CurrencyPair, Fee> fees = exchange.getAccountService().getDynamicTradingFees();
+        // true if the exchange failed in a way that might not happen next time, so fallbacks shouldn't be kept long
+        boolean transientFailure = false;
 
-            if (fees.containsKey(currencyPair)) {
-                final BigDecimal tradeFee = fees.get(currencyPair).getMakerFee();
+        if (!feeCache.isDynamicFeesUnsupported(exchange)) {
+            try {
+                // try to get dynamic trading fees from the exchange, if it's implemented
+                Map<CurrencyPair, ExchangeFee> fees = getDynamicExchangeFees(exchange);
 
-                final ExchangeFee exchangeFee = new ExchangeFee(tradeFee, marginFee);
+                // We're going to cache these values. Fees don't change all that often and we don't want to use up
+                // our allowance of API calls just checking the fees. We got the fees for every pair in one call
+                // so we might as well cache all of them.
+                fees.forEach((pair, fee) -> feeCache.setCachedFee(exchange, pair, fee));
 
-                // We're going to cache this value. Fees don't change all that often and we don't want to use up
-                // our allowance of API calls just checking the fees.
-                feeCache.setCachedFee(exchange, currencyPair, exchangeFee);
+                if (fees.containsKey(currencyPair)) {
+                    LOGGER.trace("Using dynamic maker fee for {}",
+                        exchange.getExchangeSpecification().getExchangeName());
+
+                    return fees.get(currencyPair);
+                }
+            } catch (NotYetImplementedForExchangeException e) {
+                LOGGER.trace("Dynamic fees not yet implemented for {}, will try other methods",
+                    exchange.getExchangeSpecification().getExchangeName());
+
+                feeCache.setDynamicFeesUnsupported(exchange);
+            } catch (IOException e) {
+                LOGGER.trace("IOE fetching dynamic trading fees for {}",
+                    exchange.getExchangeSpecification().getExchangeName());
 
-                LOGGER.trace("Using dynamic maker fee for {}",
+                transientFailure = true;
+            } catch (Exception e) {
+                LOGGER.warn("Programming error in XChange! {} when calling getDynamicTradingFees() for exchange: {}",
+                    e.getClass().getName(),
                     exchange.getExchangeSpecification().getExchangeName());
 
-                return exchangeFee;
+                transientFailure = true;
             }
-        } catch (NotYetImplementedForExchangeException e) {
-            LOGGER.trace("Dynamic fees not yet implemented for {}, will try other methods",
-                exchange.getExchangeSpecification().getExchangeName());
-        } catch (IOException e) {
-            LOGGER.trace("IOE fetching dynamic trading fees for {}",
-                exchange.getExchangeSpecification().getExchangeName());
-        } catch (Exception e) {
-            LOGGER.warn("Programming error in XChange! {} when calling getDynamicTradingFees() for exchange: {}",
-                e.getClass().getName(),
-                exchange.getExchangeSpecification().getExchangeName());
         }
 
         // try to get fees from the exchange metadata
@@ -377,6 +388,7 @@ public class ExchangeService {
         if (currencyPairMetaData == null || currencyPairMetaData.getTradingFee() == null) {
             // if no metadata, see if the user configured a fee
             BigDecimal configuredFee = exchangeMetadata.getTradeFee();
+            ExchangeFee exchangeFee;
 
             if (configuredFee == null) {
                 if (!isQuiet) {
@@ -385,23 +397,60 @@ public class ExchangeService {
                 }
 
                 // give up and return a default fee - this is intentionally higher than most exchanges
-                return new ExchangeFee(new BigDecimal("0.0030"), marginFee);
+                exchangeFee = new ExchangeFee(new BigDecimal("0.0030"), marginFee);
+            } else {
+                if (!isQuiet) {
+                    LOGGER.warn("{} fees unavailable via API. Will use configured value.",
+                        exchange.getExchangeSpecification().getExchangeName());
+                }
+
+                exchangeFee = new ExchangeFee(configuredFee, marginFee);
             }
 
-            if (!isQuiet) {
-                LOGGER.warn("{} fees unavailable via API. Will use configured value.",
-                    exchange.getExchangeSpecification().getExchangeName());
+            // cache the fallback too, otherwise we'd go through all of the above on every call
+            if (transientFailure) {
+                feeCache.setFallbackFee(exchange, currencyPair, exchangeFee);
+            } else {
+                feeCache.setCachedFee(exchange, currencyPair, exchangeFee);
             }
 
-            return new ExchangeFee(configuredFee, marginFee);
+            return exchangeFee;
         }
 
         // Last fall back - use CurrencyPairMetaData trading fee
         final ExchangeFee exchangeFee = new ExchangeFee(currencyPairMetaData.getTradingFee(), marginFee);
-        feeCache.setCachedFee(exchange, currencyPair, exchangeFee);
+
+        if (transientFailure) {
+            feeCache.setFallbackFee(exchange, currencyPair, exchangeFee);
+        } else {
+            feeCache.setCachedFee(exchange, currencyPair, exchangeFee);
+        }
+
         return exchangeFee;
     }
 
+    /**
+     * Fetch the current fees for every currency pair on an exchange in a single API call.
+     *
+     * @param exchange The Exchange to query.
+     * @return The maker fee and configured margin fee for each currency pair the exchange reported.
+     * @throws IOException when we can't talk to the exchange.
+     * @throws NotYetImplementedForExchangeException when XChange doesn't support dynamic fees for the exchange.
+     */
+    public Map<CurrencyPair, ExchangeFee> getDynamicExchangeFees(Exchange exchange) throws IOException {
+        final BigDecimal marginFee = getMarginFee(getExchangeMetadata(exchange));
+        final Map<CurrencyPair, Fee> fees = exchange.getAccountService().getDynamicTradingFees();
+        final Map<CurrencyPair, ExchangeFee> exchangeFees = new HashMap<>();
+
+        fees.forEach((pair, fee) -> {
+            if (fee != null && fee.getMakerFee() != null) {
+                exchangeFees.put(pair, new ExchangeFee(fee.getMakerFee(), marginFee));
+            }
+        });
+
+        return exchangeFees;
+    }
+
     @Nullable
     private BigDecimal getMarginFee(ExchangeConfiguration exchangeMetadata) {
         final BigDecimal marginFee;
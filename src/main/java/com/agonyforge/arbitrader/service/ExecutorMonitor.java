@@ -0,0 +1,32 @@
+package com.agonyforge.arbitrader.service;
+
+import com.agonyforge.arbitrader.config.MonitoredTaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Reports how busy each of the task executors is, so it's easy to tell when one of them needs more threads or is
+ * dropping work.
+ */
+@Component
+public class ExecutorMonitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutorMonitor.class);
+
+    private final List<MonitoredTaskExecutor> executors;
+
+    public ExecutorMonitor(List<MonitoredTaskExecutor> executors) {
+        this.executors = executors;
+    }
+
+    /**
+     * Log the utilization of every executor since the last report.
+     */
+    @Scheduled(cron = "0 0/15 * * * *") // every 15 minutes
+    public void report() {
+        executors.forEach(executor -> LOGGER.info("Executor {}", executor.report()));
+    }
+}
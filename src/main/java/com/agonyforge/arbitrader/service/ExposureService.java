@@ -0,0 +1,230 @@
+package com.agonyforge.arbitrader.service;
+
+import com.agonyforge.arbitrader.DecimalConstants;
+import com.agonyforge.arbitrader.Utils;
+import com.agonyforge.arbitrader.config.ExecutorConfig;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.cache.ExchangeBalanceCache;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import info.bitrich.xchangestream.core.StreamingExchange;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.Currency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps track of how much money we have on each exchange and how much we can trade on each TradeCombination.
+ * Balances are kept warm in the background (and from websocket streams, where exchanges offer them) and the
+ * maximum exposure of each combination is recomputed from them every few seconds, so deciding to enter a position
+ * reads a snapshot instead of waiting for account balances to come back from the exchanges.
+ */
+@Component
+public class ExposureService {
+    static final BigDecimal TRADE_PORTION = new BigDecimal("0.9");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExposureService.class);
+
+    private final TradingConfiguration tradingConfiguration;
+    private final ExchangeService exchangeService;
+    private final ExchangeBalanceCache exchangeBalanceCache;
+    private final ConcurrentMap<TradeCombination, BigDecimal> exposures = new ConcurrentHashMap<>();
+
+    public ExposureService(TradingConfiguration tradingConfiguration, ExchangeService exchangeService) {
+        this.tradingConfiguration = tradingConfiguration;
+        this.exchangeService = exchangeService;
+        this.exchangeBalanceCache = new ExchangeBalanceCache(this::fetchHomeCurrencyBalance);
+    }
+
+    @Inject
+    public ExposureService(
+        TradingConfiguration tradingConfiguration,
+        ExchangeService exchangeService,
+        @Qualifier(ExecutorConfig.MARKET_DATA_EXECUTOR) Executor marketDataExecutor) {
+
+        this.tradingConfiguration = tradingConfiguration;
+        this.exchangeService = exchangeService;
+        this.exchangeBalanceCache = new ExchangeBalanceCache(this::fetchHomeCurrencyBalance, marketDataExecutor);
+    }
+
+    /**
+     * Keep the balances of our exchanges cached from now on so that entering a position doesn't need to wait on the
+     * network. Streaming exchanges that publish balance changes update the cache as they happen.
+     *
+     * @param exchanges The exchanges we're trading on.
+     */
+    public void watchExchangeBalances(List<Exchange> exchanges) {
+        exchanges.forEach(exchange -> {
+            exchangeBalanceCache.track(exchange);
+
+            if (Utils.isStreamingExchange(exchange)) {
+                final Currency homeCurrency = exchangeService.getExchangeHomeCurrency(exchange);
+                final int homeCurrencyScale = exchangeService.getExchangeCurrencyScale(exchange, homeCurrency);
+
+                if (exchangeBalanceCache.subscribe((StreamingExchange) exchange, homeCurrency, homeCurrencyScale)) {
+                    LOGGER.info("Streaming {} balance updates", exchange.getExchangeSpecification().getExchangeName());
+                }
+            }
+        });
+    }
+
+    /**
+     * Start tracking the maximum exposure of some TradeCombinations.
+     *
+     * @param tradeCombinations The TradeCombinations we're going to trade.
+     */
+    public void initializeExposures(List<TradeCombination> tradeCombinations) {
+        tradeCombinations.forEach(tradeCombination -> exposures.putIfAbsent(tradeCombination, BigDecimal.ZERO));
+
+        refreshExposures();
+    }
+
+    /**
+     * Refresh cached balances in the background before they expire, and recompute the maximum exposure of each
+     * TradeCombination from whatever balances we have now.
+     */
+    @Scheduled(initialDelay = 5000, fixedDelay = 5000)
+    public void refreshExposures() {
+        exchangeBalanceCache.refresh();
+
+        exposures.replaceAll((tradeCombination, exposure) ->
+            computeCachedExposure(tradeCombination.getLongExchange(), tradeCombination.getShortExchange())
+                .orElse(BigDecimal.ZERO));
+    }
+
+    /**
+     * Get the most recently computed maximum exposure for a TradeCombination. If we don't have one yet, or the
+     * balances were not available the last time we computed it, it is computed now.
+     *
+     * @param tradeCombination The TradeCombination.
+     * @return The maximum amount that can be traded on this TradeCombination.
+     */
+    public BigDecimal getMaximumExposure(TradeCombination tradeCombination) {
+        BigDecimal exposure = exposures.get(tradeCombination);
+
+        if (exposure != null && BigDecimal.ZERO.compareTo(exposure) < 0) {
+            return exposure;
+        }
+
+        exposure = getMaximumExposure(tradeCombination.getLongExchange(), tradeCombination.getShortExchange());
+        exposures.put(tradeCombination, exposure);
+
+        return exposure;
+    }
+
+    /**
+     * Figure out the largest trade we can make in our home currency. If fixedExposure is configured, just
+     * use that value. Otherwise, go through each of the exchanges passed in and find the smallest balance,
+     * then multiply by TRADE_PORTION to find the amount to trade.
+     *
+     * @param exchanges A list of exchanges to inspect balances for.
+     * @return The maximum amount that can be traded across the given exchanges.
+     */
+    public BigDecimal getMaximumExposure(Exchange ... exchanges) {
+        if (tradingConfiguration.getFixedExposure() != null) {
+            return tradingConfiguration.getFixedExposure();
+        } else {
+            BigDecimal smallestBalance = Arrays.stream(exchanges)
+                .parallel()
+                .map(exchangeBalanceCache::getBalance) // normally served from the cache, which refreshes in the background
+                .min(BigDecimal::compareTo)
+                .orElse(BigDecimal.ZERO);
+
+            BigDecimal exposure = smallestBalance
+                .multiply(TRADE_PORTION)
+                .setScale(DecimalConstants.USD_SCALE, RoundingMode.HALF_EVEN);
+
+            LOGGER.debug("Maximum exposure for {}: {}", exchanges, exposure);
+
+            return exposure;
+        }
+    }
+
+    /**
+     * Get the sum of the home currency balances on two exchanges. The balances normally come from the cache, so
+     * this doesn't have to wait for the exchanges.
+     *
+     * @param longExchange The long exchange.
+     * @param shortExchange The short exchange.
+     * @return The combined balance of both exchanges.
+     */
+    public BigDecimal getCombinedBalance(Exchange longExchange, Exchange shortExchange) {
+        final BigDecimal longBalance = exchangeBalanceCache.getBalance(longExchange);
+        final BigDecimal shortBalance = exchangeBalanceCache.getBalance(shortExchange);
+        final BigDecimal totalBalance = longBalance.add(shortBalance);
+
+        LOGGER.info("Account balances: {} ${} + {} ${} = ${}",
+            longExchange.getExchangeSpecification().getExchangeName(),
+            longBalance,
+            shortExchange.getExchangeSpecification().getExchangeName(),
+            shortBalance,
+            totalBalance);
+
+        return totalBalance;
+    }
+
+    /**
+     * Forget the balances of some exchanges and fetch them again in the background. Use this when we know for sure
+     * that the balances have changed, such as after a trade.
+     *
+     * @param exchanges The exchanges whose balances have changed.
+     */
+    public void invalidate(Exchange ... exchanges) {
+        exchangeBalanceCache.invalidate(exchanges);
+
+        List<Exchange> invalid = Arrays.asList(exchanges);
+
+        exposures.replaceAll((tradeCombination, exposure) -> {
+            if (invalid.contains(tradeCombination.getLongExchange()) || invalid.contains(tradeCombination.getShortExchange())) {
+                return BigDecimal.ZERO;
+            }
+
+            return exposure;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        exchangeBalanceCache.close();
+    }
+
+    // compute the maximum exposure from cached balances only, never waiting on the network
+    private Optional<BigDecimal> computeCachedExposure(Exchange longExchange, Exchange shortExchange) {
+        if (tradingConfiguration.getFixedExposure() != null) {
+            return Optional.of(tradingConfiguration.getFixedExposure());
+        }
+
+        Optional<BigDecimal> longBalance = exchangeBalanceCache.getCachedBalance(longExchange);
+        Optional<BigDecimal> shortBalance = exchangeBalanceCache.getCachedBalance(shortExchange);
+
+        if (!longBalance.isPresent() || !shortBalance.isPresent()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(longBalance.get().min(shortBalance.get())
+            .multiply(TRADE_PORTION)
+            .setScale(DecimalConstants.USD_SCALE, RoundingMode.HALF_EVEN));
+    }
+
+    // fetch the balance of an exchange's home currency
+    private BigDecimal fetchHomeCurrencyBalance(Exchange exchange) throws IOException {
+        final Currency homeCurrency = exchangeService.getExchangeHomeCurrency(exchange);
+        final int homeCurrencyScale = exchangeService.getExchangeCurrencyScale(exchange, homeCurrency);
+
+        return exchangeService.getAccountBalance(exchange, homeCurrency, homeCurrencyScale);
+    }
+}
@@ -4,24 +4,27 @@ import com.agonyforge.arbitrader.service.model.Spread;
 import com.agonyforge.arbitrader.config.NotificationConfiguration;
 import com.agonyforge.arbitrader.service.model.EntryTradeVolume;
 import com.agonyforge.arbitrader.service.model.ExitTradeVolume;
+import com.agonyforge.arbitrader.service.outbox.NotificationOutbox;
 import com.agonyforge.arbitrader.service.telegram.TelegramClient;
 import org.knowm.xchange.currency.Currency;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.math.BigDecimal;
 
 /**
  * Send notifications.
  * This class should be a central point where all outbound notifications and created and processed.
+ *
+ * Notifications are handed to the NotificationOutbox, which formats and delivers them on its own thread, so the
+ * caller never waits on formatting, the mail server or Telegram.
  */
 @Service
-@Async
 public class NotificationServiceImpl implements NotificationService {
     private static final Logger LOGGER = LoggerFactory.getLogger(NotificationServiceImpl.class);
     public static final String EMAIL_SUBJECT_NEW_ENTRY = "Arbitrader - New Entry Trade";
@@ -30,12 +33,21 @@ public class NotificationServiceImpl implements NotificationService {
     private final JavaMailSender javaMailSender;
     private final NotificationConfiguration notificationConfiguration;
     private final TelegramClient telegramClient;
+    private final NotificationOutbox notificationOutbox;
 
     @Inject
-    public NotificationServiceImpl(JavaMailSender javaMailSender, NotificationConfiguration notificationConfiguration, TelegramClient telegramClient) {
+    public NotificationServiceImpl(
+        JavaMailSender javaMailSender,
+        NotificationConfiguration notificationConfiguration,
+        TelegramClient telegramClient,
+        NotificationOutbox notificationOutbox) {
+
         this.javaMailSender = javaMailSender;
         this.notificationConfiguration = notificationConfiguration;
         this.telegramClient = telegramClient;
+        this.notificationOutbox = notificationOutbox;
+
+        registerChannels();
     }
 
     /**
@@ -52,6 +64,14 @@ public class NotificationServiceImpl implements NotificationService {
     public void sendEntryTradeNotification(Spread spread, BigDecimal exitTarget, EntryTradeVolume tradeVolume, BigDecimal longLimitPrice,
                                            BigDecimal shortLimitPrice, boolean isForceEntryPosition) {
 
+        notificationOutbox.enqueue(EMAIL_SUBJECT_NEW_ENTRY, () ->
+            buildEntryMessage(spread, exitTarget, tradeVolume, longLimitPrice, shortLimitPrice, isForceEntryPosition));
+    }
+
+    // format the body of an entry notification
+    private String buildEntryMessage(Spread spread, BigDecimal exitTarget, EntryTradeVolume tradeVolume, BigDecimal longLimitPrice,
+                                     BigDecimal shortLimitPrice, boolean isForceEntryPosition) {
+
         final String longEntryString = String.format("Long entry: %s %s %s @ %s (slipped from %s) = %s%s (slipped from %s%s)\n",
             spread.getLongExchange().getExchangeSpecification().getExchangeName(),
             spread.getCurrencyPair(),
@@ -82,7 +102,7 @@ public class NotificationServiceImpl implements NotificationService {
             longEntryString +
             shortEntryString;
 
-        sendNotification(EMAIL_SUBJECT_NEW_ENTRY, message);
+        return message;
     }
 
     /**
@@ -103,6 +123,15 @@ public class NotificationServiceImpl implements NotificationService {
                                           BigDecimal shortLimitPrice, BigDecimal entryBalance, BigDecimal updatedBalance, BigDecimal exitTarget,
                                           boolean isForceExitPosition, boolean isActivePositionExpired) {
 
+        notificationOutbox.enqueue(EMAIL_SUBJECT_NEW_EXIT, () -> buildExitMessage(spread, tradeVolume, longLimitPrice,
+            shortLimitPrice, entryBalance, updatedBalance, exitTarget, isForceExitPosition, isActivePositionExpired));
+    }
+
+    // format the body of an exit notification
+    private String buildExitMessage(Spread spread, ExitTradeVolume tradeVolume, BigDecimal longLimitPrice,
+                                    BigDecimal shortLimitPrice, BigDecimal entryBalance, BigDecimal updatedBalance, BigDecimal exitTarget,
+                                    boolean isForceExitPosition, boolean isActivePositionExpired) {
+
         final String exitSpreadString = String.format("Exit spread: %s\nExit spread target %s\n", spread.getOut(), exitTarget);
 
         final String longCloseString = String.format("Long close: %s %s %s @ %s (slipped from %s) = %s%s (slipped from %s%s)\n",
@@ -147,7 +176,7 @@ public class NotificationServiceImpl implements NotificationService {
             String.format("Combined account balances on entry: $%s\n", entryBalance.toPlainString()) +
             String.format("Profit calculation: $%s - $%s = $%s\n", updatedBalance.toPlainString(), entryBalance.toPlainString(), profit.toPlainString());
 
-        sendNotification(EMAIL_SUBJECT_NEW_EXIT, message);
+        return message;
     }
 
     /**
@@ -157,64 +186,56 @@ public class NotificationServiceImpl implements NotificationService {
      */
     @Override
     public void sendNotification(String subject, String message) {
-        sendInstantMessage(message);
-        sendEmail(subject, message);
+        notificationOutbox.enqueue(subject, () -> message);
     }
 
-    /**
-     * Send an email notification, if email is configured.
-     *
-     * @param subject The subject line of the email.
-     * @param body The body of the email.
-     */
-    private void sendEmail(String subject, String body) {
+    // tell the outbox about each channel that is configured
+    private void registerChannels() {
         if (notificationConfiguration.getMail() == null || notificationConfiguration.getMail().getActive() == null ||
             !notificationConfiguration.getMail().getActive()) {
 
             LOGGER.info("Email notification is disabled");
-            return;
+        } else {
+            notificationOutbox.register("mail", this::sendEmail);
         }
 
+        if (notificationConfiguration.getTelegram() == null || notificationConfiguration.getTelegram().getActive() == null ||
+            !notificationConfiguration.getTelegram().getActive()) {
+
+            LOGGER.info("Instant messaging notification is disabled");
+        } else if (notificationConfiguration.getTelegram().getGroupId() == null ||
+            notificationConfiguration.getTelegram().getGroupId().isEmpty()) {
+
+            LOGGER.error("Missing groupId in the telegram configuation. Set it in application.yml file");
+        } else {
+            notificationOutbox.register("telegram", (subject, body) -> sendInstantMessage(body), TelegramClient.MAXIMUM_MESSAGE_LENGTH);
+        }
+    }
+
+    /**
+     * Send an email notification. Failures are thrown so the outbox can try again later.
+     *
+     * @param subject The subject line of the email.
+     * @param body The body of the email.
+     */
+    private void sendEmail(String subject, String body) {
         SimpleMailMessage mail = new SimpleMailMessage();
         mail.setTo(notificationConfiguration.getMail().getTo());
         mail.setFrom(notificationConfiguration.getMail().getFrom());
         mail.setSubject(subject);
         mail.setText(body);
 
-        try {
-            javaMailSender.send(mail);
-        }
-        catch (Exception e) {
-            LOGGER.error("Could not send email notification to {}. Reason: {}", notificationConfiguration.getMail().getTo(), e.getMessage());
-        }
+        javaMailSender.send(mail);
     }
 
     /**
      * Send an instant message notification. Currently only supports instant messages via Telegram.
      * Check the wiki page for more details on how to receive instant messages via Telegram.
      * @param message the message to send
+     * @throws IOException if Telegram could not be reached or rejected the message
      * @see <a href="https://github.com/agonyforge/arbitrader/wiki/Arbitrade-Configurations#telegram">Wiki Page</a>
      */
-    private void sendInstantMessage(String message) {
-        if (notificationConfiguration.getTelegram() == null || notificationConfiguration.getTelegram().getActive() == null ||
-            !notificationConfiguration.getTelegram().getActive()) {
-
-            LOGGER.info("Instant messaging notification is disabled");
-            return;
-        }
-
-        final String groupId = notificationConfiguration.getTelegram().getGroupId();
-
-        if (groupId.isEmpty()) {
-            LOGGER.error("Missing groupId in the telegram configuation. Set it in application.yml file");
-            return;
-        }
-
-        try {
-            telegramClient.sendMessage(message, groupId);
-        }
-        catch (Exception e) {
-            LOGGER.error("Could not instant message notification to groupId {}. Reason: {}", groupId, e.getMessage());
-        }
+    private void sendInstantMessage(String message) throws IOException {
+        telegramClient.sendMessageSync(message, notificationConfiguration.getTelegram().getGroupId());
     }
 }
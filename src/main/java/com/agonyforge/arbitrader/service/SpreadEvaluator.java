@@ -0,0 +1,260 @@
+package com.agonyforge.arbitrader.service;
+
+import com.agonyforge.arbitrader.config.MonitoredTaskExecutor;
+import com.agonyforge.arbitrader.service.model.Spread;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates spreads when tickers arrive, spread across one single threaded shard per processor.
+ *
+ * Every TradeCombination for a currency pair belongs to the same shard, so each combination is only ever evaluated
+ * by one thread. Its statistics aren't only written by that thread, though: the scheduled summary and status reports
+ * compute spreads too, which is why SpreadSeries updates them atomically. Each exchange and currency pair has a slot
+ * on its shard. A ticker marks its slot pending and queues it unless it's already waiting, so a burst of tickers for
+ * the same pair is evaluated once, with the latest prices, instead of once per ticker.
+ *
+ * Most spreads are nowhere near the entry target, so they're screened with TradingService.isCandidate() on the shard
+ * and only the ones that pass are handed to TradingService.trade(). The shards run trade() concurrently, prefetching
+ * for their own combinations, and only wait on each other to enter or exit a position. A combination that stops
+ * being a candidate is handed over once more so trade() can let go of anything it prefetched for it.
+ */
+@Component
+public class SpreadEvaluator {
+    static final int QUEUE_CAPACITY = 10_000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpreadEvaluator.class);
+
+    private final TradingService tradingService;
+    private final SpreadService spreadService;
+    private final CircuitBreakerService circuitBreakerService;
+    private final List<Executor> shards;
+
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder handedOff = new LongAdder();
+
+    private volatile Map<String, Slot> slots = Collections.emptyMap();
+
+    @Inject
+    public SpreadEvaluator(
+        TradingService tradingService,
+        SpreadService spreadService,
+        CircuitBreakerService circuitBreakerService) {
+
+        this(
+            tradingService,
+            spreadService,
+            circuitBreakerService,
+            IntStream.range(0, Runtime.getRuntime().availableProcessors())
+                .mapToObj(SpreadEvaluator::buildShard)
+                .collect(Collectors.toList()));
+    }
+
+    SpreadEvaluator(
+        TradingService tradingService,
+        SpreadService spreadService,
+        CircuitBreakerService circuitBreakerService,
+        List<Executor> shards) {
+
+        this.tradingService = tradingService;
+        this.spreadService = spreadService;
+        this.circuitBreakerService = circuitBreakerService;
+        this.shards = shards;
+    }
+
+    /**
+     * Set up a slot for each exchange and currency pair in the TradeCombinations, on the shard for the currency pair.
+     *
+     * @param tradeCombinations All the TradeCombinations we trade.
+     */
+    public void initialize(List<TradeCombination> tradeCombinations) {
+        final Map<String, Slot> newSlots = new HashMap<>();
+
+        tradeCombinations.forEach(tradeCombination -> {
+            final CurrencyPair currencyPair = tradeCombination.getCurrencyPair();
+            final Executor shard = shards.get(getShard(currencyPair));
+            final Evaluation evaluation = new Evaluation(tradeCombination);
+
+            // the combination is evaluated when a ticker arrives from either exchange
+            newSlots.computeIfAbsent(slotKey(tradeCombination.getLongExchange(), currencyPair), key -> new Slot(shard)).evaluations.add(evaluation);
+            newSlots.computeIfAbsent(slotKey(tradeCombination.getShortExchange(), currencyPair), key -> new Slot(shard)).evaluations.add(evaluation);
+        });
+
+        slots = newSlots;
+
+        LOGGER.info("Evaluating {} trade combinations in {} slots on {} shards", tradeCombinations.size(), newSlots.size(), shards.size());
+    }
+
+    /**
+     * Evaluate every TradeCombination for a currency pair on an exchange, on its shard. If it's already waiting to be
+     * evaluated it will see the latest ticker anyway, so nothing more is queued.
+     *
+     * @param exchange The Exchange that sent a ticker.
+     * @param currencyPair The CurrencyPair of the ticker.
+     */
+    public void submit(Exchange exchange, CurrencyPair currencyPair) {
+        final Slot slot = slots.get(slotKey(exchange, currencyPair));
+
+        if (slot == null) {
+            return;
+        }
+
+        if (!slot.pending.compareAndSet(false, true)) {
+            coalesced.increment();
+            return;
+        }
+
+        try {
+            slot.shard.execute(() -> evaluate(slot));
+        } catch (RejectedExecutionException e) {
+            slot.pending.set(false);
+            rejected.increment();
+        }
+    }
+
+    public long getEvaluatedCount() {
+        return evaluated.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getHandedOffCount() {
+        return handedOff.sum();
+    }
+
+    /**
+     * Log how many spreads were evaluated and handed off, and how busy each shard is.
+     */
+    @Scheduled(cron = "0 0/15 * * * *") // every 15 minutes
+    public void report() {
+        LOGGER.info("Spread evaluation: {} evaluated, {} handed off to trade, {} tickers coalesced, {} rejected",
+            evaluated.sum(),
+            handedOff.sum(),
+            coalesced.sum(),
+            rejected.sum());
+
+        shards
+            .stream()
+            .filter(shard -> shard instanceof MonitoredTaskExecutor)
+            .forEach(shard -> LOGGER.info("Executor {}", ((MonitoredTaskExecutor) shard).report()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shards
+            .stream()
+            .filter(shard -> shard instanceof MonitoredTaskExecutor)
+            .forEach(shard -> ((MonitoredTaskExecutor) shard).shutdown());
+    }
+
+    // runs on the slot's shard, the only thread that touches its evaluations
+    private void evaluate(Slot slot) {
+        // clear it first, so a ticker that arrives while we're working queues another pass
+        slot.pending.set(false);
+
+        for (Evaluation evaluation : slot.evaluations) {
+            final TradeCombination tradeCombination = evaluation.tradeCombination;
+
+            // skip combinations on exchanges that are failing until their circuit breakers close
+            if (!circuitBreakerService.isAvailable(tradeCombination.getLongExchange())
+                || !circuitBreakerService.isAvailable(tradeCombination.getShortExchange())) {
+                continue;
+            }
+
+            try {
+                final Spread spread = spreadService.computeSpread(tradeCombination);
+
+                if (spread == null) { // spread will be null if any tickers were missing or stale for this combination
+                    continue;
+                }
+
+                evaluated.increment();
+
+                final boolean candidate = tradingService.isCandidate(spread);
+
+                if (candidate || evaluation.candidate) {
+                    final long start = System.currentTimeMillis();
+
+                    handedOff.increment();
+                    tradingService.trade(spread);
+
+                    LOGGER.debug("Analyzed {} ({} ms)", spread, System.currentTimeMillis() - start);
+                }
+
+                evaluation.candidate = candidate;
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to evaluate {}: ", tradeCombination, e);
+            }
+        }
+    }
+
+    // every combination for a currency pair goes to the same shard
+    int getShard(CurrencyPair currencyPair) {
+        return Math.floorMod(currencyPair.hashCode(), shards.size());
+    }
+
+    private static String slotKey(Exchange exchange, CurrencyPair currencyPair) {
+        return exchange.getExchangeSpecification().getExchangeName() + ":" + currencyPair;
+    }
+
+    private static MonitoredTaskExecutor buildShard(int index) {
+        final MonitoredTaskExecutor executor = new MonitoredTaskExecutor("spreadEvaluator" + index);
+
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(QUEUE_CAPACITY);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+
+        return executor;
+    }
+
+    // the TradeCombinations to evaluate when a ticker arrives for one exchange and currency pair
+    private static class Slot {
+        private final Executor shard;
+        private final AtomicBoolean pending = new AtomicBoolean(false);
+        private final List<Evaluation> evaluations = new ArrayList<>();
+
+        Slot(Executor shard) {
+            this.shard = shard;
+        }
+    }
+
+    // what a shard remembers about one TradeCombination between evaluations
+    private static class Evaluation {
+        private final TradeCombination tradeCombination;
+        private boolean candidate = false;
+
+        Evaluation(TradeCombination tradeCombination) {
+            this.tradeCombination = tradeCombination;
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package com.agonyforge.arbitrader.service;
 
 import com.agonyforge.arbitrader.DecimalConstants;
+import com.agonyforge.arbitrader.config.AdaptiveTargetConfiguration;
 import com.agonyforge.arbitrader.config.TradingConfiguration;
 import com.agonyforge.arbitrader.service.model.Spread;
 import com.agonyforge.arbitrader.service.model.ExchangeFee;
 import com.agonyforge.arbitrader.service.model.TradeCombination;
+import com.agonyforge.arbitrader.service.model.TradingProfile;
+import com.agonyforge.arbitrader.service.statistics.AdaptiveTarget;
+import com.agonyforge.arbitrader.service.statistics.QuantileSketch;
+import com.agonyforge.arbitrader.service.statistics.SpreadSeries;
+import com.agonyforge.arbitrader.service.statistics.SpreadStatistics;
 import org.jetbrains.annotations.TestOnly;
 import org.knowm.xchange.Exchange;
 import org.knowm.xchange.currency.CurrencyPair;
@@ -16,8 +22,10 @@ import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -27,10 +35,9 @@ import java.util.stream.Collectors;
 public class SpreadService {
     private static final Logger LOGGER = LoggerFactory.getLogger(SpreadService.class);
 
-    private final Map<String, BigDecimal> minSpreadIn = new HashMap<>();
-    private final Map<String, BigDecimal> maxSpreadIn = new HashMap<>();
-    private final Map<String, BigDecimal> minSpreadOut = new HashMap<>();
-    private final Map<String, BigDecimal> maxSpreadOut = new HashMap<>();
+    static final long SUMMARY_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final ConcurrentMap<TradeCombination, SpreadStatistics> statistics = new ConcurrentHashMap<>();
     private final TradingConfiguration tradingConfiguration;
     private final TickerService tickerService;
 
@@ -52,16 +59,12 @@ public class SpreadService {
      * @param spread A new Spread.
      */
     void publish(Spread spread) {
-        String spreadKey = spreadKey(spread.getLongExchange(), spread.getShortExchange(), spread.getCurrencyPair());
-        BigDecimal maxIn = maxSpreadIn.getOrDefault(spreadKey, BigDecimal.valueOf(-1));
-        BigDecimal minIn = minSpreadIn.getOrDefault(spreadKey, BigDecimal.valueOf(1));
-        BigDecimal maxOut = maxSpreadOut.getOrDefault(spreadKey, BigDecimal.valueOf(-1));
-        BigDecimal minOut = minSpreadOut.getOrDefault(spreadKey, BigDecimal.valueOf(1));
+        SpreadStatistics spreadStatistics = getStatistics(spread.getTradeCombination());
 
         if (LOGGER.isInfoEnabled() && tradingConfiguration.isSpreadNotifications()) {
-            boolean crossed = maxIn.compareTo(minOut) > 0;
+            boolean crossed = spreadStatistics.isCrossed();
 
-            if (spread.getIn().compareTo(maxIn) > 0) {
+            if (spread.getIn().doubleValue() > spreadStatistics.getIn().getMax()) {
                 LOGGER.info("{} Record high spreadIn: {}/{} {} {}",
                     crossed ? "✅️" : "⛔",
                     spread.getLongExchange().getExchangeSpecification().getExchangeName(),
@@ -70,7 +73,7 @@ public class SpreadService {
                     spread.getIn());
             }
 
-            if (spread.getOut().compareTo(minOut) < 0) {
+            if (spread.getOut().doubleValue() < spreadStatistics.getOut().getMin()) {
                 LOGGER.info("{} Record low spreadOut: {}/{} {} {}",
                     crossed ? "✅️" : "⛔",
                     spread.getLongExchange().getExchangeSpecification().getExchangeName(),
@@ -80,38 +83,74 @@ public class SpreadService {
             }
         }
 
-        maxSpreadIn.put(spreadKey, spread.getIn().max(maxIn));
-        minSpreadIn.put(spreadKey, spread.getIn().min(minIn));
-        maxSpreadOut.put(spreadKey, spread.getOut().max(maxOut));
-        minSpreadOut.put(spreadKey, spread.getOut().min(minOut));
+        spreadStatistics.update(spread, System.currentTimeMillis());
+    }
+
+    /**
+     * Get the statistics we have collected for a TradeCombination, creating them if this is the first time we've
+     * seen it.
+     *
+     * @param tradeCombination The TradeCombination to get statistics for.
+     * @return The SpreadStatistics for the TradeCombination.
+     */
+    public SpreadStatistics getStatistics(TradeCombination tradeCombination) {
+        SpreadStatistics spreadStatistics = statistics.get(tradeCombination);
+
+        if (spreadStatistics != null) {
+            return spreadStatistics;
+        }
+
+        return statistics.computeIfAbsent(tradeCombination, SpreadStatistics::new);
     }
 
     @TestOnly
     BigDecimal getSpreadRecord(Exchange longExchange, Exchange shortExchange, CurrencyPair currencyPair, String board) {
-        String spreadKey = spreadKey(longExchange, shortExchange, currencyPair);
+        SpreadStatistics spreadStatistics = statistics.get(new TradeCombination(longExchange, shortExchange, currencyPair));
 
         if ("maxSpreadIn".equals(board)) {
-            return maxSpreadIn.getOrDefault(spreadKey, BigDecimal.valueOf(-1));
+            return spreadStatistics == null ? BigDecimal.valueOf(-1) : BigDecimal.valueOf(spreadStatistics.getIn().getMax());
         } else if ("minSpreadIn".equals(board)) {
-            return minSpreadIn.getOrDefault(spreadKey, BigDecimal.valueOf(1));
+            return spreadStatistics == null ? BigDecimal.valueOf(1) : BigDecimal.valueOf(spreadStatistics.getIn().getMin());
         } else if ("maxSpreadOut".equals(board)) {
-            return maxSpreadOut.getOrDefault(spreadKey, BigDecimal.valueOf(-1));
+            return spreadStatistics == null ? BigDecimal.valueOf(-1) : BigDecimal.valueOf(spreadStatistics.getOut().getMax());
         } else if ("minSpreadOut".equals(board)) {
-            return minSpreadOut.getOrDefault(spreadKey, BigDecimal.valueOf(1));
+            return spreadStatistics == null ? BigDecimal.valueOf(1) : BigDecimal.valueOf(spreadStatistics.getOut().getMin());
         } else {
             throw new IllegalArgumentException("Unknown board: " + board);
         }
     }
 
     /**
-     * Periodically display a summary of the high and low water marks that we have tracked.
+     * Periodically display a summary of the high and low water marks that we have tracked, along with the
+     * distribution of spreads over the last day.
      */
     @Scheduled(cron = "0 0 0 * * *") // midnight every day
     public void summary() {
-        LOGGER.info("Minimum spreadIns:\n{}", buildSummary(minSpreadIn));
-        LOGGER.info("Maximum spreadIns:\n{}", buildSummary(maxSpreadIn));
-        LOGGER.info("Minimum spreadOuts:\n{}", buildSummary(minSpreadOut));
-        LOGGER.info("Maximum spreadOuts:\n{}", buildSummary(maxSpreadOut));
+        long now = System.currentTimeMillis();
+
+        LOGGER.info("Minimum spreadIns:\n{}", buildSummary(s -> format(s.getIn().getMin())));
+        LOGGER.info("Maximum spreadIns:\n{}", buildSummary(s -> format(s.getIn().getMax())));
+        LOGGER.info("Minimum spreadOuts:\n{}", buildSummary(s -> format(s.getOut().getMin())));
+        LOGGER.info("Maximum spreadOuts:\n{}", buildSummary(s -> format(s.getOut().getMax())));
+        LOGGER.info("Spreads over the last 24 hours (in/out):\n{}", buildSummary(s -> describe(s, SUMMARY_WINDOW_MILLIS, now)));
+    }
+
+    /**
+     * Describe the recent distribution of spreads for a TradeCombination in a single line, suitable for status reports.
+     *
+     * @param tradeCombination The TradeCombination to describe.
+     * @param windowMillis How far back to look.
+     * @param now The current time in epoch milliseconds.
+     * @return A description of the spreads, or null if we have not seen any yet.
+     */
+    public String describeStatistics(TradeCombination tradeCombination, long windowMillis, long now) {
+        SpreadStatistics spreadStatistics = statistics.get(tradeCombination);
+
+        if (spreadStatistics == null) {
+            return null;
+        }
+
+        return describe(spreadStatistics, windowMillis, now);
     }
 
     /**
@@ -133,6 +172,11 @@ public class SpreadService {
             return null;
         }
 
+        // a feed that stopped updating would show us opportunities that are long gone
+        if (tickerService.isStale(longExchange, currencyPair) || tickerService.isStale(shortExchange, currencyPair)) {
+            return null;
+        }
+
         // A Spread is a combination of a spread "in" and spread "out".
         // "in" matches against entrySpread to see if the prices are ready to enter a position.
         // "out" matches against exitTarget to see if the prices are ready to exit a position.
@@ -140,9 +184,7 @@ public class SpreadService {
         BigDecimal spreadOut = computeSpread(longTicker.getBid(), shortTicker.getAsk());
 
         Spread spread = new Spread(
-            currencyPair,
-            longExchange,
-            shortExchange,
+            tradeCombination,
             longTicker,
             shortTicker,
             spreadIn,
@@ -202,6 +244,124 @@ public class SpreadService {
         return computeExitSpreadTarget(computeEffectiveExitSpreadTarget(tradingConfiguration, entrySpread, longFee.getTotalFee(), shortFee.getTotalFee()), longFee.getTotalFee(), shortFee.getTotalFee());
     }
 
+    /**
+     * Get the entry spread target for a specific TradeCombination. When adaptive targets are active and we have seen
+     * enough spreads for the combination, this is the configured quantile of its recent spreadIns, but never lower
+     * than the static entry spread target.
+     *
+     * @param tradingConfiguration the trading configuration
+     * @param tradeCombination the combination of exchanges and currency pair
+     * @param longFee the long exchange fees in percentage
+     * @param shortFee the short exchange fees in percentage
+     * @return the real entry spread target
+     */
+    public BigDecimal getEntrySpreadTarget(TradingConfiguration tradingConfiguration, TradeCombination tradeCombination, ExchangeFee longFee, ExchangeFee shortFee) {
+        BigDecimal entrySpreadTarget = getEntrySpreadTarget(tradingConfiguration, longFee, shortFee);
+        AdaptiveTarget adaptiveTarget = getAdaptiveTarget(tradingConfiguration, tradeCombination);
+
+        if (adaptiveTarget == null) {
+            return entrySpreadTarget;
+        }
+
+        return entrySpreadTarget.max(adaptiveTarget.getEntrySpreadTarget());
+    }
+
+    /**
+     * Get the entry spread target for a TradingProfile. This is the same as the TradeCombination version, but the
+     * static part of the target has already been computed from the fees in the profile.
+     *
+     * @param tradingConfiguration the trading configuration
+     * @param tradingProfile the precomputed profile of the combination
+     * @return the real entry spread target
+     */
+    public BigDecimal getEntrySpreadTarget(TradingConfiguration tradingConfiguration, TradingProfile tradingProfile) {
+        AdaptiveTarget adaptiveTarget = getAdaptiveTarget(tradingConfiguration, tradingProfile.getTradeCombination());
+
+        if (adaptiveTarget == null) {
+            return tradingProfile.getEntrySpreadTarget();
+        }
+
+        return tradingProfile.getEntrySpreadTarget().max(adaptiveTarget.getEntrySpreadTarget());
+    }
+
+    /**
+     * Get the exit spread target for a specific TradeCombination. When adaptive targets are active and we have seen
+     * enough spreads for the combination, this is the configured quantile of its recent spreadOuts, but never higher
+     * than the static exit spread target.
+     *
+     * @param tradingConfiguration the trading configuration
+     * @param tradeCombination the combination of exchanges and currency pair
+     * @param entrySpread the real entry spread
+     * @param longFee the long exchange fees in percentage
+     * @param shortFee the short exchange fees in percentage
+     * @return the real exit spread target
+     */
+    public BigDecimal getExitSpreadTarget(TradingConfiguration tradingConfiguration, TradeCombination tradeCombination, BigDecimal entrySpread, ExchangeFee longFee, ExchangeFee shortFee) {
+        BigDecimal exitSpreadTarget = getExitSpreadTarget(tradingConfiguration, entrySpread, longFee, shortFee);
+        AdaptiveTarget adaptiveTarget = getAdaptiveTarget(tradingConfiguration, tradeCombination);
+
+        if (adaptiveTarget == null) {
+            return exitSpreadTarget;
+        }
+
+        return exitSpreadTarget.min(adaptiveTarget.getExitSpreadTarget());
+    }
+
+    /**
+     * Recompute the adaptive targets for every TradeCombination that has seen new spreads since the last time.
+     * This runs in the background so looking up a target while trading is just a field read.
+     */
+    @Scheduled(initialDelay = 30000, fixedDelay = 30000)
+    public void recalculateAdaptiveTargets() {
+        AdaptiveTargetConfiguration configuration = tradingConfiguration.getAdaptiveTargets();
+
+        if (configuration == null || !configuration.isActive()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long windowMillis = Math.min(SpreadSeries.MAXIMUM_WINDOW_MILLIS, TimeUnit.HOURS.toMillis(configuration.getWindowHours()));
+
+        statistics.values().forEach(spreadStatistics -> {
+            long sampleCount = spreadStatistics.getIn().getCount();
+            AdaptiveTarget previous = spreadStatistics.getAdaptiveTarget();
+
+            if (previous != null && previous.getSampleCount() == sampleCount) {
+                return;
+            }
+
+            QuantileSketch.Snapshot in = spreadStatistics.getIn().getRollingSnapshot(windowMillis, now);
+            QuantileSketch.Snapshot out = spreadStatistics.getOut().getRollingSnapshot(windowMillis, now);
+
+            if (in.getCount() < configuration.getMinimumSamples()) {
+                spreadStatistics.setAdaptiveTarget(null);
+                return;
+            }
+
+            AdaptiveTarget adaptiveTarget = new AdaptiveTarget(
+                BigDecimal.valueOf(in.getQuantile(configuration.getEntryQuantile())).setScale(DecimalConstants.BTC_SCALE, RoundingMode.HALF_EVEN),
+                BigDecimal.valueOf(out.getQuantile(configuration.getExitQuantile())).setScale(DecimalConstants.BTC_SCALE, RoundingMode.HALF_EVEN),
+                sampleCount);
+
+            LOGGER.debug("Adaptive targets for {}: {}", spreadStatistics.getTradeCombination(), adaptiveTarget);
+
+            spreadStatistics.setAdaptiveTarget(adaptiveTarget);
+        });
+    }
+
+    // the current adaptive target for a combination, or null if we should use the static targets
+    private AdaptiveTarget getAdaptiveTarget(TradingConfiguration tradingConfiguration, TradeCombination tradeCombination) {
+        AdaptiveTargetConfiguration configuration = tradingConfiguration.getAdaptiveTargets();
+
+        if (tradeCombination == null || configuration == null || !configuration.isActive()) {
+            return null;
+        }
+
+        SpreadStatistics spreadStatistics = statistics.get(tradeCombination);
+
+        return spreadStatistics == null ? null : spreadStatistics.getAdaptiveTarget();
+    }
+
     /*
     * Calculate the real exit spread target from an effective exit spread target (the real exit spread target is lower
     * as is needs to compensate for the exit fees)
@@ -223,36 +383,43 @@ public class SpreadService {
         }
     }
 
-
-
-    // build a summary of the contents of a spread map (high/low water marks)
-    private String buildSummary(Map<String, BigDecimal> spreadMap) {
-        return spreadMap.entrySet()
+    // build a summary of one statistic for every TradeCombination we've seen
+    private String buildSummary(Function<SpreadStatistics, String> statistic) {
+        return statistics.values()
             .stream()
-            .map(entry -> {
-                String[] keyElements = entry.getKey().split(":");
-                Map<String, String> result = new HashMap<>();
-
-                result.put("long", keyElements[0]);
-                result.put("short", keyElements[1]);
-                result.put("currency", keyElements[2]);
-                result.put("value", entry.getValue().toString());
-
-                return result;
-            })
-            .map(map -> String.format("%s/%s %s: %s",
-                map.get("long"),
-                map.get("short"),
-                map.get("currency"),
-                map.get("value")))
+            .map(spreadStatistics -> String.format("%s: %s",
+                spreadStatistics.getTradeCombination(),
+                statistic.apply(spreadStatistics)))
+            .sorted()
             .collect(Collectors.joining("\n"));
     }
 
-    // build a string from a pair of exchanges and currency pair suitable for using as the key in a map
-    private static String spreadKey(Exchange longExchange, Exchange shortExchange, CurrencyPair currencyPair) {
-        return String.format("%s:%s:%s",
-            longExchange.getExchangeSpecification().getExchangeName(),
-            shortExchange.getExchangeSpecification().getExchangeName(),
-            currencyPair);
+    // min, max, average and median/p99 for spreadIn and spreadOut over a window
+    private static String describe(SpreadStatistics spreadStatistics, long windowMillis, long now) {
+        SpreadSeries in = spreadStatistics.getIn();
+        SpreadSeries out = spreadStatistics.getOut();
+        QuantileSketch.Snapshot inSnapshot = in.getRollingSnapshot(windowMillis, now);
+        QuantileSketch.Snapshot outSnapshot = out.getRollingSnapshot(windowMillis, now);
+
+        return String.format("min %s/%s max %s/%s ewma %s/%s p50 %s/%s p99 %s/%s (%d samples)",
+            format(in.getRollingMin(windowMillis, now)),
+            format(out.getRollingMin(windowMillis, now)),
+            format(in.getRollingMax(windowMillis, now)),
+            format(out.getRollingMax(windowMillis, now)),
+            format(in.getEwma()),
+            format(out.getEwma()),
+            format(inSnapshot.getQuantile(0.5)),
+            format(outSnapshot.getQuantile(0.5)),
+            format(inSnapshot.getQuantile(0.99)),
+            format(outSnapshot.getQuantile(0.99)),
+            inSnapshot.getCount());
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "-";
+        }
+
+        return BigDecimal.valueOf(value).setScale(DecimalConstants.BTC_SCALE, RoundingMode.HALF_EVEN).toPlainString();
     }
 }
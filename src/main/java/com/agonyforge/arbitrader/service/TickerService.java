@@ -1,6 +1,8 @@
 package com.agonyforge.arbitrader.service;
 
+import com.agonyforge.arbitrader.config.ExecutorConfig;
 import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.clock.ExchangeClockService;
 import com.agonyforge.arbitrader.service.model.TradeCombination;
 import com.agonyforge.arbitrader.service.ticker.TickerStrategy;
 import org.apache.commons.collections4.CollectionUtils;
@@ -10,6 +12,8 @@ import org.knowm.xchange.dto.marketdata.Ticker;
 import org.knowm.xchange.exceptions.ExchangeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
@@ -22,32 +26,76 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.agonyforge.arbitrader.service.TradingScheduler.TICKER_STRATEGY_KEY;
 
 /**
  * Services related to fetching tickers.
+ *
+ * Every ticker we receive is stamped with the local time it arrived, so we can tell when a feed has stalled. The
+ * exchanges' own timestamps aren't used for this: their clocks disagree with ours, and on some exchanges a ticker's
+ * timestamp is the time of the last trade rather than the time of the prices. They are passed to the
+ * ExchangeClockService instead, which uses them to estimate each exchange's clock offset and ticker latency. A
+ * ticker older than its exchange's age budget (ticker.maxAge in the exchange configuration, otherwise
+ * trading.tickerMaxAge, otherwise DEFAULT_TICKER_MAX_AGE) is stale and spreads aren't computed from it until the
+ * feed updates again.
  */
 @Component
 public class TickerService {
+    public static final long DEFAULT_TICKER_MAX_AGE = TimeUnit.SECONDS.toMillis(60);
+    public static final String TICKER_MAX_AGE_KEY = "maxAge";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(TickerService.class);
 
     private final TradingConfiguration tradingConfiguration;
     private final ExchangeService exchangeService;
     private final ErrorCollectorService errorCollectorService;
+    private final CircuitBreakerService circuitBreakerService;
+    private final ExchangeClockService exchangeClockService;
+    private final Executor marketDataExecutor;
+
+    private final LongAdder changedTickers = new LongAdder();
+    private final LongAdder unchangedTickers = new LongAdder();
 
-    Map<String, Ticker> allTickers = new HashMap<>();
+    private final ConcurrentMap<String, Feed> feeds = new ConcurrentHashMap<>();
+
+    Map<String, Ticker> allTickers = new ConcurrentHashMap<>();
     List<TradeCombination> tradeCombinations = new ArrayList<>();
 
+    public TickerService(
+        TradingConfiguration tradingConfiguration,
+        ExchangeService exchangeService,
+        ErrorCollectorService errorCollectorService,
+        CircuitBreakerService circuitBreakerService,
+        ExchangeClockService exchangeClockService) {
+
+        this(tradingConfiguration, exchangeService, errorCollectorService, circuitBreakerService, exchangeClockService, Runnable::run);
+    }
+
     @Inject
     public TickerService(
         TradingConfiguration tradingConfiguration,
         ExchangeService exchangeService,
-        ErrorCollectorService errorCollectorService) {
+        ErrorCollectorService errorCollectorService,
+        CircuitBreakerService circuitBreakerService,
+        ExchangeClockService exchangeClockService,
+        @Qualifier(ExecutorConfig.MARKET_DATA_EXECUTOR) Executor marketDataExecutor) {
 
         this.tradingConfiguration = tradingConfiguration;
         this.exchangeService = exchangeService;
         this.errorCollectorService = errorCollectorService;
+        this.circuitBreakerService = circuitBreakerService;
+        this.exchangeClockService = exchangeClockService;
+        this.marketDataExecutor = marketDataExecutor;
     }
 
     /**
@@ -84,7 +132,11 @@ public class TickerService {
     }
 
     /**
-     * Fetch tickers for active currency pairs on all exchanges.
+     * Fetch tickers for active currency pairs on all exchanges. Exchanges whose circuit breaker is open are skipped
+     * until it's time to probe them again.
+     *
+     * Each exchange is fetched on the market data executor and this waits for all of them. Fetching blocks on the
+     * network, so it stays out of the common ForkJoinPool that parallel streams everywhere else share.
      */
     public void refreshTickers() {
         Map<Exchange, Set<CurrencyPair>> queue = new HashMap<>();
@@ -99,22 +151,42 @@ public class TickerService {
         });
 
         // for each exchange, fetch its active currencies
-        queue.keySet().parallelStream().forEach(exchange -> {
-            List<CurrencyPair> activePairs = new ArrayList<>(queue.get(exchange));
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
+
+        queue.forEach((exchange, currencyPairs) -> {
+            List<CurrencyPair> activePairs = new ArrayList<>(currencyPairs);
+            Runnable fetch = () -> refreshTickers(exchange, activePairs);
 
             try {
-                fetchTickers(exchange, activePairs);
-            } catch (ExchangeException e) {
-                LOGGER.warn("Failed to fetch ticker for {}", exchange.getExchangeSpecification().getExchangeName());
+                fetches.add(CompletableFuture.runAsync(fetch, marketDataExecutor));
+            } catch (RejectedExecutionException e) {
+                // the executor is busy, so fetch them on this thread instead
+                fetch.run();
             }
         });
+
+        CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0])).join();
+    }
+
+    // fetch the tickers for one exchange through its circuit breaker
+    private void refreshTickers(Exchange exchange, List<CurrencyPair> activePairs) {
+        try {
+            if (!circuitBreakerService.call(exchange, () -> fetchTickers(exchange, activePairs))) {
+                LOGGER.debug("Skipping tickers for {} while its circuit breaker is open", exchange.getExchangeSpecification().getExchangeName());
+            }
+        } catch (ExchangeException e) {
+            LOGGER.warn("Failed to fetch ticker for {}", exchange.getExchangeSpecification().getExchangeName());
+        }
     }
 
     /**
      * Put a new Ticker into the TickerService. This is a convenience method for
      * TickerStrategy implementations to use. This method will silently reject Tickers
      * where both Tickers have a non-null timestamp and the old Ticker's timestamp is
-     * newer than the new Ticker's timestamp.
+     * newer than the new Ticker's timestamp. Tickers with the same timestamp are accepted, because some exchanges
+     * stamp tickers with the time of the last trade and keep sending the same timestamp with new prices while it's
+     * quiet. Only an accepted Ticker counts towards the time we last received one, so a feed whose prices we are
+     * throwing away goes stale.
      *
      * If this seems like it breaks encapsulation a little bit, it does. I originally
      * considered making TickerService a TickerEvent listener, but then there would be no
@@ -130,20 +202,187 @@ public class TickerService {
      * two events would be a little cleaner but more complicated. This way is simpler
      * to understand and to write, and it provides the same guarantees.
      *
+     * REST strategies poll every few seconds and usually get the same prices back, so the return value tells the
+     * caller whether the bid or ask actually moved. There's no point publishing an event for a Ticker that would
+     * produce the same spreads as last time.
+     *
      * @param exchange The Exchange the Ticker was received from.
      * @param ticker The Ticker to update.
+     * @return true if the Ticker was stored and its bid or ask is different from the one it replaced.
      */
-    public void putTicker(Exchange exchange, Ticker ticker) {
-        allTickers.compute(tickerKey(exchange, (CurrencyPair) ticker.getInstrument()),
+    public boolean putTicker(Exchange exchange, Ticker ticker) {
+        return putTicker(exchange, ticker, System.currentTimeMillis());
+    }
+
+    // intended for testing
+    boolean putTicker(Exchange exchange, Ticker ticker, long now) {
+        final String tickerKey = tickerKey(exchange, (CurrencyPair) ticker.getInstrument());
+        final boolean[] accepted = new boolean[1];
+        final boolean[] advanced = new boolean[1];
+        final boolean[] changed = new boolean[1];
+
+        allTickers.compute(tickerKey,
             (key, oldTicker) -> {
                 if (oldTicker == null
                     || oldTicker.getTimestamp() == null
                     || ticker.getTimestamp() == null
-                    || oldTicker.getTimestamp().before(ticker.getTimestamp()) ) {
+                    || !oldTicker.getTimestamp().after(ticker.getTimestamp())) {
+                    accepted[0] = true;
+                    advanced[0] = oldTicker == null
+                        || oldTicker.getTimestamp() == null
+                        || ticker.getTimestamp() == null
+                        || oldTicker.getTimestamp().before(ticker.getTimestamp());
+                    changed[0] = oldTicker == null || isPriceChanged(oldTicker, ticker);
                     return ticker;
                 }
                 return oldTicker;
             });
+
+        if (accepted[0]) {
+            feeds.computeIfAbsent(tickerKey, key -> new Feed()).receive(tickerKey, now);
+        }
+
+        // the exchange's timestamp tells us how far its clock is from ours and how long the ticker took to get here,
+        // but a repeated timestamp is an old trade time rather than when these prices were sent
+        if (advanced[0] && ticker.getTimestamp() != null) {
+            exchangeClockService.recordTimestamp(exchange, ticker.getTimestamp().getTime(), now);
+        }
+
+        if (changed[0]) {
+            changedTickers.increment();
+        } else {
+            unchangedTickers.increment();
+        }
+
+        return changed[0];
+    }
+
+    public long getChangedCount() {
+        return changedTickers.sum();
+    }
+
+    public long getUnchangedCount() {
+        return unchangedTickers.sum();
+    }
+
+    /**
+     * Is the ticker for a currency pair on an exchange older than the exchange's age budget? Spreads computed from a
+     * stale ticker would show opportunities that are long gone.
+     *
+     * @param exchange The Exchange.
+     * @param currencyPair The CurrencyPair.
+     * @return true if we haven't received a ticker recently enough to trust it.
+     */
+    public boolean isStale(Exchange exchange, CurrencyPair currencyPair) {
+        return isStale(exchange, currencyPair, System.currentTimeMillis());
+    }
+
+    // intended for testing
+    boolean isStale(Exchange exchange, CurrencyPair currencyPair, long now) {
+        final String tickerKey = tickerKey(exchange, currencyPair);
+        final Feed feed = feeds.get(tickerKey);
+
+        if (feed == null || feed.received < 0) {
+            return false; // we don't know when it arrived, so don't second guess it
+        }
+
+        final long age = now - feed.received;
+
+        if (age <= getTickerMaxAge(exchange)) {
+            return false;
+        }
+
+        feed.staleSkips.increment();
+
+        if (feed.stalled.compareAndSet(false, true)) {
+            feed.stalls.increment();
+
+            LOGGER.warn("{} ticker is {} ms old, ignoring it until it updates", tickerKey, age);
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the time we last received a ticker for a currency pair on an exchange.
+     *
+     * @param exchange The Exchange.
+     * @param currencyPair The CurrencyPair.
+     * @return The time in milliseconds, or -1 if we haven't received one yet.
+     */
+    public long getReceived(Exchange exchange, CurrencyPair currencyPair) {
+        final Feed feed = feeds.get(tickerKey(exchange, currencyPair));
+
+        return feed == null ? -1 : feed.received;
+    }
+
+    /**
+     * Get the age budget for tickers from an exchange.
+     *
+     * @param exchange The Exchange.
+     * @return The age in milliseconds after which a ticker from the exchange is stale.
+     */
+    public long getTickerMaxAge(Exchange exchange) {
+        final Integer exchangeMaxAge = exchangeService.getExchangeMetadata(exchange).getTicker().get(TICKER_MAX_AGE_KEY);
+
+        if (exchangeMaxAge != null) {
+            return exchangeMaxAge;
+        }
+
+        if (tradingConfiguration.getTickerMaxAge() != null) {
+            return tradingConfiguration.getTickerMaxAge();
+        }
+
+        return DEFAULT_TICKER_MAX_AGE;
+    }
+
+    /**
+     * Get the number of times the ticker feed for a currency pair on an exchange has gone stale.
+     *
+     * @param exchange The Exchange.
+     * @param currencyPair The CurrencyPair.
+     * @return The number of stalls.
+     */
+    public long getStallCount(Exchange exchange, CurrencyPair currencyPair) {
+        final Feed feed = feeds.get(tickerKey(exchange, currencyPair));
+
+        return feed == null ? 0 : feed.stalls.sum();
+    }
+
+    /**
+     * Get the number of times a stale ticker for a currency pair on an exchange was ignored.
+     *
+     * @param exchange The Exchange.
+     * @param currencyPair The CurrencyPair.
+     * @return The number of times the ticker was found to be stale.
+     */
+    public long getStaleSkipCount(Exchange exchange, CurrencyPair currencyPair) {
+        final Feed feed = feeds.get(tickerKey(exchange, currencyPair));
+
+        return feed == null ? 0 : feed.staleSkips.sum();
+    }
+
+    /**
+     * Log how many tickers came in without any change, and so didn't need to be evaluated, and which feeds stalled.
+     */
+    @Scheduled(cron = "0 0 0/6 * * *") // every 6 hours
+    public void report() {
+        final long unchanged = unchangedTickers.sum();
+        final long total = unchanged + changedTickers.sum();
+
+        if (total > 0) {
+            LOGGER.info("Tickers without a price change: {} of {} ({}%)", unchanged, total, unchanged * 100 / total);
+        }
+
+        feeds.forEach((key, feed) -> {
+            if (feed.stalls.sum() > 0) {
+                LOGGER.info("Ticker feed {}: stalled {} times, ignored {} stale tickers, longest gap {} ms",
+                    key,
+                    feed.stalls.sum(),
+                    feed.staleSkips.sum(),
+                    feed.longestGap.get());
+            }
+        });
     }
 
     /**
@@ -223,6 +462,19 @@ public class TickerService {
             exchangeService.convertExchangePair(exchange, currencyPair));
     }
 
+    // compare the top of the book, ignoring scale so 1.0 and 1.00 are the same price
+    private static boolean isPriceChanged(Ticker oldTicker, Ticker newTicker) {
+        return isChanged(oldTicker.getBid(), newTicker.getBid()) || isChanged(oldTicker.getAsk(), newTicker.getAsk());
+    }
+
+    private static boolean isChanged(BigDecimal oldPrice, BigDecimal newPrice) {
+        if (oldPrice == null || newPrice == null) {
+            return oldPrice != newPrice;
+        }
+
+        return oldPrice.compareTo(newPrice) != 0;
+    }
+
     // determine whether a pair of exchanges is valid for trading
     private boolean isInvalidExchangePair(Exchange longExchange, Exchange shortExchange, CurrencyPair currencyPair) {
         // both exchanges are the same
@@ -257,4 +509,27 @@ public class TickerService {
             shortExchange.getExchangeSpecification().getExchangeName(),
             currencyPair);
     }
+
+    // when we last heard from one exchange about one currency pair, and how reliable that has been
+    private static class Feed {
+        private final AtomicBoolean stalled = new AtomicBoolean(false);
+        private final LongAdder stalls = new LongAdder();
+        private final LongAdder staleSkips = new LongAdder();
+        private final AtomicLong longestGap = new AtomicLong();
+        private volatile long received = -1;
+
+        void receive(String tickerKey, long now) {
+            if (received >= 0) {
+                final long gap = now - received;
+
+                longestGap.accumulateAndGet(gap, Math::max);
+
+                if (stalled.compareAndSet(true, false)) {
+                    LOGGER.info("{} ticker updated again after {} ms", tickerKey, gap);
+                }
+            }
+
+            received = now;
+        }
+    }
 }
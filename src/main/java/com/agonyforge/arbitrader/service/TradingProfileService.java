@@ -0,0 +1,207 @@
+package com.agonyforge.arbitrader.service;
+
+import com.agonyforge.arbitrader.DecimalConstants;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.model.ExchangeFee;
+import com.agonyforge.arbitrader.service.model.ExchangeFeeChangeEvent;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import com.agonyforge.arbitrader.service.model.TradingProfile;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.meta.CurrencyPairMetaData;
+import org.knowm.xchange.dto.meta.FeeTier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds and keeps a TradingProfile for each TradeCombination so that the trading path can read fees, scales and
+ * targets instead of working them out again on every ticker. Profiles are rebuilt when a fee changes, and
+ * periodically in case the fees or metadata they were built from have expired.
+ */
+@Component
+public class TradingProfileService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TradingProfileService.class);
+    private static final BigDecimal DEFAULT_MINIMUM_AMOUNT = new BigDecimal("0.001"); // TODO too big?
+    private static final CurrencyPairMetaData NULL_CURRENCY_PAIR_METADATA = new CurrencyPairMetaData(
+        null, null, null, null, null);
+    private static final CurrencyPairMetaData DEFAULT_CURRENCY_PAIR_METADATA = new CurrencyPairMetaData(
+        BigDecimal.ZERO,
+        BigDecimal.ZERO,
+        BigDecimal.valueOf(Long.MAX_VALUE),
+        DecimalConstants.BTC_SCALE,
+        DecimalConstants.BTC_SCALE,
+        new FeeTier[0],
+        Currency.BTC
+    );
+
+    private final TradingConfiguration tradingConfiguration;
+    private final ExchangeService exchangeService;
+    private final SpreadService spreadService;
+    private final ConcurrentMap<TradeCombination, TradingProfile> profiles = new ConcurrentHashMap<>();
+
+    public TradingProfileService(
+        TradingConfiguration tradingConfiguration,
+        ExchangeService exchangeService,
+        SpreadService spreadService) {
+
+        this.tradingConfiguration = tradingConfiguration;
+        this.exchangeService = exchangeService;
+        this.spreadService = spreadService;
+    }
+
+    /**
+     * Build profiles for all the TradeCombinations we're going to trade, so the first trade doesn't have to.
+     *
+     * @param tradeCombinations The TradeCombinations to build profiles for.
+     */
+    public void initializeProfiles(List<TradeCombination> tradeCombinations) {
+        tradeCombinations.forEach(tradeCombination -> profiles.put(tradeCombination, buildProfile(tradeCombination)));
+
+        LOGGER.info("Built trading profiles for {} trade combinations", profiles.size());
+    }
+
+    /**
+     * Get the TradingProfile for a TradeCombination, building it if we haven't seen the combination before.
+     *
+     * @param tradeCombination The TradeCombination.
+     * @return The TradingProfile.
+     */
+    public TradingProfile getProfile(TradeCombination tradeCombination) {
+        TradingProfile profile = profiles.get(tradeCombination);
+
+        if (profile != null) {
+            return profile;
+        }
+
+        return profiles.computeIfAbsent(tradeCombination, this::buildProfile);
+    }
+
+    /**
+     * Rebuild the profiles that use an exchange's fees when one of them changes.
+     *
+     * @param event The ExchangeFeeChangeEvent.
+     */
+    @EventListener
+    public void onExchangeFeeChange(ExchangeFeeChangeEvent event) {
+        invalidate(event.getExchange());
+    }
+
+    /**
+     * Rebuild every profile that involves an exchange.
+     *
+     * @param exchange The Exchange whose fees or metadata have changed.
+     */
+    public void invalidate(Exchange exchange) {
+        profiles.replaceAll((tradeCombination, profile) -> {
+            if (tradeCombination.getLongExchange() == exchange || tradeCombination.getShortExchange() == exchange) {
+                return buildProfile(tradeCombination);
+            }
+
+            return profile;
+        });
+    }
+
+    /**
+     * Rebuild all the profiles from time to time. Fees are cached, so this is cheap, and it picks up fees that
+     * expired or fell back to a default value since the profile was built.
+     */
+    @Scheduled(initialDelay = 1000 * 60 * 10, fixedDelay = 1000 * 60 * 10) // every 10 minutes
+    public void refreshProfiles() {
+        profiles.replaceAll((tradeCombination, profile) -> buildProfile(tradeCombination));
+    }
+
+    // work out everything in a TradingProfile
+    TradingProfile buildProfile(TradeCombination tradeCombination) {
+        final TradingProfile.Leg longLeg = buildLeg(tradeCombination.getLongExchange(), tradeCombination.getCurrencyPair());
+        final TradingProfile.Leg shortLeg = buildLeg(tradeCombination.getShortExchange(), tradeCombination.getCurrencyPair());
+        final BigDecimal entrySpreadTarget = spreadService.getEntrySpreadTarget(tradingConfiguration, longLeg.getFee(), shortLeg.getFee());
+        final TradingProfile profile = new TradingProfile(tradeCombination, longLeg, shortLeg, entrySpreadTarget);
+
+        LOGGER.debug("Built {}", profile);
+
+        return profile;
+    }
+
+    private TradingProfile.Leg buildLeg(Exchange exchange, CurrencyPair rawCurrencyPair) {
+        final CurrencyPair currencyPair = exchangeService.convertExchangePair(exchange, rawCurrencyPair);
+        final ExchangeFee fee = exchangeService.getExchangeFee(exchange, currencyPair, true);
+        final BigDecimal amountStepSize = exchange.getExchangeMetaData().getCurrencyPairs()
+            .getOrDefault(rawCurrencyPair, NULL_CURRENCY_PAIR_METADATA).getAmountStepSize();
+
+        return new TradingProfile.Leg(
+            currencyPair,
+            fee,
+            exchangeService.getExchangeMetadata(exchange).getFeeComputation(),
+            computeVolumeScale(exchange, currencyPair),
+            computePriceScale(exchange, currencyPair),
+            amountStepSize,
+            computeMinimumAmount(exchange, currencyPair));
+    }
+
+    /**
+     * Fetch the correct volume scale from an exchange's metadata, or return a default
+     * value if it cannot be found.
+     *
+     * @param exchange The exchange to fetch metadata from.
+     * @param currencyPair The currency pair to look for.
+     * @return The number of decimals allowed for a volume in this currency pair on this exchange.
+     */
+    static Integer computeVolumeScale(Exchange exchange, CurrencyPair currencyPair) {
+        final CurrencyPairMetaData currencyPairMetaData = exchange.getExchangeMetaData().getCurrencyPairs().getOrDefault(
+            currencyPair,
+            DEFAULT_CURRENCY_PAIR_METADATA
+        );
+
+        if (currencyPairMetaData.getVolumeScale() == null) {
+            LOGGER.debug("Defaulting to scale of {} for volume because metadata is unavailable", DecimalConstants.BTC_SCALE);
+            return DecimalConstants.BTC_SCALE;
+        }
+
+        return currencyPairMetaData.getVolumeScale();
+    }
+
+    /**
+     * Fetch the correct price scale from an exchange's metadata, or return a default
+     * value if it cannot be found.
+     *
+     * @param exchange The exchange to fetch metadata from.
+     * @param currencyPair The currency pair to look for.
+     * @return The number of decimals allowed for a price in this currency pair on this exchange.
+     */
+    static Integer computePriceScale(Exchange exchange, CurrencyPair currencyPair) {
+        final CurrencyPairMetaData currencyPairMetaData = exchange.getExchangeMetaData().getCurrencyPairs().getOrDefault(
+            currencyPair,
+            DEFAULT_CURRENCY_PAIR_METADATA
+        );
+
+        if (currencyPairMetaData.getPriceScale() == null) {
+            LOGGER.debug("Defaulting to scale of {} for price because metadata is unavailable", DecimalConstants.USD_SCALE);
+            return DecimalConstants.USD_SCALE;
+        }
+
+        return currencyPairMetaData.getPriceScale();
+    }
+
+    // get the smallest possible order for an entry position on an exchange
+    private static BigDecimal computeMinimumAmount(Exchange exchange, CurrencyPair currencyPair) {
+        final CurrencyPairMetaData currencyPairMetaData = exchange
+            .getExchangeMetaData()
+            .getCurrencyPairs()
+            .getOrDefault(currencyPair, NULL_CURRENCY_PAIR_METADATA);
+
+        if (currencyPairMetaData == null || currencyPairMetaData.getMinimumAmount() == null) {
+            return DEFAULT_MINIMUM_AMOUNT;
+        }
+
+        return currencyPairMetaData.getMinimumAmount();
+    }
+}
@@ -2,13 +2,17 @@ package com.agonyforge.arbitrader.service;
 
 import com.agonyforge.arbitrader.Utils;
 import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.clock.ExchangeClockService;
+import com.agonyforge.arbitrader.service.history.TradeHistoryStore;
+import com.agonyforge.arbitrader.service.history.TradeHistorySummary;
+import com.agonyforge.arbitrader.service.journal.PositionJournal;
 import com.agonyforge.arbitrader.service.model.Spread;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.agonyforge.arbitrader.service.model.ActivePosition;
-import com.agonyforge.arbitrader.service.model.ExchangeFee;
 import com.agonyforge.arbitrader.service.paper.PaperExchange;
 import com.agonyforge.arbitrader.service.model.TradeCombination;
+import com.agonyforge.arbitrader.service.model.TradingProfile;
 import com.agonyforge.arbitrader.service.paper.PaperStreamExchange;
+import com.agonyforge.arbitrader.service.statistics.SpreadSeries;
 import info.bitrich.xchangestream.core.StreamingExchange;
 import info.bitrich.xchangestream.core.StreamingExchangeFactory;
 import org.knowm.xchange.Exchange;
@@ -20,11 +24,12 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.io.File;
 import java.io.IOException;
+import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Initiates trading action on a timer.
@@ -35,10 +40,7 @@ public class TradingScheduler {
     public static final String TICKER_STRATEGY_KEY = "tickerStrategy";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TradingScheduler.class);
-    private static final String STATE_FILE = ".arbitrader/arbitrader-state.json";
-    protected static final String TRADE_HISTORY_FILE = ".arbitrader/arbitrader-arbitrage-history.csv";
 
-    private final ObjectMapper objectMapper;
     private final TradingConfiguration tradingConfiguration;
     private final ConditionService conditionService;
     private final ExchangeService exchangeService;
@@ -47,18 +49,28 @@ public class TradingScheduler {
     private final TickerService tickerService;
     private final List<Exchange> exchanges = new ArrayList<>();
     private final TradingService tradingService;
+    private final PositionJournal positionJournal;
+    private final TradeHistoryStore tradeHistoryStore;
+    private final TradingProfileService tradingProfileService;
+    private final ExposureService exposureService;
+    private final ExchangeClockService exchangeClockService;
+    private final SpreadEvaluator spreadEvaluator;
 
     public TradingScheduler(
-        ObjectMapper objectMapper,
         TradingConfiguration tradingConfiguration,
         ConditionService conditionService,
         ExchangeService exchangeService,
         TradingService tradingService,
         ErrorCollectorService errorCollectorService,
         SpreadService spreadService,
-        TickerService tickerService) {
+        TickerService tickerService,
+        PositionJournal positionJournal,
+        TradeHistoryStore tradeHistoryStore,
+        TradingProfileService tradingProfileService,
+        ExposureService exposureService,
+        ExchangeClockService exchangeClockService,
+        SpreadEvaluator spreadEvaluator) {
 
-        this.objectMapper = objectMapper;
         this.tradingConfiguration = tradingConfiguration;
         this.conditionService = conditionService;
         this.exchangeService = exchangeService;
@@ -66,6 +78,12 @@ public class TradingScheduler {
         this.spreadService = spreadService;
         this.tickerService = tickerService;
         this.tradingService = tradingService;
+        this.positionJournal = positionJournal;
+        this.tradeHistoryStore = tradeHistoryStore;
+        this.tradingProfileService = tradingProfileService;
+        this.exposureService = exposureService;
+        this.exchangeClockService = exchangeClockService;
+        this.spreadEvaluator = spreadEvaluator;
     }
 
     /**
@@ -156,12 +174,37 @@ public class TradingScheduler {
             exchanges.add(exchange);
         });
 
+        // replay the position journal to recover the trade that was in progress when we shut down, if there was one
+        // if we can't, don't start at all: we might already be in a trade, and nothing we do could be persisted
+        Optional<ActivePosition> activePosition;
+
+        try {
+            activePosition = positionJournal.replay();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to replay the position journal " + PositionJournal.JOURNAL_FILE, e);
+        }
+
         // call setUpExchange on every exchange
-        exchanges.forEach(exchange -> exchangeService.setUpExchange(exchange, tradingConfiguration));
+        final boolean hasActivePosition = activePosition.isPresent();
+
+        exchanges.forEach(exchange -> exchangeService.setUpExchange(exchange, tradingConfiguration, hasActivePosition));
 
         // set up all the valid TradeCombinations between all our exchanges so we know what currency pairs we can trade
         tickerService.initializeTickers(exchanges);
 
+        // start estimating the exchanges' clocks from their server time endpoints
+        exchangeClockService.watchExchanges(exchanges);
+
+        // work out the fees, scales and targets for each TradeCombination once instead of on every trade
+        tradingProfileService.initializeProfiles(tickerService.getExchangeTradeCombinations());
+
+        // assign each TradeCombination to a spread evaluator shard
+        spreadEvaluator.initialize(tickerService.getExchangeTradeCombinations());
+
+        // start keeping account balances and exposures warm so trade decisions don't have to wait for them
+        exposureService.watchExchangeBalances(exchanges);
+        exposureService.initializeExposures(tickerService.getExchangeTradeCombinations());
+
         // tell the user whether fixed exposure is configured
         if (tradingConfiguration.getFixedExposure() != null) {
             LOGGER.info("Using fixed exposure of ${} as configured", tradingConfiguration.getFixedExposure());
@@ -176,26 +219,12 @@ public class TradingScheduler {
             LOGGER.info("Paper trading enabled, will NOT trade real money");
         }
 
-        // load active trades from file, if there is one
-        File stateFile = new File(STATE_FILE);
+        activePosition.ifPresent(position -> {
+            tradingService.setActivePosition(position);
 
-        // if there is a state file, we need to try to load the in-progress trade from the file
-        if (stateFile.exists()) {
-            if (!stateFile.canRead()) {
-                LOGGER.error("Cannot read state file: {}", stateFile.getAbsolutePath());
-            } else {
-                try {
-                    ActivePosition activePosition = objectMapper.readValue(stateFile, ActivePosition.class);
-
-                    tradingService.setActivePosition(activePosition);
-
-                    LOGGER.info("Loaded active trades from file: {}", stateFile.getAbsolutePath());
-                    LOGGER.info("Active trades: {}", activePosition);
-                } catch (IOException e) {
-                    LOGGER.error("Unable to parse state file {}: ", stateFile.getAbsolutePath(), e);
-                }
-            }
-        }
+            LOGGER.info("Loaded active trades from the position journal: {}", PositionJournal.JOURNAL_FILE);
+            LOGGER.info("Active trades: {}", position);
+        });
     }
 
     /**
@@ -227,14 +256,13 @@ public class TradingScheduler {
             }
 
             if (tradingService.getActivePosition() == null) {
-                final ExchangeFee longFeePercent = exchangeService.getExchangeFee(spread.getLongExchange(), spread.getCurrencyPair(), true);
-                final ExchangeFee shortFeePercent = exchangeService.getExchangeFee(spread.getShortExchange(), spread.getCurrencyPair(), true);
+                final TradingProfile profile = tradingProfileService.getProfile(tradeCombination);
                 LOGGER.info("{}/{} {} {} -> {}",
                     spread.getLongExchange().getExchangeSpecification().getExchangeName(),
                     spread.getShortExchange().getExchangeSpecification().getExchangeName(),
                     spread.getCurrencyPair(),
                     spread.getIn(),
-                    spreadService.getEntrySpreadTarget(tradingConfiguration, longFeePercent, shortFeePercent));
+                    spreadService.getEntrySpreadTarget(tradingConfiguration, profile));
             } else if (tradingService.getActivePosition() != null
                 && tradingService.getActivePosition().getCurrencyPair().equals(spread.getCurrencyPair())
                 && tradingService.getActivePosition().getLongTrade().getExchange().equals(spread.getLongExchange().getExchangeSpecification().getExchangeName())
@@ -248,6 +276,16 @@ public class TradingScheduler {
                     tradingService.getActivePosition().getExitTarget());
             }
         });
+
+        OffsetDateTime now = OffsetDateTime.now();
+        TradeHistorySummary daily = tradeHistoryStore.getSummary(now.minusDays(1), now);
+
+        LOGGER.info("Trades in the last 24 hours: {} with a total profit of ${} (average ${}, best ${}, worst ${})",
+            daily.getCount(),
+            daily.getTotalProfit(),
+            daily.getAverageProfit(),
+            daily.getBestProfit(),
+            daily.getWorstProfit());
     }
 
     /**
@@ -283,6 +321,35 @@ public class TradingScheduler {
         if (exchangePollDuration > 3000) {
             LOGGER.warn("Refreshing tickers took {} ms", exchangePollDuration);
         }
+
+        // tickers are only published when prices change, but the trade timeout and forced opens and closes can't wait
+        // for a quiet market to move
+        reevaluateWaitingCombinations();
+    }
+
+    // hand the active position's combination, and any combination the user wants to force open, back to trade()
+    private void reevaluateWaitingCombinations() {
+        final ActivePosition position = tradingService.getActivePosition();
+
+        if (position == null && conditionService.getSnapshot().getForceOpen() == null) {
+            return;
+        }
+
+        tickerService.getExchangeTradeCombinations()
+            .stream()
+            .filter(tradeCombination -> {
+                final String longExchangeName = tradeCombination.getLongExchange().getExchangeSpecification().getExchangeName();
+                final String shortExchangeName = tradeCombination.getShortExchange().getExchangeSpecification().getExchangeName();
+
+                if (position != null) {
+                    return tradeCombination.getCurrencyPair().equals(position.getCurrencyPair())
+                        && longExchangeName.equals(position.getLongTrade().getExchange())
+                        && shortExchangeName.equals(position.getShortTrade().getExchange());
+                }
+
+                return conditionService.isForceOpenCondition(tradeCombination.getCurrencyPair(), longExchangeName, shortExchangeName);
+            })
+            .forEach(tradeCombination -> spreadEvaluator.submit(tradeCombination.getLongExchange(), tradeCombination.getCurrencyPair()));
     }
 
     // print a summary of all trade combinations, prices, and spreads
@@ -311,6 +378,12 @@ public class TradingScheduler {
                     LOGGER.info("\tSpread In/Out:{}/{}",
                         spread.getIn(),
                         spread.getOut());
+
+                    String statistics = spreadService.describeStatistics(tradeCombination, SpreadSeries.MAXIMUM_WINDOW_MILLIS, System.currentTimeMillis());
+
+                    if (statistics != null) {
+                        LOGGER.info("\t24h In/Out: {}", statistics);
+                    }
                 }
             });
     }
@@ -1,43 +1,41 @@
 package com.agonyforge.arbitrader.service;
 
 import com.agonyforge.arbitrader.DecimalConstants;
-import com.agonyforge.arbitrader.Utils;
+import com.agonyforge.arbitrader.config.ExecutorConfig;
 import com.agonyforge.arbitrader.config.FeeComputation;
 import com.agonyforge.arbitrader.config.TradingConfiguration;
 import com.agonyforge.arbitrader.exception.OrderNotFoundException;
-import com.agonyforge.arbitrader.service.cache.ExchangeBalanceCache;
+import com.agonyforge.arbitrader.service.cache.EntryVerificationCache;
+import com.agonyforge.arbitrader.service.cache.OrderBookPrefetcher;
 import com.agonyforge.arbitrader.service.cache.OrderVolumeCache;
+import com.agonyforge.arbitrader.service.history.TradeHistoryStore;
+import com.agonyforge.arbitrader.service.journal.PositionJournal;
 import com.agonyforge.arbitrader.service.model.*;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.schedulers.Schedulers;
-import org.apache.commons.io.FileUtils;
 import org.knowm.xchange.Exchange;
 import org.knowm.xchange.currency.Currency;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.knowm.xchange.dto.Order;
 import org.knowm.xchange.dto.marketdata.OrderBook;
 import org.knowm.xchange.dto.meta.CurrencyMetaData;
-import org.knowm.xchange.dto.meta.CurrencyPairMetaData;
-import org.knowm.xchange.dto.meta.ExchangeMetaData;
-import org.knowm.xchange.dto.meta.FeeTier;
 import org.knowm.xchange.dto.trade.LimitOrder;
 import org.knowm.xchange.dto.trade.OpenOrders;
 import org.knowm.xchange.exceptions.ExchangeException;
 import org.knowm.xchange.exceptions.NotAvailableFromExchangeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
-import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
@@ -48,48 +46,67 @@ import java.util.stream.Collectors;
 @Component
 public class TradingService {
     private static final Logger LOGGER = LoggerFactory.getLogger(TradingService.class);
-    private static final String TRADE_HISTORY_FILE = ".arbitrader/arbitrader-arbitrage-history.csv";
-    private static final BigDecimal TRADE_PORTION = new BigDecimal("0.9");
-    private static final BigDecimal TRADE_REMAINDER = BigDecimal.ONE.subtract(TRADE_PORTION);
-    private static final CurrencyPairMetaData NULL_CURRENCY_PAIR_METADATA = new CurrencyPairMetaData(
-        null, null, null, null, null);
+    private static final BigDecimal TRADE_REMAINDER = BigDecimal.ONE.subtract(ExposureService.TRADE_PORTION);
 
-    private final ObjectMapper objectMapper;
     private final TradingConfiguration tradingConfiguration;
     private final ConditionService conditionService;
     private final ExchangeService exchangeService;
     private final SpreadService spreadService;
     private final NotificationService notificationService;
-    private final ExchangeBalanceCache exchangeBalanceCache = new ExchangeBalanceCache();
-    private final OrderVolumeCache orderVolumeCache = new OrderVolumeCache();
-    private boolean timeoutExitWarning = false;
-    private ActivePosition activePosition = null;
-    private boolean bailOut = false;
+    private final PositionJournal positionJournal;
+    private final TradeHistoryStore tradeHistoryStore;
+    private final OrderVolumeCache orderVolumeCache;
+    private final TradingProfileService tradingProfileService;
+    private final ExposureService exposureService;
+    private final OrderBookPrefetcher orderBookPrefetcher;
+    private final EntryVerificationCache entryVerificationCache;
+    private final Scheduler orderScheduler;
+    private volatile boolean timeoutExitWarning = false;
+    private volatile ActivePosition activePosition = null;
+    private volatile boolean bailOut = false;
     private long orderTimer = 0;
     private AtomicBoolean openOrdersFlag = new AtomicBoolean(false);
 
     public TradingService(
-        ObjectMapper objectMapper,
         TradingConfiguration tradingConfiguration,
         ConditionService conditionService,
         ExchangeService exchangeService,
         SpreadService spreadService,
-        NotificationService notificationService) {
+        NotificationService notificationService,
+        PositionJournal positionJournal,
+        TradeHistoryStore tradeHistoryStore,
+        OrderVolumeCache orderVolumeCache,
+        TradingProfileService tradingProfileService,
+        ExposureService exposureService,
+        OrderBookPrefetcher orderBookPrefetcher,
+        EntryVerificationCache entryVerificationCache,
+        @Qualifier(ExecutorConfig.ORDER_EXECUTOR) Executor orderExecutor) {
 
-        this.objectMapper = objectMapper;
         this.tradingConfiguration = tradingConfiguration;
         this.conditionService = conditionService;
         this.exchangeService = exchangeService;
         this.spreadService = spreadService;
         this.notificationService = notificationService;
+        this.positionJournal = positionJournal;
+        this.tradeHistoryStore = tradeHistoryStore;
+        this.orderVolumeCache = orderVolumeCache;
+        this.tradingProfileService = tradingProfileService;
+        this.exposureService = exposureService;
+        this.orderBookPrefetcher = orderBookPrefetcher;
+        this.entryVerificationCache = entryVerificationCache;
+        this.orderScheduler = Schedulers.from(orderExecutor);
     }
 
     /**
      * Evaluate whether or not to trade (both entry and exit). Execute a trade if appropriate.
      *
+     * The spread evaluators call this from several threads at once. Deciding what to do and watching order
+     * books only touch thread safe state, so only entering or exiting a position takes the lock. The
+     * position is checked again once we have the lock, in case another thread changed it while we were waiting.
+     *
      * @param spread The Spread contains the exchanges and prices for the trade.
      */
-    public synchronized void trade(Spread spread) {
+    public void trade(Spread spread) {
         if (bailOut) {
             LOGGER.error("Exiting immediately to avoid erroneous trades.");
             System.exit(1);
@@ -114,45 +131,105 @@ public class TradingService {
             LOGGER.warn("Cannot alter position on one or more exchanges due to user configured blackout");
             return;
         }
-        final ExchangeFee longFeePercent = exchangeService.getExchangeFee(spread.getLongExchange(), spread.getCurrencyPair(), true);
-        final ExchangeFee shortFeePercent = exchangeService.getExchangeFee(spread.getShortExchange(), spread.getCurrencyPair(), true);
-        final BigDecimal entrySpreadTarget = spreadService.getEntrySpreadTarget(tradingConfiguration, longFeePercent, shortFeePercent);
+        final TradingProfile profile = tradingProfileService.getProfile(spread.getTradeCombination());
+        final BigDecimal entrySpreadTarget = spreadService.getEntrySpreadTarget(tradingConfiguration, profile);
+        final ActivePosition position = activePosition;
+        final long decisionStart = System.currentTimeMillis();
         // This is more verbose than it has to be. I'm trying to keep it easy to read as we continue
         // adding more different conditions that can affect whether we trade or not.
-        if (activePosition == null) {
-            orderTimer = System.currentTimeMillis();
+        if (position == null) {
+            orderBookPrefetcher.watch(profile, entrySpreadTarget.subtract(spread.getIn()));
 
             if (conditionService.isForceOpenCondition(spread.getCurrencyPair(), longExchangeName, shortExchangeName)) {
                 LOGGER.debug("enterPosition() {}/{} {} - forced", longExchangeName, shortExchangeName, spread.getCurrencyPair());
-                enterPosition(spread);
+                enterPositionIfIdle(spread, profile, decisionStart);
             } else if (spread.getIn().compareTo(entrySpreadTarget) > 0) {
                 LOGGER.debug("enterPosition() {}/{} {} - spread in {} > entry spread target {}", longExchangeName, shortExchangeName, spread.getCurrencyPair(), spread.getIn(), entrySpreadTarget);
                 LOGGER.debug("entry spread target {} was calculated from the effective entry spread target {}, with {} long fees and {} short fees",
                     entrySpreadTarget,
                     tradingConfiguration.getEntrySpreadTarget(),
-                    longFeePercent,
-                    shortFeePercent);
-                enterPosition(spread);
+                    profile.getLongLeg().getFee(),
+                    profile.getShortLeg().getFee());
+                enterPositionIfIdle(spread, profile, decisionStart);
             }
-        } else if (spread.getCurrencyPair().equals(activePosition.getCurrencyPair())
-                && longExchangeName.equals(activePosition.getLongTrade().getExchange())
-                && shortExchangeName.equals(activePosition.getShortTrade().getExchange())) {
+        } else if (spread.getCurrencyPair().equals(position.getCurrencyPair())
+                && longExchangeName.equals(position.getLongTrade().getExchange())
+                && shortExchangeName.equals(position.getShortTrade().getExchange())) {
 
-            orderTimer = System.currentTimeMillis();
+            orderBookPrefetcher.watch(profile, spread.getOut().subtract(position.getExitTarget()));
 
             if (conditionService.isForceCloseCondition()) {
                 LOGGER.debug("exitPosition() {}/{} {} - forced", longExchangeName, shortExchangeName, spread.getCurrencyPair());
-                exitPosition(spread);
+                exitPositionIfActive(spread, profile, position, decisionStart);
             } else if (isActivePositionExpired()) {
                 LOGGER.debug("exitPosition() {}/{} {} - active position timed out", longExchangeName, shortExchangeName, spread.getCurrencyPair());
-                exitPosition(spread);
-            } else if (spread.getOut().compareTo(activePosition.getExitTarget()) < 0) {
-                LOGGER.debug("exitPosition() {}/{} {} - spread out {} < exit target {}", longExchangeName, shortExchangeName, spread.getCurrencyPair(), spread.getOut(), activePosition.getExitTarget());
-                exitPosition(spread);
+                exitPositionIfActive(spread, profile, position, decisionStart);
+            } else if (spread.getOut().compareTo(position.getExitTarget()) < 0) {
+                LOGGER.debug("exitPosition() {}/{} {} - spread out {} < exit target {}", longExchangeName, shortExchangeName, spread.getCurrencyPair(), spread.getOut(), position.getExitTarget());
+                exitPositionIfActive(spread, profile, position, decisionStart);
             }
         }
     }
 
+    // enter a position, unless another thread entered one while we were deciding
+    private synchronized void enterPositionIfIdle(Spread spread, TradingProfile profile, long decisionStart) {
+        if (activePosition != null) {
+            LOGGER.debug("A position was entered while evaluating {}, will not trade", spread.getTradeCombination());
+            return;
+        }
+
+        orderTimer = decisionStart;
+        enterPosition(spread, profile);
+    }
+
+    // exit the position, unless another thread already exited it while we were deciding
+    private synchronized void exitPositionIfActive(Spread spread, TradingProfile profile, ActivePosition position, long decisionStart) {
+        if (activePosition != position) {
+            LOGGER.debug("The position changed while evaluating {}, will not trade", spread.getTradeCombination());
+            return;
+        }
+
+        orderTimer = decisionStart;
+        exitPosition(spread, profile);
+    }
+
+    /**
+     * Decide, without waiting for trade(), whether a Spread is worth handing to it. Almost every spread is nowhere
+     * near the entry target and trade() would do nothing with it, so the spread evaluators screen them here and only
+     * hand over the few that pass.
+     *
+     * A spread passes when it's for the active position (so trade() can check the exit), when no position is open
+     * and the spread is past the entry target or within the prefetch distance of it (so trade() can
+     * enter, or get ready to), when a forced open is requested for it, or when we need to bail out.
+     *
+     * @param spread The Spread to screen.
+     * @return true if trade() should look at the Spread.
+     */
+    public boolean isCandidate(Spread spread) {
+        final ActivePosition position = activePosition;
+        final String longExchangeName = spread.getLongExchange().getExchangeSpecification().getExchangeName();
+        final String shortExchangeName = spread.getShortExchange().getExchangeSpecification().getExchangeName();
+
+        if (bailOut) {
+            return true;
+        }
+
+        if (position != null) {
+            return spread.getCurrencyPair().equals(position.getCurrencyPair())
+                && longExchangeName.equals(position.getLongTrade().getExchange())
+                && shortExchangeName.equals(position.getShortTrade().getExchange());
+        }
+
+        if (conditionService.isForceOpenCondition(spread.getCurrencyPair(), longExchangeName, shortExchangeName)) {
+            return true;
+        }
+
+        final TradingProfile profile = tradingProfileService.getProfile(spread.getTradeCombination());
+        final BigDecimal entrySpreadTarget = spreadService.getEntrySpreadTarget(tradingConfiguration, profile);
+
+        return entrySpreadTarget.subtract(spread.getIn()).compareTo(getScreeningDistance()) <= 0;
+    }
+
     public ActivePosition getActivePosition() {
         return activePosition;
     }
@@ -161,28 +238,40 @@ public class TradingService {
         this.activePosition = activePosition;
     }
 
+    // trade() starts prefetching order books this far from the entry target
+    private BigDecimal getScreeningDistance() {
+        final BigDecimal prefetchDistance = tradingConfiguration.getPrefetchDistance();
+
+        return prefetchDistance == null ? BigDecimal.ZERO : prefetchDistance;
+    }
+
     // enter a position
-    private void enterPosition(Spread spread) {
+    private void enterPosition(Spread spread, TradingProfile profile) {
         final String longExchangeName = spread.getLongExchange().getExchangeSpecification().getExchangeName();
         final String shortExchangeName = spread.getShortExchange().getExchangeSpecification().getExchangeName();
-        final CurrencyPair currencyPairLongExchange = exchangeService.convertExchangePair(spread.getLongExchange(), spread.getCurrencyPair());
-        final CurrencyPair currencyPairShortExchange = exchangeService.convertExchangePair(spread.getShortExchange(), spread.getCurrencyPair());
-        final ExchangeFee longFee = exchangeService.getExchangeFee(spread.getLongExchange(), currencyPairLongExchange, true);
-        final ExchangeFee shortFee = exchangeService.getExchangeFee(spread.getShortExchange(), currencyPairShortExchange, true);
-        final BigDecimal exitSpreadTarget = spreadService.getExitSpreadTarget(tradingConfiguration, spread.getIn(), longFee, shortFee);
-        final BigDecimal maxExposure = getMaximumExposure(spread.getLongExchange(), spread.getShortExchange());
-        final FeeComputation longFeeComputation = exchangeService.getExchangeMetadata(spread.getLongExchange()).getFeeComputation();
-        final FeeComputation shortFeeComputation = exchangeService.getExchangeMetadata(spread.getShortExchange()).getFeeComputation();
+
+        // if this failed verification a moment ago at about the same prices, don't spend two order book requests on it
+        if (!conditionService.isForceOpenCondition(spread.getCurrencyPair(), longExchangeName, shortExchangeName)
+            && entryVerificationCache.isSuppressed(spread)) {
+            return;
+        }
+
+        final ExchangeFee longFee = profile.getLongLeg().getFee();
+        final ExchangeFee shortFee = profile.getShortLeg().getFee();
+        final BigDecimal exitSpreadTarget = spreadService.getExitSpreadTarget(tradingConfiguration, spread.getTradeCombination(), spread.getIn(), longFee, shortFee);
+        final BigDecimal maxExposure = exposureService.getMaximumExposure(spread.getTradeCombination());
+        final FeeComputation longFeeComputation = profile.getLongLeg().getFeeComputation();
+        final FeeComputation shortFeeComputation = profile.getShortLeg().getFeeComputation();
 
         // check whether we have enough money to trade (forcing it can't work if we can't afford it)
-        if (!validateMaxExposure(maxExposure, spread, currencyPairLongExchange, currencyPairShortExchange)) {
+        if (!validateMaxExposure(maxExposure, spread, profile)) {
             return;
         }
 
-        // Figure out the scale (number of decimal places) for each exchange based on its CurrencyMetaData.
-        // If there is no metadata, fall back to BTC's default of 8 places that should work in most cases.
-        final int longVolumeScale = computeVolumeScale(spread.getLongExchange(), currencyPairLongExchange);
-        final int shortVolumeScale = computeVolumeScale(spread.getShortExchange(), currencyPairShortExchange);
+        // The scale (number of decimal places) for each exchange comes from its CurrencyMetaData.
+        // If there is no metadata, the profile falls back to BTC's default of 8 places that should work in most cases.
+        final int longVolumeScale = profile.getLongLeg().getVolumeScale();
+        final int shortVolumeScale = profile.getShortLeg().getVolumeScale();
 
         LOGGER.debug("Max exposure: {}", maxExposure);
         LOGGER.debug("Long volume scale: {}", longVolumeScale);
@@ -224,8 +313,8 @@ public class TradingService {
         // This recalculation of the spread is a little computationally expensive, which is why we don't do it
         // until we know we're close to wanting to trade.
         try {
-            longLimitPrice = getLimitPrice(spread.getLongExchange(), spread.getCurrencyPair(), tradeVolume.getLongVolume(), Order.OrderType.ASK);
-            shortLimitPrice = getLimitPrice(spread.getShortExchange(), spread.getCurrencyPair(), tradeVolume.getShortVolume(), Order.OrderType.BID);
+            longLimitPrice = getLimitPrice(spread.getLongExchange(), profile.getLongLeg(), tradeVolume.getLongVolume(), Order.OrderType.ASK);
+            shortLimitPrice = getLimitPrice(spread.getShortExchange(), profile.getShortLeg(), tradeVolume.getShortVolume(), Order.OrderType.BID);
         } catch (IOException | ExchangeException e) {
             LOGGER.error("Failed to fetch order books for {}/{} and currency {}/{} to compute entry prices: {}",
                 longExchangeName,
@@ -239,9 +328,10 @@ public class TradingService {
         BigDecimal spreadVerification = spreadService.computeSpread(longLimitPrice, shortLimitPrice);
         final boolean isForcedOpenCondition = conditionService.isForceOpenCondition(spread.getCurrencyPair(), longExchangeName, shortExchangeName);
 
-        final BigDecimal entrySpreadTarget = spreadService.getEntrySpreadTarget(tradingConfiguration, longFee, shortFee);
+        final BigDecimal entrySpreadTarget = spreadService.getEntrySpreadTarget(tradingConfiguration, profile);
         if (!isForcedOpenCondition && spreadVerification.compareTo(entrySpreadTarget) < 0) {
             LOGGER.debug("Spread verification {} is less than entry spread target {}, will not trade", spreadVerification, entrySpreadTarget); // this is debug because it can get spammy
+            entryVerificationCache.setFailed(spread, spreadVerification);
             return;
         }
 
@@ -255,10 +345,8 @@ public class TradingService {
             }
         }
 
-        final BigDecimal longAmountStepSize = spread.getLongExchange().getExchangeMetaData().getCurrencyPairs()
-            .getOrDefault(spread.getCurrencyPair(), NULL_CURRENCY_PAIR_METADATA).getAmountStepSize();
-        final BigDecimal shortAmountStepSize =  spread.getShortExchange().getExchangeMetaData().getCurrencyPairs()
-            .getOrDefault(spread.getCurrencyPair(), NULL_CURRENCY_PAIR_METADATA).getAmountStepSize();
+        final BigDecimal longAmountStepSize = profile.getLongLeg().getAmountStepSize();
+        final BigDecimal shortAmountStepSize = profile.getShortLeg().getAmountStepSize();
 
         //Adjust order volumes so they match the fee computation, step size and scales of the exchanges
         try{
@@ -279,20 +367,25 @@ public class TradingService {
 
         logEntryTrade(spread, shortExchangeName, longExchangeName, exitSpreadTarget, tradeVolume, longFeeComputation, shortFeeComputation, longLimitPrice, shortLimitPrice, isForcedOpenCondition);
 
-        BigDecimal totalBalance = logCurrentExchangeBalances(spread.getLongExchange(), spread.getShortExchange());
+        // the balances are kept warm in the background, so this doesn't have to wait on the exchanges
+        final BigDecimal totalBalance = exposureService.getCombinedBalance(spread.getLongExchange(), spread.getShortExchange());
 
         try {
-            activePosition = new ActivePosition();
-            activePosition.setEntryTime(OffsetDateTime.now());
-            activePosition.setCurrencyPair(spread.getCurrencyPair());
-            activePosition.setExitTarget(exitSpreadTarget);
-            activePosition.setEntryBalance(totalBalance);
-            activePosition.getLongTrade().setExchange(spread.getLongExchange());
-            activePosition.getLongTrade().setVolume(tradeVolume.getLongOrderVolume());
-            activePosition.getLongTrade().setEntry(longLimitPrice);
-            activePosition.getShortTrade().setExchange(spread.getShortExchange());
-            activePosition.getShortTrade().setVolume(tradeVolume.getShortOrderVolume());
-            activePosition.getShortTrade().setEntry(shortLimitPrice);
+            // other shards read activePosition without the lock, so only publish it once it is completely filled in
+            final ActivePosition position = new ActivePosition();
+
+            position.setEntryTime(OffsetDateTime.now());
+            position.setCurrencyPair(spread.getCurrencyPair());
+            position.setExitTarget(exitSpreadTarget);
+            position.setEntryBalance(totalBalance);
+            position.getLongTrade().setExchange(spread.getLongExchange());
+            position.getLongTrade().setVolume(tradeVolume.getLongOrderVolume());
+            position.getLongTrade().setEntry(longLimitPrice);
+            position.getShortTrade().setExchange(spread.getShortExchange());
+            position.getShortTrade().setVolume(tradeVolume.getShortOrderVolume());
+            position.getShortTrade().setEntry(shortLimitPrice);
+
+            activePosition = position;
 
             executeOrderPair(spread, exitSpreadTarget, longLimitPrice, shortLimitPrice, tradeVolume, true);
         } catch (IOException e) {
@@ -300,10 +393,10 @@ public class TradingService {
             activePosition = null;
         }
 
-        try {
-            Utils.createStateFile(objectMapper.writeValueAsString(activePosition));
-        } catch (IOException e) {
-            LOGGER.error("Unable to write state file!", e);
+        if (activePosition != null) {
+            journalActivePosition();
+
+            entryVerificationCache.clear(spread.getTradeCombination());
         }
 
         conditionService.clearForceOpenCondition();
@@ -318,28 +411,7 @@ public class TradingService {
      * @return The number of decimals allowed for a volume in this currency pair on this exchange.
      */
     Integer computeVolumeScale(Exchange exchange, CurrencyPair currencyPair) {
-        final CurrencyPairMetaData defaultPairMetaData = new CurrencyPairMetaData(
-            BigDecimal.ZERO,
-            BigDecimal.ZERO,
-            BigDecimal.valueOf(Long.MAX_VALUE),
-            DecimalConstants.BTC_SCALE,
-            DecimalConstants.BTC_SCALE,
-            new FeeTier[0],
-            Currency.BTC
-        );
-
-        final ExchangeMetaData exchangeMetaData = exchange.getExchangeMetaData();
-        final CurrencyPairMetaData currencyPairMetaData = exchangeMetaData.getCurrencyPairs().getOrDefault(
-            currencyPair,
-            defaultPairMetaData
-        );
-
-        if (currencyPairMetaData.getVolumeScale() == null) {
-            LOGGER.debug("Defaulting to scale of {} for volume because metadata is unavailable", DecimalConstants.BTC_SCALE);
-            return DecimalConstants.BTC_SCALE;
-        }
-
-        return currencyPairMetaData.getVolumeScale();
+        return TradingProfileService.computeVolumeScale(exchange, currencyPair);
     }
 
     /**
@@ -351,33 +423,13 @@ public class TradingService {
      * @return The number of decimals allowed for a price in this currency pair on this exchange.
      */
     Integer computePriceScale(Exchange exchange, CurrencyPair currencyPair) {
-        final CurrencyPairMetaData defaultPairMetaData = new CurrencyPairMetaData(
-            BigDecimal.ZERO,
-            BigDecimal.ZERO,
-            BigDecimal.valueOf(Long.MAX_VALUE),
-            DecimalConstants.BTC_SCALE,
-            DecimalConstants.BTC_SCALE,
-            new FeeTier[0],
-            Currency.BTC
-        );
-        final ExchangeMetaData exchangeMetaData = exchange.getExchangeMetaData();
-        final CurrencyPairMetaData currencyPairMetaData = exchangeMetaData.getCurrencyPairs().getOrDefault(
-            currencyPair,
-            defaultPairMetaData
-        );
-
-        if (currencyPairMetaData.getPriceScale() == null) {
-            LOGGER.debug("Defaulting to scale of {} for price because metadata is unavailable", DecimalConstants.USD_SCALE);
-            return DecimalConstants.USD_SCALE;
-        }
-
-        return currencyPairMetaData.getPriceScale();
+        return TradingProfileService.computePriceScale(exchange, currencyPair);
     }
 
     // ensure that we have enough money to trade
-    private boolean validateMaxExposure(BigDecimal maxExposure, Spread spread, CurrencyPair longCurrencyPair, CurrencyPair shortCurrencyPair) {
-        final BigDecimal longMinAmount = getMinimumAmountForEntryPosition(spread, spread.getLongExchange());
-        final BigDecimal shortMinAmount = getMinimumAmountForEntryPosition(spread, spread.getShortExchange());
+    private boolean validateMaxExposure(BigDecimal maxExposure, Spread spread, TradingProfile profile) {
+        final BigDecimal longMinAmount = profile.getLongLeg().getMinimumAmount();
+        final BigDecimal shortMinAmount = profile.getShortLeg().getMinimumAmount();
 
         final String longExchangeName = spread.getLongExchange().getExchangeSpecification().getExchangeName();
         final String shortExchangeName = spread.getShortExchange().getExchangeSpecification().getExchangeName();
@@ -386,7 +438,7 @@ public class TradingService {
             LOGGER.error("{} must have at least ${} to trade {} but only has ${}",
                 longExchangeName,
                 longMinAmount.add(longMinAmount.multiply(TRADE_REMAINDER)),
-                longCurrencyPair,
+                profile.getLongLeg().getCurrencyPair(),
                 maxExposure);
             return false;
         }
@@ -395,7 +447,7 @@ public class TradingService {
             LOGGER.error("{} must have at least ${} to trade {} but only has ${}",
                 shortExchangeName,
                 shortMinAmount.add(shortMinAmount.multiply(TRADE_REMAINDER)),
-                shortCurrencyPair,
+                profile.getShortLeg().getCurrencyPair(),
                 maxExposure);
             return false;
         }
@@ -404,24 +456,20 @@ public class TradingService {
     }
 
     // exit a position
-    private void exitPosition(Spread spread) {
+    private void exitPosition(Spread spread, TradingProfile profile) {
         final String longExchangeName = spread.getLongExchange().getExchangeSpecification().getExchangeName();
         final String shortExchangeName = spread.getShortExchange().getExchangeSpecification().getExchangeName();
-        final CurrencyPair currencyPairLongExchange = exchangeService.convertExchangePair(spread.getLongExchange(), spread.getCurrencyPair());
-        final CurrencyPair currencyPairShortExchange = exchangeService.convertExchangePair(spread.getShortExchange(), spread.getCurrencyPair());
-        final ExchangeFee longFee = exchangeService.getExchangeFee(spread.getLongExchange(), currencyPairLongExchange, true);
-        final ExchangeFee shortFee = exchangeService.getExchangeFee(spread.getShortExchange(), currencyPairShortExchange, true);
+        final ExchangeFee longFee = profile.getLongLeg().getFee();
+        final ExchangeFee shortFee = profile.getShortLeg().getFee();
 
-        final FeeComputation longFeeComputation = exchangeService.getExchangeMetadata(spread.getLongExchange()).getFeeComputation();
-        final FeeComputation shortFeeComputation = exchangeService.getExchangeMetadata(spread.getShortExchange()).getFeeComputation();
+        final FeeComputation longFeeComputation = profile.getLongLeg().getFeeComputation();
+        final FeeComputation shortFeeComputation = profile.getShortLeg().getFeeComputation();
 
-        final BigDecimal longAmountStepSize = spread.getLongExchange().getExchangeMetaData().getCurrencyPairs()
-            .getOrDefault(spread.getCurrencyPair(), NULL_CURRENCY_PAIR_METADATA).getAmountStepSize();
-        final BigDecimal shortAmountStepSize =  spread.getShortExchange().getExchangeMetaData().getCurrencyPairs()
-            .getOrDefault(spread.getCurrencyPair(), NULL_CURRENCY_PAIR_METADATA).getAmountStepSize();
+        final BigDecimal longAmountStepSize = profile.getLongLeg().getAmountStepSize();
+        final BigDecimal shortAmountStepSize = profile.getShortLeg().getAmountStepSize();
 
-        final int longVolumeScale = computeVolumeScale(spread.getLongExchange(), currencyPairLongExchange);
-        final int shortVolumeScale = computeVolumeScale(spread.getShortExchange(), currencyPairShortExchange);
+        final int longVolumeScale = profile.getLongLeg().getVolumeScale();
+        final int shortVolumeScale = profile.getShortLeg().getVolumeScale();
 
         // figure out how much to trade
         ExitTradeVolume tradeVolume;
@@ -454,8 +502,8 @@ public class TradingService {
         // at a slightly worse price, which we call "slip". This is a little bit computationally expensive which is why
         // we wait until we're pretty sure we want to trade before we do it.
         try {
-            longLimitPrice = getLimitPrice(spread.getLongExchange(), spread.getCurrencyPair(), tradeVolume.getLongVolume(), Order.OrderType.BID);
-            shortLimitPrice = getLimitPrice(spread.getShortExchange(), spread.getCurrencyPair(), tradeVolume.getShortVolume(), Order.OrderType.ASK);
+            longLimitPrice = getLimitPrice(spread.getLongExchange(), profile.getLongLeg(), tradeVolume.getLongVolume(), Order.OrderType.BID);
+            shortLimitPrice = getLimitPrice(spread.getShortExchange(), profile.getShortLeg(), tradeVolume.getShortVolume(), Order.OrderType.ASK);
         } catch (IOException | ExchangeException e) {
             LOGGER.warn("Failed to fetch order books (on active position) for {}/{} and currency {}/{} to compute entry prices: {}",
                 longExchangeName,
@@ -490,7 +538,7 @@ public class TradingService {
         //
         // Also, don't spam the logs with this warning. It's possible that this condition could last for awhile
         // and this code could be executed frequently.
-        final BigDecimal entrySpreadTarget = spreadService.getEntrySpreadTarget(tradingConfiguration, longFee, shortFee);
+        final BigDecimal entrySpreadTarget = spreadService.getEntrySpreadTarget(tradingConfiguration, spread.getTradeCombination(), longFee, shortFee);
         if (isActivePositionExpired() && spreadVerification.compareTo(entrySpreadTarget) < 0) {
             if (!timeoutExitWarning) {
                 LOGGER.warn("Timeout exit triggered");
@@ -647,21 +695,6 @@ public class TradingService {
         }
     }
 
-    // get the smallest possible order for an entry position on an exchange
-    private BigDecimal getMinimumAmountForEntryPosition(Spread spread, Exchange longExchange) {
-        final BigDecimal defaultValue = new BigDecimal("0.001"); // TODO too big?
-        final CurrencyPairMetaData currencyPairMetaData = longExchange
-            .getExchangeMetaData()
-            .getCurrencyPairs()
-            .getOrDefault(exchangeService.convertExchangePair(longExchange, spread.getCurrencyPair()), NULL_CURRENCY_PAIR_METADATA);
-
-        if (currencyPairMetaData == null || currencyPairMetaData.getMinimumAmount() == null) {
-            return defaultValue;
-        }
-
-        return currencyPairMetaData.getMinimumAmount();
-    }
-
     // execute a buy and a sell together
     private void executeOrderPair(Spread spread,
                                   BigDecimal exitSpreadTarget,
@@ -710,6 +743,10 @@ public class TradingService {
             if (isPositionOpen) {
                 activePosition.getLongTrade().setOrderId(longOrderId);
                 activePosition.getShortTrade().setOrderId(shortOrderId);
+
+                // we know exactly what we ordered, so exiting won't need to ask the exchanges, even after a restart
+                orderVolumeCache.setCachedVolume(spread.getLongExchange(), longOrderId, tradeVolume.getLongOrderVolume());
+                orderVolumeCache.setCachedVolume(spread.getShortExchange(), shortOrderId, tradeVolume.getShortOrderVolume());
             } else {
                 activePosition.getLongTrade().setOrderId(null);
                 activePosition.getShortTrade().setOrderId(null);
@@ -742,7 +779,7 @@ public class TradingService {
                 openOrdersFlag.set(false);
 
                 // invalidate the balance cache because we *know* it's incorrect now
-                exchangeBalanceCache.invalidate(spread.getLongExchange(), spread.getShortExchange());
+                exposureService.invalidate(spread.getLongExchange(), spread.getShortExchange());
 
                 if (tradeVolume instanceof EntryTradeVolume) {
                     completeEntry(spread, exitSpreadTarget, longLimitPrice, shortLimitPrice, ((EntryTradeVolume)tradeVolume));
@@ -763,7 +800,7 @@ public class TradingService {
                 collectOpenOrders(exchange, openOrders).ifPresent(LOGGER::warn);
                 return openOrders.getOpenOrders().isEmpty();
             })
-            .subscribeOn(Schedulers.io());
+            .subscribeOn(orderScheduler);
     }
 
     // summarize all the open orders on an exchange, used while we're waiting for orders to fill
@@ -795,15 +832,19 @@ public class TradingService {
         notificationService.sendEntryTradeNotification(spread, exitSpreadTarget, tradeVolume,
             longLimitPrice, shortLimitPrice, isForceOpenCondition);
 
-        try {
-            Utils.createStateFile(objectMapper.writeValueAsString(activePosition));
-        } catch (IOException e) {
-            LOGGER.error("Unable to write state file!", e);
-        }
+        journalActivePosition();
 
         conditionService.clearForceOpenCondition();
     }
 
+    // record the active position in the journal without waiting for it to reach the disk
+    private void journalActivePosition() {
+        positionJournal.record(activePosition).exceptionally(e -> {
+            LOGGER.error("Unable to write position journal!", e);
+            return null;
+        });
+    }
+
     private void completeExit(Spread spread, BigDecimal longLimitPrice, BigDecimal shortLimitPrice, ExitTradeVolume tradeVolume) {
         final String longExchangeName = spread.getLongExchange().getExchangeSpecification().getExchangeName();
         final String shortExchangeName = spread.getShortExchange().getExchangeSpecification().getExchangeName();
@@ -834,7 +875,7 @@ public class TradingService {
             .withTimestamp(OffsetDateTime.now())
             .build();
 
-        persistArbitrageToCsvFile(arbitrageLog);
+        tradeHistoryStore.append(arbitrageLog);
 
         // Email notification must be sent before we set activePosition = null
         notificationService.sendExitTradeNotification(
@@ -850,7 +891,10 @@ public class TradingService {
         );
 
         activePosition = null;
-        Utils.deleteStateFile();
+        positionJournal.clear().exceptionally(e -> {
+            LOGGER.error("Unable to write position journal!", e);
+            return null;
+        });
 
         if (isForceCloseCondition) {
             conditionService.clearForceCloseCondition();
@@ -859,6 +903,7 @@ public class TradingService {
 
     /**
      * Fetch an order and figure out its volume. If the exchange doesn't support that, use a default value instead.
+     * Only volumes we know belong to the order are cached: the ones we placed and the ones the exchange told us about.
      *
      * @param exchange The exchange to look for orders on.
      * @param currencyPair The currency pair for this order.
@@ -913,7 +958,7 @@ public class TradingService {
                     currencyPair.base.toString(),
                     balance);
 
-                orderVolumeCache.setCachedVolume(exchange, orderId, balance);
+                // the balance isn't the order's volume, so don't cache it
                 return balance;
             }
         } catch (IOException e) {
@@ -928,7 +973,6 @@ public class TradingService {
             exchange.getExchangeSpecification().getExchangeName(),
             defaultVolume);
 
-        orderVolumeCache.setCachedVolume(exchange, orderId, defaultVolume);
         return defaultVolume;
     }
 
@@ -943,7 +987,22 @@ public class TradingService {
      */
     BigDecimal getLimitPrice(Exchange exchange, CurrencyPair rawCurrencyPair, BigDecimal allowedVolume, Order.OrderType orderType) throws IOException {
         CurrencyPair currencyPair = exchangeService.convertExchangePair(exchange, rawCurrencyPair);
-        OrderBook orderBook = exchange.getMarketDataService().getOrderBook(currencyPair);
+
+        BigDecimal price = findLimitPrice(exchange, currencyPair, allowedVolume, orderType);
+
+        return price.setScale(computePriceScale(exchange, currencyPair), RoundingMode.HALF_EVEN);
+    }
+
+    // get a limit price using the converted currency pair and price scale from a TradingProfile
+    private BigDecimal getLimitPrice(Exchange exchange, TradingProfile.Leg leg, BigDecimal allowedVolume, Order.OrderType orderType) throws IOException {
+        BigDecimal price = findLimitPrice(exchange, leg.getCurrencyPair(), allowedVolume, orderType);
+
+        return price.setScale(leg.getPriceScale(), RoundingMode.HALF_EVEN);
+    }
+
+    // walk the order book to find the price that will fill our volume
+    private BigDecimal findLimitPrice(Exchange exchange, CurrencyPair currencyPair, BigDecimal allowedVolume, Order.OrderType orderType) throws IOException {
+        OrderBook orderBook = orderBookPrefetcher.getOrderBook(exchange, currencyPair); // fetches it if there's no fresh copy
         List<LimitOrder> orders = orderType.equals(Order.OrderType.ASK) ? orderBook.getAsks() : orderBook.getBids();
         BigDecimal price;
         BigDecimal volume = BigDecimal.ZERO;
@@ -963,64 +1022,13 @@ public class TradingService {
             }
 
             if (volume.compareTo(allowedVolume) > 0) {
-                int scale = computePriceScale(exchange, currencyPair);
-
-                return price.setScale(scale, RoundingMode.HALF_EVEN);
+                return price;
             }
         }
 
         throw new LiquidityException("Not enough liquidity on exchange to fulfill required volume!");
     }
 
-    /**
-     * Figure out the largest trade we can make in our home currency. If fixedExposure is configured, just
-     * use that value. Otherwise, go through each of the exchanges passed in and find the smallest balance,
-     * then multiply by TRADE_PORTION to find the amount to trade.
-     *
-     * @param exchanges A list of exchanges to inspect balances for.
-     * @return The maximum amount that can be traded across the given exchanges.
-     */
-    BigDecimal getMaximumExposure(Exchange ... exchanges) {
-        if (tradingConfiguration.getFixedExposure() != null) {
-            return tradingConfiguration.getFixedExposure();
-        } else {
-            BigDecimal smallestBalance = Arrays.stream(exchanges)
-                .parallel()
-                .map(exchange -> exchangeBalanceCache.getCachedBalance(exchange) // try the cache first
-                    .orElseGet(() -> {
-                        try {
-                            final Currency homeCurrency = exchangeService.getExchangeHomeCurrency(exchange);
-                            final int homeCurrencyScale = exchangeService.getExchangeCurrencyScale(exchange, homeCurrency);
-                            final BigDecimal balance = exchangeService.getAccountBalance(exchange, homeCurrency, homeCurrencyScale); // then make the API call
-
-                            exchangeBalanceCache.setCachedBalance(exchange, balance); // cache the returned value
-
-                            return balance;
-                        } catch (IOException e) {
-                            LOGGER.info("IOException fetching {} account balance", exchange.getExchangeSpecification().getExchangeName());
-
-                            // set the cache to zero so we don't keep spamming the API when there's an IOException
-                            // we may have gotten the IOE because of rate limiting
-                            // this cache entry will only last a short time
-                            // but it will make us back off awhile before trying again
-                            exchangeBalanceCache.setCachedBalance(exchange, BigDecimal.ZERO);
-                        }
-
-                        return BigDecimal.ZERO; // just return a zero balance if we couldn't get anything
-                    }))
-                .min(BigDecimal::compareTo)
-                .orElse(BigDecimal.ZERO);
-
-            BigDecimal exposure = smallestBalance
-                .multiply(TRADE_PORTION)
-                .setScale(DecimalConstants.USD_SCALE, RoundingMode.HALF_EVEN);
-
-            LOGGER.debug("Maximum exposure for {}: {}", exchanges, exposure);
-
-            return exposure;
-        }
-    }
-
     // log the balances of two exchanges and the sum of both
     private BigDecimal logCurrentExchangeBalances(final Exchange longExchange, final Exchange shortExchange) {
         try {
@@ -1057,24 +1065,4 @@ public class TradingService {
 
         return activePosition.getEntryTime().plusHours(tradingConfiguration.getTradeTimeout()).isBefore(OffsetDateTime.now());
     }
-
-    /**
-     * Write an entry in the trade history file.
-     *
-     * @param arbitrageLog A log message to write to the TRADE_HISTORY_FILE.
-     */
-    void persistArbitrageToCsvFile(ArbitrageLog arbitrageLog) {
-        final File csvFile = new File(TRADE_HISTORY_FILE);
-
-        try {
-            if (!csvFile.exists()) {
-                // Add headers first
-                FileUtils.write(csvFile, arbitrageLog.csvHeaders(), StandardCharsets.UTF_8, csvFile.exists());
-            }
-            FileUtils.write(csvFile, arbitrageLog.toCsv(), StandardCharsets.UTF_8, csvFile.exists());
-        }
-        catch (IOException e) {
-            LOGGER.error("Unable to log the trade into the csv file. Reason: {}", e.getMessage());
-        }
-    }
 }
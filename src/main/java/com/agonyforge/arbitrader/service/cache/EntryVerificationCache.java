@@ -0,0 +1,145 @@
+package com.agonyforge.arbitrader.service.cache;
+
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.model.Spread;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remember TradeCombinations whose spread looked good enough to enter but failed verification against the order
+ * books. When a spread flickers around the entry target we would otherwise fetch both order books on every ticker
+ * only to come to the same conclusion. A failed verification is trusted until trading.verificationCooldown
+ * milliseconds have passed or either price has moved by more than trading.verificationPriceMove (as a fraction of
+ * the price), whichever comes first.
+ */
+@Component
+public class EntryVerificationCache {
+    public static final long DEFAULT_COOLDOWN = 5000;
+    public static final BigDecimal DEFAULT_PRICE_MOVE = new BigDecimal("0.0005");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntryVerificationCache.class);
+
+    private final TradingConfiguration tradingConfiguration;
+    private final ConcurrentMap<TradeCombination, FailedVerification> failures = new ConcurrentHashMap<>();
+
+    public EntryVerificationCache(TradingConfiguration tradingConfiguration) {
+        this.tradingConfiguration = tradingConfiguration;
+    }
+
+    /**
+     * Remember that a Spread failed verification against the order books.
+     *
+     * @param spread The Spread we tried to enter.
+     * @param verifiedSpread The spread computed from the order books.
+     */
+    public void setFailed(Spread spread, BigDecimal verifiedSpread) {
+        setFailed(spread, verifiedSpread, System.currentTimeMillis());
+    }
+
+    // intended for testing so that you can set your own timestamp
+    void setFailed(Spread spread, BigDecimal verifiedSpread, long timestamp) {
+        failures.put(spread.getTradeCombination(), new FailedVerification(
+            spread.getLongTicker().getAsk(),
+            spread.getShortTicker().getBid(),
+            verifiedSpread,
+            timestamp));
+    }
+
+    /**
+     * Check whether a Spread should skip verification because the same TradeCombination failed it recently
+     * at nearly the same prices.
+     *
+     * @param spread The Spread we want to enter.
+     * @return true if verifying it again would most likely fail too.
+     */
+    public boolean isSuppressed(Spread spread) {
+        final FailedVerification failure = failures.get(spread.getTradeCombination());
+
+        if (failure == null) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() - failure.getTimestamp() > getCooldown()
+            || isMoved(failure.getLongPrice(), spread.getLongTicker().getAsk())
+            || isMoved(failure.getShortPrice(), spread.getShortTicker().getBid())) {
+
+            failures.remove(spread.getTradeCombination(), failure);
+            return false;
+        }
+
+        LOGGER.debug("Skipping verification for {}, it was {} at nearly the same prices",
+            spread.getTradeCombination(),
+            failure.getVerifiedSpread());
+
+        return true;
+    }
+
+    /**
+     * Forget a failed verification, for example because we entered a position on the TradeCombination.
+     *
+     * @param tradeCombination The TradeCombination.
+     */
+    public void clear(TradeCombination tradeCombination) {
+        failures.remove(tradeCombination);
+    }
+
+    // whether a price has moved far enough from the one we verified at to be worth verifying again
+    private boolean isMoved(BigDecimal verifiedPrice, BigDecimal price) {
+        if (verifiedPrice.signum() == 0) {
+            return price.signum() != 0;
+        }
+
+        final BigDecimal move = price.subtract(verifiedPrice).abs().divide(verifiedPrice, MathContext.DECIMAL64);
+
+        return move.compareTo(getPriceMove()) > 0;
+    }
+
+    private long getCooldown() {
+        final Long cooldown = tradingConfiguration.getVerificationCooldown();
+
+        return cooldown == null ? DEFAULT_COOLDOWN : cooldown;
+    }
+
+    private BigDecimal getPriceMove() {
+        final BigDecimal priceMove = tradingConfiguration.getVerificationPriceMove();
+
+        return priceMove == null ? DEFAULT_PRICE_MOVE : priceMove;
+    }
+
+    private static class FailedVerification {
+        private final BigDecimal longPrice;
+        private final BigDecimal shortPrice;
+        private final BigDecimal verifiedSpread;
+        private final long timestamp;
+
+        public FailedVerification(BigDecimal longPrice, BigDecimal shortPrice, BigDecimal verifiedSpread, long timestamp) {
+            this.longPrice = longPrice;
+            this.shortPrice = shortPrice;
+            this.verifiedSpread = verifiedSpread;
+            this.timestamp = timestamp;
+        }
+
+        public BigDecimal getLongPrice() {
+            return longPrice;
+        }
+
+        public BigDecimal getShortPrice() {
+            return shortPrice;
+        }
+
+        public BigDecimal getVerifiedSpread() {
+            return verifiedSpread;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
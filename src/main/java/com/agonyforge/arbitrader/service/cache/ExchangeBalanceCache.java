@@ -1,30 +1,76 @@
 package com.agonyforge.arbitrader.service.cache;
 
+import info.bitrich.xchangestream.core.StreamingExchange;
+import io.reactivex.disposables.Disposable;
 import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.Currency;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * Cache account balances to avoid rate limiting. Balances do change pretty frequently so we
  * don't cache them for long, but we can avoid some repetitive calls without risking incorrect
  * information.
+ *
+ * Entries are refreshed in the background once they are older than REFRESH_AHEAD, before they
+ * expire, so a trade decision normally finds a fresh balance without waiting on the network.
+ * Exchanges with an account websocket stream also update their entries from the stream.
+ *
+ * Each exchange has a generation that goes up whenever its balance is invalidated. A load that started in an older
+ * generation may have fetched the balance from before a trade, so its result is thrown away and the balance is
+ * loaded again.
  */
 public class ExchangeBalanceCache {
     private static final Logger LOGGER = LoggerFactory.getLogger(ExchangeBalanceCache.class);
 
     public static final long CACHE_TIMEOUT = 1000 * 60; // 1 minute
+    public static final long REFRESH_AHEAD = CACHE_TIMEOUT / 2;
 
-    private final Map<Exchange, AccountBalance> cache = new HashMap<>();
+    /**
+     * Fetches a balance from the exchange.
+     */
+    @FunctionalInterface
+    public interface BalanceLoader {
+        BigDecimal load(Exchange exchange) throws IOException;
+    }
+
+    private final ConcurrentMap<Exchange, AccountBalance> cache = new ConcurrentHashMap<>();
+    private final Set<Exchange> tracked = ConcurrentHashMap.newKeySet();
+    private final Set<Exchange> refreshing = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<Exchange, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Exchange, Disposable> subscriptions = new ConcurrentHashMap<>();
+    private final BalanceLoader loader;
+    private final Executor executor;
+
+    public ExchangeBalanceCache(BalanceLoader loader) {
+        this(loader, Executors.newCachedThreadPool(new BalanceRefreshThreadFactory()));
+    }
+
+    public ExchangeBalanceCache(BalanceLoader loader, Executor executor) {
+        this.loader = loader;
+        this.executor = executor;
+    }
 
     /**
-     * Retrieve a balance from the cache.
+     * Retrieve a balance from the cache. If the balance is getting old, start refreshing it in
+     * the background.
      *
      * @param exchange The exchange to retrieve a balance for.
      * @return The account balance for the requested exchange.
@@ -37,15 +83,43 @@ public class ExchangeBalanceCache {
             return Optional.empty();
         }
 
-        if (System.currentTimeMillis() - balance.getTimestamp() > CACHE_TIMEOUT) {
+        long age = System.currentTimeMillis() - balance.getTimestamp();
+
+        if (age > CACHE_TIMEOUT) {
             LOGGER.debug("Cache had an expired value for exchange {}", exchange.getExchangeSpecification().getExchangeName());
             return Optional.empty();
         }
 
+        if (age > REFRESH_AHEAD) {
+            refreshAsync(exchange);
+        }
+
         LOGGER.debug("Cache returned a cached value for exchange {}", exchange.getExchangeSpecification().getExchangeName());
         return Optional.of(balance.getAmount());
     }
 
+    /**
+     * Retrieve a balance from the cache, or fetch it from the exchange if there isn't a usable one.
+     * If the exchange fails we cache a zero balance for a short time so that we back off instead of
+     * hammering an API that may be rate limiting us.
+     *
+     * @param exchange The exchange to retrieve a balance for.
+     * @return The account balance for the requested exchange, or zero if it could not be fetched.
+     */
+    public BigDecimal getBalance(Exchange exchange) {
+        return getCachedBalance(exchange).orElseGet(() -> {
+            try {
+                return load(exchange);
+            } catch (IOException e) {
+                LOGGER.info("IOException fetching {} account balance", exchange.getExchangeSpecification().getExchangeName());
+
+                setCachedBalance(exchange, BigDecimal.ZERO);
+            }
+
+            return BigDecimal.ZERO;
+        });
+    }
+
     /**
      * Put a balance into the cache.
      *
@@ -67,7 +141,70 @@ public class ExchangeBalanceCache {
     }
 
     /**
-     * Remove a cached value, if any exists, for the given exchanges.
+     * Keep the balance for an exchange warm from now on, even if nobody asks for it, and fetch it
+     * for the first time in the background.
+     *
+     * @param exchange The exchange to track.
+     */
+    public void track(Exchange exchange) {
+        tracked.add(exchange);
+        refreshAsync(exchange);
+    }
+
+    /**
+     * Update the balance for an exchange from its account websocket stream, if it has one.
+     *
+     * @param exchange The exchange to subscribe to.
+     * @param currency The currency of the balance we're caching.
+     * @param scale The scale to store balances at.
+     * @return true if we subscribed, false if the exchange doesn't offer balance updates.
+     */
+    public boolean subscribe(StreamingExchange exchange, Currency currency, int scale) {
+        try {
+            Disposable subscription = exchange.getStreamingAccountService()
+                .getBalanceChanges(currency)
+                .subscribe(
+                    balance -> setCachedBalance(exchange, balance.getAvailable().setScale(scale, RoundingMode.HALF_EVEN)),
+                    throwable -> {
+                        LOGGER.debug("Balance stream for {} failed, falling back to polling: {}",
+                            exchange.getExchangeSpecification().getExchangeName(),
+                            throwable.getMessage());
+                        subscriptions.remove(exchange);
+                    });
+
+            Disposable previous = subscriptions.put(exchange, subscription);
+
+            if (previous != null) {
+                previous.dispose();
+            }
+
+            return true;
+        } catch (UnsupportedOperationException e) {
+            LOGGER.debug("{} does not stream balance changes", exchange.getExchangeSpecification().getExchangeName());
+        }
+
+        return false;
+    }
+
+    /**
+     * Start background refreshes for every tracked entry that will expire soon. Entries that are
+     * being updated by a balance stream stay fresh and won't need it, but if the stream goes quiet
+     * this makes sure we still poll.
+     */
+    public void refresh() {
+        long now = System.currentTimeMillis();
+
+        tracked.forEach(exchange -> {
+            AccountBalance balance = cache.get(exchange);
+
+            if (balance == null || now - balance.getTimestamp() > REFRESH_AHEAD) {
+                refreshAsync(exchange);
+            }
+        });
+    }
+
+    /**
+     * Remove a cached value, if any exists, for the given exchanges and fetch a new one in the background.
      * This method is useful if we have taken some action such as executing a trade and
      * we know for sure that the account balance has changed.
      *
@@ -83,7 +220,85 @@ public class ExchangeBalanceCache {
             LOGGER.debug("Cache invalidating exchanges: {}", exchangeNames);
         }
 
-        Arrays.stream(exchanges).forEach(cache::remove);
+        Arrays.stream(exchanges).forEach(exchange -> {
+            AtomicLong generation = getGeneration(exchange);
+
+            synchronized (generation) {
+                generation.incrementAndGet();
+                cache.remove(exchange);
+            }
+
+            refreshAsync(exchange);
+        });
+    }
+
+    /**
+     * Stop listening to balance streams and stop refreshing.
+     */
+    public void close() {
+        subscriptions.values().forEach(Disposable::dispose);
+        subscriptions.clear();
+
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    // fetch a balance from the exchange and cache it
+    private BigDecimal load(Exchange exchange) throws IOException {
+        return load(exchange, getGeneration(exchange).get());
+    }
+
+    // fetch a balance from the exchange and cache it, unless it was invalidated since the load started
+    private BigDecimal load(Exchange exchange, long started) throws IOException {
+        AtomicLong generation = getGeneration(exchange);
+        BigDecimal balance = loader.load(exchange);
+
+        synchronized (generation) {
+            if (generation.get() == started) {
+                setCachedBalance(exchange, balance);
+            } else {
+                LOGGER.debug("Discarding {} account balance that was loaded before it was invalidated",
+                    exchange.getExchangeSpecification().getExchangeName());
+            }
+        }
+
+        return balance;
+    }
+
+    private AtomicLong getGeneration(Exchange exchange) {
+        return generations.computeIfAbsent(exchange, key -> new AtomicLong());
+    }
+
+    // fetch a balance in the background, unless we're already doing that for this exchange
+    private void refreshAsync(Exchange exchange) {
+        if (!refreshing.add(exchange)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                long started = getGeneration(exchange).get();
+
+                try {
+                    load(exchange, started);
+                } catch (IOException | RuntimeException e) {
+                    // keep the old value until it expires, then getBalance() will try again and back off if needed
+                    LOGGER.debug("Background refresh of {} account balance failed: {}",
+                        exchange.getExchangeSpecification().getExchangeName(),
+                        e.getMessage());
+                } finally {
+                    refreshing.remove(exchange);
+                }
+
+                // it was invalidated while we were loading it, and that invalidation couldn't start a load of its own
+                if (getGeneration(exchange).get() != started) {
+                    refreshAsync(exchange);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(exchange);
+        }
     }
 
     private static class AccountBalance {
@@ -103,4 +318,18 @@ public class ExchangeBalanceCache {
             return timestamp;
         }
     }
+
+    // daemon threads so a slow exchange can't hold up shutdown
+    private static class BalanceRefreshThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "balance-refresh-" + count.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
 }
@@ -5,17 +5,29 @@ import org.knowm.xchange.Exchange;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Cache exchange fee amounts. They don't change that often and we request them frequently,
  * so this saves us from a lot of API rate limiting.
+ *
+ * Fees are keyed by the Exchange object and then by CurrencyPair, so a lookup never has to build
+ * a key. Fallback fees (configured or default values we used because the exchange couldn't tell us)
+ * are cached too, for a shorter time if the exchange failed for a reason that might go away. We also
+ * remember which exchanges don't implement dynamic fees at all so we stop asking them.
  */
 @Component
 public class ExchangeFeeCache {
-    private final Map<String, ExchangeFee> cache = new HashMap<>();
+    public static final long FEE_TIMEOUT = TimeUnit.HOURS.toMillis(24);
+    public static final long FALLBACK_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    private final ConcurrentMap<Exchange, ConcurrentMap<CurrencyPair, CachedFee>> cache = new ConcurrentHashMap<>();
+    private final Set<Exchange> dynamicFeesUnsupported = ConcurrentHashMap.newKeySet();
 
     /**
      * Return a fee from the cache.
@@ -25,7 +37,29 @@ public class ExchangeFeeCache {
      * @return The fee as a decimal such as 0.0016, or 0.16%
      */
     public Optional<ExchangeFee> getCachedFee(Exchange exchange, CurrencyPair currencyPair) {
-        return Optional.ofNullable(cache.get(computeCacheKey(exchange, currencyPair)));
+        return getCachedFee(exchange, currencyPair, System.currentTimeMillis());
+    }
+
+    // intended for testing
+    Optional<ExchangeFee> getCachedFee(Exchange exchange, CurrencyPair currencyPair, long now) {
+        ConcurrentMap<CurrencyPair, CachedFee> fees = cache.get(exchange);
+
+        if (fees == null) {
+            return Optional.empty();
+        }
+
+        CachedFee cachedFee = fees.get(currencyPair);
+
+        if (cachedFee == null) {
+            return Optional.empty();
+        }
+
+        if (now > cachedFee.getExpiration()) {
+            fees.remove(currencyPair, cachedFee);
+            return Optional.empty();
+        }
+
+        return Optional.of(cachedFee.getFee());
     }
 
     /**
@@ -36,13 +70,81 @@ public class ExchangeFeeCache {
      * @param fee The fee as a decimal, such as 0.0016 for 0.16%
      */
     public void setCachedFee(Exchange exchange, CurrencyPair currencyPair, ExchangeFee fee) {
-        cache.put(computeCacheKey(exchange, currencyPair), fee);
+        setCachedFee(exchange, currencyPair, fee, System.currentTimeMillis() + FEE_TIMEOUT);
+    }
+
+    /**
+     * Include a fallback fee in the cache that we only used because the exchange had a problem telling us
+     * the real one. It expires sooner so we try the exchange again before long.
+     *
+     * @param exchange The Exchange this fee is for.
+     * @param currencyPair The CurrencyPair this fee is for.
+     * @param fee The fee as a decimal, such as 0.0016 for 0.16%
+     */
+    public void setFallbackFee(Exchange exchange, CurrencyPair currencyPair, ExchangeFee fee) {
+        setCachedFee(exchange, currencyPair, fee, System.currentTimeMillis() + FALLBACK_TIMEOUT);
     }
 
-    // generate a string that represents an exchange and currency pair, suitable for use as a key in a Map
-    private String computeCacheKey(Exchange exchange, CurrencyPair currencyPair) {
-        return String.format("%s:%s",
-            exchange.getExchangeSpecification().getExchangeName(),
-            currencyPair.toString());
+    // intended for testing so that you can set your own expiration
+    void setCachedFee(Exchange exchange, CurrencyPair currencyPair, ExchangeFee fee, long expiration) {
+        cache
+            .computeIfAbsent(exchange, e -> new ConcurrentHashMap<>())
+            .put(currencyPair, new CachedFee(fee, expiration));
+    }
+
+    /**
+     * Get all the exchanges we have cached fees for.
+     *
+     * @return The exchanges.
+     */
+    public Set<Exchange> getExchanges() {
+        return Collections.unmodifiableSet(cache.keySet());
+    }
+
+    /**
+     * Get all the currency pairs we have cached fees for on an exchange.
+     *
+     * @param exchange The Exchange.
+     * @return The currency pairs.
+     */
+    public Set<CurrencyPair> getCurrencyPairs(Exchange exchange) {
+        ConcurrentMap<CurrencyPair, CachedFee> fees = cache.get(exchange);
+
+        if (fees == null) {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet(fees.keySet());
+    }
+
+    /**
+     * Remember that an exchange doesn't implement getDynamicTradingFees() so we don't keep asking.
+     *
+     * @param exchange The Exchange.
+     */
+    public void setDynamicFeesUnsupported(Exchange exchange) {
+        dynamicFeesUnsupported.add(exchange);
+    }
+
+    public boolean isDynamicFeesUnsupported(Exchange exchange) {
+        return dynamicFeesUnsupported.contains(exchange);
+    }
+
+    private static class CachedFee {
+        private final ExchangeFee fee;
+        private final long expiration;
+
+        public CachedFee(ExchangeFee fee, long expiration) {
+            this.fee = fee;
+            this.expiration = expiration;
+        }
+
+        public ExchangeFee getFee() {
+            return fee;
+        }
+
+        public long getExpiration() {
+            return expiration;
+        }
     }
 }
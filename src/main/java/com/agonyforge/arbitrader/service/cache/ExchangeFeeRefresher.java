@@ -0,0 +1,115 @@
+package com.agonyforge.arbitrader.service.cache;
+
+import com.agonyforge.arbitrader.service.ExchangeService;
+import com.agonyforge.arbitrader.service.model.ExchangeFee;
+import com.agonyforge.arbitrader.service.model.ExchangeFeeChangeEvent;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the ExchangeFeeCache up to date. Once an hour, each exchange that supports dynamic fees is asked for all
+ * of its fees in one call and every cached pair is updated from the result. When a fee changes we publish an
+ * ExchangeFeeChangeEvent so anything that was computed from the old fee can be recomputed.
+ */
+@Component
+public class ExchangeFeeRefresher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExchangeFeeRefresher.class);
+
+    private final ExchangeFeeCache feeCache;
+    private final ExchangeService exchangeService;
+    private final ApplicationEventPublisher applicationEventPublisher;
+
+    // refreshes make REST calls, so keep them off the shared scheduler thread
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fee-refresh");
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    public ExchangeFeeRefresher(
+        ExchangeFeeCache feeCache,
+        ExchangeService exchangeService,
+        ApplicationEventPublisher applicationEventPublisher) {
+
+        this.feeCache = feeCache;
+        this.exchangeService = exchangeService;
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
+    /**
+     * Start refreshing the fees for every exchange in the cache.
+     */
+    @Scheduled(initialDelay = 1000 * 60 * 60, fixedDelay = 1000 * 60 * 60) // every hour
+    public void refreshFees() {
+        feeCache.getExchanges().forEach(exchange -> executor.execute(() -> refresh(exchange)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // fetch all the fees for one exchange and update the cache
+    void refresh(Exchange exchange) {
+        if (feeCache.isDynamicFeesUnsupported(exchange)
+            || exchangeService.getExchangeMetadata(exchange).getTradeFeeOverride() != null) {
+            return;
+        }
+
+        Map<CurrencyPair, ExchangeFee> fees;
+
+        try {
+            fees = exchangeService.getDynamicExchangeFees(exchange);
+        } catch (NotYetImplementedForExchangeException e) {
+            feeCache.setDynamicFeesUnsupported(exchange);
+            return;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Unable to refresh fees for {}: {}",
+                exchange.getExchangeSpecification().getExchangeName(),
+                e.getMessage());
+            return;
+        }
+
+        feeCache.getCurrencyPairs(exchange).forEach(currencyPair -> {
+            ExchangeFee fee = fees.get(currencyPair);
+
+            if (fee == null) {
+                return;
+            }
+
+            Optional<ExchangeFee> oldFee = feeCache.getCachedFee(exchange, currencyPair);
+
+            feeCache.setCachedFee(exchange, currencyPair, fee);
+
+            if (oldFee.isPresent() && isChanged(oldFee.get(), fee)) {
+                LOGGER.info("{} {} fee changed from {} to {}",
+                    exchange.getExchangeSpecification().getExchangeName(),
+                    currencyPair,
+                    oldFee.get().getTotalFee(),
+                    fee.getTotalFee());
+
+                applicationEventPublisher.publishEvent(new ExchangeFeeChangeEvent(exchange, currencyPair, oldFee.get(), fee));
+            }
+        });
+    }
+
+    private static boolean isChanged(ExchangeFee oldFee, ExchangeFee newFee) {
+        return oldFee.getTradeFee().compareTo(newFee.getTradeFee()) != 0
+            || oldFee.getTotalFee().compareTo(newFee.getTotalFee()) != 0;
+    }
+}
@@ -0,0 +1,301 @@
+package com.agonyforge.arbitrader.service.cache;
+
+import com.agonyforge.arbitrader.config.ExecutorConfig;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import com.agonyforge.arbitrader.service.model.TradingProfile;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps fresh order books for TradeCombinations that are close to trading, so that checking for slip when we
+ * decide to trade doesn't have to wait for the order books to come back from the exchanges.
+ *
+ * TradingService tells us how far each combination is from crossing its target on every ticker. Combinations
+ * within trading.prefetchDistance are "warm" and their order books are fetched in the background before they get
+ * older than half of trading.orderBookMaxAge. Each exchange has a budget of trading.orderBookRequestsPerMinute
+ * background requests so prefetching can't get us rate limited. Order books are only served from here while they
+ * are younger than orderBookMaxAge; otherwise they are fetched on demand like before.
+ */
+@Component
+public class OrderBookPrefetcher {
+    public static final long DEFAULT_MAX_AGE = 2000;
+    public static final int DEFAULT_REQUESTS_PER_MINUTE = 60;
+    public static final long WARM_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderBookPrefetcher.class);
+
+    private final TradingConfiguration tradingConfiguration;
+    private final Executor executor;
+    private final ConcurrentMap<TradeCombination, WarmCombination> warm = new ConcurrentHashMap<>();
+    private final ConcurrentMap<BookKey, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Exchange, Long> nextRequest = new ConcurrentHashMap<>();
+    private final Set<BookKey> fetching = ConcurrentHashMap.newKeySet();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public OrderBookPrefetcher(TradingConfiguration tradingConfiguration) {
+        this(tradingConfiguration, Executors.newCachedThreadPool(new PrefetchThreadFactory()));
+    }
+
+    @Inject
+    public OrderBookPrefetcher(
+        TradingConfiguration tradingConfiguration,
+        @Qualifier(ExecutorConfig.MARKET_DATA_EXECUTOR) Executor executor) {
+
+        this.tradingConfiguration = tradingConfiguration;
+        this.executor = executor;
+    }
+
+    /**
+     * Tell the prefetcher how far a TradeCombination is from crossing its entry or exit target. Combinations within
+     * trading.prefetchDistance, or past the target already, have their order books kept fresh.
+     *
+     * @param profile The TradingProfile of the TradeCombination.
+     * @param distance How far the spread has to move before we trade.
+     */
+    public void watch(TradingProfile profile, BigDecimal distance) {
+        final BigDecimal prefetchDistance = tradingConfiguration.getPrefetchDistance();
+
+        if (prefetchDistance == null) {
+            return;
+        }
+
+        if (distance.compareTo(prefetchDistance) > 0) {
+            warm.remove(profile.getTradeCombination());
+        } else {
+            warm.put(profile.getTradeCombination(), new WarmCombination(profile, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Start fetching order books for warm TradeCombinations that are getting old, as far as each exchange's
+     * request budget allows.
+     */
+    @Scheduled(initialDelay = 5000, fixedDelay = 250)
+    public void prefetch() {
+        final long now = System.currentTimeMillis();
+        final long refreshAge = getMaxAge() / 2;
+
+        // combinations we haven't heard about in a while have stopped ticking, or were removed
+        warm.values().removeIf(combination -> now - combination.getTimestamp() > WARM_TIMEOUT);
+
+        warm.values().forEach(combination -> {
+            final TradeCombination tradeCombination = combination.getProfile().getTradeCombination();
+
+            prefetch(new BookKey(tradeCombination.getLongExchange(), combination.getProfile().getLongLeg().getCurrencyPair()), now, refreshAge);
+            prefetch(new BookKey(tradeCombination.getShortExchange(), combination.getProfile().getShortLeg().getCurrencyPair()), now, refreshAge);
+        });
+    }
+
+    /**
+     * Get an order book. If we have a fresh prefetched copy it is returned right away, otherwise the order book is
+     * fetched from the exchange.
+     *
+     * @param exchange The Exchange.
+     * @param currencyPair The CurrencyPair, already converted for the exchange.
+     * @return The OrderBook.
+     * @throws IOException when the exchange can't be reached.
+     */
+    public OrderBook getOrderBook(Exchange exchange, CurrencyPair currencyPair) throws IOException {
+        final Snapshot snapshot = snapshots.get(new BookKey(exchange, currencyPair));
+
+        if (snapshot != null && System.currentTimeMillis() - snapshot.getTimestamp() <= getMaxAge()) {
+            hits.increment();
+            return snapshot.getOrderBook();
+        }
+
+        misses.increment();
+
+        LOGGER.debug("No prefetched order book for {} {}",
+            exchange.getExchangeSpecification().getExchangeName(),
+            currencyPair);
+
+        // this counts against the budget too, even though we don't wait for it
+        nextRequest.put(exchange, System.currentTimeMillis() + getRequestInterval());
+
+        return exchange.getMarketDataService().getOrderBook(currencyPair);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Log how often we were able to use a prefetched order book.
+     */
+    @Scheduled(cron = "0 0 0/6 * * *") // every 6 hours
+    public void report() {
+        final long hitCount = hits.sum();
+        final long total = hitCount + misses.sum();
+
+        if (total > 0) {
+            LOGGER.info("Order books served from prefetch: {} of {} ({}%)", hitCount, total, hitCount * 100 / total);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    // fetch one order book in the background if it's getting old and the exchange has budget left
+    private void prefetch(BookKey key, long now, long refreshAge) {
+        final Snapshot snapshot = snapshots.get(key);
+
+        if (snapshot != null && now - snapshot.getTimestamp() < refreshAge) {
+            return;
+        }
+
+        if (now < nextRequest.getOrDefault(key.getExchange(), 0L) || !fetching.add(key)) {
+            return;
+        }
+
+        nextRequest.put(key.getExchange(), now + getRequestInterval());
+
+        try {
+            executor.execute(() -> {
+                try {
+                    OrderBook orderBook = key.getExchange().getMarketDataService().getOrderBook(key.getCurrencyPair());
+
+                    snapshots.put(key, new Snapshot(orderBook, System.currentTimeMillis()));
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.debug("Unable to prefetch order book for {} {}: {}",
+                        key.getExchange().getExchangeSpecification().getExchangeName(),
+                        key.getCurrencyPair(),
+                        e.getMessage());
+                } finally {
+                    fetching.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fetching.remove(key);
+        }
+    }
+
+    private long getMaxAge() {
+        final Long maxAge = tradingConfiguration.getOrderBookMaxAge();
+
+        return maxAge == null ? DEFAULT_MAX_AGE : maxAge;
+    }
+
+    // how long to wait between requests to the same exchange
+    private long getRequestInterval() {
+        final Integer requestsPerMinute = tradingConfiguration.getOrderBookRequestsPerMinute();
+
+        return TimeUnit.MINUTES.toMillis(1) / (requestsPerMinute == null || requestsPerMinute < 1 ? DEFAULT_REQUESTS_PER_MINUTE : requestsPerMinute);
+    }
+
+    private static class WarmCombination {
+        private final TradingProfile profile;
+        private final long timestamp;
+
+        public WarmCombination(TradingProfile profile, long timestamp) {
+            this.profile = profile;
+            this.timestamp = timestamp;
+        }
+
+        public TradingProfile getProfile() {
+            return profile;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    private static class Snapshot {
+        private final OrderBook orderBook;
+        private final long timestamp;
+
+        public Snapshot(OrderBook orderBook, long timestamp) {
+            this.orderBook = orderBook;
+            this.timestamp = timestamp;
+        }
+
+        public OrderBook getOrderBook() {
+            return orderBook;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    private static class BookKey {
+        private final Exchange exchange;
+        private final CurrencyPair currencyPair;
+        private final int hashCode;
+
+        public BookKey(Exchange exchange, CurrencyPair currencyPair) {
+            this.exchange = exchange;
+            this.currencyPair = currencyPair;
+            this.hashCode = Objects.hash(exchange, currencyPair);
+        }
+
+        public Exchange getExchange() {
+            return exchange;
+        }
+
+        public CurrencyPair getCurrencyPair() {
+            return currencyPair;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BookKey)) return false;
+            BookKey bookKey = (BookKey) o;
+            return exchange == bookKey.exchange &&
+                Objects.equals(currencyPair, bookKey.currencyPair);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    // daemon threads so a slow exchange can't hold up shutdown
+    private static class PrefetchThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "order-book-prefetch-" + count.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
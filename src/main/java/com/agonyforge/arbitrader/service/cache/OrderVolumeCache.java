@@ -1,27 +1,117 @@
 package com.agonyforge.arbitrader.service.cache;
 
+import com.agonyforge.arbitrader.config.ExecutorConfig;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.knowm.xchange.Exchange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 /**
  * Cache order volumes to avoid rate limiting. Order volumes don't change
  * once they're placed so they're safe to cache.
+ *
+ * The cache holds the most recently used orders, up to its capacity, and evicts the least recently used
+ * order when it's full. Each order appears once no matter how many times it's cached. The contents are
+ * written to a file next to the position journal so that after a restart we can exit a position without
+ * asking the exchanges for the volumes of its orders again. The file is written on the order executor, so
+ * caching a volume never waits on the disk, and changes that arrive while a write is waiting share it.
  */
+@Component
 public class OrderVolumeCache {
-    public static final int CACHE_SIZE = 4;
+    public static final String CACHE_FILE = ".arbitrader/arbitrader-order-volumes.json";
+    public static final int DEFAULT_CAPACITY = 64;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OrderVolumeCache.class);
 
-    private final Map<String, BigDecimal> cache = new HashMap<>();
-    private final List<String> keys = new ArrayList<>();
+    private final int capacity;
+    private final ObjectMapper objectMapper;
+    private final Path cachePath;
+    private final Executor executor;
+    private final Map<OrderKey, BigDecimal> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Object fileLock = new Object();
+    private final AtomicBoolean isSavePending = new AtomicBoolean(false);
+
+    @Inject
+    public OrderVolumeCache(
+        TradingConfiguration tradingConfiguration,
+        ObjectMapper objectMapper,
+        @Qualifier(ExecutorConfig.ORDER_EXECUTOR) Executor orderExecutor) {
+
+        this(tradingConfiguration.getOrderVolumeCacheSize(), objectMapper, Paths.get(CACHE_FILE), orderExecutor);
+    }
+
+    /**
+     * Create a cache that only lives in memory.
+     *
+     * @param capacity The maximum number of orders to keep.
+     */
+    public OrderVolumeCache(Integer capacity) {
+        this(capacity, null, null, Runnable::run);
+    }
+
+    OrderVolumeCache(Integer capacity, ObjectMapper objectMapper, Path cachePath, Executor executor) {
+        this.capacity = capacity == null || capacity < 1 ? DEFAULT_CAPACITY : capacity;
+        this.objectMapper = objectMapper;
+        this.cachePath = cachePath;
+        this.executor = executor;
+
+        // access ordered so the eldest entry is always the least recently used one
+        this.cache = new LinkedHashMap<OrderKey, BigDecimal>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<OrderKey, BigDecimal> eldest) {
+                return size() > OrderVolumeCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Read the cache file, if there is one, from the last time we ran.
+     */
+    @PostConstruct
+    public void load() {
+        if (cachePath == null || !Files.exists(cachePath)) {
+            return;
+        }
+
+        try {
+            List<PersistedVolume> volumes = objectMapper.readValue(cachePath.toFile(), new TypeReference<List<PersistedVolume>>() {});
+
+            synchronized (this) {
+                volumes.forEach(volume -> cache.put(new OrderKey(volume.getExchange(), volume.getOrderId()), volume.getVolume()));
+            }
+
+            LOGGER.debug("Loaded {} order volumes from {}", volumes.size(), cachePath);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read order volumes from {}: {}", cachePath, e.getMessage());
+        }
+    }
 
     /**
      * Return a cached volume by exchange and order ID.
@@ -31,16 +121,26 @@ public class OrderVolumeCache {
      * @return The volume of the order, if it is in the cache.
      */
     public Optional<BigDecimal> getCachedVolume(Exchange exchange, String orderId) {
-        BigDecimal value = cache.get(computeCacheKey(exchange, orderId));
+        BigDecimal value;
+
+        synchronized (this) {
+            value = cache.get(new OrderKey(exchange.getExchangeSpecification().getExchangeName(), orderId));
+        }
 
         if (value == null) {
-            LOGGER.debug("Cache returned null for order {}:{}",
+            misses.increment();
+
+            LOGGER.debug("Cache returned null for order {}:{} ({} hits, {} misses)",
                 exchange.getExchangeSpecification().getExchangeName(),
-                orderId);
+                orderId,
+                hits.sum(),
+                misses.sum());
 
             return Optional.empty();
         }
 
+        hits.increment();
+
         LOGGER.debug("Cache returned a cached volume for order {}:{}",
             exchange.getExchangeSpecification().getExchangeName(),
             orderId);
@@ -49,12 +149,10 @@ public class OrderVolumeCache {
     }
 
     /**
-     * Put an order volume into the cache. If the cache is larger than CACHE_SIZE
-     * after adding the new value, orders will be removed in the order they were added
-     * (first in, first out) until the size of the cache equals CACHE_SIZE. This is
-     * a feature to avoid unbounded memory growth if Arbitrader is left running
-     * for a long period of time. There is no reason at the time of writing this that
-     * we would ever want to look up an order volume for a closed order.
+     * Put an order volume into the cache. If the cache is full, the least recently used
+     * order is removed to make room. This is a feature to avoid unbounded memory growth
+     * if Arbitrader is left running for a long period of time. There is no reason at the
+     * time of writing this that we would ever want to look up an order volume for a closed order.
      *
      * @param exchange The exchange the order is on.
      * @param orderId The order ID of the order.
@@ -66,21 +164,150 @@ public class OrderVolumeCache {
             orderId,
             volume);
 
-        // add the new key to the cache
-        cache.put(computeCacheKey(exchange, orderId), volume);
-        keys.add(computeCacheKey(exchange, orderId));
+        BigDecimal previous;
+
+        synchronized (this) {
+            previous = cache.put(new OrderKey(exchange.getExchangeSpecification().getExchangeName(), orderId), volume);
+        }
+
+        // volumes don't change, so only write the file when there's something new in it
+        if (previous == null || previous.compareTo(volume) != 0) {
+            saveAsync();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
 
-        // if the cache is too large, start removing items (FIFO) until it has CACHE_SIZE items
-        if (keys.size() > CACHE_SIZE) {
-            while (keys.size() > CACHE_SIZE) {
-                cache.remove(keys.get(0));
-                keys.remove(0);
+    // write the cache in the background, unless a write is already waiting to start and will pick this change up
+    private void saveAsync() {
+        if (cachePath == null || !isSavePending.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                // clear it first, so a change that arrives while we're writing schedules another write
+                isSavePending.set(false);
+                save();
+            });
+        } catch (RejectedExecutionException e) {
+            isSavePending.set(false);
+            LOGGER.warn("Unable to schedule writing order volumes to {}", cachePath);
+        }
+    }
+
+    // write the cache to a temporary file and move it into place, so a crash can't leave a partial file behind
+    private void save() {
+        if (cachePath == null) {
+            return;
+        }
+
+        synchronized (fileLock) {
+            List<PersistedVolume> volumes = new ArrayList<>();
+
+            synchronized (this) {
+                // iterating doesn't change the access order, so this is least recently used first
+                cache.forEach((key, volume) -> volumes.add(new PersistedVolume(key.getExchange(), key.getOrderId(), volume)));
+            }
+
+            try {
+                Path temporary = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+
+                Files.createDirectories(cachePath.toAbsolutePath().getParent());
+                objectMapper.writeValue(temporary.toFile(), volumes);
+                Files.move(temporary, cachePath, REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to write order volumes to {}: {}", cachePath, e.getMessage());
             }
         }
     }
 
-    // compute a String key suitable for use as the key in a Map
-    private String computeCacheKey(Exchange exchange, String orderId) {
-        return String.format("%s:%s", exchange.getExchangeSpecification().getExchangeName(), orderId);
+    private static class OrderKey {
+        private final String exchange;
+        private final String orderId;
+        private final int hashCode;
+
+        public OrderKey(String exchange, String orderId) {
+            this.exchange = exchange;
+            this.orderId = orderId;
+            this.hashCode = Objects.hash(exchange, orderId);
+        }
+
+        public String getExchange() {
+            return exchange;
+        }
+
+        public String getOrderId() {
+            return orderId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof OrderKey)) return false;
+            OrderKey orderKey = (OrderKey) o;
+            return Objects.equals(exchange, orderKey.exchange) &&
+                Objects.equals(orderId, orderKey.orderId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    // the JSON representation of one cached volume
+    static class PersistedVolume {
+        private String exchange;
+        private String orderId;
+        private BigDecimal volume;
+
+        public PersistedVolume() {
+            // for Jackson
+        }
+
+        public PersistedVolume(String exchange, String orderId, BigDecimal volume) {
+            this.exchange = exchange;
+            this.orderId = orderId;
+            this.volume = volume;
+        }
+
+        public String getExchange() {
+            return exchange;
+        }
+
+        public void setExchange(String exchange) {
+            this.exchange = exchange;
+        }
+
+        public String getOrderId() {
+            return orderId;
+        }
+
+        public void setOrderId(String orderId) {
+            this.orderId = orderId;
+        }
+
+        public BigDecimal getVolume() {
+            return volume;
+        }
+
+        public void setVolume(BigDecimal volume) {
+            this.volume = volume;
+        }
     }
 }
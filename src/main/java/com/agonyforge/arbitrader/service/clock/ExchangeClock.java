@@ -0,0 +1,151 @@
+package com.agonyforge.arbitrader.service.clock;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates how far one exchange's clock is from ours, so its timestamps can be converted to local time.
+ *
+ * The best estimate comes from asking the exchange for its time: the answer was produced somewhere between sending
+ * the request and receiving the response, so the offset is the server time minus the midpoint, and it's most
+ * accurate for the request with the shortest round trip. We keep the last SERVER_SAMPLES answers and use the best
+ * one.
+ *
+ * Exchanges without a server time endpoint only give us the timestamps on their tickers. A ticker can't arrive
+ * before it was sent, so the difference between its timestamp and the time we received it is the offset minus
+ * however long it took to get here. The largest difference over the last couple of SAMPLE_WINDOWs came from the
+ * fastest ticker, and we take that as the offset. That makes the fastest ticker's latency zero, so latencies
+ * estimated this way are relative to the fastest one rather than absolute.
+ */
+public class ExchangeClock {
+    static final int SERVER_SAMPLES = 8;
+    static final long SAMPLE_WINDOW = TimeUnit.MINUTES.toMillis(5);
+
+    private final Deque<ServerSample> serverSamples = new ArrayDeque<>();
+
+    private long windowStart = -1;
+    private long windowMaximum = Long.MIN_VALUE;
+    private long previousWindowMaximum = Long.MIN_VALUE;
+
+    private long latencyCount = 0;
+    private long latencyTotal = 0;
+    private long latencyMaximum = 0;
+
+    /**
+     * Record an answer from the exchange's server time endpoint.
+     *
+     * @param sent The local time the request was sent.
+     * @param serverTime The time the exchange answered with.
+     * @param received The local time the response arrived.
+     */
+    public synchronized void recordServerTime(long sent, long serverTime, long received) {
+        serverSamples.addLast(new ServerSample(serverTime - (sent + received) / 2, received - sent));
+
+        while (serverSamples.size() > SERVER_SAMPLES) {
+            serverSamples.removeFirst();
+        }
+    }
+
+    /**
+     * Record the timestamp on a message from the exchange, and how long it took to arrive.
+     *
+     * @param exchangeTime The timestamp the exchange put on the message.
+     * @param received The local time the message arrived.
+     * @return The estimated time it took the message to arrive, in milliseconds.
+     */
+    public synchronized long recordTimestamp(long exchangeTime, long received) {
+        if (windowStart < 0 || received - windowStart >= SAMPLE_WINDOW) {
+            previousWindowMaximum = windowMaximum;
+            windowMaximum = Long.MIN_VALUE;
+            windowStart = received;
+        }
+
+        windowMaximum = Math.max(windowMaximum, exchangeTime - received);
+
+        final long latency = Math.max(0, received - toLocalTime(exchangeTime));
+
+        latencyCount++;
+        latencyTotal += latency;
+        latencyMaximum = Math.max(latencyMaximum, latency);
+
+        return latency;
+    }
+
+    /**
+     * Is the offset based on the exchange's server time rather than its ticker timestamps?
+     *
+     * @return true if we've heard from the server time endpoint.
+     */
+    public synchronized boolean isServerTime() {
+        return !serverSamples.isEmpty();
+    }
+
+    /**
+     * Get how far the exchange's clock is ahead of ours.
+     *
+     * @return The offset in milliseconds, negative if the exchange is behind, or 0 if we haven't estimated it yet.
+     */
+    public synchronized long getOffset() {
+        final ServerSample best = getBestServerSample();
+
+        if (best != null) {
+            return best.offset;
+        }
+
+        final long maximum = Math.max(windowMaximum, previousWindowMaximum);
+
+        return maximum == Long.MIN_VALUE ? 0 : maximum;
+    }
+
+    /**
+     * Get the shortest round trip to the server time endpoint.
+     *
+     * @return The round trip in milliseconds, or -1 if we haven't heard from the server time endpoint.
+     */
+    public synchronized long getRoundTrip() {
+        final ServerSample best = getBestServerSample();
+
+        return best == null ? -1 : best.roundTrip;
+    }
+
+    /**
+     * Convert a timestamp from the exchange into local time.
+     *
+     * @param exchangeTime A timestamp from the exchange.
+     * @return The same moment in local time.
+     */
+    public long toLocalTime(long exchangeTime) {
+        return exchangeTime - getOffset();
+    }
+
+    public synchronized long getAverageLatency() {
+        return latencyCount == 0 ? 0 : latencyTotal / latencyCount;
+    }
+
+    public synchronized long getMaximumLatency() {
+        return latencyMaximum;
+    }
+
+    private ServerSample getBestServerSample() {
+        ServerSample best = null;
+
+        for (ServerSample sample : serverSamples) {
+            if (best == null || sample.roundTrip < best.roundTrip) {
+                best = sample;
+            }
+        }
+
+        return best;
+    }
+
+    private static class ServerSample {
+        private final long offset;
+        private final long roundTrip;
+
+        ServerSample(long offset, long roundTrip) {
+            this.offset = offset;
+            this.roundTrip = roundTrip;
+        }
+    }
+}
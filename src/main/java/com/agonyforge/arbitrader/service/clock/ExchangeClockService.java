@@ -0,0 +1,227 @@
+package com.agonyforge.arbitrader.service.clock;
+
+import com.agonyforge.arbitrader.config.ExecutorConfig;
+import com.agonyforge.arbitrader.service.ExchangeService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.knowm.xchange.Exchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an ExchangeClock for every exchange so timestamps from different exchanges can be compared with each other
+ * and with our own clock.
+ *
+ * An exchange with serverTime.url in its configuration is asked for its time every minute. The answer is found in
+ * the JSON response at serverTime.path (a JSON pointer such as "/serverTime" or "/result/unixtime") and may be in
+ * seconds, milliseconds, microseconds or nanoseconds since the epoch, or an ISO-8601 string. Every other exchange
+ * is estimated from the timestamps on its tickers.
+ */
+@Component
+public class ExchangeClockService {
+    public static final String SERVER_TIME_URL_KEY = "url";
+    public static final String SERVER_TIME_PATH_KEY = "path";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExchangeClockService.class);
+
+    private final ConcurrentMap<String, ExchangeClock> clocks = new ConcurrentHashMap<>();
+    private final Set<Exchange> serverTimeExchanges = ConcurrentHashMap.newKeySet();
+    private final ExchangeService exchangeService;
+    private final ObjectMapper objectMapper;
+    private final Executor executor;
+    private final OkHttpClient client;
+
+    @Inject
+    public ExchangeClockService(
+        ExchangeService exchangeService,
+        ObjectMapper objectMapper,
+        @Qualifier(ExecutorConfig.MARKET_DATA_EXECUTOR) Executor executor) {
+
+        this.exchangeService = exchangeService;
+        this.objectMapper = objectMapper;
+        this.executor = executor;
+        this.client = new OkHttpClient.Builder()
+            .callTimeout(5, TimeUnit.SECONDS)
+            .build();
+    }
+
+    /**
+     * Start asking the exchanges that have a server time endpoint for their time.
+     *
+     * @param exchanges A list of all the exchanges.
+     */
+    public void watchExchanges(List<Exchange> exchanges) {
+        exchanges
+            .stream()
+            .filter(exchange -> exchangeService.getExchangeMetadata(exchange).getServerTime().get(SERVER_TIME_URL_KEY) != null)
+            .forEach(serverTimeExchanges::add);
+
+        probeServerTimes();
+    }
+
+    /**
+     * Ask each exchange with a server time endpoint for its time, in the background.
+     */
+    @Scheduled(initialDelay = 1000 * 60, fixedDelay = 1000 * 60) // every minute
+    public void probeServerTimes() {
+        serverTimeExchanges.forEach(exchange -> {
+            try {
+                executor.execute(() -> probe(exchange));
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Skipping server time for {}, the market data executor is busy",
+                    exchange.getExchangeSpecification().getExchangeName());
+            }
+        });
+    }
+
+    /**
+     * Record the timestamp on a message from an exchange.
+     *
+     * @param exchange The Exchange the message came from.
+     * @param exchangeTime The timestamp the exchange put on the message.
+     * @param received The local time the message arrived.
+     * @return The estimated time it took the message to arrive, in milliseconds.
+     */
+    public long recordTimestamp(Exchange exchange, long exchangeTime, long received) {
+        return getClock(exchange).recordTimestamp(exchangeTime, received);
+    }
+
+    /**
+     * Convert a timestamp from an exchange into local time.
+     *
+     * @param exchange The Exchange the timestamp came from.
+     * @param exchangeTime The timestamp.
+     * @return The same moment in local time.
+     */
+    public long toLocalTime(Exchange exchange, long exchangeTime) {
+        return getClock(exchange).toLocalTime(exchangeTime);
+    }
+
+    /**
+     * Get how far an exchange's clock is ahead of ours.
+     *
+     * @param exchange The Exchange.
+     * @return The offset in milliseconds.
+     */
+    public long getOffset(Exchange exchange) {
+        return getClock(exchange).getOffset();
+    }
+
+    /**
+     * Log how far each exchange's clock is from ours and how long its tickers take to arrive.
+     */
+    @Scheduled(cron = "0 0 0/6 * * *") // every 6 hours
+    public void report() {
+        clocks.forEach((exchange, clock) -> {
+            if (clock.isServerTime()) {
+                LOGGER.info("Clock {}: {} ms ahead of ours by server time with a {} ms round trip, tickers arrive {} ms after their timestamp on average and {} ms at most",
+                    exchange,
+                    clock.getOffset(),
+                    clock.getRoundTrip(),
+                    clock.getAverageLatency(),
+                    clock.getMaximumLatency());
+            } else {
+                LOGGER.info("Clock {}: {} ms ahead of ours by ticker timestamps, tickers arrive {} ms after the fastest one on average and {} ms at most",
+                    exchange,
+                    clock.getOffset(),
+                    clock.getAverageLatency(),
+                    clock.getMaximumLatency());
+            }
+        });
+    }
+
+    // ask one exchange for its time
+    void probe(Exchange exchange) {
+        final Map<String, String> serverTime = exchangeService.getExchangeMetadata(exchange).getServerTime();
+        final Request request = new Request.Builder()
+            .url(serverTime.get(SERVER_TIME_URL_KEY))
+            .get()
+            .build();
+
+        final long sent = System.currentTimeMillis();
+
+        try (Response response = client.newCall(request).execute()) {
+            final long received = System.currentTimeMillis();
+            final ResponseBody body = response.body();
+
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("Server time responded " + response.code() + " " + response.message());
+            }
+
+            final long time = parseServerTime(objectMapper.readTree(body.string()), serverTime.getOrDefault(SERVER_TIME_PATH_KEY, ""));
+
+            getClock(exchange).recordServerTime(sent, time, received);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Unable to get the server time for {}: {}",
+                exchange.getExchangeSpecification().getExchangeName(),
+                e.getMessage());
+        }
+    }
+
+    /**
+     * Find the time in a server time response and convert it to milliseconds since the epoch.
+     *
+     * @param response The JSON response.
+     * @param path A JSON pointer to the time in the response.
+     * @return The time in milliseconds since the epoch.
+     * @throws IOException if there's no time at the path.
+     */
+    static long parseServerTime(JsonNode response, String path) throws IOException {
+        final JsonNode node = response.at(path);
+
+        if (node.isNumber()) {
+            return toMillis(node.asDouble());
+        }
+
+        if (node.isTextual()) {
+            try {
+                return toMillis(Double.parseDouble(node.asText()));
+            } catch (NumberFormatException e) {
+                try {
+                    return Instant.parse(node.asText()).toEpochMilli();
+                } catch (DateTimeParseException e2) {
+                    throw new IOException("Unrecognized server time \"" + node.asText() + "\"");
+                }
+            }
+        }
+
+        throw new IOException("No server time at \"" + path + "\"");
+    }
+
+    // work out the unit from the size of the number: today is about 1.7e9 seconds or 1.7e12 milliseconds
+    private static long toMillis(double time) {
+        if (time < 1e11) {
+            return Math.round(time * 1e3); // seconds
+        } else if (time < 1e14) {
+            return Math.round(time); // milliseconds
+        } else if (time < 1e17) {
+            return Math.round(time / 1e3); // microseconds
+        }
+
+        return Math.round(time / 1e6); // nanoseconds
+    }
+
+    private ExchangeClock getClock(Exchange exchange) {
+        return clocks.computeIfAbsent(exchange.getExchangeSpecification().getExchangeName(), key -> new ExchangeClock());
+    }
+}
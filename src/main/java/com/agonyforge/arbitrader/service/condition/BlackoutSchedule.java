@@ -0,0 +1,187 @@
+package com.agonyforge.arbitrader.service.condition;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The blackout file compiled into sorted, non-overlapping intervals for each exchange.
+ *
+ * Each line of the blackout file looks like "ExchangeName,start,end" with ISO offset date/times for
+ * the start and end. As before, a line applies to an exchange when it starts with the exchange's name.
+ * The intervals for an exchange are merged the first time that exchange is checked, after which a check
+ * is a binary search. The result of the last search is cached along with the time it stops being true, so
+ * most checks are a single comparison.
+ */
+public class BlackoutSchedule {
+    public static final BlackoutSchedule EMPTY = new BlackoutSchedule(Collections.emptyList());
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlackoutSchedule.class);
+
+    private final List<Window> windows;
+    private final ConcurrentMap<String, ExchangeSchedule> schedules = new ConcurrentHashMap<>();
+
+    private BlackoutSchedule(List<Window> windows) {
+        this.windows = windows;
+    }
+
+    /**
+     * Compile the lines from a blackout file. Lines that can't be parsed are logged and ignored.
+     *
+     * @param lines The lines of the blackout file.
+     * @return A BlackoutSchedule for the lines.
+     */
+    public static BlackoutSchedule compile(List<String> lines) {
+        List<Window> windows = new ArrayList<>();
+
+        for (String line : lines) {
+            String[] fields = line.split("[,]");
+
+            if (fields.length != 3) {
+                continue;
+            }
+
+            try {
+                long start = ZonedDateTime.parse(fields[1], DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant().toEpochMilli();
+                long end = ZonedDateTime.parse(fields[2], DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant().toEpochMilli();
+
+                if (end > start) {
+                    windows.add(new Window(line, start, end));
+                }
+            } catch (DateTimeParseException e) {
+                LOGGER.warn("Ignoring unparseable blackout window '{}': {}", line, e.getMessage());
+            }
+        }
+
+        if (windows.isEmpty()) {
+            return EMPTY;
+        }
+
+        return new BlackoutSchedule(windows);
+    }
+
+    /**
+     * Is the given time inside a blackout window for the given exchange?
+     *
+     * @param exchangeName The name of the exchange.
+     * @param now The time to check, in epoch milliseconds.
+     * @return true if the time is within a blackout window for the exchange.
+     */
+    public boolean isBlackout(String exchangeName, long now) {
+        if (windows.isEmpty()) {
+            return false;
+        }
+
+        ExchangeSchedule schedule = schedules.get(exchangeName);
+
+        if (schedule == null) {
+            schedule = schedules.computeIfAbsent(exchangeName, this::buildExchangeSchedule);
+        }
+
+        return schedule.isBlackout(now);
+    }
+
+    // sort and merge every window that applies to the exchange so they can be binary searched
+    private ExchangeSchedule buildExchangeSchedule(String exchangeName) {
+        List<Window> matching = new ArrayList<>();
+
+        for (Window window : windows) {
+            if (window.line.startsWith(exchangeName)) {
+                matching.add(window);
+            }
+        }
+
+        matching.sort((a, b) -> Long.compare(a.start, b.start));
+
+        long[] starts = new long[matching.size()];
+        long[] ends = new long[matching.size()];
+        int count = 0;
+
+        for (Window window : matching) {
+            if (count > 0 && window.start <= ends[count - 1]) {
+                ends[count - 1] = Math.max(ends[count - 1], window.end);
+            } else {
+                starts[count] = window.start;
+                ends[count] = window.end;
+                count++;
+            }
+        }
+
+        return new ExchangeSchedule(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    private static class Window {
+        private final String line;
+        private final long start;
+        private final long end;
+
+        Window(String line, long start, long end) {
+            this.line = line;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static class ExchangeSchedule {
+        private final long[] starts;
+        private final long[] ends;
+        private volatile Transition cached = new Transition(false, Long.MAX_VALUE, Long.MIN_VALUE);
+
+        ExchangeSchedule(long[] starts, long[] ends) {
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        boolean isBlackout(long now) {
+            Transition transition = cached;
+
+            if (now >= transition.from && now < transition.until) {
+                return transition.isBlackout;
+            }
+
+            transition = search(now);
+            cached = transition;
+
+            return transition.isBlackout;
+        }
+
+        // find the window at or before now and work out how long the answer stays the same
+        private Transition search(long now) {
+            int index = Arrays.binarySearch(starts, now);
+
+            if (index < 0) {
+                index = -index - 2;
+            }
+
+            if (index >= 0 && now < ends[index]) {
+                return new Transition(true, starts[index], ends[index]);
+            }
+
+            long from = index >= 0 ? ends[index] : Long.MIN_VALUE;
+            long until = index + 1 < starts.length ? starts[index + 1] : Long.MAX_VALUE;
+
+            return new Transition(false, from, until);
+        }
+    }
+
+    private static class Transition {
+        private final boolean isBlackout;
+        private final long from;
+        private final long until;
+
+        Transition(boolean isBlackout, long from, long until) {
+            this.isBlackout = isBlackout;
+            this.from = from;
+            this.until = until;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.agonyforge.arbitrader.service.condition;
+
+/**
+ * An immutable view of every condition file at one moment in time. A new snapshot is built whenever
+ * one of the files changes, so reading a condition never has to touch the filesystem.
+ */
+public class ConditionSnapshot {
+    public static final ConditionSnapshot EMPTY = new ConditionSnapshot(null, false, false, false, BlackoutSchedule.EMPTY);
+
+    private final String forceOpen;
+    private final boolean forceClose;
+    private final boolean exitWhenIdle;
+    private final boolean status;
+    private final BlackoutSchedule blackoutSchedule;
+
+    public ConditionSnapshot(String forceOpen, boolean forceClose, boolean exitWhenIdle, boolean status, BlackoutSchedule blackoutSchedule) {
+        this.forceOpen = forceOpen;
+        this.forceClose = forceClose;
+        this.exitWhenIdle = exitWhenIdle;
+        this.status = status;
+        this.blackoutSchedule = blackoutSchedule;
+    }
+
+    /**
+     * The trimmed contents of the force-open file.
+     *
+     * @return The contents of the force-open file, or null if there is no force-open file.
+     */
+    public String getForceOpen() {
+        return forceOpen;
+    }
+
+    public boolean isForceClose() {
+        return forceClose;
+    }
+
+    public boolean isExitWhenIdle() {
+        return exitWhenIdle;
+    }
+
+    public boolean isStatus() {
+        return status;
+    }
+
+    public BlackoutSchedule getBlackoutSchedule() {
+        return blackoutSchedule;
+    }
+}
@@ -0,0 +1,292 @@
+package com.agonyforge.arbitrader.service.graph;
+
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tickers from one exchange as a graph of currencies.
+ *
+ * Every ticker adds two edges between the currencies in its pair: one from the base to the counter currency for
+ * selling into the bid and one back for buying from the ask. The weight of each edge is -ln(rate) where the rate is
+ * how much we get for one unit of what we spend, after fees. Rates multiply along a cycle of trades so their logs
+ * add up, and a cycle whose weights add up to less than zero ends with more than it started with.
+ *
+ * A ticker update only changes its own two edges, so the only cycles that can have become profitable are the ones
+ * that go through them. Rather than running Bellman-Ford over the whole graph, findCycle() relaxes outward from one
+ * changed edge for a few hops looking for the cheapest way back to where it started.
+ *
+ * A graph isn't thread safe. It belongs to whichever thread updates it.
+ */
+public class CurrencyGraph {
+    private final String exchangeName;
+    private final Map<Currency, Node> nodes = new HashMap<>();
+    private final List<Node> nodeList = new ArrayList<>();
+    private final Map<CurrencyPair, List<Edge>> pairEdges = new HashMap<>();
+
+    // scratch space for findCycle(), reused so that searching doesn't allocate
+    private double[][] distance = new double[0][0];
+    private Edge[][] predecessor = new Edge[0][0];
+    private int[][] reached = new int[0][0];
+
+    public CurrencyGraph(String exchangeName) {
+        this.exchangeName = exchangeName;
+    }
+
+    public String getExchangeName() {
+        return exchangeName;
+    }
+
+    public int getNodeCount() {
+        return nodeList.size();
+    }
+
+    /**
+     * Update the edges for a currency pair from its latest bid and ask. A ticker whose bid is above its ask can't be
+     * right, so its edges are taken out of the graph until a good one arrives.
+     *
+     * @param currencyPair The CurrencyPair of the ticker.
+     * @param bid The bid price.
+     * @param ask The ask price.
+     * @param fee The fee for a trade, ie. 0.0016 for 0.16%
+     * @return The two edges for the currency pair.
+     */
+    public List<Edge> update(CurrencyPair currencyPair, BigDecimal bid, BigDecimal ask, BigDecimal fee) {
+        final List<Edge> edges = pairEdges.computeIfAbsent(currencyPair, pair -> {
+            final Node base = getNode(pair.base);
+            final Node counter = getNode(pair.counter);
+            final Edge sell = new Edge(base, counter, pair, Order.OrderType.ASK);
+            final Edge buy = new Edge(counter, base, pair, Order.OrderType.BID);
+
+            base.edges.add(sell);
+            counter.edges.add(buy);
+
+            return Collections.unmodifiableList(Arrays.asList(sell, buy));
+        });
+
+        final Edge sell = edges.get(0);
+        final Edge buy = edges.get(1);
+
+        if (bid == null || ask == null || bid.signum() <= 0 || ask.signum() <= 0 || bid.compareTo(ask) > 0) {
+            sell.setRate(null, 0.0);
+            buy.setRate(null, 0.0);
+        } else {
+            final double remaining = 1.0 - fee.doubleValue();
+
+            sell.setRate(bid, bid.doubleValue() * remaining);
+            buy.setRate(ask, remaining / ask.doubleValue());
+        }
+
+        return edges;
+    }
+
+    /**
+     * Find the most profitable cycle that goes through an edge, if there is one.
+     *
+     * This is Bellman-Ford limited to maxHops - 1 rounds, starting from the end of the edge and looking for the way
+     * back to its start. Each round only relaxes the edges out of the nodes the previous round reached. A cycle has
+     * to be at least three trades long: two trades on the same pair can't make money unless the ticker is crossed.
+     *
+     * @param edge The Edge that changed.
+     * @param maxHops The most trades in a cycle, including this one.
+     * @return A Cycle with a negative weight, or null if there isn't one.
+     */
+    public Cycle findCycle(Edge edge, int maxHops) {
+        if (!edge.isUsable() || maxHops < 3) {
+            return null;
+        }
+
+        final int rounds = maxHops - 1;
+        final Node start = edge.to;
+        final Node end = edge.from;
+
+        prepare(rounds + 1);
+
+        for (int round = 0; round <= rounds; round++) {
+            Arrays.fill(distance[round], 0, nodeList.size(), Double.POSITIVE_INFINITY);
+        }
+
+        distance[0][start.index] = 0.0;
+        reached[0][0] = start.index;
+
+        int reachedCount = 1;
+        double best = Double.POSITIVE_INFINITY;
+        int bestRound = -1;
+
+        for (int round = 1; round <= rounds && reachedCount > 0; round++) {
+            final double[] previous = distance[round - 1];
+            final double[] current = distance[round];
+            int count = 0;
+
+            for (int i = 0; i < reachedCount; i++) {
+                final Node node = nodeList.get(reached[round - 1][i]);
+
+                // the cycle ends when it gets back to the start of the edge, it doesn't go through it
+                if (node == end) {
+                    continue;
+                }
+
+                for (Edge next : node.edges) {
+                    if (!next.isUsable() || next.to == start) {
+                        continue;
+                    }
+
+                    final double weight = previous[node.index] + next.weight;
+
+                    if (weight < current[next.to.index]) {
+                        if (current[next.to.index] == Double.POSITIVE_INFINITY) {
+                            reached[round][count++] = next.to.index;
+                        }
+
+                        current[next.to.index] = weight;
+                        predecessor[round][next.to.index] = next;
+                    }
+                }
+            }
+
+            if (round >= 2 && current[end.index] < best) {
+                best = current[end.index];
+                bestRound = round;
+            }
+
+            reachedCount = count;
+        }
+
+        if (bestRound < 0 || edge.weight + best >= 0.0) {
+            return null;
+        }
+
+        final LinkedList<Edge> legs = new LinkedList<>();
+        Node node = end;
+
+        for (int round = bestRound; round >= 1; round--) {
+            final Edge leg = predecessor[round][node.index];
+
+            legs.addFirst(leg);
+            node = leg.from;
+        }
+
+        legs.addFirst(edge);
+
+        // a walk that visits a currency twice is two cycles, and the one that makes money was found when its own edges changed
+        final Set<Node> visited = new HashSet<>();
+
+        for (Edge leg : legs) {
+            if (!visited.add(leg.from)) {
+                return null;
+            }
+        }
+
+        return new Cycle(exchangeName, new ArrayList<>(legs));
+    }
+
+    private Node getNode(Currency currency) {
+        return nodes.computeIfAbsent(currency, key -> {
+            final Node node = new Node(key, nodeList.size());
+
+            nodeList.add(node);
+
+            return node;
+        });
+    }
+
+    // make sure the scratch space is big enough for every node and round
+    private void prepare(int rounds) {
+        final int size = nodeList.size();
+
+        if (distance.length < rounds || (rounds > 0 && distance[0].length < size)) {
+            final int capacity = Math.max(size, 16);
+
+            distance = new double[rounds][capacity];
+            predecessor = new Edge[rounds][capacity];
+            reached = new int[rounds][capacity];
+        }
+    }
+
+    /**
+     * A currency on the exchange.
+     */
+    static class Node {
+        private final Currency currency;
+        private final int index;
+        private final List<Edge> edges = new ArrayList<>();
+
+        Node(Currency currency, int index) {
+            this.currency = currency;
+            this.index = index;
+        }
+    }
+
+    /**
+     * A trade from one currency to another at the latest price.
+     */
+    public static class Edge {
+        private final Node from;
+        private final Node to;
+        private final CurrencyPair currencyPair;
+        private final Order.OrderType type;
+        private BigDecimal price;
+        private double weight = Double.POSITIVE_INFINITY;
+
+        Edge(Node from, Node to, CurrencyPair currencyPair, Order.OrderType type) {
+            this.from = from;
+            this.to = to;
+            this.currencyPair = currencyPair;
+            this.type = type;
+        }
+
+        public Currency getFrom() {
+            return from.currency;
+        }
+
+        public Currency getTo() {
+            return to.currency;
+        }
+
+        public CurrencyPair getCurrencyPair() {
+            return currencyPair;
+        }
+
+        /**
+         * The type of order we'd place for this trade: BID to buy the base currency or ASK to sell it.
+         *
+         * @return The order type.
+         */
+        public Order.OrderType getType() {
+            return type;
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public boolean isUsable() {
+            return weight != Double.POSITIVE_INFINITY;
+        }
+
+        void setRate(BigDecimal price, double rate) {
+            this.price = price;
+            this.weight = rate > 0.0 ? -Math.log(rate) : Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public String toString() {
+            return (type == Order.OrderType.BID ? "buy " : "sell ") + currencyPair + " @ " + price;
+        }
+    }
+}
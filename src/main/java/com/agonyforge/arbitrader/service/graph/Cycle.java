@@ -0,0 +1,90 @@
+package com.agonyforge.arbitrader.service.graph;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A cycle of trades on one exchange that ends in the currency it started with.
+ *
+ * The legs are the graph's own edges, so the weight and profit are always worked out from the latest tickers.
+ */
+public class Cycle {
+    private final String exchangeName;
+    private final List<CurrencyGraph.Edge> legs;
+    private final String key;
+
+    public Cycle(String exchangeName, List<CurrencyGraph.Edge> legs) {
+        this.exchangeName = exchangeName;
+        this.legs = legs;
+        this.key = buildKey(exchangeName, legs);
+    }
+
+    public String getExchangeName() {
+        return exchangeName;
+    }
+
+    public List<CurrencyGraph.Edge> getLegs() {
+        return legs;
+    }
+
+    /**
+     * Identify the cycle no matter which currency it's started from, so the same cycle found through different
+     * edges is only counted once.
+     *
+     * @return A key for the cycle.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * The sum of the weights of the legs. A negative weight makes money.
+     *
+     * @return The weight of the cycle.
+     */
+    public double getWeight() {
+        double weight = 0.0;
+
+        for (CurrencyGraph.Edge leg : legs) {
+            weight += leg.getWeight();
+        }
+
+        return weight;
+    }
+
+    /**
+     * The fraction more than we started with at the end of the cycle, after fees.
+     *
+     * @return The profit, ie. 0.002 for 0.2%
+     */
+    public double getProfit() {
+        return Math.exp(-getWeight()) - 1.0;
+    }
+
+    @Override
+    public String toString() {
+        return exchangeName + " "
+            + legs.get(0).getFrom() + " -> "
+            + legs.stream().map(leg -> leg.getTo().toString()).collect(Collectors.joining(" -> "))
+            + " (" + legs.stream().map(CurrencyGraph.Edge::toString).collect(Collectors.joining(", ")) + ")";
+    }
+
+    // start from the currency that sorts first, wherever the search started
+    private static String buildKey(String exchangeName, List<CurrencyGraph.Edge> legs) {
+        int first = 0;
+
+        for (int i = 1; i < legs.size(); i++) {
+            if (legs.get(i).getFrom().compareTo(legs.get(first).getFrom()) < 0) {
+                first = i;
+            }
+        }
+
+        final StringBuilder key = new StringBuilder(exchangeName);
+
+        for (int i = 0; i < legs.size(); i++) {
+            key.append(':').append(legs.get((first + i) % legs.size()).getFrom());
+        }
+
+        return key.toString();
+    }
+}
@@ -0,0 +1,276 @@
+package com.agonyforge.arbitrader.service.graph;
+
+import com.agonyforge.arbitrader.config.CycleConfiguration;
+import com.agonyforge.arbitrader.config.MonitoredTaskExecutor;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.ExchangeService;
+import com.agonyforge.arbitrader.service.TickerService;
+import com.agonyforge.arbitrader.service.model.TickerEvent;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.marketdata.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Looks for cycles of trades on each exchange, like USD to BTC to ETH and back to USD, that make money after fees.
+ *
+ * Every exchange has a CurrencyGraph built from its tickers. All of the graphs are updated on one thread, so they
+ * don't need any locking. When a ticker arrives its pair is marked pending and queued unless it's already waiting,
+ * so a burst of tickers for the same pair only updates the graph once, with the latest one. Each update is checked
+ * for new cycles through the pair's two edges, and the cycles we already found that go through them are checked to
+ * see whether they're gone.
+ *
+ * Cycles are only logged. Trading them is up to the operator for now.
+ */
+@Component
+public class CycleService {
+    static final int MINIMUM_HOPS = 3;
+    static final int MAXIMUM_HOPS = 5;
+    static final int QUEUE_CAPACITY = 10_000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CycleService.class);
+
+    private final TradingConfiguration tradingConfiguration;
+    private final ExchangeService exchangeService;
+    private final TickerService tickerService;
+    private final Executor executor;
+
+    private final ConcurrentMap<String, TickerEvent> pending = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Opportunity> opportunities = new ConcurrentHashMap<>();
+    private final Map<String, CurrencyGraph> graphs = new HashMap<>(); // only touched by the executor
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder found = new LongAdder();
+
+    @Inject
+    public CycleService(
+        TradingConfiguration tradingConfiguration,
+        ExchangeService exchangeService,
+        TickerService tickerService) {
+
+        this(tradingConfiguration, exchangeService, tickerService, buildExecutor());
+    }
+
+    CycleService(
+        TradingConfiguration tradingConfiguration,
+        ExchangeService exchangeService,
+        TickerService tickerService,
+        Executor executor) {
+
+        this.tradingConfiguration = tradingConfiguration;
+        this.exchangeService = exchangeService;
+        this.tickerService = tickerService;
+        this.executor = executor;
+    }
+
+    /**
+     * Update the graph for an exchange with a new ticker and look for cycles through it, in the background.
+     *
+     * @param tickerEvent The TickerEvent we received.
+     */
+    public void submit(TickerEvent tickerEvent) {
+        if (!tradingConfiguration.getCycles().isActive()) {
+            return;
+        }
+
+        final String key = tickerEvent.getExchange().getExchangeSpecification().getExchangeName()
+            + ":" + tickerEvent.getTicker().getInstrument();
+
+        // if there's already one waiting, replacing it is enough
+        if (pending.put(key, tickerEvent) != null) {
+            coalesced.increment();
+            return;
+        }
+
+        try {
+            executor.execute(() -> update(key));
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+            rejected.increment();
+        }
+    }
+
+    public long getUpdateCount() {
+        return updates.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getFoundCount() {
+        return found.sum();
+    }
+
+    /**
+     * Get the cycles that are making money right now.
+     *
+     * @return The cycles, by their keys.
+     */
+    public Map<String, Cycle> getCycles() {
+        final Map<String, Cycle> cycles = new HashMap<>();
+
+        opportunities.forEach((key, opportunity) -> cycles.put(key, opportunity.cycle));
+
+        return cycles;
+    }
+
+    /**
+     * Log how many ticker updates went through the graphs and how many cycles were found.
+     */
+    @Scheduled(cron = "0 0/15 * * * *") // every 15 minutes
+    public void report() {
+        if (!tradingConfiguration.getCycles().isActive()) {
+            return;
+        }
+
+        LOGGER.info("Cycle detection: {} updates, {} tickers coalesced, {} rejected, {} cycles found, {} open now",
+            updates.sum(),
+            coalesced.sum(),
+            rejected.sum(),
+            found.sum(),
+            opportunities.size());
+
+        if (executor instanceof MonitoredTaskExecutor) {
+            LOGGER.info("Executor {}", ((MonitoredTaskExecutor) executor).report());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof MonitoredTaskExecutor) {
+            ((MonitoredTaskExecutor) executor).shutdown();
+        }
+    }
+
+    // runs on the executor, the only thread that touches the graphs
+    private void update(String key) {
+        final TickerEvent tickerEvent = pending.remove(key);
+
+        if (tickerEvent == null) {
+            return;
+        }
+
+        final Exchange exchange = tickerEvent.getExchange();
+        final Ticker ticker = tickerEvent.getTicker();
+        final CurrencyPair currencyPair = (CurrencyPair) ticker.getInstrument();
+
+        try {
+            update(exchange, currencyPair, ticker, System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to look for cycles through {}: ", key, e);
+        }
+    }
+
+    // intended for testing
+    void update(Exchange exchange, CurrencyPair currencyPair, Ticker ticker, long now) {
+        final CycleConfiguration configuration = tradingConfiguration.getCycles();
+        final int maxHops = Math.max(MINIMUM_HOPS, Math.min(MAXIMUM_HOPS, configuration.getMaxHops()));
+        final double minimumProfit = configuration.getMinimumProfit().doubleValue();
+        final String exchangeName = exchange.getExchangeSpecification().getExchangeName();
+        final CurrencyGraph graph = graphs.computeIfAbsent(exchangeName, CurrencyGraph::new);
+        final List<CurrencyGraph.Edge> edges = graph.update(
+            currencyPair,
+            ticker.getBid(),
+            ticker.getAsk(),
+            exchangeService.getExchangeFee(exchange, currencyPair, true).getTradeFee());
+
+        updates.increment();
+
+        // the cycles through these edges have new prices, so they might not make money any more
+        final Iterator<Opportunity> iterator = opportunities.values().iterator();
+
+        while (iterator.hasNext()) {
+            final Opportunity opportunity = iterator.next();
+
+            if (!opportunity.cycle.getExchangeName().equals(exchangeName)
+                || opportunity.cycle.getLegs().stream().noneMatch(edges::contains)) {
+                continue;
+            }
+
+            final double profit = opportunity.cycle.getProfit();
+
+            if (profit < minimumProfit) {
+                iterator.remove();
+
+                LOGGER.info("Cycle closed after {} ms, best profit {}%: {}",
+                    now - opportunity.found,
+                    String.format("%.4f", opportunity.bestProfit * 100),
+                    opportunity.cycle);
+            } else {
+                opportunity.bestProfit = Math.max(opportunity.bestProfit, profit);
+            }
+        }
+
+        for (CurrencyGraph.Edge edge : edges) {
+            final Cycle cycle = graph.findCycle(edge, maxHops);
+
+            if (cycle == null || opportunities.containsKey(cycle.getKey())) {
+                continue;
+            }
+
+            final double profit = cycle.getProfit();
+
+            if (profit < minimumProfit) {
+                continue;
+            }
+
+            // a cycle through a ticker that stopped updating is probably long gone
+            if (cycle.getLegs().stream().anyMatch(leg -> tickerService.isStale(exchange, leg.getCurrencyPair()))) {
+                continue;
+            }
+
+            opportunities.put(cycle.getKey(), new Opportunity(cycle, now, profit));
+            found.increment();
+
+            LOGGER.info("Cycle found, profit {}%: {}", String.format("%.4f", profit * 100), cycle);
+        }
+    }
+
+    private static MonitoredTaskExecutor buildExecutor() {
+        final MonitoredTaskExecutor executor = new MonitoredTaskExecutor("cycleDetector");
+
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(QUEUE_CAPACITY);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+
+        return executor;
+    }
+
+    // a cycle that's making money and when we found it
+    private static class Opportunity {
+        private final Cycle cycle;
+        private final long found;
+        private double bestProfit;
+
+        Opportunity(Cycle cycle, long found, double bestProfit) {
+            this.cycle = cycle;
+            this.found = found;
+            this.bestProfit = bestProfit;
+        }
+    }
+}
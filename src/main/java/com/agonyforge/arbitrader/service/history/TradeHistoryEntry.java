@@ -0,0 +1,92 @@
+package com.agonyforge.arbitrader.service.history;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * One trade in the trade history index: enough to answer queries without going back to the CSV,
+ * plus the location of the full CSV record in case it's needed.
+ */
+public class TradeHistoryEntry {
+    private final long timestamp;
+    private final String segment;
+    private final long offset;
+    private final int length;
+    private final String longExchange;
+    private final String shortExchange;
+    private final String currency;
+    private final BigDecimal profit;
+
+    public TradeHistoryEntry(long timestamp, String segment, long offset, int length, String longExchange, String shortExchange, String currency, BigDecimal profit) {
+        this.timestamp = timestamp;
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+        this.longExchange = longExchange;
+        this.shortExchange = shortExchange;
+        this.currency = currency;
+        this.profit = profit;
+    }
+
+    /**
+     * When the trade was closed.
+     *
+     * @return The timestamp in epoch milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public OffsetDateTime getTimestampAsDateTime() {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneOffset.UTC);
+    }
+
+    /**
+     * The month of the history file this trade is in.
+     *
+     * @return The segment name, like "2022-07".
+     */
+    public String getSegment() {
+        return segment;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public String getLongExchange() {
+        return longExchange;
+    }
+
+    public String getShortExchange() {
+        return shortExchange;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public BigDecimal getProfit() {
+        return profit;
+    }
+
+    @Override
+    public String toString() {
+        return "TradeHistoryEntry{" +
+            "timestamp=" + timestamp +
+            ", segment='" + segment + '\'' +
+            ", offset=" + offset +
+            ", length=" + length +
+            ", longExchange='" + longExchange + '\'' +
+            ", shortExchange='" + shortExchange + '\'' +
+            ", currency='" + currency + '\'' +
+            ", profit=" + profit +
+            '}';
+    }
+}
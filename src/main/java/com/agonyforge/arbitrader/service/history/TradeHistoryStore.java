@@ -0,0 +1,683 @@
+package com.agonyforge.arbitrader.service.history;
+
+import com.agonyforge.arbitrader.service.model.ArbitrageLog;
+import org.apache.commons.text.StringEscapeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The trade history: a CSV file with one line for every completed trade, and an index of those trades
+ * so we can answer questions about them without reading the CSV back in.
+ *
+ * Records are buffered in memory and flushed to long-lived channels every few seconds. The CSV rolls over
+ * each month: the current month is always in arbitrader-arbitrage-history.csv and earlier months are renamed
+ * to arbitrader-arbitrage-history-yyyy-MM.csv. The index is kept in a tab separated sidecar file next to the
+ * CSV, and in memory by timestamp, by exchange pair and by currency.
+ */
+@Component
+public class TradeHistoryStore {
+    public static final String TRADE_HISTORY_FILE = ".arbitrader/arbitrader-arbitrage-history.csv";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TradeHistoryStore.class);
+    private static final DateTimeFormatter SEGMENT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM");
+    private static final String CSV_EXTENSION = ".csv";
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final String INDEX_SEPARATOR = "\t";
+    private static final int INDEX_FIELDS = 8;
+    private static final int CSV_FIELDS = 12;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path historyPath;
+    private final Path indexPath;
+    private final String baseName;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<Long, List<TradeHistoryEntry>> byTimestamp = new TreeMap<>();
+    private final Map<String, List<TradeHistoryEntry>> byExchanges = new HashMap<>();
+    private final Map<String, List<TradeHistoryEntry>> byCurrency = new HashMap<>();
+    private final ByteBuffer historyBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private FileChannel historyChannel;
+    private FileChannel indexChannel;
+    private long historyPosition = 0;
+    private String activeSegment;
+
+    public TradeHistoryStore() {
+        this(Paths.get(TRADE_HISTORY_FILE));
+    }
+
+    TradeHistoryStore(Path historyPath) {
+        String fileName = historyPath.getFileName().toString();
+
+        this.historyPath = historyPath;
+        this.baseName = fileName.endsWith(CSV_EXTENSION) ? fileName.substring(0, fileName.length() - CSV_EXTENSION.length()) : fileName;
+        this.indexPath = historyPath.resolveSibling(baseName + INDEX_EXTENSION);
+    }
+
+    /**
+     * Load the index and open the history files for writing.
+     */
+    @PostConstruct
+    public void open() {
+        lock.writeLock().lock();
+
+        try {
+            if (historyChannel != null) {
+                return;
+            }
+
+            Files.createDirectories(historyPath.toAbsolutePath().getParent());
+
+            List<TradeHistoryEntry> unindexed;
+
+            if (Files.exists(indexPath)) {
+                loadIndex();
+                unindexed = scanActiveSegment(lastIndexedPosition());
+            } else {
+                unindexed = rebuildIndex();
+            }
+
+            historyChannel = FileChannel.open(historyPath, CREATE, WRITE, APPEND);
+            indexChannel = FileChannel.open(indexPath, CREATE, WRITE, APPEND);
+            historyPosition = historyChannel.size();
+
+            for (TradeHistoryEntry entry : unindexed) {
+                writeIndex(entry);
+                addToIndex(entry);
+            }
+
+            flushBuffers();
+
+            LOGGER.info("Loaded {} trades from the trade history index", size());
+        } catch (IOException e) {
+            LOGGER.error("Unable to open the trade history: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add a completed trade to the history.
+     *
+     * @param arbitrageLog The trade to add.
+     */
+    public void append(ArbitrageLog arbitrageLog) {
+        lock.writeLock().lock();
+
+        try {
+            if (historyChannel == null) {
+                open();
+
+                if (historyChannel == null) {
+                    LOGGER.error("Unable to log the trade because the trade history could not be opened");
+                    return;
+                }
+            }
+
+            long timestamp = arbitrageLog.getTimestamp().toInstant().toEpochMilli();
+            String segment = toSegment(timestamp);
+
+            // start a new file when the month changes
+            if (activeSegment == null || segment.compareTo(activeSegment) > 0) {
+                if (historyPosition > 0) {
+                    roll(segment);
+                } else {
+                    activeSegment = segment;
+                }
+            }
+
+            if (historyPosition == 0) {
+                writeHistory(arbitrageLog.csvHeaders().getBytes(StandardCharsets.UTF_8));
+            }
+
+            byte[] record = arbitrageLog.toCsv().getBytes(StandardCharsets.UTF_8);
+            long offset = historyPosition;
+
+            writeHistory(record);
+
+            TradeHistoryEntry entry = new TradeHistoryEntry(
+                timestamp,
+                activeSegment,
+                offset,
+                record.length,
+                arbitrageLog.getLongExchange(),
+                arbitrageLog.getShortExchange(),
+                arbitrageLog.getLongCurrency(),
+                arbitrageLog.getProfit());
+
+            writeIndex(entry);
+            addToIndex(entry);
+        } catch (IOException e) {
+            LOGGER.error("Unable to log the trade into the csv file. Reason: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write any buffered trades out to the files.
+     */
+    @Scheduled(initialDelay = 5000, fixedDelay = 5000)
+    public void flush() {
+        lock.writeLock().lock();
+
+        try {
+            flushBuffers();
+        } catch (IOException e) {
+            LOGGER.error("Unable to flush the trade history: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Flush and close the history files.
+     */
+    @PreDestroy
+    public void close() {
+        lock.writeLock().lock();
+
+        try {
+            if (historyChannel != null) {
+                flushBuffers();
+                historyChannel.close();
+                indexChannel.close();
+                historyChannel = null;
+                indexChannel = null;
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to close the trade history: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find all the trades in a time range.
+     *
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, exclusive.
+     * @return The trades in the range, oldest first.
+     */
+    public List<TradeHistoryEntry> getTrades(OffsetDateTime from, OffsetDateTime to) {
+        lock.readLock().lock();
+
+        try {
+            List<TradeHistoryEntry> result = new ArrayList<>();
+
+            byTimestamp.subMap(toMillis(from), true, toMillis(to), false).values().forEach(result::addAll);
+
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the trades in a time range between a specific pair of exchanges.
+     *
+     * @param longExchange The name of the long exchange.
+     * @param shortExchange The name of the short exchange.
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, exclusive.
+     * @return The trades in the range, oldest first.
+     */
+    public List<TradeHistoryEntry> getTradesForExchanges(String longExchange, String shortExchange, OffsetDateTime from, OffsetDateTime to) {
+        lock.readLock().lock();
+
+        try {
+            return range(byExchanges.get(exchangesKey(longExchange, shortExchange)), toMillis(from), toMillis(to));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the trades in a time range for a specific currency pair.
+     *
+     * @param currency The currency pair, like "BTC/USD".
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, exclusive.
+     * @return The trades in the range, oldest first.
+     */
+    public List<TradeHistoryEntry> getTradesForCurrency(String currency, OffsetDateTime from, OffsetDateTime to) {
+        lock.readLock().lock();
+
+        try {
+            return range(byCurrency.get(currency), toMillis(from), toMillis(to));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Summarize the profit from all the trades in a time range.
+     *
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, exclusive.
+     * @return A TradeHistorySummary of the trades.
+     */
+    public TradeHistorySummary getSummary(OffsetDateTime from, OffsetDateTime to) {
+        return TradeHistorySummary.of(getTrades(from, to));
+    }
+
+    /**
+     * Read the full CSV record for a trade.
+     *
+     * @param entry The trade to read.
+     * @return The CSV line for the trade, if it could be read.
+     */
+    public Optional<String> readRecord(TradeHistoryEntry entry) {
+        flush();
+
+        lock.readLock().lock();
+
+        try (FileChannel channel = FileChannel.open(toSegmentPath(entry.getSegment()))) {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.getLength());
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, entry.getOffset() + buffer.position()) < 0) {
+                    return Optional.empty();
+                }
+            }
+
+            return Optional.of(new String(buffer.array(), StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read trade history record {}: {}", entry, e.getMessage());
+            return Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * How many trades are in the history?
+     *
+     * @return The number of trades in the index.
+     */
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            return byTimestamp.values().stream().mapToInt(List::size).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // rename the current file after the month it holds and start a new one
+    private void roll(String segment) throws IOException {
+        Path rolledPath = historyPath.resolveSibling(baseName + "-" + activeSegment + CSV_EXTENSION);
+
+        flushBuffers();
+        historyChannel.close();
+
+        if (Files.exists(rolledPath)) {
+            // there's already a file for this month, so add the current file's records to the end of it
+            mergeInto(rolledPath);
+        } else {
+            Files.move(historyPath, rolledPath);
+        }
+
+        historyChannel = FileChannel.open(historyPath, CREATE, WRITE, APPEND);
+        historyPosition = 0;
+        activeSegment = segment;
+
+        LOGGER.info("Rolled the trade history over to {}", rolledPath);
+    }
+
+    // append the records in the current file to a rolled file and re-index the month from the combined file
+    private void mergeInto(Path rolledPath) throws IOException {
+        byte[] bytes = Files.readAllBytes(historyPath);
+        int start = 0;
+
+        while (start < bytes.length && bytes[start] != '\n') {
+            start++;
+        }
+
+        // leave the header behind, the rolled file has its own
+        start = new String(bytes, 0, start, StandardCharsets.UTF_8).startsWith("\"shortExchange\"") ? start + 1 : 0;
+
+        if (start < bytes.length) {
+            Files.write(rolledPath, Arrays.copyOfRange(bytes, start, bytes.length), APPEND);
+        }
+
+        Files.delete(historyPath);
+
+        List<TradeHistoryEntry> entries = new ArrayList<>();
+
+        byTimestamp.values().forEach(timestampEntries -> timestampEntries
+            .stream()
+            .filter(entry -> !entry.getSegment().equals(activeSegment))
+            .forEach(entries::add));
+
+        entries.addAll(withSegment(scan(rolledPath, 0), activeSegment));
+
+        byTimestamp.clear();
+        byExchanges.clear();
+        byCurrency.clear();
+        entries.forEach(this::addToIndex);
+
+        rewriteIndex(entries);
+
+        LOGGER.warn("Merged the trade history into {}, which already existed", rolledPath);
+    }
+
+    // replace the index file with one holding exactly these entries
+    private void rewriteIndex(List<TradeHistoryEntry> entries) throws IOException {
+        Path temporary = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        StringBuilder lines = new StringBuilder();
+
+        entries.forEach(entry -> lines.append(toIndexLine(entry)));
+
+        Files.write(temporary, lines.toString().getBytes(StandardCharsets.UTF_8));
+
+        indexChannel.close();
+        Files.move(temporary, indexPath, ATOMIC_MOVE, REPLACE_EXISTING);
+        indexChannel = FileChannel.open(indexPath, CREATE, WRITE, APPEND);
+    }
+
+    private void writeHistory(byte[] bytes) throws IOException {
+        if (bytes.length > historyBuffer.remaining()) {
+            flushBuffer(historyBuffer, historyChannel);
+        }
+
+        if (bytes.length > historyBuffer.capacity()) {
+            writeFully(ByteBuffer.wrap(bytes), historyChannel);
+        } else {
+            historyBuffer.put(bytes);
+        }
+
+        historyPosition += bytes.length;
+    }
+
+    private void writeIndex(TradeHistoryEntry entry) throws IOException {
+        byte[] bytes = toIndexLine(entry).getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > indexBuffer.remaining()) {
+            // the index must never point past what's been written to the history
+            flushBuffers();
+        }
+
+        indexBuffer.put(bytes);
+    }
+
+    private static String toIndexLine(TradeHistoryEntry entry) {
+        return String.join(INDEX_SEPARATOR,
+            Long.toString(entry.getTimestamp()),
+            entry.getSegment(),
+            Long.toString(entry.getOffset()),
+            Integer.toString(entry.getLength()),
+            entry.getLongExchange(),
+            entry.getShortExchange(),
+            entry.getCurrency(),
+            entry.getProfit().toPlainString()) + "\n";
+    }
+
+    private void flushBuffers() throws IOException {
+        if (historyChannel == null) {
+            return;
+        }
+
+        flushBuffer(historyBuffer, historyChannel);
+        flushBuffer(indexBuffer, indexChannel);
+    }
+
+    private static void flushBuffer(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        writeFully(buffer, channel);
+        buffer.clear();
+    }
+
+    private static void writeFully(ByteBuffer buffer, FileChannel channel) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void addToIndex(TradeHistoryEntry entry) {
+        byTimestamp.computeIfAbsent(entry.getTimestamp(), key -> new ArrayList<>()).add(entry);
+        insertSorted(byExchanges.computeIfAbsent(exchangesKey(entry.getLongExchange(), entry.getShortExchange()), key -> new ArrayList<>()), entry);
+        insertSorted(byCurrency.computeIfAbsent(entry.getCurrency(), key -> new ArrayList<>()), entry);
+
+        if (activeSegment == null || entry.getSegment().compareTo(activeSegment) > 0) {
+            activeSegment = entry.getSegment();
+        }
+    }
+
+    // trades almost always arrive in order, so this is nearly always a plain append
+    private static void insertSorted(List<TradeHistoryEntry> entries, TradeHistoryEntry entry) {
+        int index = entries.size();
+
+        while (index > 0 && entries.get(index - 1).getTimestamp() > entry.getTimestamp()) {
+            index--;
+        }
+
+        entries.add(index, entry);
+    }
+
+    // binary search for the start of the range in a list sorted by timestamp
+    private static List<TradeHistoryEntry> range(List<TradeHistoryEntry> entries, long from, long to) {
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+
+        int low = 0;
+        int high = entries.size();
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (entries.get(middle).getTimestamp() < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        List<TradeHistoryEntry> result = new ArrayList<>();
+
+        for (int i = low; i < entries.size() && entries.get(i).getTimestamp() < to; i++) {
+            result.add(entries.get(i));
+        }
+
+        return result;
+    }
+
+    private void loadIndex() throws IOException {
+        for (String line : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(INDEX_SEPARATOR);
+
+            if (fields.length != INDEX_FIELDS) {
+                continue;
+            }
+
+            try {
+                addToIndex(new TradeHistoryEntry(
+                    Long.parseLong(fields[0]),
+                    fields[1],
+                    Long.parseLong(fields[2]),
+                    Integer.parseInt(fields[3]),
+                    fields[4],
+                    fields[5],
+                    fields[6],
+                    new BigDecimal(fields[7])));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Ignoring damaged trade history index line: {}", line);
+            }
+        }
+    }
+
+    // where the last indexed record in the current file ends
+    private long lastIndexedPosition() {
+        long position = 0;
+
+        for (List<TradeHistoryEntry> entries : byTimestamp.values()) {
+            for (TradeHistoryEntry entry : entries) {
+                if (entry.getSegment().equals(activeSegment)) {
+                    position = Math.max(position, entry.getOffset() + entry.getLength());
+                }
+            }
+        }
+
+        return position;
+    }
+
+    // index any records in the current file that were written but didn't make it into the index
+    private List<TradeHistoryEntry> scanActiveSegment(long from) throws IOException {
+        if (!Files.exists(historyPath) || Files.size(historyPath) <= from) {
+            return Collections.emptyList();
+        }
+
+        List<TradeHistoryEntry> entries = scan(historyPath, from);
+        String segment = activeSegment;
+
+        if (segment == null) {
+            segment = entries.isEmpty()
+                ? toSegment(Files.getLastModifiedTime(historyPath).toMillis())
+                : toSegment(entries.get(entries.size() - 1).getTimestamp());
+        }
+
+        activeSegment = segment;
+
+        return withSegment(entries, segment);
+    }
+
+    // build the index from scratch by reading every history file, for upgrades from before there was an index
+    private List<TradeHistoryEntry> rebuildIndex() throws IOException {
+        List<TradeHistoryEntry> entries = new ArrayList<>();
+
+        try (DirectoryStream<Path> rolled = Files.newDirectoryStream(historyPath.toAbsolutePath().getParent(), baseName + "-*" + CSV_EXTENSION)) {
+            for (Path path : rolled) {
+                String fileName = path.getFileName().toString();
+                String segment = fileName.substring(baseName.length() + 1, fileName.length() - CSV_EXTENSION.length());
+
+                entries.addAll(withSegment(scan(path, 0), segment));
+            }
+        }
+
+        entries.addAll(scanActiveSegment(0));
+
+        if (!entries.isEmpty()) {
+            LOGGER.info("Rebuilt the trade history index from {} trades", entries.size());
+        }
+
+        return entries;
+    }
+
+    // parse the records in a history file, starting from an offset
+    private static List<TradeHistoryEntry> scan(Path path, long from) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        List<TradeHistoryEntry> entries = new ArrayList<>();
+        int start = (int) from;
+
+        while (start < bytes.length) {
+            int end = start;
+
+            while (end < bytes.length && bytes[end] != '\n') {
+                end++;
+            }
+
+            if (end == bytes.length) {
+                break; // an incomplete line from a crash mid-write
+            }
+
+            int length = end - start + 1;
+            String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            String[] fields = line.length() > 2 ? line.substring(1, line.length() - 1).split("\",\"") : new String[0];
+
+            if (fields.length == CSV_FIELDS && !"shortExchange".equals(fields[0])) {
+                try {
+                    entries.add(new TradeHistoryEntry(
+                        OffsetDateTime.parse(StringEscapeUtils.unescapeCsv(fields[11])).toInstant().toEpochMilli(),
+                        null,
+                        start,
+                        length,
+                        StringEscapeUtils.unescapeCsv(fields[5]),
+                        StringEscapeUtils.unescapeCsv(fields[0]),
+                        StringEscapeUtils.unescapeCsv(fields[9]),
+                        new BigDecimal(StringEscapeUtils.unescapeCsv(fields[10]))));
+                } catch (DateTimeParseException | NumberFormatException e) {
+                    LOGGER.warn("Ignoring unparseable trade history line in {}: {}", path, line);
+                }
+            }
+
+            start = end + 1;
+        }
+
+        return entries;
+    }
+
+    private static List<TradeHistoryEntry> withSegment(List<TradeHistoryEntry> entries, String segment) {
+        List<TradeHistoryEntry> result = new ArrayList<>(entries.size());
+
+        for (TradeHistoryEntry entry : entries) {
+            result.add(new TradeHistoryEntry(
+                entry.getTimestamp(),
+                segment,
+                entry.getOffset(),
+                entry.getLength(),
+                entry.getLongExchange(),
+                entry.getShortExchange(),
+                entry.getCurrency(),
+                entry.getProfit()));
+        }
+
+        return result;
+    }
+
+    private Path toSegmentPath(String segment) {
+        if (segment.equals(activeSegment)) {
+            return historyPath;
+        }
+
+        return historyPath.resolveSibling(baseName + "-" + segment + CSV_EXTENSION);
+    }
+
+    private static String toSegment(long timestamp) {
+        return SEGMENT_FORMAT.format(Instant.ofEpochMilli(timestamp).atOffset(ZoneOffset.UTC));
+    }
+
+    private static long toMillis(OffsetDateTime dateTime) {
+        return dateTime.toInstant().toEpochMilli();
+    }
+
+    private static String exchangesKey(String longExchange, String shortExchange) {
+        return longExchange + "/" + shortExchange;
+    }
+}
@@ -0,0 +1,88 @@
+package com.agonyforge.arbitrader.service.history;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+
+import static com.agonyforge.arbitrader.DecimalConstants.USD_SCALE;
+
+/**
+ * Profit aggregates over a set of trades.
+ */
+public class TradeHistorySummary {
+    private final int count;
+    private final BigDecimal totalProfit;
+    private final BigDecimal bestProfit;
+    private final BigDecimal worstProfit;
+
+    private TradeHistorySummary(int count, BigDecimal totalProfit, BigDecimal bestProfit, BigDecimal worstProfit) {
+        this.count = count;
+        this.totalProfit = totalProfit;
+        this.bestProfit = bestProfit;
+        this.worstProfit = worstProfit;
+    }
+
+    /**
+     * Summarize a set of trades.
+     *
+     * @param entries The trades to summarize.
+     * @return A TradeHistorySummary for the trades.
+     */
+    public static TradeHistorySummary of(Collection<TradeHistoryEntry> entries) {
+        BigDecimal total = BigDecimal.ZERO;
+        BigDecimal best = null;
+        BigDecimal worst = null;
+
+        for (TradeHistoryEntry entry : entries) {
+            total = total.add(entry.getProfit());
+
+            if (best == null || entry.getProfit().compareTo(best) > 0) {
+                best = entry.getProfit();
+            }
+
+            if (worst == null || entry.getProfit().compareTo(worst) < 0) {
+                worst = entry.getProfit();
+            }
+        }
+
+        return new TradeHistorySummary(
+            entries.size(),
+            total,
+            best == null ? BigDecimal.ZERO : best,
+            worst == null ? BigDecimal.ZERO : worst);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public BigDecimal getTotalProfit() {
+        return totalProfit;
+    }
+
+    public BigDecimal getAverageProfit() {
+        if (count == 0) {
+            return BigDecimal.ZERO;
+        }
+
+        return totalProfit.divide(BigDecimal.valueOf(count), USD_SCALE, RoundingMode.HALF_EVEN);
+    }
+
+    public BigDecimal getBestProfit() {
+        return bestProfit;
+    }
+
+    public BigDecimal getWorstProfit() {
+        return worstProfit;
+    }
+
+    @Override
+    public String toString() {
+        return "TradeHistorySummary{" +
+            "count=" + count +
+            ", totalProfit=" + totalProfit +
+            ", bestProfit=" + bestProfit +
+            ", worstProfit=" + worstProfit +
+            '}';
+    }
+}
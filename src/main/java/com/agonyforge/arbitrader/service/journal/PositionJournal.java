@@ -0,0 +1,430 @@
+package com.agonyforge.arbitrader.service.journal;
+
+import com.agonyforge.arbitrader.Utils;
+import com.agonyforge.arbitrader.service.model.ActivePosition;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An append-only journal of the active position, so we can shut Arbitrader down (or crash) and pick up
+ * where we left off when it starts back up.
+ *
+ * Each record is a length, a CRC32 checksum, a type and a JSON payload. Records are handed to a writer thread
+ * that appends everything waiting in the queue with a single write and a single fsync, then completes the
+ * future for every record in the batch. The trading thread never waits on the disk unless it wants to.
+ *
+ * Only the last record matters, so the journal is periodically compacted down to one record by writing it
+ * to a temporary file and atomically renaming it over the journal. A torn or corrupt record at the end of
+ * the journal (from a crash mid-write) is detected by its checksum and discarded on replay.
+ */
+@Component
+public class PositionJournal {
+    public static final String JOURNAL_FILE = ".arbitrader/arbitrader-position.journal";
+
+    static final int COMPACTION_THRESHOLD = 64;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PositionJournal.class);
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Byte.BYTES;
+    private static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+    private static final byte TYPE_POSITION = 1;
+    private static final byte TYPE_CLEAR = 2;
+    private static final byte TYPE_COMPACT = 3;
+    private static final byte TYPE_SHUTDOWN = 4;
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final ObjectMapper objectMapper;
+    private final Path journalPath;
+    private final Path legacyStatePath;
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+
+    // these are only touched by replay() before the writer starts, and by the writer thread afterward
+    // "latest" is the last position that is durable on disk and "committed" is where the last good record ends
+    private FileChannel channel;
+    private byte[] latest;
+    private long committed = 0;
+    private int recordsSinceCompaction = 0;
+
+    private Thread writer;
+
+    // true while the writer is running and will pick up anything added to the queue
+    private boolean isAccepting = false;
+
+    @Inject
+    public PositionJournal(ObjectMapper objectMapper) {
+        this(objectMapper, Paths.get(JOURNAL_FILE), Paths.get(Utils.STATE_FILE));
+    }
+
+    PositionJournal(ObjectMapper objectMapper, Path journalPath, Path legacyStatePath) {
+        this.objectMapper = objectMapper;
+        this.journalPath = journalPath;
+        this.legacyStatePath = legacyStatePath;
+    }
+
+    /**
+     * Read the journal to find the position that was active when we last shut down, then start accepting
+     * new records. This must be called once at startup before anything is written.
+     *
+     * @return The active position from the journal, if there was one.
+     * @throws IOException when the journal cannot be read or opened for writing.
+     */
+    public synchronized Optional<ActivePosition> replay() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("The position journal has already been replayed");
+        }
+
+        Files.createDirectories(journalPath.toAbsolutePath().getParent());
+
+        boolean isJournalEmpty = readJournal();
+
+        channel = FileChannel.open(journalPath, CREATE, WRITE, APPEND);
+
+        // migrate the old style state file into the journal
+        if (isJournalEmpty && Files.exists(legacyStatePath)) {
+            byte[] legacy = Files.readAllBytes(legacyStatePath);
+
+            if (objectMapper.readValue(legacy, ActivePosition.class) != null) {
+                writeFully(channel, encode(TYPE_POSITION, legacy));
+                channel.force(false);
+                latest = legacy;
+            }
+
+            Files.delete(legacyStatePath);
+
+            LOGGER.info("Migrated {} into the position journal", legacyStatePath);
+        }
+
+        committed = channel.size();
+
+        writer = new Thread(this::write, "position-journal");
+        writer.setDaemon(true);
+        writer.start();
+        isAccepting = true;
+
+        if (latest == null) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(objectMapper.readValue(latest, ActivePosition.class));
+    }
+
+    /**
+     * Append the current state of the active position to the journal.
+     *
+     * @param activePosition The ActivePosition to record.
+     * @return A future that completes once the record is durable on disk, or completes exceptionally if the
+     *         journal has not been replayed or has already been shut down.
+     */
+    public CompletableFuture<Void> record(ActivePosition activePosition) {
+        try {
+            // serialize now so later changes to the position don't leak into this record
+            return enqueue(TYPE_POSITION, objectMapper.writeValueAsBytes(activePosition));
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+
+            failed.completeExceptionally(e);
+
+            return failed;
+        }
+    }
+
+    /**
+     * Append a record saying there is no longer an active position.
+     *
+     * @return A future that completes once the record is durable on disk.
+     */
+    public CompletableFuture<Void> clear() {
+        return enqueue(TYPE_CLEAR, EMPTY_PAYLOAD);
+    }
+
+    /**
+     * Compact the journal down to a single record.
+     */
+    @Scheduled(cron = "0 0 * * * *") // every hour
+    public void compact() {
+        enqueue(TYPE_COMPACT, EMPTY_PAYLOAD);
+    }
+
+    /**
+     * Write out anything still in the queue and stop the writer.
+     */
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            if (writer == null) {
+                return;
+            }
+        }
+
+        enqueue(TYPE_SHUTDOWN, EMPTY_PAYLOAD);
+
+        try {
+            writer.join(5000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Void> enqueue(byte type, byte[] payload) {
+        PendingRecord record = new PendingRecord(type, payload);
+
+        synchronized (this) {
+            if (!isAccepting) {
+                record.future.completeExceptionally(new IllegalStateException("The position journal is not running"));
+
+                return record.future;
+            }
+
+            queue.add(record);
+        }
+
+        return record.future;
+    }
+
+    // stop accepting records and fail anything that was queued after the writer stopped, so nobody waits forever
+    private void rejectPending() {
+        List<PendingRecord> rejected = new ArrayList<>();
+
+        synchronized (this) {
+            isAccepting = false;
+            queue.drainTo(rejected);
+        }
+
+        rejected.forEach(record -> record.future.completeExceptionally(
+            new IllegalStateException("The position journal is not running")));
+    }
+
+    // read every valid record, leaving the latest position in "latest" and chopping off any damaged tail
+    private boolean readJournal() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return true;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journalPath));
+        int records = 0;
+
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            byte type = buffer.get();
+
+            if (length < 0 || length > MAX_PAYLOAD_SIZE || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+
+            byte[] payload = new byte[length];
+
+            buffer.get(payload);
+
+            if (checksum != checksum(type, payload) || (type != TYPE_POSITION && type != TYPE_CLEAR)) {
+                buffer.position(start);
+                break;
+            }
+
+            latest = type == TYPE_POSITION ? payload : null;
+            records++;
+        }
+
+        if (buffer.hasRemaining()) {
+            LOGGER.warn("Discarding {} damaged bytes at the end of {}", buffer.remaining(), journalPath);
+
+            try (FileChannel truncate = FileChannel.open(journalPath, WRITE)) {
+                truncate.truncate(buffer.position());
+                truncate.force(true);
+            }
+        }
+
+        recordsSinceCompaction = records;
+
+        return records == 0;
+    }
+
+    // the writer thread: write everything that's waiting as one batch, fsync once, then acknowledge the batch
+    private void write() {
+        boolean isRunning = true;
+
+        while (isRunning) {
+            List<PendingRecord> batch = new ArrayList<>();
+
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            queue.drainTo(batch);
+
+            List<ByteBuffer> buffers = new ArrayList<>();
+            byte[] batchLatest = latest;
+            boolean isCompactionRequested = false;
+
+            for (PendingRecord record : batch) {
+                if (record.type == TYPE_SHUTDOWN) {
+                    isRunning = false;
+                } else if (record.type == TYPE_COMPACT) {
+                    isCompactionRequested = true;
+                } else {
+                    buffers.add(encode(record.type, record.payload));
+                    batchLatest = record.type == TYPE_POSITION ? record.payload : null;
+                }
+            }
+
+            try {
+                if (!buffers.isEmpty()) {
+                    // chop off anything a failed write left behind so the new records follow the last good one,
+                    // otherwise replay would stop at the torn record and lose everything written after it
+                    if (channel.size() != committed) {
+                        LOGGER.warn("Discarding {} bytes from a failed write to the position journal",
+                            channel.size() - committed);
+
+                        channel.truncate(committed);
+                    }
+
+                    writeFully(channel, buffers.toArray(new ByteBuffer[0]));
+                    channel.force(false);
+
+                    // only now is the batch durable, so only now can a compaction rely on it
+                    committed = channel.size();
+                    latest = batchLatest;
+                    recordsSinceCompaction += buffers.size();
+                }
+
+                batch.forEach(record -> record.future.complete(null));
+            } catch (IOException e) {
+                LOGGER.error("Unable to write to the position journal!", e);
+                batch.forEach(record -> record.future.completeExceptionally(e));
+                continue;
+            }
+
+            if (isCompactionRequested || recordsSinceCompaction >= COMPACTION_THRESHOLD) {
+                try {
+                    rewrite();
+                } catch (IOException e) {
+                    LOGGER.error("Unable to compact the position journal!", e);
+                }
+            }
+        }
+
+        rejectPending();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close the position journal: {}", e.getMessage());
+        }
+    }
+
+    // replace the journal with one containing only the latest record
+    private void rewrite() throws IOException {
+        Path temporary = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+
+        try (FileChannel compacted = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            if (latest != null) {
+                writeFully(compacted, encode(TYPE_POSITION, latest));
+            }
+
+            compacted.force(true);
+        }
+
+        // keep appending to the old journal until the new one is in place, in case the move fails
+        Files.move(temporary, journalPath, ATOMIC_MOVE, REPLACE_EXISTING);
+        syncDirectory(journalPath.toAbsolutePath().getParent());
+
+        FileChannel previous = channel;
+
+        channel = FileChannel.open(journalPath, CREATE, WRITE, APPEND);
+        committed = channel.size();
+        recordsSinceCompaction = latest == null ? 0 : 1;
+
+        try {
+            previous.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close the old position journal: {}", e.getMessage());
+        }
+
+        LOGGER.debug("Compacted the position journal");
+    }
+
+    // make the rename durable, otherwise a crash could bring back the old journal or leave no journal at all
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // some platforms, like Windows, can't open a directory this way
+            LOGGER.debug("Unable to sync {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static ByteBuffer encode(byte type, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+
+        buffer.putInt(payload.length);
+        buffer.putInt(checksum(type, payload));
+        buffer.put(type);
+        buffer.put(payload);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+
+        crc.update(type);
+        crc.update(payload, 0, payload.length);
+
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    private static class PendingRecord {
+        private final byte type;
+        private final byte[] payload;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingRecord(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+}
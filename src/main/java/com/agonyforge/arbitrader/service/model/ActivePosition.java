@@ -10,7 +10,7 @@ import java.util.Objects;
 
 /**
  * All the information we need to store an active pair of trades to disk, and load it back up later.
- * This is used in the state file to enable us to shut Arbitrader down and start it back up again without
+ * This is recorded in the position journal to enable us to shut Arbitrader down and start it back up again without
  * losing any information.
  */
 @JsonIgnoreProperties(ignoreUnknown=true)
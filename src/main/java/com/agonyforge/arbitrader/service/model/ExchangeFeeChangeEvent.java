@@ -0,0 +1,40 @@
+package com.agonyforge.arbitrader.service.model;
+
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * An event generated when a background refresh finds that an exchange has changed its fee for a currency pair.
+ */
+public class ExchangeFeeChangeEvent extends ApplicationEvent {
+
+    private final Exchange exchange;
+    private final CurrencyPair currencyPair;
+    private final ExchangeFee oldFee;
+    private final ExchangeFee newFee;
+
+    public ExchangeFeeChangeEvent(Exchange exchange, CurrencyPair currencyPair, ExchangeFee oldFee, ExchangeFee newFee) {
+        super(exchange);
+        this.exchange = exchange;
+        this.currencyPair = currencyPair;
+        this.oldFee = oldFee;
+        this.newFee = newFee;
+    }
+
+    public Exchange getExchange() {
+        return exchange;
+    }
+
+    public CurrencyPair getCurrencyPair() {
+        return currencyPair;
+    }
+
+    public ExchangeFee getOldFee() {
+        return oldFee;
+    }
+
+    public ExchangeFee getNewFee() {
+        return newFee;
+    }
+}
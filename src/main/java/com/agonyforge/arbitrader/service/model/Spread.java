@@ -11,6 +11,7 @@ import java.math.BigDecimal;
  * or not.
  */
 public class Spread {
+    private final TradeCombination tradeCombination;
     private final CurrencyPair currencyPair;
     private final Exchange longExchange;
     private final Exchange shortExchange;
@@ -28,15 +29,30 @@ public class Spread {
         BigDecimal in,
         BigDecimal out) {
 
-        this.currencyPair = currencyPair;
-        this.longExchange = longExchange;
-        this.shortExchange = shortExchange;
+        this(new TradeCombination(longExchange, shortExchange, currencyPair), longTicker, shortTicker, in, out);
+    }
+
+    public Spread(
+        TradeCombination tradeCombination,
+        Ticker longTicker,
+        Ticker shortTicker,
+        BigDecimal in,
+        BigDecimal out) {
+
+        this.tradeCombination = tradeCombination;
+        this.currencyPair = tradeCombination.getCurrencyPair();
+        this.longExchange = tradeCombination.getLongExchange();
+        this.shortExchange = tradeCombination.getShortExchange();
         this.longTicker = longTicker;
         this.shortTicker = shortTicker;
         this.in = in;
         this.out = out;
     }
 
+    public TradeCombination getTradeCombination() {
+        return tradeCombination;
+    }
+
     public CurrencyPair getCurrencyPair() {
         return currencyPair;
     }
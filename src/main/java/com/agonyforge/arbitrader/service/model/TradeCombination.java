@@ -13,11 +13,15 @@ public class TradeCombination {
     private final Exchange longExchange;
     private final Exchange shortExchange;
     private final CurrencyPair currencyPair;
+    private final int hashCode;
 
     public TradeCombination(Exchange longExchange, Exchange shortExchange, CurrencyPair currencyPair) {
         this.longExchange = longExchange;
         this.shortExchange = shortExchange;
         this.currencyPair = currencyPair;
+
+        // TradeCombinations are used as map keys on every ticker update, so only hash once
+        this.hashCode = Objects.hash(longExchange, shortExchange, currencyPair);
     }
 
     public Exchange getLongExchange() {
@@ -44,7 +48,7 @@ public class TradeCombination {
 
     @Override
     public int hashCode() {
-        return Objects.hash(getLongExchange(), getShortExchange(), getCurrencyPair());
+        return hashCode;
     }
 
     @Override
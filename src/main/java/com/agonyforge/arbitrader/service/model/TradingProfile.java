@@ -0,0 +1,134 @@
+package com.agonyforge.arbitrader.service.model;
+
+import com.agonyforge.arbitrader.config.FeeComputation;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.math.BigDecimal;
+
+/**
+ * Everything about a TradeCombination that we need to decide whether to trade and how much, but that doesn't
+ * change from one ticker to the next: fees, scales, step sizes and the fee adjusted entry spread target. A profile
+ * is built once and then read without any further computation until the fees or metadata it came from change.
+ */
+public class TradingProfile {
+    private final TradeCombination tradeCombination;
+    private final Leg longLeg;
+    private final Leg shortLeg;
+    private final BigDecimal entrySpreadTarget;
+
+    public TradingProfile(TradeCombination tradeCombination, Leg longLeg, Leg shortLeg, BigDecimal entrySpreadTarget) {
+        this.tradeCombination = tradeCombination;
+        this.longLeg = longLeg;
+        this.shortLeg = shortLeg;
+        this.entrySpreadTarget = entrySpreadTarget;
+    }
+
+    public TradeCombination getTradeCombination() {
+        return tradeCombination;
+    }
+
+    public Leg getLongLeg() {
+        return longLeg;
+    }
+
+    public Leg getShortLeg() {
+        return shortLeg;
+    }
+
+    /**
+     * The entry spread target computed from the configuration and the fees of both exchanges. This does not include
+     * adaptive targets, which change too often to be part of a profile.
+     *
+     * @return The static entry spread target.
+     */
+    public BigDecimal getEntrySpreadTarget() {
+        return entrySpreadTarget;
+    }
+
+    @Override
+    public String toString() {
+        return "TradingProfile{" +
+            "tradeCombination=" + tradeCombination +
+            ", longLeg=" + longLeg +
+            ", shortLeg=" + shortLeg +
+            ", entrySpreadTarget=" + entrySpreadTarget +
+            '}';
+    }
+
+    /**
+     * The properties of one side of the trade, on one exchange.
+     */
+    public static class Leg {
+        private final CurrencyPair currencyPair;
+        private final ExchangeFee fee;
+        private final FeeComputation feeComputation;
+        private final int volumeScale;
+        private final int priceScale;
+        private final BigDecimal amountStepSize;
+        private final BigDecimal minimumAmount;
+
+        public Leg(
+            CurrencyPair currencyPair,
+            ExchangeFee fee,
+            FeeComputation feeComputation,
+            int volumeScale,
+            int priceScale,
+            BigDecimal amountStepSize,
+            BigDecimal minimumAmount) {
+
+            this.currencyPair = currencyPair;
+            this.fee = fee;
+            this.feeComputation = feeComputation;
+            this.volumeScale = volumeScale;
+            this.priceScale = priceScale;
+            this.amountStepSize = amountStepSize;
+            this.minimumAmount = minimumAmount;
+        }
+
+        /**
+         * The currency pair converted for the exchange's home currency.
+         *
+         * @return The CurrencyPair to use when placing orders on this exchange.
+         */
+        public CurrencyPair getCurrencyPair() {
+            return currencyPair;
+        }
+
+        public ExchangeFee getFee() {
+            return fee;
+        }
+
+        public FeeComputation getFeeComputation() {
+            return feeComputation;
+        }
+
+        public int getVolumeScale() {
+            return volumeScale;
+        }
+
+        public int getPriceScale() {
+            return priceScale;
+        }
+
+        public BigDecimal getAmountStepSize() {
+            return amountStepSize;
+        }
+
+        public BigDecimal getMinimumAmount() {
+            return minimumAmount;
+        }
+
+        @Override
+        public String toString() {
+            return "Leg{" +
+                "currencyPair=" + currencyPair +
+                ", fee=" + fee +
+                ", feeComputation=" + feeComputation +
+                ", volumeScale=" + volumeScale +
+                ", priceScale=" + priceScale +
+                ", amountStepSize=" + amountStepSize +
+                ", minimumAmount=" + minimumAmount +
+                '}';
+        }
+    }
+}
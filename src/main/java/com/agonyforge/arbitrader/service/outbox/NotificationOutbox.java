@@ -0,0 +1,350 @@
+package com.agonyforge.arbitrader.service.outbox;
+
+import com.agonyforge.arbitrader.config.ExecutorConfig;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Delivers notifications in the background so that a slow mail server or chat service never holds up trading.
+ *
+ * Notifications are built, queued and delivered on the notification executor. Everything that hasn't been
+ * delivered yet is saved to a file so it survives a restart. Delivery waits DIGEST_DELAY after a notification
+ * arrives, and if several are waiting for the same channel by then they're sent together as one digest, each one
+ * under its own subject. A digest holds at most MAXIMUM_DIGEST_SIZE messages and, for channels that limit how long
+ * a message can be, no more than fits; the rest wait for the next digest. A channel that fails is retried with
+ * exponential backoff, up to MAXIMUM_ATTEMPTS times.
+ *
+ * There is only ever one dispatch waiting on the timer, for whenever the next message is due. Messages for a
+ * channel that isn't registered any more, such as one that was turned off before a restart, are dropped.
+ */
+@Component
+public class NotificationOutbox {
+    public static final String OUTBOX_FILE = ".arbitrader/arbitrader-notification-outbox.json";
+    public static final String DIGEST_SUBJECT = "Arbitrader - %d Notifications";
+    public static final long DIGEST_DELAY = TimeUnit.SECONDS.toMillis(2);
+    public static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+    public static final long MAXIMUM_BACKOFF = TimeUnit.HOURS.toMillis(1);
+    public static final int MAXIMUM_ATTEMPTS = 12;
+    public static final int MAXIMUM_DIGEST_SIZE = 20;
+    public static final String DIGEST_SEPARATOR = "\n\n";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationOutbox.class);
+
+    private final ObjectMapper objectMapper;
+    private final Path outboxPath;
+    private final Map<String, OutboxSender> senders = new ConcurrentHashMap<>();
+    private final Map<String, Integer> maximumLengths = new ConcurrentHashMap<>();
+    private final List<OutboxMessage> pending = new ArrayList<>();
+    private final Executor executor;
+
+    // only hands delayed dispatches over to the executor, so one thread is enough
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "notification-outbox-timer");
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private ScheduledFuture<?> scheduled; // guarded by this
+
+    @Inject
+    public NotificationOutbox(ObjectMapper objectMapper, @Qualifier(ExecutorConfig.NOTIFICATION_EXECUTOR) Executor executor) {
+        this(objectMapper, Paths.get(OUTBOX_FILE), executor);
+    }
+
+    NotificationOutbox(ObjectMapper objectMapper, Path outboxPath) {
+        this(objectMapper, outboxPath, Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-outbox");
+
+            thread.setDaemon(true);
+
+            return thread;
+        }));
+    }
+
+    NotificationOutbox(ObjectMapper objectMapper, Path outboxPath, Executor executor) {
+        this.objectMapper = objectMapper;
+        this.outboxPath = outboxPath;
+        this.executor = executor;
+
+        // retries that aren't due yet stay in the file for next time instead of holding up shutdown
+        this.timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Read any notifications that weren't delivered the last time we ran, and try to deliver them.
+     */
+    @PostConstruct
+    public void load() {
+        if (outboxPath == null || !Files.exists(outboxPath)) {
+            return;
+        }
+
+        try {
+            List<OutboxMessage> messages = objectMapper.readValue(outboxPath.toFile(), new TypeReference<List<OutboxMessage>>() {});
+
+            synchronized (this) {
+                pending.addAll(messages);
+            }
+
+            if (!messages.isEmpty()) {
+                LOGGER.info("Loaded {} undelivered notifications", messages.size());
+                schedule(DIGEST_DELAY);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read undelivered notifications from {}: {}", outboxPath, e.getMessage());
+        }
+    }
+
+    /**
+     * Add a channel to deliver notifications on. Notifications are only queued for the channels that are
+     * registered when they arrive.
+     *
+     * @param channel The name of the channel.
+     * @param sender The OutboxSender that delivers messages on the channel.
+     */
+    public void register(String channel, OutboxSender sender) {
+        register(channel, sender, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Add a channel that can't deliver messages longer than a certain length. Digests for the channel are kept
+     * under that length, and a single message that is too long on its own is cut short.
+     *
+     * @param channel The name of the channel.
+     * @param sender The OutboxSender that delivers messages on the channel.
+     * @param maximumLength The longest message body the channel can deliver.
+     */
+    public void register(String channel, OutboxSender sender, int maximumLength) {
+        maximumLengths.put(channel, maximumLength);
+        senders.put(channel, sender);
+    }
+
+    /**
+     * Queue a notification for every registered channel. The body is built on the notification executor, so the caller
+     * doesn't spend any time formatting it.
+     *
+     * @param subject The subject of the notification.
+     * @param body Builds the body of the notification.
+     */
+    public void enqueue(String subject, Supplier<String> body) {
+        if (senders.isEmpty()) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                add(subject, body.get(), System.currentTimeMillis());
+                schedule(DIGEST_DELAY);
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Notification outbox is shut down, dropping \"{}\"", subject);
+        }
+    }
+
+    /**
+     * Deliver what's waiting in the outbox and stop scheduling retries.
+     */
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+
+        try {
+            executor.execute(() -> dispatch(System.currentTimeMillis()));
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+
+        // Spring shuts the notification executor down after us and lets it finish; any other executor is ours
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+
+            try {
+                ((ExecutorService) executor).awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    // queue a message for each channel and save the outbox
+    void add(String subject, String body, long now) {
+        synchronized (this) {
+            senders.keySet().forEach(channel -> pending.add(new OutboxMessage(channel, subject, body, now)));
+        }
+
+        save();
+    }
+
+    /**
+     * Deliver every message that's due, combining the ones for the same channel into a digest.
+     *
+     * @param now The current time. Messages with a nextAttempt after this aren't sent yet.
+     */
+    synchronized void dispatch(long now) {
+        // channels are registered at startup, well before the first dispatch, so these can never be sent
+        final int before = pending.size();
+
+        pending.removeIf(message -> !senders.containsKey(message.getChannel()));
+
+        final int dropped = before - pending.size();
+
+        if (dropped > 0) {
+            LOGGER.warn("Dropping {} notification(s) for channels that are no longer configured", dropped);
+        }
+
+        final Map<String, List<OutboxMessage>> due = pending
+            .stream()
+            .filter(message -> message.getNextAttempt() <= now)
+            .sorted(Comparator.comparingLong(OutboxMessage::getCreated))
+            .collect(Collectors.groupingBy(OutboxMessage::getChannel));
+
+        due.forEach((channel, messages) -> {
+            final int maximumLength = maximumLengths.getOrDefault(channel, Integer.MAX_VALUE);
+            final List<OutboxMessage> digest = buildDigest(messages, maximumLength);
+
+            try {
+                if (digest.size() == 1) {
+                    senders.get(channel).send(digest.get(0).getSubject(), truncate(digest.get(0).getBody(), maximumLength));
+                } else {
+                    senders.get(channel).send(
+                        String.format(DIGEST_SUBJECT, digest.size()),
+                        digest.stream().map(NotificationOutbox::formatDigestEntry).collect(Collectors.joining(DIGEST_SEPARATOR)));
+                }
+
+                pending.removeAll(digest);
+            } catch (Exception e) {
+                digest.forEach(message -> retryLater(message, now));
+
+                LOGGER.error("Could not send {} notification(s) via {}. Reason: {}", digest.size(), channel, e.getMessage());
+            }
+        });
+
+        if (dropped > 0 || !due.isEmpty()) {
+            save();
+        }
+
+        // come back for whatever is left: the rest of a big digest, or the next retry
+        pending
+            .stream()
+            .mapToLong(OutboxMessage::getNextAttempt)
+            .min()
+            .ifPresent(next -> schedule(Math.max(next - now, DIGEST_DELAY)));
+    }
+
+    // take the oldest messages that fit in one digest, but always at least one so a long message can't block the rest
+    private static List<OutboxMessage> buildDigest(List<OutboxMessage> messages, int maximumLength) {
+        final List<OutboxMessage> digest = new ArrayList<>();
+        long length = -DIGEST_SEPARATOR.length();
+
+        for (OutboxMessage message : messages) {
+            length += DIGEST_SEPARATOR.length() + formatDigestEntry(message).length();
+
+            if (digest.size() == MAXIMUM_DIGEST_SIZE || (!digest.isEmpty() && length > maximumLength)) {
+                break;
+            }
+
+            digest.add(message);
+        }
+
+        return digest;
+    }
+
+    // a digest only has one subject, so each message brings its own along
+    private static String formatDigestEntry(OutboxMessage message) {
+        return message.getSubject() + "\n" + message.getBody();
+    }
+
+    private static String truncate(String body, int maximumLength) {
+        return body.length() <= maximumLength ? body : body.substring(0, maximumLength);
+    }
+
+    // back off exponentially, and give up after MAXIMUM_ATTEMPTS
+    private void retryLater(OutboxMessage message, long now) {
+        message.setAttempts(message.getAttempts() + 1);
+
+        if (message.getAttempts() >= MAXIMUM_ATTEMPTS) {
+            pending.remove(message);
+
+            LOGGER.error("Giving up on notification \"{}\" via {} after {} attempts",
+                message.getSubject(),
+                message.getChannel(),
+                message.getAttempts());
+
+            return;
+        }
+
+        final long backoff = INITIAL_BACKOFF << Math.min(message.getAttempts() - 1, 20);
+
+        message.setNextAttempt(now + Math.min(backoff, MAXIMUM_BACKOFF));
+    }
+
+    // keep a single dispatch waiting, moving it earlier if this one is due sooner
+    private synchronized void schedule(long delay) {
+        if (scheduled != null && !scheduled.isDone()) {
+            if (scheduled.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                return;
+            }
+
+            scheduled.cancel(false);
+        }
+
+        try {
+            scheduled = timer.schedule(() -> executor.execute(() -> dispatch(System.currentTimeMillis())), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down, shutdown() will deliver what it can
+        }
+    }
+
+    // write the outbox to a temporary file and move it into place, so a crash can't leave a partial file behind
+    private synchronized void save() {
+        if (outboxPath == null) {
+            return;
+        }
+
+        try {
+            Path temporary = outboxPath.resolveSibling(outboxPath.getFileName() + ".tmp");
+
+            Files.createDirectories(outboxPath.toAbsolutePath().getParent());
+            objectMapper.writeValue(temporary.toFile(), pending);
+            Files.move(temporary, outboxPath, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write undelivered notifications to {}: {}", outboxPath, e.getMessage());
+        }
+    }
+}
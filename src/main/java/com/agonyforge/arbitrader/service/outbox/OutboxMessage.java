@@ -0,0 +1,73 @@
+package com.agonyforge.arbitrader.service.outbox;
+
+/**
+ * A notification waiting in the NotificationOutbox to be delivered on one channel.
+ */
+public class OutboxMessage {
+    private String channel;
+    private String subject;
+    private String body;
+    private long created;
+    private int attempts;
+    private long nextAttempt;
+
+    public OutboxMessage() {
+        // for Jackson
+    }
+
+    public OutboxMessage(String channel, String subject, String body, long created) {
+        this.channel = channel;
+        this.subject = subject;
+        this.body = body;
+        this.created = created;
+        this.nextAttempt = created;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public long getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(long nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+}
@@ -0,0 +1,16 @@
+package com.agonyforge.arbitrader.service.outbox;
+
+/**
+ * Delivers messages from the NotificationOutbox on one channel, such as email or Telegram.
+ */
+@FunctionalInterface
+public interface OutboxSender {
+    /**
+     * Deliver a message. Throwing means it wasn't delivered and should be tried again later.
+     *
+     * @param subject The subject of the message.
+     * @param body The body of the message.
+     * @throws Exception when the message could not be delivered.
+     */
+    void send(String subject, String body) throws Exception;
+}
@@ -0,0 +1,45 @@
+package com.agonyforge.arbitrader.service.statistics;
+
+import java.math.BigDecimal;
+
+/**
+ * Entry and exit targets computed from the recent spread distribution of one TradeCombination.
+ */
+public class AdaptiveTarget {
+    private final BigDecimal entrySpreadTarget;
+    private final BigDecimal exitSpreadTarget;
+    private final long sampleCount;
+
+    public AdaptiveTarget(BigDecimal entrySpreadTarget, BigDecimal exitSpreadTarget, long sampleCount) {
+        this.entrySpreadTarget = entrySpreadTarget;
+        this.exitSpreadTarget = exitSpreadTarget;
+        this.sampleCount = sampleCount;
+    }
+
+    public BigDecimal getEntrySpreadTarget() {
+        return entrySpreadTarget;
+    }
+
+    public BigDecimal getExitSpreadTarget() {
+        return exitSpreadTarget;
+    }
+
+    /**
+     * The total number of spreads we had seen for the TradeCombination when these targets were computed. Used to
+     * skip recomputing targets for combinations that haven't had any new spreads since.
+     *
+     * @return The number of spreads.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveTarget{" +
+            "entrySpreadTarget=" + entrySpreadTarget +
+            ", exitSpreadTarget=" + exitSpreadTarget +
+            ", sampleCount=" + sampleCount +
+            '}';
+    }
+}
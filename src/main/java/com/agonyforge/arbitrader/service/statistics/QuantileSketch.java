@@ -0,0 +1,178 @@
+package com.agonyforge.arbitrader.service.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, mergeable quantile sketch for spread values.
+ *
+ * Values are counted in logarithmically sized buckets, so any quantile we report is within RELATIVE_ACCURACY of a
+ * value that was actually observed. Spreads are small signed fractions, so positive and negative values get their
+ * own bucket arrays and anything smaller in magnitude than MINIMUM_MAGNITUDE is counted as zero. Updates are a single
+ * atomic increment, which makes it safe to call from the ticker threads without any locking.
+ */
+public class QuantileSketch {
+    static final double RELATIVE_ACCURACY = 0.02;
+    static final double MINIMUM_MAGNITUDE = 0.00001;
+    static final double MAXIMUM_MAGNITUDE = 1.0;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    static final int BUCKETS = (int) Math.ceil(Math.log(MAXIMUM_MAGNITUDE / MINIMUM_MAGNITUDE) / LOG_GAMMA) + 1;
+
+    private final AtomicLongArray positive = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray negative = new AtomicLongArray(BUCKETS);
+    private final AtomicLong zero = new AtomicLong();
+
+    /**
+     * Count a value.
+     *
+     * @param value The value to add to the sketch.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        double magnitude = Math.abs(value);
+
+        if (magnitude < MINIMUM_MAGNITUDE) {
+            zero.incrementAndGet();
+        } else if (value > 0) {
+            positive.incrementAndGet(index(magnitude));
+        } else {
+            negative.incrementAndGet(index(magnitude));
+        }
+    }
+
+    /**
+     * Throw away everything we've counted so far.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            positive.set(i, 0);
+            negative.set(i, 0);
+        }
+
+        zero.set(0);
+    }
+
+    /**
+     * Take a copy of the current counts that can be queried and merged with other sketches.
+     *
+     * @return A Snapshot of this sketch.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot().merge(this);
+    }
+
+    private static int index(double magnitude) {
+        int index = (int) Math.ceil(Math.log(magnitude / MINIMUM_MAGNITUDE) / LOG_GAMMA);
+
+        return Math.max(0, Math.min(BUCKETS - 1, index));
+    }
+
+    private static double value(int index) {
+        return MINIMUM_MAGNITUDE * 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * A point-in-time copy of the counts in one or more sketches.
+     */
+    public static class Snapshot {
+        private final long[] positive = new long[BUCKETS];
+        private final long[] negative = new long[BUCKETS];
+        private long zero;
+        private long count;
+
+        /**
+         * Add the counts from a live sketch into this snapshot.
+         *
+         * @param sketch The sketch to merge.
+         * @return This Snapshot.
+         */
+        public Snapshot merge(QuantileSketch sketch) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long p = sketch.positive.get(i);
+                long n = sketch.negative.get(i);
+
+                positive[i] += p;
+                negative[i] += n;
+                count += p + n;
+            }
+
+            long z = sketch.zero.get();
+
+            zero += z;
+            count += z;
+
+            return this;
+        }
+
+        /**
+         * Add the counts from another snapshot into this one.
+         *
+         * @param other The snapshot to merge.
+         * @return This Snapshot.
+         */
+        public Snapshot merge(Snapshot other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                positive[i] += other.positive[i];
+                negative[i] += other.negative[i];
+            }
+
+            zero += other.zero;
+            count += other.count;
+
+            return this;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Estimate a quantile.
+         *
+         * @param quantile The quantile to estimate, between 0 and 1.
+         * @return The estimated value at that quantile, or NaN if nothing has been counted.
+         */
+        public double getQuantile(double quantile) {
+            if (quantile < 0 || quantile > 1) {
+                throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+            }
+
+            if (count == 0) {
+                return Double.NaN;
+            }
+
+            long rank = (long) Math.floor(quantile * (count - 1));
+            long seen = 0;
+
+            // walk the buckets in ascending order of value: most negative first
+            for (int i = BUCKETS - 1; i >= 0; i--) {
+                seen += negative[i];
+
+                if (seen > rank) {
+                    return -value(i);
+                }
+            }
+
+            seen += zero;
+
+            if (seen > rank) {
+                return 0.0;
+            }
+
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += positive[i];
+
+                if (seen > rank) {
+                    return value(i);
+                }
+            }
+
+            return value(BUCKETS - 1);
+        }
+    }
+}
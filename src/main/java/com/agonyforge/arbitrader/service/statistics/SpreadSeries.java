@@ -0,0 +1,227 @@
+package com.agonyforge.arbitrader.service.statistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running statistics for one stream of spread values (either spreadIn or spreadOut for a single TradeCombination).
+ *
+ * We keep all-time min and max, an exponentially weighted moving average, an all-time QuantileSketch, and a rolling
+ * window made of hourly slices that each have their own min, max and QuantileSketch. Every field is updated with
+ * atomic operations so many threads can publish spreads for the same combination at once without locking.
+ *
+ * When a slice rotates into a new hour while another thread is still writing to it, that one value may be lost.
+ * That's an acceptable trade for never blocking a ticker thread.
+ */
+public class SpreadSeries {
+    static final double EWMA_ALPHA = 0.01;
+    static final int SLICE_COUNT = 24;
+    static final long SLICE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final long MAXIMUM_WINDOW_MILLIS = SLICE_COUNT * SLICE_MILLIS;
+
+    private final AtomicLong min = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+    private final AtomicLong max = new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+    private final AtomicLong ewma = new AtomicLong(Double.doubleToLongBits(Double.NaN));
+    private final LongAdder count = new LongAdder();
+    private final QuantileSketch sketch = new QuantileSketch();
+    private final Slice[] slices = new Slice[SLICE_COUNT];
+
+    public SpreadSeries() {
+        for (int i = 0; i < SLICE_COUNT; i++) {
+            slices[i] = new Slice();
+        }
+    }
+
+    /**
+     * Add a value to the series.
+     *
+     * @param value The spread value.
+     * @param now The current time in epoch milliseconds.
+     */
+    public void update(double value, long now) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        count.increment();
+        updateMin(min, value);
+        updateMax(max, value);
+        updateEwma(value);
+        sketch.add(value);
+
+        long epoch = now / SLICE_MILLIS;
+        Slice slice = slices[(int) (epoch % SLICE_COUNT)];
+
+        if (slice.claim(epoch)) {
+            updateMin(slice.min, value);
+            updateMax(slice.max, value);
+            slice.sketch.add(value);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * The lowest value we've ever seen.
+     *
+     * @return The minimum, or positive infinity if there are no values yet.
+     */
+    public double getMin() {
+        return Double.longBitsToDouble(min.get());
+    }
+
+    /**
+     * The highest value we've ever seen.
+     *
+     * @return The maximum, or negative infinity if there are no values yet.
+     */
+    public double getMax() {
+        return Double.longBitsToDouble(max.get());
+    }
+
+    /**
+     * The exponentially weighted moving average of the values.
+     *
+     * @return The EWMA, or NaN if there are no values yet.
+     */
+    public double getEwma() {
+        return Double.longBitsToDouble(ewma.get());
+    }
+
+    /**
+     * Estimate a quantile over every value we've ever seen.
+     *
+     * @param quantile The quantile to estimate, between 0 and 1.
+     * @return The estimated value, or NaN if there are no values yet.
+     */
+    public double getQuantile(double quantile) {
+        return sketch.snapshot().getQuantile(quantile);
+    }
+
+    /**
+     * The lowest value seen within a recent window of time.
+     *
+     * @param windowMillis How far back to look, up to MAXIMUM_WINDOW_MILLIS. Rounded up to whole hours.
+     * @param now The current time in epoch milliseconds.
+     * @return The minimum, or positive infinity if there are no values in the window.
+     */
+    public double getRollingMin(long windowMillis, long now) {
+        double result = Double.POSITIVE_INFINITY;
+
+        for (Slice slice : slices) {
+            if (slice.isWithin(windowMillis, now)) {
+                result = Math.min(result, Double.longBitsToDouble(slice.min.get()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The highest value seen within a recent window of time.
+     *
+     * @param windowMillis How far back to look, up to MAXIMUM_WINDOW_MILLIS. Rounded up to whole hours.
+     * @param now The current time in epoch milliseconds.
+     * @return The maximum, or negative infinity if there are no values in the window.
+     */
+    public double getRollingMax(long windowMillis, long now) {
+        double result = Double.NEGATIVE_INFINITY;
+
+        for (Slice slice : slices) {
+            if (slice.isWithin(windowMillis, now)) {
+                result = Math.max(result, Double.longBitsToDouble(slice.max.get()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Merge the sketches for a recent window of time.
+     *
+     * @param windowMillis How far back to look, up to MAXIMUM_WINDOW_MILLIS. Rounded up to whole hours.
+     * @param now The current time in epoch milliseconds.
+     * @return A Snapshot of every value in the window.
+     */
+    public QuantileSketch.Snapshot getRollingSnapshot(long windowMillis, long now) {
+        QuantileSketch.Snapshot snapshot = new QuantileSketch.Snapshot();
+
+        for (Slice slice : slices) {
+            if (slice.isWithin(windowMillis, now)) {
+                snapshot.merge(slice.sketch);
+            }
+        }
+
+        return snapshot;
+    }
+
+    private void updateEwma(double value) {
+        while (true) {
+            long current = ewma.get();
+            double average = Double.longBitsToDouble(current);
+            double next = Double.isNaN(average) ? value : average + EWMA_ALPHA * (value - average);
+
+            if (ewma.compareAndSet(current, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    private static void updateMin(AtomicLong bits, double value) {
+        while (true) {
+            long current = bits.get();
+
+            if (value >= Double.longBitsToDouble(current) || bits.compareAndSet(current, Double.doubleToLongBits(value))) {
+                return;
+            }
+        }
+    }
+
+    private static void updateMax(AtomicLong bits, double value) {
+        while (true) {
+            long current = bits.get();
+
+            if (value <= Double.longBitsToDouble(current) || bits.compareAndSet(current, Double.doubleToLongBits(value))) {
+                return;
+            }
+        }
+    }
+
+    // one hour of the rolling window
+    private static class Slice {
+        private final AtomicLong epoch = new AtomicLong(-1);
+        private final AtomicLong min = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        private final AtomicLong max = new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+        private final QuantileSketch sketch = new QuantileSketch();
+
+        // make sure this slice belongs to the given hour, resetting it if it still holds an older one
+        boolean claim(long target) {
+            while (true) {
+                long current = epoch.get();
+
+                if (current == target) {
+                    return true;
+                } else if (current > target) {
+                    // a late value for an hour that has already rotated out
+                    return false;
+                } else if (epoch.compareAndSet(current, target)) {
+                    min.set(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+                    max.set(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+                    sketch.reset();
+                    return true;
+                }
+            }
+        }
+
+        boolean isWithin(long windowMillis, long now) {
+            long current = now / SLICE_MILLIS;
+            long slices = Math.min(SLICE_COUNT, Math.max(1, (windowMillis + SLICE_MILLIS - 1) / SLICE_MILLIS));
+            long sliceEpoch = epoch.get();
+
+            return sliceEpoch > current - slices && sliceEpoch <= current;
+        }
+    }
+}
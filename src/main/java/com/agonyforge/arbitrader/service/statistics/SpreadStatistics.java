@@ -0,0 +1,65 @@
+package com.agonyforge.arbitrader.service.statistics;
+
+import com.agonyforge.arbitrader.service.model.Spread;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+
+/**
+ * Statistics for the spreads of one TradeCombination. One of these is allocated the first time we see a combination
+ * and then updated in place for every Spread we compute after that.
+ */
+public class SpreadStatistics {
+    private final TradeCombination tradeCombination;
+    private final SpreadSeries in = new SpreadSeries();
+    private final SpreadSeries out = new SpreadSeries();
+    private volatile AdaptiveTarget adaptiveTarget;
+
+    public SpreadStatistics(TradeCombination tradeCombination) {
+        this.tradeCombination = tradeCombination;
+    }
+
+    /**
+     * Add a Spread to the statistics.
+     *
+     * @param spread The Spread to add.
+     * @param now The current time in epoch milliseconds.
+     */
+    public void update(Spread spread, long now) {
+        in.update(spread.getIn().doubleValue(), now);
+        out.update(spread.getOut().doubleValue(), now);
+    }
+
+    public TradeCombination getTradeCombination() {
+        return tradeCombination;
+    }
+
+    public SpreadSeries getIn() {
+        return in;
+    }
+
+    public SpreadSeries getOut() {
+        return out;
+    }
+
+    /**
+     * Whether the highest spreadIn we've seen is above the lowest spreadOut we've seen. If so, entering at the best
+     * spreadIn and exiting at the best spreadOut would have been profitable.
+     *
+     * @return true if the spreads have crossed.
+     */
+    public boolean isCrossed() {
+        return in.getMax() > out.getMin();
+    }
+
+    /**
+     * The most recently computed adaptive targets.
+     *
+     * @return The AdaptiveTarget, or null if there aren't enough spreads to compute one yet.
+     */
+    public AdaptiveTarget getAdaptiveTarget() {
+        return adaptiveTarget;
+    }
+
+    public void setAdaptiveTarget(AdaptiveTarget adaptiveTarget) {
+        this.adaptiveTarget = adaptiveTarget;
+    }
+}
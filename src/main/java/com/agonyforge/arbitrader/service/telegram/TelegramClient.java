@@ -1,13 +1,10 @@
 package com.agonyforge.arbitrader.service.telegram;
 
 import com.agonyforge.arbitrader.config.NotificationConfiguration;
-import okhttp3.Call;
-import okhttp3.Callback;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -16,6 +13,8 @@ import java.io.IOException;
 
 @Component
 public class TelegramClient {
+    public static final int MAXIMUM_MESSAGE_LENGTH = 4096; // Telegram rejects anything longer
+
     private static final Logger LOGGER = LoggerFactory.getLogger(TelegramClient.class);
 
     private final OkHttpClient client;
@@ -26,7 +25,24 @@ public class TelegramClient {
         this.token = notificationConfiguration.getTelegram().getToken();
     }
 
-    public void sendMessage(String message, String receiverUserName) {
+    /**
+     * Send a message and wait for Telegram to accept it.
+     *
+     * @param message The text of the message.
+     * @param receiverUserName The chat to send the message to.
+     * @throws IOException if the message could not be sent or Telegram rejected it.
+     */
+    public void sendMessageSync(String message, String receiverUserName) throws IOException {
+        try (Response response = client.newCall(buildRequest(message, receiverUserName)).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Telegram responded " + response.code() + " " + response.message());
+            }
+
+            LOGGER.debug("Message sent to telegram. Response: {}", response);
+        }
+    }
+
+    private Request buildRequest(String message, String receiverUserName) {
         final HttpUrl url = new HttpUrl.Builder()
             .scheme("https")
             .host("api.telegram.org")
@@ -36,25 +52,8 @@ public class TelegramClient {
             .addQueryParameter("text", message)
             .build();
 
-        final Request request = new Request.Builder()
+        return new Request.Builder()
             .url(url)
             .build();
-
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NotNull Call call, @NotNull IOException e) {
-                LOGGER.error("Failed to send message to telegram: ", e);
-                // Cancel the connection in case it is still active. There is no problem calling cancel() on an
-                // already canceled connection
-                call.cancel();
-            }
-
-            @Override
-            public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
-                LOGGER.debug("Message sent to telegram. Response: {}", response);
-                response.close();
-            }
-        });
     }
 }
-
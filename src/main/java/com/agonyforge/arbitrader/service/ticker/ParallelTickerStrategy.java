@@ -111,11 +111,14 @@ public class ParallelTickerStrategy implements TickerStrategy {
                 System.currentTimeMillis() - start);
         }
 
-        // push ticker into TickerService
-        tickers.forEach(ticker -> tickerService.putTicker(exchange, ticker));
+        // push ticker into TickerService, keeping the ones whose prices actually moved
+        List<Ticker> changedTickers = tickers
+            .stream()
+            .filter(ticker -> tickerService.putTicker(exchange, ticker))
+            .collect(Collectors.toList());
 
-        // publish events
-        tickers.forEach(ticker -> tickerEventPublisher.publishTicker(new TickerEvent(ticker, exchange)));
+        // publish events, but only for tickers that changed (TradingScheduler re-checks the active position itself)
+        changedTickers.forEach(ticker -> tickerEventPublisher.publishTicker(new TickerEvent(ticker, exchange)));
     }
 
     // return the batchDelay configuration parameter
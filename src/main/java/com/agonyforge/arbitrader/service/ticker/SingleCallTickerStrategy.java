@@ -72,11 +72,14 @@ public class SingleCallTickerStrategy implements TickerStrategy {
                         System.currentTimeMillis() - start);
                 }
 
-                // push ticker into TickerService
-                tickers.forEach(ticker -> tickerService.putTicker(exchange, ticker));
+                // push ticker into TickerService, keeping the ones whose prices actually moved
+                List<Ticker> changedTickers = tickers
+                    .stream()
+                    .filter(ticker -> tickerService.putTicker(exchange, ticker))
+                    .collect(Collectors.toList());
 
-                // publish events
-                tickers.forEach(ticker -> tickerEventPublisher.publishTicker(new TickerEvent(ticker, exchange)));
+                // publish events, but only for tickers that changed (TradingScheduler re-checks the active position itself)
+                changedTickers.forEach(ticker -> tickerEventPublisher.publishTicker(new TickerEvent(ticker, exchange)));
             } catch (UndeclaredThrowableException ute) {
                 // Method proxying in rescu can enclose a real exception in this UTE, so we need to unwrap and re-throw it.
                 throw ute.getCause();
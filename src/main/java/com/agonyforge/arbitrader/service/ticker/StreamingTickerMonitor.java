@@ -0,0 +1,135 @@
+package com.agonyforge.arbitrader.service.ticker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps count of how often the streaming ticker connections had to be repaired and how long it took, so a flaky
+ * websocket shows up in the logs.
+ */
+@Component
+public class StreamingTickerMonitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingTickerMonitor.class);
+
+    private final ConcurrentMap<String, Statistics> statistics = new ConcurrentHashMap<>();
+    private final Instant started = Instant.now();
+
+    /**
+     * Record a successful connection to an exchange.
+     *
+     * @param exchange The name of the exchange.
+     * @param latency How long the connection took, in milliseconds.
+     * @param reconnect true if this replaced an earlier connection.
+     */
+    public void connected(String exchange, long latency, boolean reconnect) {
+        final Statistics stats = getStatistics(exchange);
+
+        if (reconnect) {
+            stats.reconnects.increment();
+        }
+
+        stats.connects.increment();
+        stats.totalLatency.add(latency);
+        stats.maximumLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * Record a failed attempt to connect to an exchange.
+     *
+     * @param exchange The name of the exchange.
+     */
+    public void connectFailed(String exchange) {
+        getStatistics(exchange).failures.increment();
+    }
+
+    /**
+     * Record that a single currency pair on an exchange was resubscribed.
+     *
+     * @param exchange The name of the exchange.
+     */
+    public void resubscribed(String exchange) {
+        getStatistics(exchange).resubscribes.increment();
+    }
+
+    public long getReconnectCount(String exchange) {
+        final Statistics stats = statistics.get(exchange);
+
+        return stats == null ? 0 : stats.reconnects.sum();
+    }
+
+    public long getConnectFailureCount(String exchange) {
+        final Statistics stats = statistics.get(exchange);
+
+        return stats == null ? 0 : stats.failures.sum();
+    }
+
+    public long getResubscribeCount(String exchange) {
+        final Statistics stats = statistics.get(exchange);
+
+        return stats == null ? 0 : stats.resubscribes.sum();
+    }
+
+    /**
+     * Get the average time it took to connect to an exchange.
+     *
+     * @param exchange The name of the exchange.
+     * @return The average connection latency in milliseconds.
+     */
+    public long getAverageLatency(String exchange) {
+        final Statistics stats = statistics.get(exchange);
+
+        if (stats == null || stats.connects.sum() == 0) {
+            return 0;
+        }
+
+        return stats.totalLatency.sum() / stats.connects.sum();
+    }
+
+    /**
+     * Get the longest time it took to connect to an exchange.
+     *
+     * @param exchange The name of the exchange.
+     * @return The maximum connection latency in milliseconds.
+     */
+    public long getMaximumLatency(String exchange) {
+        final Statistics stats = statistics.get(exchange);
+
+        return stats == null ? 0 : stats.maximumLatency.get();
+    }
+
+    /**
+     * Log how often each streaming exchange has been reconnected or resubscribed and how long connecting took.
+     */
+    @Scheduled(cron = "0 0 0/6 * * *") // every 6 hours
+    public void report() {
+        statistics.forEach((exchange, stats) -> LOGGER.info("Streaming {}: {} reconnects, {} resubscribes and {} failed connection attempts since {}, connecting took {} ms on average and {} ms at most",
+            exchange,
+            stats.reconnects.sum(),
+            stats.resubscribes.sum(),
+            stats.failures.sum(),
+            started,
+            getAverageLatency(exchange),
+            stats.maximumLatency.get()));
+    }
+
+    private Statistics getStatistics(String exchange) {
+        return statistics.computeIfAbsent(exchange, key -> new Statistics());
+    }
+
+    private static class Statistics {
+        private final LongAdder connects = new LongAdder();
+        private final LongAdder reconnects = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder resubscribes = new LongAdder();
+        private final LongAdder totalLatency = new LongAdder();
+        private final AtomicLong maximumLatency = new AtomicLong();
+    }
+}
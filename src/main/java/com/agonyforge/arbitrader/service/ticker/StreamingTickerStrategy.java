@@ -7,7 +7,10 @@ import com.agonyforge.arbitrader.service.TickerService;
 import com.agonyforge.arbitrader.service.event.TickerEventPublisher;
 import info.bitrich.xchangestream.core.ProductSubscription;
 import info.bitrich.xchangestream.core.StreamingExchange;
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
 import org.knowm.xchange.Exchange;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.knowm.xchange.dto.marketdata.Ticker;
@@ -15,28 +18,45 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A TickerStrategy implementation for streaming exchanges.
+ *
+ * Each call to getTickers() supervises the streams instead of fetching anything: the TickerService knows when each
+ * currency pair last sent a ticker, and a pair that has been silent for longer than the exchange's ticker age
+ * budget (or whose stream ended with an error) is resubscribed on its own. Only when every pair on the exchange has
+ * gone silent is the connection itself considered broken and replaced. Connecting happens in the background so the
+ * scheduler thread never waits on a websocket, and repeated attempts back off exponentially until tickers start
+ * arriving again.
  */
 public class StreamingTickerStrategy implements TickerStrategy {
+    static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+    static final long MAXIMUM_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+
     private static final Logger LOGGER = LoggerFactory.getLogger(StreamingTickerStrategy.class);
 
-    // we would use this list if we supported disconnecting from streams
-    @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-    private final List<Disposable> subscriptions = new ArrayList<>();
-    private final Map<StreamingExchange, Map<CurrencyPair, Ticker>> tickers = new HashMap<>();
+    private final ConcurrentMap<StreamingExchange, Connection> connections = new ConcurrentHashMap<>();
     private final ErrorCollectorService errorCollectorService;
     private final ExchangeService exchangeService;
     private final TickerEventPublisher tickerEventPublisher;
+    private final StreamingTickerMonitor streamingTickerMonitor;
+    private final Scheduler connectScheduler;
 
     public StreamingTickerStrategy(ErrorCollectorService errorCollectorService,
                                    ExchangeService exchangeService,
-                                   TickerEventPublisher tickerEventPublisher) {
+                                   TickerEventPublisher tickerEventPublisher,
+                                   StreamingTickerMonitor streamingTickerMonitor,
+                                   Executor connectExecutor) {
         this.errorCollectorService = errorCollectorService;
         this.exchangeService = exchangeService;
         this.tickerEventPublisher = tickerEventPublisher;
+        this.streamingTickerMonitor = streamingTickerMonitor;
+        this.connectScheduler = Schedulers.from(connectExecutor);
     }
 
     @Override
@@ -46,61 +66,161 @@ public class StreamingTickerStrategy implements TickerStrategy {
             return;
         }
 
-        StreamingExchange exchange = (StreamingExchange)stdExchange;
+        supervise((StreamingExchange) stdExchange, currencyPairs, tickerService, System.currentTimeMillis());
+    }
+
+    // intended for testing
+    void supervise(StreamingExchange exchange, List<CurrencyPair> currencyPairs, TickerService tickerService, long now) {
+        final Connection connection = connections.computeIfAbsent(exchange, key -> new Connection());
+
+        if (connection.connecting.get()) {
+            return; // wait for the connection attempt in progress to finish
+        }
+
+        if (connection.streams.isEmpty()) { // we were never connected, or the last attempt failed
+            if (now >= connection.nextAttempt) {
+                connect(exchange, connection, currencyPairs, tickerService, now);
+            }
+
+            return;
+        }
+
+        final long maxAge = tickerService.getTickerMaxAge(exchange);
+        final List<CurrencyPair> silent = new ArrayList<>();
+
+        currencyPairs.forEach(pair -> {
+            final Stream stream = connection.streams.get(pair);
+
+            if (stream == null) { // a pair we haven't subscribed to yet
+                subscribe(exchange, connection, pair, tickerService, 0, now);
+            } else if (stream.isSilent(tickerService.getReceived(exchange, pair), maxAge, now)) {
+                silent.add(pair);
+            }
+        });
+
+        if (silent.isEmpty()) {
+            return;
+        }
+
+        // nothing at all is arriving, so it's the connection that's broken rather than any one stream
+        if (silent.size() == connection.streams.size()) {
+            if (now >= connection.nextAttempt) {
+                LOGGER.warn("No tickers from {} for {} ms, reconnecting",
+                    exchange.getExchangeSpecification().getExchangeName(),
+                    maxAge);
+
+                connect(exchange, connection, currencyPairs, tickerService, now);
+            }
+
+            return;
+        }
+
+        silent.forEach(pair -> {
+            final Stream stream = connection.streams.get(pair);
+            final long received = tickerService.getReceived(exchange, pair);
+
+            if (now >= stream.notBefore) {
+                LOGGER.info("No tickers from {} {} for {} ms, resubscribing",
+                    exchange.getExchangeSpecification().getExchangeName(),
+                    pair,
+                    now - stream.silentSince(received));
+
+                // count the attempts in a row that haven't brought a ticker back
+                final int resubscribes = received < stream.subscribed ? stream.resubscribes + 1 : 1;
+
+                streamingTickerMonitor.resubscribed(exchange.getExchangeSpecification().getExchangeName());
+                subscribe(exchange, connection, pair, tickerService, resubscribes, now);
+            }
+        });
+    }
+
+    // throw away all the streams and connect again in the background, then subscribe to every pair
+    private void connect(StreamingExchange exchange, Connection connection, List<CurrencyPair> currencyPairs, TickerService tickerService, long now) {
+        if (!connection.connecting.compareAndSet(false, true)) {
+            return;
+        }
+
+        final String exchangeName = exchange.getExchangeSpecification().getExchangeName();
+        final boolean reconnect = connection.established;
+        final ProductSubscription.ProductSubscriptionBuilder builder = ProductSubscription.create();
+
+        currencyPairs.forEach(pair -> builder.addTicker(exchangeService.convertExchangePair(exchange, pair)));
+
+        final ProductSubscription productSubscription = builder.build();
+        final long started = System.nanoTime();
+
+        // if this attempt doesn't bring any tickers back, the next one waits longer
+        connection.nextAttempt = now + backoff(INITIAL_BACKOFF, connection.attempts++);
+        connection.streams.values().forEach(Stream::dispose);
+        connection.streams.clear();
+
+        final Completable disconnect = reconnect
+            ? Completable.defer(exchange::disconnect).onErrorComplete()
+            : Completable.complete();
 
-        // TODO could the following "if" be the reason for the spurious reconnects?
-        if (!tickers.containsKey(exchange)) { // we're not receiving prices so we need to (re)connect
-            ProductSubscription.ProductSubscriptionBuilder builder = ProductSubscription.create();
+        disconnect
+            .andThen(Completable.defer(() -> exchange.connect(productSubscription)))
+            .subscribeOn(connectScheduler)
+            .subscribe(
+                () -> {
+                    final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
 
-            currencyPairs.forEach(pair -> { builder.addTicker(exchangeService.convertExchangePair(exchange, pair)); });
+                    connection.established = true;
+                    streamingTickerMonitor.connected(exchangeName, latency, reconnect);
+                    LOGGER.info("Connected to {} in {} ms", exchangeName, latency);
 
-            // try to subscribe to the websocket
-            exchange.connect(builder.build()).blockingAwait();
-            subscriptions.clear(); // avoid endlessly filling this list up with dead subscriptions
-            subscriptions.addAll(subscribeAll(exchange, currencyPairs, tickerService));
+                    try {
+                        currencyPairs.forEach(pair -> subscribe(exchange, connection, pair, tickerService, 0, now + latency));
+                    } finally {
+                        connection.connecting.set(false);
+                    }
+                },
+                throwable -> {
+                    streamingTickerMonitor.connectFailed(exchangeName);
+                    errorCollectorService.collect(exchange, throwable);
+                    LOGGER.warn("Unable to connect to {}, trying again in {} ms: {}",
+                        exchangeName,
+                        connection.nextAttempt - now,
+                        throwable.getMessage());
+
+                    connection.connecting.set(false);
+                });
+    }
+
+    // listen to websocket messages for one pair, replacing any earlier stream for it
+    private void subscribe(StreamingExchange exchange, Connection connection, CurrencyPair pair, TickerService tickerService, int resubscribes, long now) {
+        final CurrencyPair currencyPair = exchangeService.convertExchangePair(exchange, pair);
+        final List<Object> tickerArguments = exchangeService.getExchangeMetadata(exchange).getTickerArguments();
+        final Stream stream = new Stream(now, resubscribes);
+        final Stream previous = connection.streams.put(pair, stream);
+
+        // dispose of the old stream first, otherwise the exchange's shared channel never actually unsubscribes
+        if (previous != null) {
+            previous.dispose();
         }
+
+        stream.subscription = exchange.getStreamingMarketDataService().getTicker(currencyPair, tickerArguments.toArray())
+            .doOnNext(ticker -> log(exchange, ticker))
+            .subscribe(
+                ticker -> {
+                    connection.attempts = 0;
+
+                    // store the ticker in the TickerService even if it's a duplicate, so it knows the feed
+                    // is still alive, but only publish an event to analyze it when the prices changed
+                    if (tickerService.putTicker(exchange, ticker)) {
+                        tickerEventPublisher.publishTicker(new TickerEvent(ticker, exchange));
+                    }
+                },
+                throwable -> {
+                    // collect errors quietly, but expose them in the debug log
+                    errorCollectorService.collect(exchange, throwable);
+                    LOGGER.debug("Unexpected checked exception: {}", throwable.getMessage(), throwable);
+            });
     }
 
-    // listen to websocket messages, populate the ticker map and publish ticker events
-    private List<Disposable> subscribeAll(StreamingExchange exchange, List<CurrencyPair> currencyPairs, TickerService tickerService) {
-        return currencyPairs
-            .stream()
-            .map(pair -> {
-                final CurrencyPair currencyPair = exchangeService.convertExchangePair(exchange, pair);
-                final List<Object> tickerArguments = exchangeService.getExchangeMetadata(exchange).getTickerArguments();
-
-                return exchange.getStreamingMarketDataService().getTicker(currencyPair, tickerArguments.toArray())
-                    .doOnNext(ticker -> log(exchange, ticker))
-                    .subscribe(
-                        ticker -> {
-                            tickers.computeIfAbsent(exchange, e -> new HashMap<>());
-
-                            // don't waste time analyzing duplicate tickers
-                            Ticker oldTicker = tickers.get(exchange).get(pair);
-
-                            if (oldTicker != null
-                                && oldTicker.getInstrument().equals(ticker.getInstrument())
-                                && oldTicker.getBid().equals(ticker.getBid())
-                                && oldTicker.getAsk().equals(ticker.getAsk())) {
-                                return;
-                            }
-
-                            // store the ticker in our cache
-                            tickers.get(exchange).put(pair, ticker);
-
-                            // store the ticker in the TickerService
-                            tickerService.putTicker(exchange, ticker);
-
-                            // publish an event to notify that the tickers have updated
-                            tickerEventPublisher.publishTicker(new TickerEvent(ticker, exchange));
-                        },
-                        throwable -> {
-                            // collect errors quietly, but expose them in the debug log
-                            errorCollectorService.collect(exchange, throwable);
-                            LOGGER.debug("Unexpected checked exception: {}", throwable.getMessage(), throwable);
-                    });
-            })
-            .collect(Collectors.toList());
+    // double the delay for each attempt, up to a limit
+    static long backoff(long initial, int attempts) {
+        return Math.min(initial << Math.min(attempts, 20), Math.max(initial, MAXIMUM_BACKOFF));
     }
 
     // debug logging whenever we get a ticker event
@@ -116,4 +236,44 @@ public class StreamingTickerStrategy implements TickerStrategy {
     public String toString() {
         return "Streaming";
     }
+
+    // the state of our connection to one exchange
+    private static class Connection {
+        private final AtomicBoolean connecting = new AtomicBoolean(false);
+        private final Map<CurrencyPair, Stream> streams = new ConcurrentHashMap<>();
+        private volatile boolean established = false;
+        private volatile int attempts = 0;
+        private volatile long nextAttempt = 0;
+    }
+
+    // the subscription for one currency pair; the TickerService knows when we last heard from it
+    private static class Stream {
+        private final long subscribed;
+        private final int resubscribes;
+        private final long notBefore;
+        private volatile Disposable subscription;
+
+        Stream(long subscribed, int resubscribes) {
+            this.subscribed = subscribed;
+            this.resubscribes = resubscribes;
+
+            // a pair that keeps going quiet is resubscribed less and less often
+            this.notBefore = resubscribes == 0 ? subscribed : subscribed + backoff(INITIAL_BACKOFF, resubscribes - 1);
+        }
+
+        long silentSince(long received) {
+            return Math.max(received, subscribed);
+        }
+
+        // the stream ended, or nothing has arrived for too long
+        boolean isSilent(long received, long maxAge, long now) {
+            return (subscription != null && subscription.isDisposed()) || now - silentSince(received) > maxAge;
+        }
+
+        void dispose() {
+            if (subscription != null) {
+                subscription.dispose();
+            }
+        }
+    }
 }
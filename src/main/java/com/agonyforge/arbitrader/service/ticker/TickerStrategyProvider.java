@@ -1,12 +1,15 @@
 package com.agonyforge.arbitrader.service.ticker;
 
+import com.agonyforge.arbitrader.config.ExecutorConfig;
 import com.agonyforge.arbitrader.config.NotificationConfiguration;
 import com.agonyforge.arbitrader.service.ErrorCollectorService;
 import com.agonyforge.arbitrader.service.ExchangeService;
 import com.agonyforge.arbitrader.service.event.TickerEventPublisher;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import java.util.concurrent.Executor;
 
 /**
  * A service for getting TickerStrategy implementations. We need to do it this way because there is a
@@ -18,15 +21,21 @@ public class TickerStrategyProvider {
     private final ErrorCollectorService errorCollectorService;
     private final TickerEventPublisher tickerEventPublisher;
     private final NotificationConfiguration notificationConfiguration;
+    private final StreamingTickerMonitor streamingTickerMonitor;
+    private final Executor marketDataExecutor;
 
     @Inject
     public TickerStrategyProvider(ErrorCollectorService errorCollectorService,
                                   TickerEventPublisher tickerEventPublisher,
-                                  NotificationConfiguration notificationConfiguration) {
+                                  NotificationConfiguration notificationConfiguration,
+                                  StreamingTickerMonitor streamingTickerMonitor,
+                                  @Qualifier(ExecutorConfig.MARKET_DATA_EXECUTOR) Executor marketDataExecutor) {
 
         this.errorCollectorService = errorCollectorService;
         this.tickerEventPublisher = tickerEventPublisher;
         this.notificationConfiguration = notificationConfiguration;
+        this.streamingTickerMonitor = streamingTickerMonitor;
+        this.marketDataExecutor = marketDataExecutor;
     }
 
     /**
@@ -36,7 +45,7 @@ public class TickerStrategyProvider {
      * @return A StreamingTickerStrategy.
      */
     public TickerStrategy getStreamingTickerStrategy(ExchangeService exchangeService) {
-        return new StreamingTickerStrategy(errorCollectorService, exchangeService, tickerEventPublisher);
+        return new StreamingTickerStrategy(errorCollectorService, exchangeService, tickerEventPublisher, streamingTickerMonitor, marketDataExecutor);
     }
 
     /**
@@ -0,0 +1,150 @@
+package com.agonyforge.arbitrader.config;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MonitoredTaskExecutorTest extends BaseTestCase {
+    private MonitoredTaskExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new MonitoredTaskExecutor("test");
+
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testDecorate() {
+        final boolean[] ran = new boolean[1];
+
+        Runnable decorated = executor.decorate(() -> ran[0] = true);
+
+        assertEquals(1, executor.getSubmittedCount());
+        assertEquals(0, executor.getCompletedCount());
+
+        decorated.run();
+
+        assertTrue(ran[0]);
+        assertEquals(1, executor.getCompletedCount());
+        assertTrue(executor.getAverageWait() >= 0.0);
+        assertTrue(executor.getMaximumWait() >= executor.getAverageWait());
+    }
+
+    @Test
+    public void testDecorateCountsFailures() {
+        Runnable decorated = executor.decorate(() -> {
+            throw new IllegalStateException("Boom!");
+        });
+
+        try {
+            decorated.run();
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals(1, executor.getCompletedCount());
+        }
+    }
+
+    @Test
+    public void testThreadName() throws InterruptedException {
+        final String[] name = new String[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        executor.initialize();
+        executor.execute(() -> {
+            name[0] = Thread.currentThread().getName();
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(name[0].startsWith("test-"));
+    }
+
+    @Test
+    public void testRejected() throws InterruptedException {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        executor.initialize();
+
+        // one task running and one queued fills the executor up
+        executor.execute(() -> {
+            running.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        executor.execute(() -> {});
+
+        try {
+            executor.execute(() -> {});
+            fail("Expected rejection");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, executor.getRejectedCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testRejectedWithPolicy() throws InterruptedException {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final boolean[] ranOnCaller = new boolean[1];
+        final Thread caller = Thread.currentThread();
+
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+
+        executor.execute(() -> {
+            running.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        executor.execute(() -> {});
+        executor.execute(() -> ranOnCaller[0] = Thread.currentThread() == caller);
+
+        release.countDown();
+
+        assertTrue(ranOnCaller[0]);
+        assertEquals(1, executor.getRejectedCount());
+    }
+
+    @Test
+    public void testReport() {
+        final long start = System.nanoTime();
+
+        executor.report(start);
+
+        String report = executor.report(start + TimeUnit.SECONDS.toNanos(1));
+
+        assertTrue(report, report.startsWith("test: "));
+        assertTrue(report, report.contains("0/1 threads, 0 queued, 0 completed, 0 rejected"));
+    }
+}
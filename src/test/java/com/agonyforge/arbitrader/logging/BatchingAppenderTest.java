@@ -0,0 +1,112 @@
+package com.agonyforge.arbitrader.logging;
+
+import com.agonyforge.arbitrader.config.NotificationConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingAppenderTest {
+    private static final int MAX_LENGTH = 20;
+
+    private TestAppender appender;
+
+    @Before
+    public void setUp() {
+        appender = new TestAppender();
+    }
+
+    @Test
+    public void testBatchCombinesMessages() {
+        appender.append("one");
+        appender.append("two");
+        appender.append("three");
+
+        assertEquals("zero\none\ntwo\nthree", appender.buildBatch("zero"));
+    }
+
+    @Test
+    public void testBatchStopsAtMaximumLength() {
+        appender.append("0123456789");
+        appender.append("0123456789");
+
+        // the rest stay in the queue for the next batch
+        assertEquals("0123456789", appender.buildBatch("0123456789"));
+        assertEquals("a\n0123456789", appender.buildBatch("a"));
+        assertEquals("b\n0123456789", appender.buildBatch("b"));
+        assertEquals("c", appender.buildBatch("c"));
+    }
+
+    @Test
+    public void testBatchTruncatesLongMessage() {
+        assertEquals("01234567890123456...", appender.buildBatch("0123456789012345678901234567890"));
+    }
+
+    @Test
+    public void testOverflowIsCounted() {
+        for (int i = 0; i < BatchingAppender.DEFAULT_QUEUE_SIZE + 3; i++) {
+            appender.append("x");
+        }
+
+        assertEquals(3, appender.getDropped());
+    }
+
+    @Test
+    public void testBatchReportsDropped() {
+        appender = new TestAppender(100);
+
+        for (int i = 0; i < BatchingAppender.DEFAULT_QUEUE_SIZE + 3; i++) {
+            appender.append("x");
+        }
+
+        String batch = appender.buildBatch("x");
+
+        assertTrue(batch.length() <= 100);
+        assertTrue(batch.endsWith("\n(3 more messages were dropped)"));
+        assertEquals(0, appender.getDropped());
+    }
+
+    @Test
+    public void testShipBatchEmptyQueue() throws InterruptedException {
+        assertFalse(appender.shipBatch(1));
+    }
+
+    @Test
+    public void testShipBatchWithoutSpring() throws InterruptedException {
+        appender.append("one");
+
+        // without a Spring context there's nowhere to send it, but it still leaves the queue
+        assertTrue(appender.shipBatch(1));
+        assertFalse(appender.shipBatch(1));
+        assertTrue(appender.sent.isEmpty());
+    }
+
+    private static class TestAppender extends BatchingAppender<String> {
+        private final int maxLength;
+        private final List<String> sent = new ArrayList<>();
+
+        TestAppender() {
+            this(MAX_LENGTH);
+        }
+
+        TestAppender(int maxLength) {
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        protected int getMaxMessageLength() {
+            return maxLength;
+        }
+
+        @Override
+        protected long send(NotificationConfiguration notificationConfiguration, String message) {
+            sent.add(message);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.agonyforge.arbitrader.logging;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+    @Test
+    public void testBurst() {
+        TokenBucket bucket = new TokenBucket(3, 1);
+        long now = System.nanoTime();
+
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+    }
+
+    @Test
+    public void testRefill() {
+        TokenBucket bucket = new TokenBucket(1, 60);
+        long now = System.nanoTime();
+
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(500)));
+        assertTrue(bucket.tryAcquire(now + TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Test
+    public void testRefillIsCapped() {
+        TokenBucket bucket = new TokenBucket(2, 60);
+        long now = System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+    }
+
+    @Test
+    public void testPause() {
+        TokenBucket bucket = new TokenBucket(5, 60);
+
+        bucket.pause(TimeUnit.MINUTES.toMillis(1));
+
+        assertFalse(bucket.tryAcquire());
+    }
+}
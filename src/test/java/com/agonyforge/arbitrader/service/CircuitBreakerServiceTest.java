@@ -0,0 +1,167 @@
+package com.agonyforge.arbitrader.service;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.ExchangeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.agonyforge.arbitrader.service.CircuitBreakerService.FAILURE_THRESHOLD;
+import static com.agonyforge.arbitrader.service.CircuitBreakerService.INITIAL_PROBE_INTERVAL;
+import static com.agonyforge.arbitrader.service.CircuitBreakerService.MAX_PROBE_INTERVAL;
+import static com.agonyforge.arbitrader.service.CircuitBreakerService.WINDOW;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerServiceTest extends BaseTestCase {
+    private Exchange exchange;
+    private ErrorCollectorService errorCollectorService;
+    private CircuitBreakerService circuitBreakerService;
+    private AtomicInteger polls;
+
+    @Before
+    public void setUp() throws IOException {
+        exchange = new ExchangeBuilder("CrashyCoins", CurrencyPair.BTC_USD).build();
+        errorCollectorService = new ErrorCollectorService();
+        circuitBreakerService = new CircuitBreakerService(errorCollectorService);
+        polls = new AtomicInteger();
+    }
+
+    @Test
+    public void testClosedByDefault() {
+        assertTrue(circuitBreakerService.isAvailable(exchange));
+        assertTrue(circuitBreakerService.call(exchange, polls::incrementAndGet, 0));
+        assertEquals(1, polls.get());
+    }
+
+    @Test
+    public void testOpensAfterFailures() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            assertTrue(circuitBreakerService.call(exchange, this::failingPoll, 0));
+        }
+
+        assertEquals(CircuitBreakerService.State.OPEN, circuitBreakerService.getState(exchange));
+        assertFalse(circuitBreakerService.isAvailable(exchange));
+        assertFalse(circuitBreakerService.call(exchange, polls::incrementAndGet, 1));
+        assertEquals(0, polls.get());
+    }
+
+    @Test
+    public void testStaysClosedBelowThreshold() {
+        for (int i = 0; i < WINDOW * 2; i++) {
+            // one failure in every three polls never reaches the threshold in any window
+            if (i % 3 == 0) {
+                circuitBreakerService.call(exchange, this::failingPoll, 0);
+            } else {
+                circuitBreakerService.call(exchange, polls::incrementAndGet, 0);
+            }
+        }
+
+        assertTrue(circuitBreakerService.isAvailable(exchange));
+    }
+
+    @Test
+    public void testThrowingPollFails() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            try {
+                circuitBreakerService.call(exchange, () -> {
+                    throw new IllegalStateException("Boom!");
+                }, 0);
+                fail("Expected the exception to be rethrown");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+
+        assertEquals(CircuitBreakerService.State.OPEN, circuitBreakerService.getState(exchange));
+    }
+
+    @Test
+    public void testErrorsBetweenPollsFail() {
+        circuitBreakerService.call(exchange, polls::incrementAndGet, 0);
+
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            // something else, like a streaming subscription, reports an error between two clean polls
+            failingPoll();
+
+            assertTrue(circuitBreakerService.call(exchange, polls::incrementAndGet, 0));
+        }
+
+        assertEquals(CircuitBreakerService.State.OPEN, circuitBreakerService.getState(exchange));
+    }
+
+    @Test
+    public void testErrorsBeforeFirstPollIgnored() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            failingPoll();
+        }
+
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            circuitBreakerService.call(exchange, polls::incrementAndGet, 0);
+        }
+
+        assertTrue(circuitBreakerService.isAvailable(exchange));
+    }
+
+    @Test
+    public void testProbeSuccessCloses() {
+        open();
+
+        assertTrue(circuitBreakerService.call(exchange, polls::incrementAndGet, INITIAL_PROBE_INTERVAL));
+
+        assertEquals(1, polls.get());
+        assertEquals(CircuitBreakerService.State.CLOSED, circuitBreakerService.getState(exchange));
+
+        // a single failure after recovering doesn't open it again
+        circuitBreakerService.call(exchange, this::failingPoll, INITIAL_PROBE_INTERVAL);
+        assertTrue(circuitBreakerService.isAvailable(exchange));
+    }
+
+    @Test
+    public void testProbeFailureBacksOff() {
+        open();
+
+        assertTrue(circuitBreakerService.call(exchange, this::failingPoll, INITIAL_PROBE_INTERVAL));
+        assertEquals(CircuitBreakerService.State.OPEN, circuitBreakerService.getState(exchange));
+
+        // the next probe waits twice as long
+        long probe = INITIAL_PROBE_INTERVAL;
+        assertFalse(circuitBreakerService.call(exchange, polls::incrementAndGet, probe + INITIAL_PROBE_INTERVAL * 2 - 1));
+        assertTrue(circuitBreakerService.call(exchange, polls::incrementAndGet, probe + INITIAL_PROBE_INTERVAL * 2));
+        assertEquals(1, polls.get());
+    }
+
+    @Test
+    public void testProbeIntervalIsCapped() {
+        open();
+
+        long now = INITIAL_PROBE_INTERVAL;
+
+        for (int i = 0; i < 20; i++) {
+            circuitBreakerService.call(exchange, this::failingPoll, now);
+            now += MAX_PROBE_INTERVAL;
+        }
+
+        // the probe is never more than MAX_PROBE_INTERVAL away
+        assertTrue(circuitBreakerService.call(exchange, polls::incrementAndGet, now));
+    }
+
+    // open the circuit breaker at time zero
+    private void open() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            circuitBreakerService.call(exchange, this::failingPoll, 0);
+        }
+
+        assertEquals(CircuitBreakerService.State.OPEN, circuitBreakerService.getState(exchange));
+    }
+
+    private void failingPoll() {
+        errorCollectorService.collect(exchange, new IllegalStateException("Boom!"));
+    }
+}
@@ -79,6 +79,7 @@ public class ConditionServiceTest extends BaseTestCase {
         assertFalse(conditionService.isForceOpenCondition(currencyPair, longExchangeName, shortExchangeName));
 
         FileUtils.writeStringToFile(forceOpen,"BTC/USD CrazyCoinz/CoinBazaar", Charset.defaultCharset());
+        conditionService.refresh();
 
         assertTrue(forceOpen.exists());
         assertTrue(conditionService.isForceOpenCondition(currencyPair, longExchangeName, shortExchangeName));
@@ -97,6 +98,7 @@ public class ConditionServiceTest extends BaseTestCase {
         assertFalse(conditionService.isForceOpenCondition(currencyPair, longExchangeName, shortExchangeName));
 
         FileUtils.writeStringToFile(forceOpen,"BTC/USD CrazyCoins/CoinBazaar", Charset.defaultCharset());
+        conditionService.refresh();
 
         assertTrue(forceOpen.exists());
         assertFalse(conditionService.isForceOpenCondition(currencyPair, longExchangeName, shortExchangeName));
@@ -115,6 +117,7 @@ public class ConditionServiceTest extends BaseTestCase {
         assertFalse(conditionService.isForceOpenCondition(currencyPair, longExchangeName, shortExchangeName));
 
         FileUtils.writeStringToFile(forceOpen,"BTC/USD CrazyCoins/CoinBazaar", Charset.defaultCharset());
+        conditionService.refresh();
 
         assertTrue(forceOpen.exists());
         assertFalse(conditionService.isForceOpenCondition(currencyPair, longExchangeName, shortExchangeName));
@@ -148,6 +151,7 @@ public class ConditionServiceTest extends BaseTestCase {
         assertFalse(conditionService.isForceCloseCondition());
 
         assertTrue(forceClose.createNewFile());
+        conditionService.refresh();
 
         assertTrue(forceClose.exists());
         assertTrue(conditionService.isForceCloseCondition());
@@ -155,6 +159,42 @@ public class ConditionServiceTest extends BaseTestCase {
         FileUtils.deleteQuietly(forceClose);
     }
 
+    @Test
+    public void testClearForceCloseConditionUpdatesSnapshot() throws IOException {
+        File forceClose = new File(FORCE_CLOSE);
+
+        assertTrue(forceClose.createNewFile());
+        conditionService.refresh();
+
+        assertTrue(conditionService.isForceCloseCondition());
+
+        conditionService.clearForceCloseCondition();
+
+        assertFalse(conditionService.isForceCloseCondition());
+    }
+
+    @Test
+    public void testWatcherDetectsForceCloseCondition() throws IOException, InterruptedException {
+        File forceClose = new File(FORCE_CLOSE);
+
+        conditionService.startWatching();
+
+        try {
+            assertFalse(conditionService.isForceCloseCondition());
+            assertTrue(forceClose.createNewFile());
+
+            // the watcher runs on its own thread so give it a little while to notice
+            for (int i = 0; i < 100 && !conditionService.isForceCloseCondition(); i++) {
+                Thread.sleep(100L);
+            }
+
+            assertTrue(conditionService.isForceCloseCondition());
+        } finally {
+            conditionService.stopWatching();
+            FileUtils.deleteQuietly(forceClose);
+        }
+    }
+
     @Test
     public void testClearExitWhenIdleConditionIdempotence() {
         conditionService.clearExitWhenIdleCondition();
@@ -180,6 +220,7 @@ public class ConditionServiceTest extends BaseTestCase {
         assertFalse(conditionService.isExitWhenIdleCondition());
 
         assertTrue(exitWhenIdle.createNewFile());
+        conditionService.refresh();
 
         assertTrue(exitWhenIdle.exists());
         assertTrue(conditionService.isExitWhenIdleCondition());
@@ -207,6 +248,7 @@ public class ConditionServiceTest extends BaseTestCase {
         assertFalse(conditionService.isStatusCondition());
 
         assertTrue(status.createNewFile());
+        conditionService.refresh();
 
         assertTrue(status.exists());
         assertTrue(conditionService.isStatusCondition());
@@ -236,6 +278,7 @@ public class ConditionServiceTest extends BaseTestCase {
             blackoutStart.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME),
             blackoutEnd.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)));
         writer.close();
+        conditionService.refresh();
 
         assertFalse(conditionService.isBlackoutCondition(exchange));
 
@@ -256,6 +299,7 @@ public class ConditionServiceTest extends BaseTestCase {
             blackoutStart.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME),
             blackoutEnd.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)));
         writer.close();
+        conditionService.refresh();
 
         assertFalse(conditionService.isBlackoutCondition(exchange));
 
@@ -276,6 +320,7 @@ public class ConditionServiceTest extends BaseTestCase {
             blackoutStart.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME),
             blackoutEnd.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)));
         writer.close();
+        conditionService.refresh();
 
         assertTrue(conditionService.isBlackoutCondition(exchange));
 
@@ -296,6 +341,7 @@ public class ConditionServiceTest extends BaseTestCase {
             blackoutStart.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME),
             blackoutEnd.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)));
         writer.close();
+        conditionService.refresh();
 
         assertFalse(conditionService.isBlackoutCondition(exchange));
 
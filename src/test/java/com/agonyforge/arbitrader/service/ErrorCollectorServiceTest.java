@@ -9,8 +9,13 @@ import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static com.agonyforge.arbitrader.service.ErrorCollectorService.HEADER;
+import static com.agonyforge.arbitrader.service.ErrorCollectorService.MAXIMUM_FINGERPRINTS;
+import static com.agonyforge.arbitrader.service.ErrorCollectorService.MAXIMUM_MESSAGE_LENGTH;
 import static org.junit.Assert.*;
 
 public class ErrorCollectorServiceTest {
@@ -80,4 +85,69 @@ public class ErrorCollectorServiceTest {
 
         assertTrue(errorCollectorService.isEmpty());
     }
+
+    @Test
+    public void testCollectGroupsVariableMessages() {
+        errorCollectorService.collect(exchange, new IllegalStateException("Nonce 1623423 is too small"));
+        errorCollectorService.collect(exchange, new IllegalStateException("Nonce 1623499 is too small"));
+
+        List<String> report = errorCollectorService.report();
+
+        assertEquals(2, report.size());
+        assertEquals(EXCHANGE_NAME + ": IllegalStateException Nonce # is too small x 2", report.get(1));
+    }
+
+    @Test
+    public void testCollectNullMessage() {
+        errorCollectorService.collect(exchange, new NullPointerException());
+
+        assertEquals(EXCHANGE_NAME + ": NullPointerException null x 1", errorCollectorService.report().get(1));
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("Boom!", ErrorCollectorService.normalize("Boom!"));
+        assertEquals("Request # failed at #", ErrorCollectorService.normalize("Request 5f3a-9b21 failed at 2021-06-11T12:30:01Z"));
+        assertEquals("HTTP status code was not OK: #", ErrorCollectorService.normalize("HTTP status code was not OK: 429"));
+    }
+
+    @Test
+    public void testNormalizeLongMessage() {
+        StringBuilder message = new StringBuilder();
+
+        for (int i = 0; i < MAXIMUM_MESSAGE_LENGTH; i++) {
+            message.append("ab");
+        }
+
+        assertEquals(MAXIMUM_MESSAGE_LENGTH, ErrorCollectorService.normalize(message.toString()).length());
+    }
+
+    @Test
+    public void testFingerprintLimit() {
+        for (int i = 0; i < MAXIMUM_FINGERPRINTS + 10; i++) {
+            // no digits, so every message is a different fingerprint
+            errorCollectorService.collect(exchange, new IllegalStateException("Error " + Integer.toBinaryString(i).replace('0', 'o').replace('1', 'l')));
+        }
+
+        List<String> report = errorCollectorService.report();
+
+        // the header, MAXIMUM_FINGERPRINTS errors and one line for everything else
+        assertEquals(MAXIMUM_FINGERPRINTS + 2, report.size());
+        assertTrue(report.contains(EXCHANGE_NAME + ": Other errors x 10"));
+    }
+
+    @Test
+    public void testCollectConcurrently() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(() -> errorCollectorService.collect(exchange, new NullPointerException("Boom!")));
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(EXCHANGE_NAME + ": NullPointerException Boom! x 1000", errorCollectorService.report().get(1));
+        assertEquals(1000, errorCollectorService.getErrorCount(exchange));
+    }
 }
@@ -3,19 +3,32 @@ package com.agonyforge.arbitrader.service;
 import com.agonyforge.arbitrader.ExchangeBuilder;
 import com.agonyforge.arbitrader.config.ExchangeConfiguration;
 import com.agonyforge.arbitrader.service.cache.ExchangeFeeCache;
+import com.agonyforge.arbitrader.service.model.ExchangeFee;
 import com.agonyforge.arbitrader.service.ticker.TickerStrategyProvider;
 import org.junit.Before;
 import org.junit.Test;
 import org.knowm.xchange.Exchange;
 import org.knowm.xchange.currency.Currency;
 import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.account.Fee;
+import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
+import org.knowm.xchange.service.account.AccountService;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class ExchangeServiceTest {
     private Exchange exchange;
@@ -26,6 +39,8 @@ public class ExchangeServiceTest {
     private ExchangeFeeCache exchangeFeeCache;
     @Mock
     private TickerStrategyProvider tickerStrategyProvider;
+    @Mock
+    private AccountService accountService;
 
     @Before
     public void setUp() throws IOException {
@@ -33,8 +48,11 @@ public class ExchangeServiceTest {
 
         exchange = new ExchangeBuilder("CoinFraud", CurrencyPair.BTC_USD)
             .withHomeCurrency(Currency.USDT)
+            .withExchangeMetaData()
             .build();
 
+        when(exchange.getAccountService()).thenReturn(accountService);
+
         exchangeService = new ExchangeService(exchangeFeeCache, tickerStrategyProvider);
     }
 
@@ -76,4 +94,69 @@ public class ExchangeServiceTest {
         assertEquals(CurrencyPair.DOGE_BTC, converted);
         assertEquals(currencyPair, converted);
     }
+
+    @Test
+    public void testConfiguredFallbackFeeCachedBriefly() throws IOException {
+        exchangeService.getExchangeMetadata(exchange).setTradeFee(new BigDecimal("0.0025"));
+        when(accountService.getDynamicTradingFees()).thenThrow(new IOException("Boom!"));
+
+        // there's no metadata for this pair, so the configured fee is used
+        ExchangeFee fee = exchangeService.getExchangeFee(exchange, CurrencyPair.ETH_USD, true);
+
+        assertEquals(new BigDecimal("0.0025"), fee.getTradeFee());
+        verify(exchangeFeeCache).setFallbackFee(eq(exchange), eq(CurrencyPair.ETH_USD), eq(fee));
+        verify(exchangeFeeCache, never()).setCachedFee(any(Exchange.class), any(CurrencyPair.class), any(ExchangeFee.class));
+        verify(exchangeFeeCache, never()).setDynamicFeesUnsupported(any(Exchange.class));
+    }
+
+    @Test
+    public void testDefaultFallbackFeeCachedBriefly() throws IOException {
+        when(accountService.getDynamicTradingFees()).thenThrow(new IOException("Boom!"));
+
+        ExchangeFee fee = exchangeService.getExchangeFee(exchange, CurrencyPair.ETH_USD, true);
+
+        assertEquals(new BigDecimal("0.0030"), fee.getTradeFee());
+        verify(exchangeFeeCache).setFallbackFee(eq(exchange), eq(CurrencyPair.ETH_USD), eq(fee));
+        verify(exchangeFeeCache, never()).setCachedFee(any(Exchange.class), any(CurrencyPair.class), any(ExchangeFee.class));
+    }
+
+    @Test
+    public void testDynamicFeesUnsupported() throws IOException {
+        when(accountService.getDynamicTradingFees()).thenThrow(new NotYetImplementedForExchangeException());
+
+        // falls back to the fee in the exchange metadata, which won't change by asking again
+        ExchangeFee fee = exchangeService.getExchangeFee(exchange, CurrencyPair.BTC_USD, true);
+
+        assertEquals(new BigDecimal("0.0020"), fee.getTradeFee());
+        verify(exchangeFeeCache).setDynamicFeesUnsupported(eq(exchange));
+        verify(exchangeFeeCache).setCachedFee(eq(exchange), eq(CurrencyPair.BTC_USD), eq(fee));
+        verify(exchangeFeeCache, never()).setFallbackFee(any(Exchange.class), any(CurrencyPair.class), any(ExchangeFee.class));
+    }
+
+    @Test
+    public void testDynamicFeesUnsupportedNotAskedAgain() throws IOException {
+        when(exchangeFeeCache.isDynamicFeesUnsupported(eq(exchange))).thenReturn(true);
+
+        ExchangeFee fee = exchangeService.getExchangeFee(exchange, CurrencyPair.BTC_USD, true);
+
+        assertEquals(new BigDecimal("0.0020"), fee.getTradeFee());
+        verify(accountService, never()).getDynamicTradingFees();
+    }
+
+    @Test
+    public void testDynamicFeesCachesEveryPair() throws IOException {
+        Map<CurrencyPair, Fee> fees = new HashMap<>();
+
+        fees.put(CurrencyPair.BTC_USD, new Fee(new BigDecimal("0.0010"), new BigDecimal("0.0020")));
+        fees.put(CurrencyPair.ETH_USD, new Fee(new BigDecimal("0.0015"), new BigDecimal("0.0025")));
+
+        when(accountService.getDynamicTradingFees()).thenReturn(fees);
+
+        ExchangeFee fee = exchangeService.getExchangeFee(exchange, CurrencyPair.BTC_USD, true);
+
+        assertEquals(new BigDecimal("0.0010"), fee.getTradeFee());
+        verify(accountService).getDynamicTradingFees();
+        verify(exchangeFeeCache).setCachedFee(eq(exchange), eq(CurrencyPair.BTC_USD), argThat(cached -> new BigDecimal("0.0010").equals(cached.getTradeFee())));
+        verify(exchangeFeeCache).setCachedFee(eq(exchange), eq(CurrencyPair.ETH_USD), argThat(cached -> new BigDecimal("0.0015").equals(cached.getTradeFee())));
+    }
 }
@@ -0,0 +1,134 @@
+package com.agonyforge.arbitrader.service;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.ExchangeBuilder;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.mockito.Mock;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+
+import static com.agonyforge.arbitrader.DecimalConstants.USD_SCALE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+
+public class ExposureServiceTest extends BaseTestCase {
+    @Mock
+    private ExchangeService exchangeService;
+
+    private Exchange longExchange;
+    private Exchange shortExchange;
+    private TradingConfiguration tradingConfiguration;
+    private ExposureService exposureService;
+
+    @Before
+    public void setUp() throws IOException {
+        longExchange = new ExchangeBuilder("Long", CurrencyPair.BTC_USD).build();
+        shortExchange = new ExchangeBuilder("Short", CurrencyPair.BTC_USD).build();
+
+        tradingConfiguration = new TradingConfiguration();
+
+        when(exchangeService.getExchangeHomeCurrency(any(Exchange.class)))
+            .thenReturn(Currency.USD);
+        when(exchangeService.getExchangeCurrencyScale(any(Exchange.class), any(Currency.class)))
+            .thenReturn(2);
+
+        exposureService = new ExposureService(tradingConfiguration, exchangeService);
+    }
+
+    @After
+    public void tearDown() {
+        exposureService.shutdown();
+    }
+
+    @Test
+    public void testGetMaximumExposureFixedExposure() {
+        tradingConfiguration.setFixedExposure(new BigDecimal("100.00"));
+
+        BigDecimal exposure = exposureService.getMaximumExposure(longExchange, shortExchange);
+
+        assertEquals(new BigDecimal("100.00").setScale(USD_SCALE, RoundingMode.HALF_EVEN), exposure);
+    }
+
+    // should return 90% of the smallest account balance
+    @Test
+    public void testGetMaximumExposure() throws IOException {
+        final BigDecimal minAccountBalance = new BigDecimal("100.00");
+        final BigDecimal tradePortion = new BigDecimal("0.9");
+        final BigDecimal expectedExposure = minAccountBalance.multiply(tradePortion)
+            .setScale(USD_SCALE, RoundingMode.HALF_EVEN);
+
+        when(exchangeService.getAccountBalance(any(Exchange.class), any(Currency.class), anyInt()))
+            .thenReturn(minAccountBalance);
+
+        BigDecimal actual = exposureService.getMaximumExposure(longExchange, shortExchange);
+
+        assertEquals(expectedExposure, actual);
+    }
+
+    @Test
+    public void testGetMaximumExposureEmpty() {
+        BigDecimal exposure = exposureService.getMaximumExposure();
+
+        assertEquals(new BigDecimal("0.00").setScale(USD_SCALE, RoundingMode.HALF_EVEN), exposure);
+    }
+
+    @Test
+    public void testGetMaximumExposureException() throws IOException {
+        when(exchangeService.getAccountBalance(shortExchange, Currency.USD, USD_SCALE)).thenThrow(new IOException("Boom!"));
+
+        BigDecimal exposure = exposureService.getMaximumExposure();
+
+        // the IOE should not propagate and blow everything up
+        assertEquals(new BigDecimal("0.00").setScale(USD_SCALE, RoundingMode.HALF_EVEN), exposure);
+    }
+
+    @Test
+    public void testCombinationExposureSnapshot() throws IOException {
+        TradeCombination tradeCombination = new TradeCombination(longExchange, shortExchange, CurrencyPair.BTC_USD);
+
+        when(exchangeService.getAccountBalance(longExchange, Currency.USD, 2)).thenReturn(new BigDecimal("100.00"));
+        when(exchangeService.getAccountBalance(shortExchange, Currency.USD, 2)).thenReturn(new BigDecimal("500.00"));
+
+        assertEquals(new BigDecimal("90.00"), exposureService.getMaximumExposure(tradeCombination));
+
+        // the snapshot doesn't go back to the exchange
+        when(exchangeService.getAccountBalance(longExchange, Currency.USD, 2)).thenReturn(new BigDecimal("200.00"));
+
+        assertEquals(new BigDecimal("90.00"), exposureService.getMaximumExposure(tradeCombination));
+
+        // until we know the balance has changed
+        exposureService.invalidate(longExchange);
+
+        assertEquals(new BigDecimal("180.00"), exposureService.getMaximumExposure(tradeCombination));
+    }
+
+    @Test
+    public void testRefreshExposuresFixedExposure() {
+        TradeCombination tradeCombination = new TradeCombination(longExchange, shortExchange, CurrencyPair.BTC_USD);
+
+        tradingConfiguration.setFixedExposure(new BigDecimal("100.00"));
+        exposureService.initializeExposures(Collections.singletonList(tradeCombination));
+
+        assertEquals(new BigDecimal("100.00"), exposureService.getMaximumExposure(tradeCombination));
+    }
+
+    @Test
+    public void testGetCombinedBalance() throws IOException {
+        when(exchangeService.getAccountBalance(longExchange, Currency.USD, 2)).thenReturn(new BigDecimal("100.00"));
+        when(exchangeService.getAccountBalance(shortExchange, Currency.USD, 2)).thenReturn(new BigDecimal("500.00"));
+
+        assertEquals(new BigDecimal("600.00"), exposureService.getCombinedBalance(longExchange, shortExchange));
+    }
+}
@@ -0,0 +1,188 @@
+package com.agonyforge.arbitrader.service;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.ExchangeBuilder;
+import com.agonyforge.arbitrader.service.model.Spread;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.mockito.Mock;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SpreadEvaluatorTest extends BaseTestCase {
+    private Exchange longExchange;
+    private Exchange shortExchange;
+    private TradeCombination btcCombination;
+    private TradeCombination ethCombination;
+
+    @Mock
+    private TradingService tradingService;
+
+    @Mock
+    private SpreadService spreadService;
+
+    @Mock
+    private CircuitBreakerService circuitBreakerService;
+
+    private List<Runnable> queued;
+    private SpreadEvaluator spreadEvaluator;
+
+    @Before
+    public void setUp() throws IOException {
+        longExchange = new ExchangeBuilder("Long", CurrencyPair.BTC_USD).build();
+        shortExchange = new ExchangeBuilder("Short", CurrencyPair.BTC_USD).build();
+
+        btcCombination = new TradeCombination(longExchange, shortExchange, CurrencyPair.BTC_USD);
+        ethCombination = new TradeCombination(longExchange, shortExchange, CurrencyPair.ETH_USD);
+
+        when(circuitBreakerService.isAvailable(any(Exchange.class))).thenReturn(true);
+        when(spreadService.computeSpread(any(TradeCombination.class))).thenAnswer(invocation -> spread(invocation.getArgument(0)));
+
+        queued = new ArrayList<>();
+
+        spreadEvaluator = new SpreadEvaluator(tradingService, spreadService, circuitBreakerService, Collections.singletonList(Runnable::run));
+        spreadEvaluator.initialize(Arrays.asList(btcCombination, ethCombination));
+    }
+
+    @Test
+    public void testEvaluatesMatchingCombinations() {
+        spreadEvaluator.submit(shortExchange, CurrencyPair.BTC_USD);
+
+        verify(spreadService).computeSpread(btcCombination);
+        verify(spreadService, never()).computeSpread(ethCombination);
+        assertEquals(1, spreadEvaluator.getEvaluatedCount());
+    }
+
+    @Test
+    public void testUnknownPair() {
+        spreadEvaluator.submit(longExchange, CurrencyPair.LTC_USD);
+
+        verify(spreadService, never()).computeSpread(any(TradeCombination.class));
+        assertEquals(0, spreadEvaluator.getEvaluatedCount());
+    }
+
+    @Test
+    public void testNotCandidate() {
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+
+        verify(tradingService).isCandidate(any(Spread.class));
+        verify(tradingService, never()).trade(any(Spread.class));
+        assertEquals(0, spreadEvaluator.getHandedOffCount());
+    }
+
+    @Test
+    public void testCandidate() {
+        when(tradingService.isCandidate(any(Spread.class))).thenReturn(true);
+
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+
+        verify(tradingService).trade(any(Spread.class));
+        assertEquals(1, spreadEvaluator.getHandedOffCount());
+    }
+
+    @Test
+    public void testFormerCandidateHandedOffOnce() {
+        when(tradingService.isCandidate(any(Spread.class))).thenReturn(true, false, false);
+
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+
+        // once as a candidate and once more to clean up after it
+        verify(tradingService, times(2)).trade(any(Spread.class));
+        assertEquals(3, spreadEvaluator.getEvaluatedCount());
+    }
+
+    @Test
+    public void testMissingSpread() {
+        when(spreadService.computeSpread(any(TradeCombination.class))).thenReturn(null);
+
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+
+        verify(tradingService, never()).isCandidate(any(Spread.class));
+        assertEquals(0, spreadEvaluator.getEvaluatedCount());
+    }
+
+    @Test
+    public void testCircuitBreakerOpen() {
+        when(circuitBreakerService.isAvailable(shortExchange)).thenReturn(false);
+
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+
+        verify(spreadService, never()).computeSpread(any(TradeCombination.class));
+    }
+
+    @Test
+    public void testCoalesced() {
+        spreadEvaluator = new SpreadEvaluator(tradingService, spreadService, circuitBreakerService, Collections.singletonList(queued::add));
+        spreadEvaluator.initialize(Arrays.asList(btcCombination, ethCombination));
+
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+        spreadEvaluator.submit(shortExchange, CurrencyPair.BTC_USD);
+
+        // the short exchange has its own slot
+        assertEquals(2, queued.size());
+        assertEquals(1, spreadEvaluator.getCoalescedCount());
+
+        queued.remove(0).run();
+
+        verify(spreadService).computeSpread(btcCombination);
+
+        // once it has run the next ticker queues it again
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+
+        assertEquals(2, queued.size());
+        assertEquals(1, spreadEvaluator.getCoalescedCount());
+    }
+
+    @Test
+    public void testRejected() {
+        final Executor full = command -> {
+            throw new RejectedExecutionException("full");
+        };
+
+        spreadEvaluator = new SpreadEvaluator(tradingService, spreadService, circuitBreakerService, Collections.singletonList(full));
+        spreadEvaluator.initialize(Collections.singletonList(btcCombination));
+
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+        spreadEvaluator.submit(longExchange, CurrencyPair.BTC_USD);
+
+        // the slot isn't left pending, so the second ticker is rejected too instead of being coalesced
+        assertEquals(2, spreadEvaluator.getRejectedCount());
+        assertEquals(0, spreadEvaluator.getCoalescedCount());
+    }
+
+    @Test
+    public void testSamePairSameShard() {
+        final List<Executor> shards = Arrays.asList(queued::add, queued::add, queued::add, queued::add);
+
+        spreadEvaluator = new SpreadEvaluator(tradingService, spreadService, circuitBreakerService, shards);
+
+        final int shard = spreadEvaluator.getShard(CurrencyPair.BTC_USD);
+
+        assertEquals(shard, spreadEvaluator.getShard(new CurrencyPair("BTC", "USD")));
+        assertEquals(shard, spreadEvaluator.getShard(CurrencyPair.BTC_USD));
+    }
+
+    private Spread spread(TradeCombination tradeCombination) {
+        return new Spread(tradeCombination, null, null, BigDecimal.valueOf(-0.005), BigDecimal.valueOf(0.005));
+    }
+}
@@ -5,10 +5,13 @@ import com.agonyforge.arbitrader.BaseTestCase;
 import com.agonyforge.arbitrader.config.TradingConfiguration;
 import com.agonyforge.arbitrader.service.model.ExchangeFee;
 import com.agonyforge.arbitrader.service.model.Spread;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import com.agonyforge.arbitrader.service.statistics.QuantileSketch;
 import org.junit.Before;
 import org.junit.Test;
 import org.knowm.xchange.Exchange;
 import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.marketdata.Ticker;
 import org.mockito.Mock;
 
 import java.io.IOException;
@@ -16,6 +19,9 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
 
 public class SpreadServiceTest extends BaseTestCase {
     private Exchange longExchange;
@@ -202,6 +208,30 @@ public class SpreadServiceTest extends BaseTestCase {
         assertEquals(0, new BigDecimal("0.50000000").compareTo(spread));
     }
 
+    @Test
+    public void testComputeSpreadStaleTicker() {
+        TradeCombination tradeCombination = new TradeCombination(longExchange, shortExchange, CurrencyPair.BTC_USD);
+        Ticker longTicker = new Ticker.Builder()
+            .bid(new BigDecimal("10.00"))
+            .ask(new BigDecimal("10.10"))
+            .instrument(CurrencyPair.BTC_USD)
+            .build();
+        Ticker shortTicker = new Ticker.Builder()
+            .bid(new BigDecimal("15.00"))
+            .ask(new BigDecimal("15.10"))
+            .instrument(CurrencyPair.BTC_USD)
+            .build();
+
+        when(tickerService.getTicker(longExchange, CurrencyPair.BTC_USD)).thenReturn(longTicker);
+        when(tickerService.getTicker(shortExchange, CurrencyPair.BTC_USD)).thenReturn(shortTicker);
+
+        assertNotNull(spreadService.computeSpread(tradeCombination));
+
+        when(tickerService.isStale(shortExchange, CurrencyPair.BTC_USD)).thenReturn(true);
+
+        assertNull(spreadService.computeSpread(tradeCombination));
+    }
+
     @Test
     public void testGetEntrySpreadTarget() {
         TradingConfiguration tradingConfiguration = new TradingConfiguration();
@@ -239,4 +269,87 @@ public class SpreadServiceTest extends BaseTestCase {
         assertEquals(new BigDecimal("-0.006587871534012").setScale(8, RoundingMode.HALF_EVEN), exitSpreadTarget.setScale(8, RoundingMode.HALF_EVEN));
 
     }
+
+    @Test
+    public void testAdaptiveTargets() {
+        TradingConfiguration configuration = buildAdaptiveConfiguration();
+        TradeCombination tradeCombination = new TradeCombination(longExchange, shortExchange, CurrencyPair.BTC_USD);
+        ExchangeFee longFee = new ExchangeFee(new BigDecimal("0.005"), null);
+        ExchangeFee shortFee = new ExchangeFee(new BigDecimal("0.0026"), BigDecimal.ZERO);
+        BigDecimal entrySpread = new BigDecimal("0.008627431321436");
+
+        when(tradingConfiguration.getAdaptiveTargets()).thenReturn(configuration.getAdaptiveTargets());
+
+        // spreadIns from 0.0000 to 0.0099, spreadOuts from -0.0199 to -0.0100
+        for (int i = 0; i < 100; i++) {
+            spreadService.publish(new Spread(
+                tradeCombination,
+                null,
+                null,
+                BigDecimal.valueOf(i * 0.0001),
+                BigDecimal.valueOf(-0.0199 + i * 0.0001)));
+        }
+
+        spreadService.recalculateAdaptiveTargets();
+
+        BigDecimal entrySpreadTarget = spreadService.getEntrySpreadTarget(configuration, tradeCombination, longFee, shortFee);
+        BigDecimal exitSpreadTarget = spreadService.getExitSpreadTarget(configuration, tradeCombination, entrySpread, longFee, shortFee);
+
+        // both adaptive targets are harder to hit than the static ones, so they win
+        assertEquals(0.0098, entrySpreadTarget.doubleValue(), 0.0098 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(-0.0190, exitSpreadTarget.doubleValue(), 0.0190 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void testAdaptiveTargetsBoundedByStaticTargets() {
+        TradingConfiguration configuration = buildAdaptiveConfiguration();
+        TradeCombination tradeCombination = new TradeCombination(longExchange, shortExchange, CurrencyPair.BTC_USD);
+        ExchangeFee longFee = new ExchangeFee(new BigDecimal("0.005"), null);
+        ExchangeFee shortFee = new ExchangeFee(new BigDecimal("0.0026"), BigDecimal.ZERO);
+        BigDecimal entrySpread = new BigDecimal("0.008627431321436");
+
+        when(tradingConfiguration.getAdaptiveTargets()).thenReturn(configuration.getAdaptiveTargets());
+
+        // a quiet pair: the spreads never get anywhere near the static targets
+        for (int i = 0; i < 100; i++) {
+            spreadService.publish(new Spread(tradeCombination, null, null, new BigDecimal("0.0001"), new BigDecimal("-0.0001")));
+        }
+
+        spreadService.recalculateAdaptiveTargets();
+
+        assertEquals(
+            spreadService.getEntrySpreadTarget(configuration, longFee, shortFee),
+            spreadService.getEntrySpreadTarget(configuration, tradeCombination, longFee, shortFee));
+        assertEquals(
+            spreadService.getExitSpreadTarget(configuration, entrySpread, longFee, shortFee),
+            spreadService.getExitSpreadTarget(configuration, tradeCombination, entrySpread, longFee, shortFee));
+    }
+
+    @Test
+    public void testAdaptiveTargetsNotEnoughSamples() {
+        TradingConfiguration configuration = buildAdaptiveConfiguration();
+        TradeCombination tradeCombination = new TradeCombination(longExchange, shortExchange, CurrencyPair.BTC_USD);
+        ExchangeFee longFee = new ExchangeFee(new BigDecimal("0.005"), null);
+        ExchangeFee shortFee = new ExchangeFee(new BigDecimal("0.0026"), BigDecimal.ZERO);
+
+        when(tradingConfiguration.getAdaptiveTargets()).thenReturn(configuration.getAdaptiveTargets());
+
+        spreadService.publish(new Spread(tradeCombination, null, null, new BigDecimal("0.05"), new BigDecimal("-0.05")));
+        spreadService.recalculateAdaptiveTargets();
+
+        assertEquals(
+            spreadService.getEntrySpreadTarget(configuration, longFee, shortFee),
+            spreadService.getEntrySpreadTarget(configuration, tradeCombination, longFee, shortFee));
+    }
+
+    private static TradingConfiguration buildAdaptiveConfiguration() {
+        TradingConfiguration configuration = new TradingConfiguration();
+
+        configuration.setEntrySpreadTarget(new BigDecimal("0.001"));
+        configuration.setMinimumProfit(new BigDecimal("0.001"));
+        configuration.getAdaptiveTargets().setActive(true);
+        configuration.getAdaptiveTargets().setMinimumSamples(50L);
+
+        return configuration;
+    }
 }
@@ -4,6 +4,7 @@ import com.agonyforge.arbitrader.ExchangeBuilder;
 import com.agonyforge.arbitrader.config.NotificationConfiguration;
 import com.agonyforge.arbitrader.config.TradingConfiguration;
 import com.agonyforge.arbitrader.service.cache.ExchangeFeeCache;
+import com.agonyforge.arbitrader.service.clock.ExchangeClockService;
 import com.agonyforge.arbitrader.service.event.TickerEventPublisher;
 import com.agonyforge.arbitrader.service.model.TickerEvent;
 import com.agonyforge.arbitrader.service.model.TradeCombination;
@@ -48,6 +49,9 @@ public class TickerServiceTest {
     @Mock
     private TickerEventPublisher tickerEventPublisher;
 
+    @Mock
+    private ExchangeClockService exchangeClockService;
+
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
@@ -56,12 +60,13 @@ public class TickerServiceTest {
         TradingConfiguration tradingConfiguration = new TradingConfiguration();
 
         exchangeService = new ExchangeService(new ExchangeFeeCache(), tickerStrategyProvider);
+        errorCollectorService = new ErrorCollectorService();
         tickerService = new TickerService(
             tradingConfiguration,
             exchangeService,
-            errorCollectorService);
-
-        errorCollectorService = new ErrorCollectorService();
+            errorCollectorService,
+            new CircuitBreakerService(errorCollectorService),
+            exchangeClockService);
 
         singleCallTickerStrategy = new SingleCallTickerStrategy(notificationConfiguration, errorCollectorService, exchangeService, tickerEventPublisher);
         parallelTickerStrategy = new ParallelTickerStrategy(notificationConfiguration, errorCollectorService, exchangeService, tickerEventPublisher);
@@ -419,4 +424,222 @@ public class TickerServiceTest {
 
         assertEquals(newTicker, tickerService.getTicker(exchange, CurrencyPair.BTC_USD));
     }
+
+    @Test
+    public void testPutTickerReportsChange() throws IOException {
+        Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
+            .withTickerStrategy(singleCallTickerStrategy)
+            .withHomeCurrency(Currency.USD)
+            .build();
+        Ticker firstTicker = new Ticker.Builder()
+            .bid(new BigDecimal("120.00"))
+            .ask(new BigDecimal("123.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609633979L))
+            .build();
+        Ticker sameTicker = new Ticker.Builder()
+            .bid(new BigDecimal("120.0"))
+            .ask(new BigDecimal("123.000"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609634008L))
+            .build();
+        Ticker movedTicker = new Ticker.Builder()
+            .bid(new BigDecimal("120.00"))
+            .ask(new BigDecimal("123.50"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609634038L))
+            .build();
+
+        assertTrue(tickerService.putTicker(exchange, firstTicker));
+
+        // same prices, but the newer ticker is still stored
+        assertFalse(tickerService.putTicker(exchange, sameTicker));
+        assertEquals(sameTicker, tickerService.getTicker(exchange, CurrencyPair.BTC_USD));
+
+        assertTrue(tickerService.putTicker(exchange, movedTicker));
+
+        assertEquals(2, tickerService.getChangedCount());
+        assertEquals(1, tickerService.getUnchangedCount());
+    }
+
+    @Test
+    public void testPutTickerOlderTickerIsNotAChange() throws IOException {
+        Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
+            .withTickerStrategy(singleCallTickerStrategy)
+            .withHomeCurrency(Currency.USD)
+            .build();
+        Ticker newTicker = new Ticker.Builder()
+            .bid(new BigDecimal("120.00"))
+            .ask(new BigDecimal("123.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609634008L))
+            .build();
+        Ticker olderTicker = new Ticker.Builder()
+            .bid(new BigDecimal("110.00"))
+            .ask(new BigDecimal("113.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609633979L))
+            .build();
+
+        assertTrue(tickerService.putTicker(exchange, newTicker));
+        assertFalse(tickerService.putTicker(exchange, olderTicker));
+        assertEquals(newTicker, tickerService.getTicker(exchange, CurrencyPair.BTC_USD));
+    }
+
+    @Test
+    public void testPutTickerRecordsTimestamp() throws IOException {
+        Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
+            .withTickerStrategy(singleCallTickerStrategy)
+            .withHomeCurrency(Currency.USD)
+            .build();
+        Ticker newTicker = new Ticker.Builder()
+            .bid(new BigDecimal("120.00"))
+            .ask(new BigDecimal("123.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609634008L))
+            .build();
+        Ticker olderTicker = new Ticker.Builder()
+            .bid(new BigDecimal("110.00"))
+            .ask(new BigDecimal("113.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609633979L))
+            .build();
+
+        tickerService.putTicker(exchange, newTicker, 1609634100L);
+        tickerService.putTicker(exchange, olderTicker, 1609634200L);
+
+        // only the ticker that was accepted tells us anything about the exchange's clock
+        verify(exchangeClockService).recordTimestamp(eq(exchange), eq(1609634008L), eq(1609634100L));
+        verify(exchangeClockService, never()).recordTimestamp(eq(exchange), eq(1609633979L), anyLong());
+    }
+
+    @Test
+    public void testFetchTickersUnchanged() throws IOException {
+        Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
+            .withTickerStrategy(singleCallTickerStrategy)
+            .withTickers(
+                true,
+                Collections.singletonList(CurrencyPair.BTC_USD))
+            .build();
+
+        tickerService.fetchTickers(exchange, currencyPairs);
+        tickerService.fetchTickers(exchange, currencyPairs);
+
+        // the second poll returned the same prices so it didn't publish anything
+        verify(tickerEventPublisher, times(1)).publishTicker(any(TickerEvent.class));
+        assertEquals(1, tickerService.getUnchangedCount());
+    }
+
+    @Test
+    public void testIsStale() throws IOException {
+        Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
+            .withTickerStrategy(singleCallTickerStrategy)
+            .withHomeCurrency(Currency.USD)
+            .build();
+        Ticker ticker = new Ticker.Builder()
+            .bid(new BigDecimal("120.00"))
+            .ask(new BigDecimal("123.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .build();
+        final long now = System.currentTimeMillis();
+
+        // nothing received yet
+        assertFalse(tickerService.isStale(exchange, CurrencyPair.BTC_USD, now));
+
+        tickerService.putTicker(exchange, ticker, now);
+
+        assertFalse(tickerService.isStale(exchange, CurrencyPair.BTC_USD, now + TickerService.DEFAULT_TICKER_MAX_AGE));
+        assertTrue(tickerService.isStale(exchange, CurrencyPair.BTC_USD, now + TickerService.DEFAULT_TICKER_MAX_AGE + 1));
+        assertTrue(tickerService.isStale(exchange, CurrencyPair.BTC_USD, now + TickerService.DEFAULT_TICKER_MAX_AGE + 2));
+
+        assertEquals(1, tickerService.getStallCount(exchange, CurrencyPair.BTC_USD));
+        assertEquals(2, tickerService.getStaleSkipCount(exchange, CurrencyPair.BTC_USD));
+
+        // the same prices again still show that the feed is alive
+        tickerService.putTicker(exchange, ticker, now + TickerService.DEFAULT_TICKER_MAX_AGE + 3);
+
+        assertFalse(tickerService.isStale(exchange, CurrencyPair.BTC_USD, now + TickerService.DEFAULT_TICKER_MAX_AGE + 4));
+        assertEquals(1, tickerService.getStallCount(exchange, CurrencyPair.BTC_USD));
+    }
+
+    @Test
+    public void testIsStaleExchangeMaxAge() throws IOException {
+        Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
+            .withTickerStrategy(singleCallTickerStrategy)
+            .withHomeCurrency(Currency.USD)
+            .build();
+        Ticker ticker = new Ticker.Builder()
+            .bid(new BigDecimal("120.00"))
+            .ask(new BigDecimal("123.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .build();
+        final long now = System.currentTimeMillis();
+
+        exchangeService.getExchangeMetadata(exchange).getTicker().put(TickerService.TICKER_MAX_AGE_KEY, 1000);
+
+        tickerService.putTicker(exchange, ticker, now);
+
+        assertEquals(1000, tickerService.getTickerMaxAge(exchange));
+        assertFalse(tickerService.isStale(exchange, CurrencyPair.BTC_USD, now + 1000));
+        assertTrue(tickerService.isStale(exchange, CurrencyPair.BTC_USD, now + 1001));
+    }
+
+    @Test
+    public void testOlderTickerDoesNotRefreshAge() throws IOException {
+        Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
+            .withTickerStrategy(singleCallTickerStrategy)
+            .withHomeCurrency(Currency.USD)
+            .build();
+        Ticker newTicker = new Ticker.Builder()
+            .bid(new BigDecimal("120.00"))
+            .ask(new BigDecimal("123.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609634008L))
+            .build();
+        Ticker olderTicker = new Ticker.Builder()
+            .bid(new BigDecimal("120.00"))
+            .ask(new BigDecimal("123.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609633979L))
+            .build();
+        final long now = System.currentTimeMillis();
+
+        tickerService.putTicker(exchange, newTicker, now);
+        tickerService.putTicker(exchange, olderTicker, now + TickerService.DEFAULT_TICKER_MAX_AGE);
+
+        assertTrue(tickerService.isStale(exchange, CurrencyPair.BTC_USD, now + TickerService.DEFAULT_TICKER_MAX_AGE + 1));
+    }
+
+    @Test
+    public void testSameTimestampIsAccepted() throws IOException {
+        Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
+            .withTickerStrategy(singleCallTickerStrategy)
+            .withHomeCurrency(Currency.USD)
+            .build();
+        Ticker ticker = new Ticker.Builder()
+            .bid(new BigDecimal("120.00"))
+            .ask(new BigDecimal("123.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609634008L))
+            .build();
+        Ticker sameTimestampTicker = new Ticker.Builder()
+            .bid(new BigDecimal("121.00"))
+            .ask(new BigDecimal("124.00"))
+            .instrument(CurrencyPair.BTC_USD)
+            .timestamp(new Date(1609634008L))
+            .build();
+        final long now = System.currentTimeMillis();
+
+        tickerService.putTicker(exchange, ticker, now);
+
+        // the exchange stamps tickers with its last trade, so a quiet market keeps sending the same timestamp
+        assertTrue(tickerService.putTicker(exchange, sameTimestampTicker, now + TickerService.DEFAULT_TICKER_MAX_AGE + 1));
+
+        assertEquals(sameTimestampTicker, tickerService.getTicker(exchange, CurrencyPair.BTC_USD));
+        assertEquals(now + TickerService.DEFAULT_TICKER_MAX_AGE + 1, tickerService.getReceived(exchange, CurrencyPair.BTC_USD));
+        assertFalse(tickerService.isStale(exchange, CurrencyPair.BTC_USD, now + TickerService.DEFAULT_TICKER_MAX_AGE + 2));
+
+        // a repeated timestamp is the time of an old trade, so it says nothing about the exchange's clock
+        verify(exchangeClockService, times(1)).recordTimestamp(eq(exchange), eq(1609634008L), anyLong());
+    }
 }
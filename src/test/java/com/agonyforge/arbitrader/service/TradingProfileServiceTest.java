@@ -0,0 +1,124 @@
+package com.agonyforge.arbitrader.service;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.ExchangeBuilder;
+import com.agonyforge.arbitrader.config.ExchangeConfiguration;
+import com.agonyforge.arbitrader.config.FeeComputation;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.model.ExchangeFee;
+import com.agonyforge.arbitrader.service.model.ExchangeFeeChangeEvent;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import com.agonyforge.arbitrader.service.model.TradingProfile;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.mockito.Mock;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import static com.agonyforge.arbitrader.DecimalConstants.BTC_SCALE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TradingProfileServiceTest extends BaseTestCase {
+    @Mock
+    private ExchangeService exchangeService;
+
+    @Mock
+    private SpreadService spreadService;
+
+    private TradingConfiguration tradingConfiguration;
+    private Exchange longExchange;
+    private Exchange shortExchange;
+    private ExchangeFee longFee;
+    private ExchangeFee shortFee;
+    private TradeCombination tradeCombination;
+    private TradingProfileService tradingProfileService;
+
+    @Before
+    public void setUp() throws IOException {
+        tradingConfiguration = new TradingConfiguration();
+
+        longExchange = new ExchangeBuilder("Long", CurrencyPair.BTC_USD)
+            .withExchangeMetaData()
+            .build();
+        // metadata for a different pair, so lookups for BTC/USD fall back to defaults
+        shortExchange = new ExchangeBuilder("Short", CurrencyPair.ETH_USD)
+            .withExchangeMetaData()
+            .build();
+
+        longFee = new ExchangeFee(new BigDecimal("0.0010"), null);
+        shortFee = new ExchangeFee(new BigDecimal("0.0020"), new BigDecimal("0.0001"));
+
+        ExchangeConfiguration longConfiguration = new ExchangeConfiguration();
+        ExchangeConfiguration shortConfiguration = new ExchangeConfiguration();
+
+        shortConfiguration.setFeeComputation(FeeComputation.CLIENT);
+
+        when(exchangeService.convertExchangePair(any(Exchange.class), any(CurrencyPair.class))).thenReturn(CurrencyPair.BTC_USD);
+        when(exchangeService.getExchangeFee(eq(longExchange), eq(CurrencyPair.BTC_USD), eq(true))).thenReturn(longFee);
+        when(exchangeService.getExchangeFee(eq(shortExchange), eq(CurrencyPair.BTC_USD), eq(true))).thenReturn(shortFee);
+        when(exchangeService.getExchangeMetadata(longExchange)).thenReturn(longConfiguration);
+        when(exchangeService.getExchangeMetadata(shortExchange)).thenReturn(shortConfiguration);
+        when(spreadService.getEntrySpreadTarget(tradingConfiguration, longFee, shortFee)).thenReturn(new BigDecimal("0.0050"));
+
+        tradeCombination = new TradeCombination(longExchange, shortExchange, CurrencyPair.BTC_USD);
+        tradingProfileService = new TradingProfileService(tradingConfiguration, exchangeService, spreadService);
+    }
+
+    @Test
+    public void testBuildProfile() {
+        TradingProfile profile = tradingProfileService.getProfile(tradeCombination);
+
+        assertSame(tradeCombination, profile.getTradeCombination());
+        assertEquals(new BigDecimal("0.0050"), profile.getEntrySpreadTarget());
+
+        assertEquals(CurrencyPair.BTC_USD, profile.getLongLeg().getCurrencyPair());
+        assertSame(longFee, profile.getLongLeg().getFee());
+        assertEquals(FeeComputation.SERVER, profile.getLongLeg().getFeeComputation());
+        assertEquals(ExchangeBuilder.EXCHANGE_METADATA_VOLUME_SCALE, profile.getLongLeg().getVolumeScale());
+        assertEquals(ExchangeBuilder.EXCHANGE_METADATA_PRICE_SCALE, profile.getLongLeg().getPriceScale());
+        assertEquals(new BigDecimal("0.0010"), profile.getLongLeg().getMinimumAmount());
+
+        // no BTC/USD metadata for the short exchange, so everything falls back to defaults
+        assertSame(shortFee, profile.getShortLeg().getFee());
+        assertEquals(FeeComputation.CLIENT, profile.getShortLeg().getFeeComputation());
+        assertEquals(BTC_SCALE, profile.getShortLeg().getVolumeScale());
+        assertEquals(BTC_SCALE, profile.getShortLeg().getPriceScale());
+        assertEquals(new BigDecimal("0.001"), profile.getShortLeg().getMinimumAmount());
+    }
+
+    @Test
+    public void testProfileIsReused() {
+        tradingProfileService.initializeProfiles(Collections.singletonList(tradeCombination));
+
+        TradingProfile profile = tradingProfileService.getProfile(tradeCombination);
+
+        assertSame(profile, tradingProfileService.getProfile(tradeCombination));
+        verify(exchangeService, times(1)).getExchangeFee(eq(longExchange), eq(CurrencyPair.BTC_USD), eq(true));
+    }
+
+    @Test
+    public void testRebuildOnFeeChange() {
+        TradingProfile profile = tradingProfileService.getProfile(tradeCombination);
+        ExchangeFee newFee = new ExchangeFee(new BigDecimal("0.0005"), null);
+
+        when(exchangeService.getExchangeFee(eq(shortExchange), eq(CurrencyPair.BTC_USD), eq(true))).thenReturn(newFee);
+
+        tradingProfileService.onExchangeFeeChange(new ExchangeFeeChangeEvent(shortExchange, CurrencyPair.BTC_USD, shortFee, newFee));
+
+        TradingProfile rebuilt = tradingProfileService.getProfile(tradeCombination);
+
+        assertNotSame(profile, rebuilt);
+        assertSame(newFee, rebuilt.getShortLeg().getFee());
+    }
+}
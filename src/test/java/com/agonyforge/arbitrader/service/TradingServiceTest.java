@@ -1,15 +1,20 @@
 package com.agonyforge.arbitrader.service;
 
 import com.agonyforge.arbitrader.ExchangeBuilder;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.agonyforge.arbitrader.BaseTestCase;
-import com.agonyforge.arbitrader.config.JsonConfiguration;
 import com.agonyforge.arbitrader.config.NotificationConfiguration;
 import com.agonyforge.arbitrader.exception.OrderNotFoundException;
 import com.agonyforge.arbitrader.config.TradingConfiguration;
-import com.agonyforge.arbitrader.service.model.ArbitrageLog;
+import com.agonyforge.arbitrader.service.cache.EntryVerificationCache;
+import com.agonyforge.arbitrader.service.clock.ExchangeClockService;
+import com.agonyforge.arbitrader.service.cache.OrderBookPrefetcher;
+import com.agonyforge.arbitrader.service.cache.OrderVolumeCache;
+import com.agonyforge.arbitrader.service.history.TradeHistoryStore;
+import com.agonyforge.arbitrader.service.journal.PositionJournal;
+import com.agonyforge.arbitrader.service.model.ActivePosition;
+import com.agonyforge.arbitrader.service.model.Spread;
+import com.agonyforge.arbitrader.service.outbox.NotificationOutbox;
 import com.agonyforge.arbitrader.service.telegram.TelegramClient;
-import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.knowm.xchange.Exchange;
@@ -19,23 +24,19 @@ import org.knowm.xchange.dto.Order;
 import org.mockito.Mock;
 import org.springframework.mail.javamail.JavaMailSender;
 
-import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.nio.charset.StandardCharsets;
-import java.time.OffsetDateTime;
-import java.util.List;
 
 import static com.agonyforge.arbitrader.DecimalConstants.BTC_SCALE;
 import static com.agonyforge.arbitrader.DecimalConstants.USD_SCALE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class TradingServiceTest extends BaseTestCase {
     private static final CurrencyPair currencyPair = new CurrencyPair("BTC/USD");
-    private static final int CSV_NUMBER_OF_COLUMNS = 12;
 
     private Exchange longExchange;
     private Exchange shortExchange;
@@ -48,14 +49,21 @@ public class TradingServiceTest extends BaseTestCase {
     @Mock
     private SpreadService spreadService;
 
+    @Mock
+    private PositionJournal positionJournal;
+
+    @Mock
+    private TradeHistoryStore tradeHistoryStore;
+
+    @Mock
+    private ExchangeClockService exchangeClockService;
+
     private TradingService tradingService;
 
     @Before
     public void setUp() throws IOException {
         final JavaMailSender javaMailSenderMock = mock(JavaMailSender.class);
 
-        ObjectMapper objectMapper = new JsonConfiguration().objectMapper();
-
         ConditionService conditionService = new ConditionService();
         NotificationConfiguration notificationConfiguration = new NotificationConfiguration();
         TelegramClient telegramClient = new TelegramClient(notificationConfiguration);
@@ -64,9 +72,15 @@ public class TradingServiceTest extends BaseTestCase {
         TickerService tickerService = new TickerService(
             new TradingConfiguration(),
             exchangeService,
-            errorCollectorService);
+            errorCollectorService,
+            new CircuitBreakerService(errorCollectorService),
+            exchangeClockService);
         spreadService = new SpreadService(tradingConfiguration, tickerService);
-        NotificationServiceImpl notificationService = new NotificationServiceImpl(javaMailSenderMock, notificationConfiguration, telegramClient);
+        NotificationServiceImpl notificationService = new NotificationServiceImpl(
+            javaMailSenderMock,
+            notificationConfiguration,
+            telegramClient,
+            mock(NotificationOutbox.class));
         tradingConfiguration = new TradingConfiguration();
 
         longExchange = new ExchangeBuilder("Long", CurrencyPair.BTC_USD)
@@ -80,15 +94,24 @@ public class TradingServiceTest extends BaseTestCase {
                 .withBalance(Currency.USD, new BigDecimal("500.00").setScale(USD_SCALE, RoundingMode.HALF_EVEN))
                 .build();
 
+        ExposureService exposureService = new ExposureService(tradingConfiguration, exchangeService);
+
         // This spy right here is a bad code smell, kids! Don't try this at work!
         // Upcoming refactoring will allow me to remove it.
         tradingService = spy(new TradingService(
-            objectMapper,
             tradingConfiguration,
             conditionService,
             exchangeService,
             spreadService,
-            notificationService));
+            notificationService,
+            positionJournal,
+            tradeHistoryStore,
+            new OrderVolumeCache(OrderVolumeCache.DEFAULT_CAPACITY),
+            new TradingProfileService(tradingConfiguration, exchangeService, spreadService),
+            exposureService,
+            new OrderBookPrefetcher(tradingConfiguration),
+            new EntryVerificationCache(tradingConfiguration),
+            Runnable::run));
     }
 
     @Test
@@ -167,6 +190,34 @@ public class TradingServiceTest extends BaseTestCase {
         assertEquals(new BigDecimal("90.0"), volume);
     }
 
+    @Test
+    public void testGetVolumeForOrderDoesNotCacheBalance() throws IOException {
+        doReturn(new BigDecimal("90.0"))
+            .when(exchangeService)
+            .getAccountBalance(any(Exchange.class), any(Currency.class), any(Integer.class));
+
+        when(exchangeService.convertExchangePair(any(Exchange.class), any(CurrencyPair.class)))
+            .thenReturn(currencyPair);
+
+        tradingService.getVolumeForOrder(
+            longExchange,
+            currencyPair,
+            "notAvailable",
+            new BigDecimal("50.0"));
+
+        doReturn(new BigDecimal("80.0"))
+            .when(exchangeService)
+            .getAccountBalance(any(Exchange.class), any(Currency.class), any(Integer.class));
+
+        BigDecimal volume = tradingService.getVolumeForOrder(
+            longExchange,
+            currencyPair,
+            "notAvailable",
+            new BigDecimal("50.0"));
+
+        assertEquals(new BigDecimal("80.0"), volume);
+    }
+
     @Test
     public void testGetVolumeFallbackToDefaultZeroBalance() throws IOException {
         doReturn(BigDecimal.ZERO)
@@ -290,93 +341,31 @@ public class TradingServiceTest extends BaseTestCase {
     }
 
     @Test
-    public void testGetMaximumExposureFixedExposure() {
-        tradingConfiguration.setFixedExposure(new BigDecimal("100.00"));
-
-        BigDecimal exposure = tradingService.getMaximumExposure(longExchange, shortExchange);
-
-        assertEquals(new BigDecimal("100.00").setScale(USD_SCALE, RoundingMode.HALF_EVEN), exposure);
-    }
-
-    // should return 90% of the smallest account balance
-    @Test
-    public void testGetMaximumExposure() throws IOException {
-        final BigDecimal minAccountBalance = new BigDecimal("100.00");
-        final BigDecimal tradePortion = new BigDecimal("0.9");
-        final BigDecimal expectedExposure = minAccountBalance.multiply(tradePortion)
-            .setScale(USD_SCALE, RoundingMode.HALF_EVEN);
-
-        when(exchangeService.getExchangeHomeCurrency(any(Exchange.class)))
-            .thenReturn(Currency.USD);
-        when(exchangeService.getExchangeCurrencyScale(any(Exchange.class), any(Currency.class)))
-            .thenReturn(2);
-        when(exchangeService.getAccountBalance(any(Exchange.class), any(Currency.class), anyInt()))
-            .thenReturn(minAccountBalance);
-
-        BigDecimal actual = tradingService.getMaximumExposure(longExchange, shortExchange);
-
-        assertEquals(expectedExposure, actual);
-    }
-
-    @Test
-    public void testGetMaximumExposureEmpty() {
-        BigDecimal exposure = tradingService.getMaximumExposure();
-
-        assertEquals(new BigDecimal("0.00").setScale(USD_SCALE, RoundingMode.HALF_EVEN), exposure);
-    }
-
-    @Test
-    public void testGetMaximumExposureException() throws IOException {
-        when(exchangeService.getAccountBalance(shortExchange, Currency.USD, USD_SCALE)).thenThrow(new IOException("Boom!"));
+    public void testIsCandidateActivePosition() {
+        final ActivePosition activePosition = new ActivePosition();
 
-        BigDecimal exposure = tradingService.getMaximumExposure();
+        activePosition.setCurrencyPair(CurrencyPair.BTC_USD);
+        activePosition.getLongTrade().setExchange(longExchange);
+        activePosition.getShortTrade().setExchange(shortExchange);
+        tradingService.setActivePosition(activePosition);
 
-        // the IOE should not propagate and blow everything up
-        assertEquals(new BigDecimal("0.00").setScale(USD_SCALE, RoundingMode.HALF_EVEN), exposure);
+        assertTrue(tradingService.isCandidate(new Spread(
+            CurrencyPair.BTC_USD, longExchange, shortExchange, null, null, BigDecimal.ONE, BigDecimal.ONE)));
     }
 
     @Test
-    public void testLogArbitrageToCsv() throws IOException {
-        final File file = new File(TradingScheduler.TRADE_HISTORY_FILE);
-        FileUtils.deleteQuietly(file);
-
-        final ArbitrageLog arbitrageLog = ArbitrageLog.ArbitrageLogBuilder.builder()
-            .withShortExchange("CoinbasePro")
-            .withShortCurrency("BTC/USD")
-            .withShortSpread(new BigDecimal("0.008"))
-            .withShortSlip(new BigDecimal("-0.001"))
-            .withShortAmount(BigDecimal.valueOf(10))
-            .withLongExchange("Bitstamp")
-            .withLongCurrency("BTC/USD")
-            .withLongSpread(new BigDecimal("-0.003"))
-            .withLongSlip(new BigDecimal("-0.001"))
-            .withLongAmount(BigDecimal.valueOf(10))
-            .withProfit(new BigDecimal("0.01"))
-            .withTimestamp(OffsetDateTime.now())
-            .build();
-
-        tradingService.persistArbitrageToCsvFile(arbitrageLog);
-
-        List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
-        assertEquals(2, lines.size());
-
-        // Get headers
-        String[] split = lines.get(0).split("\",\"");
-        assertEquals("Header size does not match number of columns", CSV_NUMBER_OF_COLUMNS, split.length);
-
-        // Assert headers does not end with a comma
-        final String lastColumn = split[split.length - 1];
-        assertFalse(lastColumn.endsWith(","));
-
-        // Append one line
-        tradingService.persistArbitrageToCsvFile(arbitrageLog);
-
-        lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
-        assertEquals(3, lines.size());
-
-        split = lines.get(2).split("\",\"");
-        assertEquals("Number of elements (columns) per line does not match the number of columns", CSV_NUMBER_OF_COLUMNS, split.length);
-
-        FileUtils.deleteQuietly(file);
+    public void testIsCandidateOtherThanActivePosition() {
+        final ActivePosition activePosition = new ActivePosition();
+
+        activePosition.setCurrencyPair(CurrencyPair.BTC_USD);
+        activePosition.getLongTrade().setExchange(longExchange);
+        activePosition.getShortTrade().setExchange(shortExchange);
+        tradingService.setActivePosition(activePosition);
+
+        // the exchanges are the other way around, so this can't close the position
+        assertFalse(tradingService.isCandidate(new Spread(
+            CurrencyPair.BTC_USD, shortExchange, longExchange, null, null, BigDecimal.ONE, BigDecimal.ONE)));
+        assertFalse(tradingService.isCandidate(new Spread(
+            CurrencyPair.ETH_USD, longExchange, shortExchange, null, null, BigDecimal.ONE, BigDecimal.ONE)));
     }
 }
@@ -0,0 +1,115 @@
+package com.agonyforge.arbitrader.service.cache;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.ExchangeBuilder;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.model.Spread;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.marketdata.Ticker;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EntryVerificationCacheTest extends BaseTestCase {
+    private static final BigDecimal VERIFIED_SPREAD = new BigDecimal("0.007");
+
+    private TradeCombination tradeCombination;
+    private TradingConfiguration tradingConfiguration;
+    private EntryVerificationCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        tradeCombination = new TradeCombination(
+            new ExchangeBuilder("Long", CurrencyPair.BTC_USD).build(),
+            new ExchangeBuilder("Short", CurrencyPair.BTC_USD).build(),
+            CurrencyPair.BTC_USD);
+
+        tradingConfiguration = new TradingConfiguration();
+        cache = new EntryVerificationCache(tradingConfiguration);
+    }
+
+    @Test
+    public void testNotSuppressedWithoutFailure() {
+        assertFalse(cache.isSuppressed(spread("1000", "1010")));
+    }
+
+    @Test
+    public void testSuppressedAtSamePrices() {
+        cache.setFailed(spread("1000", "1010"), VERIFIED_SPREAD);
+
+        assertTrue(cache.isSuppressed(spread("1000", "1010")));
+    }
+
+    @Test
+    public void testSuppressedAtNearlySamePrices() {
+        cache.setFailed(spread("1000", "1010"), VERIFIED_SPREAD);
+
+        assertTrue(cache.isSuppressed(spread("1000.10", "1009.90")));
+    }
+
+    @Test
+    public void testNotSuppressedAfterLongPriceMove() {
+        cache.setFailed(spread("1000", "1010"), VERIFIED_SPREAD);
+
+        assertFalse(cache.isSuppressed(spread("999", "1010")));
+    }
+
+    @Test
+    public void testNotSuppressedAfterShortPriceMove() {
+        cache.setFailed(spread("1000", "1010"), VERIFIED_SPREAD);
+
+        assertFalse(cache.isSuppressed(spread("1000", "1011")));
+    }
+
+    @Test
+    public void testConfiguredPriceMove() {
+        tradingConfiguration.setVerificationPriceMove(new BigDecimal("0.01"));
+        cache.setFailed(spread("1000", "1010"), VERIFIED_SPREAD);
+
+        assertTrue(cache.isSuppressed(spread("1005", "1015")));
+    }
+
+    @Test
+    public void testNotSuppressedAfterCooldown() {
+        cache.setFailed(spread("1000", "1010"), VERIFIED_SPREAD,
+            System.currentTimeMillis() - EntryVerificationCache.DEFAULT_COOLDOWN - 1);
+
+        assertFalse(cache.isSuppressed(spread("1000", "1010")));
+    }
+
+    @Test
+    public void testConfiguredCooldown() {
+        tradingConfiguration.setVerificationCooldown(60000L);
+        cache.setFailed(spread("1000", "1010"), VERIFIED_SPREAD,
+            System.currentTimeMillis() - EntryVerificationCache.DEFAULT_COOLDOWN - 1);
+
+        assertTrue(cache.isSuppressed(spread("1000", "1010")));
+    }
+
+    @Test
+    public void testClear() {
+        cache.setFailed(spread("1000", "1010"), VERIFIED_SPREAD);
+        cache.clear(tradeCombination);
+
+        assertFalse(cache.isSuppressed(spread("1000", "1010")));
+    }
+
+    private Spread spread(String longAsk, String shortBid) {
+        Ticker longTicker = new Ticker.Builder()
+            .currencyPair(CurrencyPair.BTC_USD)
+            .ask(new BigDecimal(longAsk))
+            .build();
+        Ticker shortTicker = new Ticker.Builder()
+            .currencyPair(CurrencyPair.BTC_USD)
+            .bid(new BigDecimal(shortBid))
+            .build();
+
+        return new Spread(tradeCombination, longTicker, shortTicker, BigDecimal.ZERO, BigDecimal.ZERO);
+    }
+}
@@ -9,14 +9,23 @@ import org.knowm.xchange.currency.CurrencyPair;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ExchangeBalanceCacheTest extends BaseTestCase {
     private Exchange exchangeA;
     private Exchange exchangeB;
 
+    private final List<Runnable> pending = new ArrayList<>();
+    private final Map<Exchange, BigDecimal> remoteBalances = new HashMap<>();
+
     private ExchangeBalanceCache cache;
 
     @Before
@@ -27,7 +36,16 @@ public class ExchangeBalanceCacheTest extends BaseTestCase {
         exchangeB = new ExchangeBuilder("CoinSnake", CurrencyPair.BTC_USD)
             .build();
 
-        cache = new ExchangeBalanceCache();
+        // background refreshes are queued up so each test can decide when they run
+        cache = new ExchangeBalanceCache(exchange -> {
+            BigDecimal balance = remoteBalances.get(exchange);
+
+            if (balance == null) {
+                throw new IOException("Boom!");
+            }
+
+            return balance;
+        }, pending::add);
     }
 
     @Test
@@ -76,4 +94,114 @@ public class ExchangeBalanceCacheTest extends BaseTestCase {
         assertEquals(Optional.empty(), cache.getCachedBalance(exchangeA));
         assertEquals(Optional.of(valueB), cache.getCachedBalance(exchangeB));
     }
+
+    @Test
+    public void testGetBalanceLoadsMissingValue() {
+        remoteBalances.put(exchangeA, new BigDecimal("123.45"));
+
+        assertEquals(new BigDecimal("123.45"), cache.getBalance(exchangeA));
+        assertEquals(Optional.of(new BigDecimal("123.45")), cache.getCachedBalance(exchangeA));
+    }
+
+    @Test
+    public void testGetBalanceCachesZeroOnFailure() {
+        assertEquals(BigDecimal.ZERO, cache.getBalance(exchangeA));
+        assertEquals(Optional.of(BigDecimal.ZERO), cache.getCachedBalance(exchangeA));
+    }
+
+    @Test
+    public void testRefreshAhead() {
+        BigDecimal value = new BigDecimal("123.45");
+
+        remoteBalances.put(exchangeA, new BigDecimal("987.65"));
+        cache.setCachedBalance(exchangeA, value, System.currentTimeMillis() - (ExchangeBalanceCache.REFRESH_AHEAD + 1));
+
+        // the old value is still served while the refresh happens in the background
+        assertEquals(Optional.of(value), cache.getCachedBalance(exchangeA));
+        assertEquals(Optional.of(value), cache.getCachedBalance(exchangeA));
+        assertEquals(1, pending.size());
+
+        runPending();
+
+        assertEquals(Optional.of(new BigDecimal("987.65")), cache.getCachedBalance(exchangeA));
+        assertTrue(pending.isEmpty());
+    }
+
+    @Test
+    public void testRefreshFailureKeepsOldValue() {
+        BigDecimal value = new BigDecimal("123.45");
+
+        cache.setCachedBalance(exchangeA, value, System.currentTimeMillis() - (ExchangeBalanceCache.REFRESH_AHEAD + 1));
+        cache.getCachedBalance(exchangeA);
+
+        runPending();
+
+        assertEquals(Optional.of(value), cache.getCachedBalance(exchangeA));
+    }
+
+    @Test
+    public void testTrackedRefresh() {
+        remoteBalances.put(exchangeA, new BigDecimal("123.45"));
+
+        cache.track(exchangeA);
+        runPending();
+
+        assertEquals(Optional.of(new BigDecimal("123.45")), cache.getCachedBalance(exchangeA));
+
+        // fresh values aren't refreshed again
+        cache.refresh();
+
+        assertTrue(pending.isEmpty());
+
+        cache.setCachedBalance(exchangeA, new BigDecimal("1.00"), System.currentTimeMillis() - (ExchangeBalanceCache.REFRESH_AHEAD + 1));
+        cache.refresh();
+        runPending();
+
+        assertEquals(Optional.of(new BigDecimal("123.45")), cache.getCachedBalance(exchangeA));
+    }
+
+    @Test
+    public void testInvalidationRefreshes() {
+        remoteBalances.put(exchangeA, new BigDecimal("987.65"));
+        cache.setCachedBalance(exchangeA, new BigDecimal("123.45"));
+
+        cache.invalidate(exchangeA);
+        runPending();
+
+        assertEquals(Optional.of(new BigDecimal("987.65")), cache.getCachedBalance(exchangeA));
+    }
+
+    @Test
+    public void testInvalidationDuringRefresh() {
+        AtomicInteger loads = new AtomicInteger();
+        List<ExchangeBalanceCache> racing = new ArrayList<>();
+
+        racing.add(new ExchangeBalanceCache(exchange -> {
+            if (loads.getAndIncrement() == 0) {
+                // a trade changes the balance while the first load is still in flight
+                racing.get(0).invalidate(exchange);
+
+                return new BigDecimal("123.45");
+            }
+
+            return new BigDecimal("987.65");
+        }, pending::add));
+
+        racing.get(0).track(exchangeA);
+        runPending();
+
+        assertEquals(Optional.empty(), racing.get(0).getCachedBalance(exchangeA));
+
+        runPending();
+
+        assertEquals(Optional.of(new BigDecimal("987.65")), racing.get(0).getCachedBalance(exchangeA));
+        assertEquals(2, loads.get());
+    }
+
+    private void runPending() {
+        List<Runnable> tasks = new ArrayList<>(pending);
+
+        pending.clear();
+        tasks.forEach(Runnable::run);
+    }
 }
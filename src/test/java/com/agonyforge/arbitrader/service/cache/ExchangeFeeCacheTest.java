@@ -67,4 +67,54 @@ public class ExchangeFeeCacheTest extends BaseTestCase {
 
         assertEquals(Optional.empty(), exchangeFeeCache.getCachedFee(altExchange, currencyPair));
     }
+
+    @Test
+    public void testExpiredFee() {
+        exchangeFeeCache.setCachedFee(exchange, currencyPair, new ExchangeFee(new BigDecimal("0.0025"), null), System.currentTimeMillis() - 1);
+
+        assertEquals(Optional.empty(), exchangeFeeCache.getCachedFee(exchange, currencyPair));
+        assertTrue(exchangeFeeCache.getCurrencyPairs(exchange).isEmpty());
+    }
+
+    @Test
+    public void testFallbackFee() {
+        exchangeFeeCache.setFallbackFee(exchange, currencyPair, new ExchangeFee(new BigDecimal("0.0025"), null));
+
+        assertTrue(exchangeFeeCache.getCachedFee(exchange, currencyPair).isPresent());
+        assertEquals(new BigDecimal("0.0025"), exchangeFeeCache.getCachedFee(exchange, currencyPair).get().getTradeFee());
+    }
+
+    @Test
+    public void testFallbackFeeExpiresSooner() {
+        long now = System.currentTimeMillis();
+
+        exchangeFeeCache.setFallbackFee(exchange, currencyPair, new ExchangeFee(new BigDecimal("0.0025"), null));
+        exchangeFeeCache.setCachedFee(exchange, CurrencyPair.BTC_USD, new ExchangeFee(new BigDecimal("0.0010"), null));
+
+        long later = now + ExchangeFeeCache.FALLBACK_TIMEOUT + 1000;
+
+        assertFalse(exchangeFeeCache.getCachedFee(exchange, currencyPair, later).isPresent());
+        assertTrue(exchangeFeeCache.getCachedFee(exchange, CurrencyPair.BTC_USD, later).isPresent());
+    }
+
+    @Test
+    public void testGetExchangesAndPairs() {
+        exchangeFeeCache.setCachedFee(exchange, currencyPair, new ExchangeFee(new BigDecimal("0.0025"), null));
+        exchangeFeeCache.setCachedFee(exchange, CurrencyPair.BTC_USD, new ExchangeFee(new BigDecimal("0.0010"), null));
+
+        assertEquals(1, exchangeFeeCache.getExchanges().size());
+        assertTrue(exchangeFeeCache.getExchanges().contains(exchange));
+        assertEquals(2, exchangeFeeCache.getCurrencyPairs(exchange).size());
+        assertTrue(exchangeFeeCache.getCurrencyPairs(exchange).contains(CurrencyPair.BTC_USD));
+        assertTrue(exchangeFeeCache.getCurrencyPairs(mock(Exchange.class)).isEmpty());
+    }
+
+    @Test
+    public void testDynamicFeesUnsupported() {
+        assertFalse(exchangeFeeCache.isDynamicFeesUnsupported(exchange));
+
+        exchangeFeeCache.setDynamicFeesUnsupported(exchange);
+
+        assertTrue(exchangeFeeCache.isDynamicFeesUnsupported(exchange));
+    }
 }
@@ -0,0 +1,130 @@
+package com.agonyforge.arbitrader.service.cache;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.config.ExchangeConfiguration;
+import com.agonyforge.arbitrader.service.ExchangeService;
+import com.agonyforge.arbitrader.service.model.ExchangeFee;
+import com.agonyforge.arbitrader.service.model.ExchangeFeeChangeEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.ExchangeSpecification;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExchangeFeeRefresherTest extends BaseTestCase {
+    @Mock
+    private Exchange exchange;
+
+    @Mock
+    private ExchangeSpecification exchangeSpecification;
+
+    @Mock
+    private ExchangeService exchangeService;
+
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    private ExchangeConfiguration exchangeConfiguration;
+    private ExchangeFeeCache exchangeFeeCache;
+    private ExchangeFeeRefresher exchangeFeeRefresher;
+
+    @Before
+    public void setUp() {
+        exchangeConfiguration = new ExchangeConfiguration();
+
+        when(exchange.getExchangeSpecification()).thenReturn(exchangeSpecification);
+        when(exchangeSpecification.getExchangeName()).thenReturn("CrazyCoinz");
+        when(exchangeService.getExchangeMetadata(exchange)).thenReturn(exchangeConfiguration);
+
+        exchangeFeeCache = new ExchangeFeeCache();
+        exchangeFeeRefresher = new ExchangeFeeRefresher(exchangeFeeCache, exchangeService, applicationEventPublisher);
+    }
+
+    @Test
+    public void testRefreshChangedFee() throws IOException {
+        Map<CurrencyPair, ExchangeFee> fees = new HashMap<>();
+
+        fees.put(CurrencyPair.BTC_USD, new ExchangeFee(new BigDecimal("0.0020"), null));
+        fees.put(CurrencyPair.ETH_USD, new ExchangeFee(new BigDecimal("0.0030"), null));
+
+        exchangeFeeCache.setCachedFee(exchange, CurrencyPair.BTC_USD, new ExchangeFee(new BigDecimal("0.0025"), null));
+        when(exchangeService.getDynamicExchangeFees(exchange)).thenReturn(fees);
+
+        exchangeFeeRefresher.refresh(exchange);
+
+        ArgumentCaptor<ExchangeFeeChangeEvent> captor = ArgumentCaptor.forClass(ExchangeFeeChangeEvent.class);
+
+        verify(applicationEventPublisher).publishEvent(captor.capture());
+
+        ExchangeFeeChangeEvent event = captor.getValue();
+
+        assertEquals(CurrencyPair.BTC_USD, event.getCurrencyPair());
+        assertEquals(new BigDecimal("0.0025"), event.getOldFee().getTradeFee());
+        assertEquals(new BigDecimal("0.0020"), event.getNewFee().getTradeFee());
+        assertEquals(new BigDecimal("0.0020"), exchangeFeeCache.getCachedFee(exchange, CurrencyPair.BTC_USD).get().getTradeFee());
+
+        // we only refresh pairs that somebody has asked for
+        assertEquals(1, exchangeFeeCache.getCurrencyPairs(exchange).size());
+    }
+
+    @Test
+    public void testRefreshUnchangedFee() throws IOException {
+        Map<CurrencyPair, ExchangeFee> fees = new HashMap<>();
+
+        fees.put(CurrencyPair.BTC_USD, new ExchangeFee(new BigDecimal("0.00250"), null));
+
+        exchangeFeeCache.setCachedFee(exchange, CurrencyPair.BTC_USD, new ExchangeFee(new BigDecimal("0.0025"), null));
+        when(exchangeService.getDynamicExchangeFees(exchange)).thenReturn(fees);
+
+        exchangeFeeRefresher.refresh(exchange);
+
+        verify(applicationEventPublisher, never()).publishEvent(any(ExchangeFeeChangeEvent.class));
+    }
+
+    @Test
+    public void testRefreshUnsupported() throws IOException {
+        exchangeFeeCache.setCachedFee(exchange, CurrencyPair.BTC_USD, new ExchangeFee(new BigDecimal("0.0025"), null));
+        when(exchangeService.getDynamicExchangeFees(exchange)).thenThrow(new NotYetImplementedForExchangeException());
+
+        exchangeFeeRefresher.refresh(exchange);
+
+        assertTrue(exchangeFeeCache.isDynamicFeesUnsupported(exchange));
+        assertEquals(new BigDecimal("0.0025"), exchangeFeeCache.getCachedFee(exchange, CurrencyPair.BTC_USD).get().getTradeFee());
+    }
+
+    @Test
+    public void testRefreshSkipsOverride() throws IOException {
+        exchangeConfiguration.setTradeFeeOverride(new BigDecimal("0.0010"));
+
+        exchangeFeeRefresher.refresh(exchange);
+
+        verify(exchangeService, never()).getDynamicExchangeFees(exchange);
+    }
+
+    @Test
+    public void testRefreshFailureKeepsFee() throws IOException {
+        exchangeFeeCache.setCachedFee(exchange, CurrencyPair.BTC_USD, new ExchangeFee(new BigDecimal("0.0025"), null));
+        when(exchangeService.getDynamicExchangeFees(exchange)).thenThrow(new IOException("Boom!"));
+
+        exchangeFeeRefresher.refresh(exchange);
+
+        assertEquals(new BigDecimal("0.0025"), exchangeFeeCache.getCachedFee(exchange, CurrencyPair.BTC_USD).get().getTradeFee());
+        verify(applicationEventPublisher, never()).publishEvent(any(ExchangeFeeChangeEvent.class));
+    }
+}
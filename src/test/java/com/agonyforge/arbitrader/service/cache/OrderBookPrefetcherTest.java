@@ -0,0 +1,158 @@
+package com.agonyforge.arbitrader.service.cache;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.ExchangeBuilder;
+import com.agonyforge.arbitrader.config.FeeComputation;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.model.ExchangeFee;
+import com.agonyforge.arbitrader.service.model.TradeCombination;
+import com.agonyforge.arbitrader.service.model.TradingProfile;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class OrderBookPrefetcherTest extends BaseTestCase {
+    private Exchange longExchange;
+    private Exchange shortExchange;
+    private TradingConfiguration tradingConfiguration;
+    private TradingProfile profile;
+    private OrderBookPrefetcher prefetcher;
+
+    @Before
+    public void setUp() throws IOException {
+        longExchange = new ExchangeBuilder("Long", CurrencyPair.BTC_USD)
+            .withOrderBook(10, 10)
+            .build();
+        shortExchange = new ExchangeBuilder("Short", CurrencyPair.BTC_USD)
+            .withOrderBook(10, 10)
+            .build();
+
+        tradingConfiguration = new TradingConfiguration();
+        tradingConfiguration.setPrefetchDistance(new BigDecimal("0.002"));
+        tradingConfiguration.setOrderBookMaxAge(60000L);
+
+        profile = buildProfile(new TradeCombination(longExchange, shortExchange, CurrencyPair.BTC_USD));
+
+        // run prefetches on the calling thread so the tests don't have to wait for them
+        prefetcher = new OrderBookPrefetcher(tradingConfiguration, Runnable::run);
+    }
+
+    @Test
+    public void testGetOrderBookNotWarm() throws IOException {
+        OrderBook orderBook = prefetcher.getOrderBook(longExchange, CurrencyPair.BTC_USD);
+
+        assertNotNull(orderBook);
+        assertEquals(0, prefetcher.getHits());
+        assertEquals(1, prefetcher.getMisses());
+        verify(longExchange.getMarketDataService()).getOrderBook(CurrencyPair.BTC_USD);
+    }
+
+    @Test
+    public void testPrefetchWarmCombination() throws IOException {
+        prefetcher.watch(profile, new BigDecimal("0.001"));
+        prefetcher.prefetch();
+
+        prefetcher.getOrderBook(longExchange, CurrencyPair.BTC_USD);
+        prefetcher.getOrderBook(shortExchange, CurrencyPair.BTC_USD);
+
+        assertEquals(2, prefetcher.getHits());
+        assertEquals(0, prefetcher.getMisses());
+        verify(longExchange.getMarketDataService(), times(1)).getOrderBook(CurrencyPair.BTC_USD);
+        verify(shortExchange.getMarketDataService(), times(1)).getOrderBook(CurrencyPair.BTC_USD);
+    }
+
+    @Test
+    public void testPrefetchPastTarget() throws IOException {
+        prefetcher.watch(profile, new BigDecimal("-0.001"));
+        prefetcher.prefetch();
+
+        prefetcher.getOrderBook(longExchange, CurrencyPair.BTC_USD);
+
+        assertEquals(1, prefetcher.getHits());
+    }
+
+    @Test
+    public void testNoPrefetchOutsideDistance() throws IOException {
+        prefetcher.watch(profile, new BigDecimal("0.003"));
+        prefetcher.prefetch();
+
+        verify(longExchange.getMarketDataService(), times(0)).getOrderBook(CurrencyPair.BTC_USD);
+    }
+
+    @Test
+    public void testNoPrefetchWhenDisabled() throws IOException {
+        tradingConfiguration.setPrefetchDistance(null);
+
+        prefetcher.watch(profile, new BigDecimal("0.001"));
+        prefetcher.prefetch();
+
+        verify(longExchange.getMarketDataService(), times(0)).getOrderBook(CurrencyPair.BTC_USD);
+    }
+
+    @Test
+    public void testStopPrefetchWhenMovingAway() throws IOException {
+        prefetcher.watch(profile, new BigDecimal("0.001"));
+        prefetcher.watch(profile, new BigDecimal("0.005"));
+        prefetcher.prefetch();
+
+        verify(longExchange.getMarketDataService(), times(0)).getOrderBook(CurrencyPair.BTC_USD);
+    }
+
+    @Test
+    public void testPrefetchFreshBookNotRefetched() throws IOException {
+        prefetcher.watch(profile, new BigDecimal("0.001"));
+        prefetcher.prefetch();
+        prefetcher.prefetch();
+
+        verify(longExchange.getMarketDataService(), times(1)).getOrderBook(CurrencyPair.BTC_USD);
+    }
+
+    @Test
+    public void testRequestBudget() throws IOException {
+        tradingConfiguration.setOrderBookMaxAge(0L);
+        tradingConfiguration.setOrderBookRequestsPerMinute(1);
+
+        prefetcher.watch(profile, new BigDecimal("0.001"));
+        prefetcher.prefetch();
+        prefetcher.prefetch();
+
+        // the book is already stale, but the exchange is out of budget for another minute
+        verify(longExchange.getMarketDataService(), times(1)).getOrderBook(CurrencyPair.BTC_USD);
+    }
+
+    @Test
+    public void testStaleBookNotServed() throws IOException, InterruptedException {
+        tradingConfiguration.setOrderBookMaxAge(1L);
+
+        prefetcher.watch(profile, new BigDecimal("0.001"));
+        prefetcher.prefetch();
+
+        Thread.sleep(10);
+
+        prefetcher.getOrderBook(longExchange, CurrencyPair.BTC_USD);
+
+        assertEquals(0, prefetcher.getHits());
+        assertEquals(1, prefetcher.getMisses());
+        verify(longExchange.getMarketDataService(), times(2)).getOrderBook(CurrencyPair.BTC_USD);
+    }
+
+    private static TradingProfile buildProfile(TradeCombination tradeCombination) {
+        ExchangeFee fee = new ExchangeFee(new BigDecimal("0.001"), null);
+
+        return new TradingProfile(
+            tradeCombination,
+            new TradingProfile.Leg(CurrencyPair.BTC_USD, fee, FeeComputation.SERVER, 8, 2, null, new BigDecimal("0.001")),
+            new TradingProfile.Leg(CurrencyPair.BTC_USD, fee, FeeComputation.SERVER, 8, 2, null, new BigDecimal("0.001")),
+            new BigDecimal("0.008"));
+    }
+}
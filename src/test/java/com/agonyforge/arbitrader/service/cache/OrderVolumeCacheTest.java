@@ -2,19 +2,28 @@ package com.agonyforge.arbitrader.service.cache;
 
 import com.agonyforge.arbitrader.ExchangeBuilder;
 import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.config.JsonConfiguration;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.knowm.xchange.Exchange;
 import org.knowm.xchange.currency.CurrencyPair;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.util.Optional;
 
-import static com.agonyforge.arbitrader.service.cache.OrderVolumeCache.CACHE_SIZE;
 import static org.junit.Assert.assertEquals;
 
 public class OrderVolumeCacheTest extends BaseTestCase {
+    private static final int CACHE_SIZE = 4;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private Exchange exchangeA;
     private Exchange exchangeB;
 
@@ -25,7 +34,7 @@ public class OrderVolumeCacheTest extends BaseTestCase {
         exchangeA = new ExchangeBuilder("CoinDynasty", CurrencyPair.BTC_USD).build();
         exchangeB = new ExchangeBuilder("CoinSnake", CurrencyPair.BTC_USD).build();
 
-        cache = new OrderVolumeCache();
+        cache = new OrderVolumeCache(CACHE_SIZE);
     }
 
     @Test
@@ -79,4 +88,65 @@ public class OrderVolumeCacheTest extends BaseTestCase {
         assertEquals(Optional.of(lastValue), cache.getCachedVolume(exchangeA, lastOrderId));
         assertEquals(Optional.empty(), cache.getCachedVolume(exchangeA, "Order0"));
     }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            cache.setCachedVolume(exchangeA, "Order" + i, new BigDecimal(i + ".00"));
+        }
+
+        // touch the oldest order so the next oldest one is evicted instead
+        assertEquals(Optional.of(new BigDecimal("0.00")), cache.getCachedVolume(exchangeA, "Order0"));
+
+        cache.setCachedVolume(exchangeA, "Order" + CACHE_SIZE, new BigDecimal(CACHE_SIZE + ".00"));
+
+        assertEquals(Optional.of(new BigDecimal("0.00")), cache.getCachedVolume(exchangeA, "Order0"));
+        assertEquals(Optional.empty(), cache.getCachedVolume(exchangeA, "Order1"));
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        BigDecimal value = new BigDecimal("123.45");
+
+        cache.setCachedVolume(exchangeB, "Other", new BigDecimal("987.65"));
+
+        for (int i = 0; i < CACHE_SIZE * 2; i++) {
+            cache.setCachedVolume(exchangeA, "1", value);
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(Optional.of(value), cache.getCachedVolume(exchangeA, "1"));
+        assertEquals(Optional.of(new BigDecimal("987.65")), cache.getCachedVolume(exchangeB, "Other"));
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        cache.setCachedVolume(exchangeA, "1", new BigDecimal("123.45"));
+
+        cache.getCachedVolume(exchangeA, "1");
+        cache.getCachedVolume(exchangeA, "1");
+        cache.getCachedVolume(exchangeA, "2");
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testPersistence() {
+        ObjectMapper objectMapper = new JsonConfiguration().objectMapper();
+        Path cachePath = temporaryFolder.getRoot().toPath().resolve("order-volumes.json");
+        OrderVolumeCache persistent = new OrderVolumeCache(CACHE_SIZE, objectMapper, cachePath, Runnable::run);
+
+        persistent.load();
+        persistent.setCachedVolume(exchangeA, "1", new BigDecimal("123.45"));
+        persistent.setCachedVolume(exchangeB, "2", new BigDecimal("987.65"));
+
+        OrderVolumeCache reloaded = new OrderVolumeCache(CACHE_SIZE, objectMapper, cachePath, Runnable::run);
+
+        reloaded.load();
+
+        assertEquals(Optional.of(new BigDecimal("123.45")), reloaded.getCachedVolume(exchangeA, "1"));
+        assertEquals(Optional.of(new BigDecimal("987.65")), reloaded.getCachedVolume(exchangeB, "2"));
+        assertEquals(0, reloaded.getMisses());
+    }
 }
@@ -0,0 +1,64 @@
+package com.agonyforge.arbitrader.service.clock;
+
+import com.agonyforge.arbitrader.config.JsonConfiguration;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExchangeClockServiceTest {
+    private ObjectMapper objectMapper;
+
+    @Before
+    public void setUp() {
+        objectMapper = new JsonConfiguration().objectMapper();
+    }
+
+    @Test
+    public void testParseMilliseconds() throws IOException {
+        assertEquals(1609634008123L, ExchangeClockService.parseServerTime(
+            objectMapper.readTree("{\"serverTime\":1609634008123}"),
+            "/serverTime"));
+    }
+
+    @Test
+    public void testParseSeconds() throws IOException {
+        assertEquals(1609634008000L, ExchangeClockService.parseServerTime(
+            objectMapper.readTree("{\"error\":[],\"result\":{\"unixtime\":1609634008}}"),
+            "/result/unixtime"));
+    }
+
+    @Test
+    public void testParseFractionalSeconds() throws IOException {
+        assertEquals(1609634008201L, ExchangeClockService.parseServerTime(
+            objectMapper.readTree("{\"iso\":\"2021-01-03T00:33:28.201Z\",\"epoch\":1609634008.201}"),
+            "/epoch"));
+    }
+
+    @Test
+    public void testParseMicroseconds() throws IOException {
+        assertEquals(1609634008123L, ExchangeClockService.parseServerTime(
+            objectMapper.readTree("{\"time\":\"1609634008123456\"}"),
+            "/time"));
+    }
+
+    @Test
+    public void testParseIso() throws IOException {
+        assertEquals(1609634008201L, ExchangeClockService.parseServerTime(
+            objectMapper.readTree("{\"iso\":\"2021-01-03T00:33:28.201Z\",\"epoch\":1609634008.201}"),
+            "/iso"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseMissing() throws IOException {
+        ExchangeClockService.parseServerTime(objectMapper.readTree("{\"serverTime\":1609634008123}"), "/time");
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseGarbage() throws IOException {
+        ExchangeClockService.parseServerTime(objectMapper.readTree("{\"time\":\"yesterday\"}"), "/time");
+    }
+}
@@ -0,0 +1,99 @@
+package com.agonyforge.arbitrader.service.clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.agonyforge.arbitrader.service.clock.ExchangeClock.SAMPLE_WINDOW;
+import static com.agonyforge.arbitrader.service.clock.ExchangeClock.SERVER_SAMPLES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExchangeClockTest {
+    private static final long NOW = 1_600_000_000_000L;
+
+    private ExchangeClock clock;
+
+    @Before
+    public void setUp() {
+        clock = new ExchangeClock();
+    }
+
+    @Test
+    public void testNoSamples() {
+        assertFalse(clock.isServerTime());
+        assertEquals(0, clock.getOffset());
+        assertEquals(-1, clock.getRoundTrip());
+        assertEquals(NOW, clock.toLocalTime(NOW));
+    }
+
+    @Test
+    public void testServerTime() {
+        // the exchange is 500 ms ahead, and the request took 100 ms there and back
+        clock.recordServerTime(NOW, NOW + 550, NOW + 100);
+
+        assertTrue(clock.isServerTime());
+        assertEquals(500, clock.getOffset());
+        assertEquals(100, clock.getRoundTrip());
+        assertEquals(NOW, clock.toLocalTime(NOW + 500));
+    }
+
+    @Test
+    public void testServerTimeShortestRoundTrip() {
+        // a slow response where the server answered late in the round trip gives a bad offset
+        clock.recordServerTime(NOW, NOW + 1400, NOW + 1000);
+        clock.recordServerTime(NOW + 2000, NOW + 2520, NOW + 2040);
+
+        assertEquals(500, clock.getOffset());
+        assertEquals(40, clock.getRoundTrip());
+    }
+
+    @Test
+    public void testServerTimeForgetsOldSamples() {
+        clock.recordServerTime(NOW, NOW + 510, NOW + 20);
+
+        for (int i = 1; i <= SERVER_SAMPLES; i++) {
+            clock.recordServerTime(NOW + i * 1000, NOW + i * 1000 + 350, NOW + i * 1000 + 100);
+        }
+
+        assertEquals(300, clock.getOffset());
+        assertEquals(100, clock.getRoundTrip());
+    }
+
+    @Test
+    public void testTimestamps() {
+        // the exchange is 200 ms behind and its tickers take between 50 and 300 ms to arrive
+        assertEquals(0, clock.recordTimestamp(NOW - 200 - 300, NOW));
+        assertEquals(0, clock.recordTimestamp(NOW + 1000 - 200 - 50, NOW + 1000));
+        assertEquals(150, clock.recordTimestamp(NOW + 2000 - 200 - 200, NOW + 2000));
+
+        // the offset comes from the fastest ticker
+        assertFalse(clock.isServerTime());
+        assertEquals(-250, clock.getOffset());
+        assertEquals(NOW + 1000, clock.toLocalTime(NOW + 1000 - 200 - 50));
+        assertEquals(50, clock.getAverageLatency());
+        assertEquals(150, clock.getMaximumLatency());
+    }
+
+    @Test
+    public void testTimestampsAfterServerTime() {
+        clock.recordServerTime(NOW, NOW - 150, NOW + 100);
+
+        // with the server time we know the ticker really took 80 ms
+        assertEquals(80, clock.recordTimestamp(NOW + 1000 - 200 - 80, NOW + 1000));
+        assertEquals(-200, clock.getOffset());
+    }
+
+    @Test
+    public void testTimestampWindow() {
+        clock.recordTimestamp(NOW - 100, NOW);
+
+        // a faster ticker in the next window doesn't replace it, because we take the largest difference
+        clock.recordTimestamp(NOW + SAMPLE_WINDOW - 300, NOW + SAMPLE_WINDOW);
+        assertEquals(-100, clock.getOffset());
+
+        // two windows later it's forgotten
+        clock.recordTimestamp(NOW + SAMPLE_WINDOW * 2 - 300, NOW + SAMPLE_WINDOW * 2);
+        assertEquals(-300, clock.getOffset());
+    }
+}
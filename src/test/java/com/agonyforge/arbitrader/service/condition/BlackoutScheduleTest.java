@@ -0,0 +1,89 @@
+package com.agonyforge.arbitrader.service.condition;
+
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BlackoutScheduleTest {
+    private static final String EXCHANGE_NAME = "CrazyCoinz";
+    private static final ZonedDateTime BASE = ZonedDateTime.parse("2022-01-01T00:00:00Z");
+
+    @Test
+    public void testEmpty() {
+        BlackoutSchedule schedule = BlackoutSchedule.compile(Collections.emptyList());
+
+        assertSame(BlackoutSchedule.EMPTY, schedule);
+        assertFalse(schedule.isBlackout(EXCHANGE_NAME, millis(0)));
+    }
+
+    @Test
+    public void testWindows() {
+        BlackoutSchedule schedule = BlackoutSchedule.compile(Arrays.asList(
+            line(EXCHANGE_NAME, 5, 6),
+            line(EXCHANGE_NAME, 1, 2),
+            line(EXCHANGE_NAME, 3, 4)));
+
+        assertFalse(schedule.isBlackout(EXCHANGE_NAME, millis(0)));
+        assertTrue(schedule.isBlackout(EXCHANGE_NAME, millis(1)));
+        assertTrue(schedule.isBlackout(EXCHANGE_NAME, millis(90)));
+        assertFalse(schedule.isBlackout(EXCHANGE_NAME, millis(120)));
+        assertTrue(schedule.isBlackout(EXCHANGE_NAME, millis(200)));
+        assertFalse(schedule.isBlackout(EXCHANGE_NAME, millis(250)));
+        assertTrue(schedule.isBlackout(EXCHANGE_NAME, millis(330)));
+        assertFalse(schedule.isBlackout(EXCHANGE_NAME, millis(360)));
+
+        // going backwards in time shouldn't be fooled by the cached transition
+        assertTrue(schedule.isBlackout(EXCHANGE_NAME, millis(60)));
+    }
+
+    @Test
+    public void testOverlappingWindows() {
+        BlackoutSchedule schedule = BlackoutSchedule.compile(Arrays.asList(
+            line(EXCHANGE_NAME, 1, 3),
+            line(EXCHANGE_NAME, 2, 5),
+            line(EXCHANGE_NAME, 2, 3)));
+
+        assertTrue(schedule.isBlackout(EXCHANGE_NAME, millis(150)));
+        assertTrue(schedule.isBlackout(EXCHANGE_NAME, millis(270)));
+        assertFalse(schedule.isBlackout(EXCHANGE_NAME, millis(300)));
+    }
+
+    @Test
+    public void testOtherExchange() {
+        BlackoutSchedule schedule = BlackoutSchedule.compile(Collections.singletonList(
+            line("CoinBazaar", 1, 2)));
+
+        assertFalse(schedule.isBlackout(EXCHANGE_NAME, millis(90)));
+        assertTrue(schedule.isBlackout("CoinBazaar", millis(90)));
+    }
+
+    @Test
+    public void testInvalidLines() {
+        BlackoutSchedule schedule = BlackoutSchedule.compile(Arrays.asList(
+            "garbage",
+            EXCHANGE_NAME + ",yesterday,tomorrow",
+            line(EXCHANGE_NAME, 2, 1),
+            line(EXCHANGE_NAME, 3, 4)));
+
+        assertFalse(schedule.isBlackout(EXCHANGE_NAME, millis(90)));
+        assertTrue(schedule.isBlackout(EXCHANGE_NAME, millis(200)));
+    }
+
+    private static String line(String exchangeName, long startHour, long endHour) {
+        return String.format("%s,%s,%s",
+            exchangeName,
+            BASE.plusHours(startHour).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME),
+            BASE.plusHours(endHour).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+    }
+
+    private static long millis(long minutes) {
+        return BASE.plusMinutes(minutes).toInstant().toEpochMilli();
+    }
+}
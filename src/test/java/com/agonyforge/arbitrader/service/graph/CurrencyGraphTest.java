@@ -0,0 +1,160 @@
+package com.agonyforge.arbitrader.service.graph;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CurrencyGraphTest {
+    private static final CurrencyPair ETH_BTC = new CurrencyPair(Currency.ETH, Currency.BTC);
+    private static final CurrencyPair LTC_ETH = new CurrencyPair(Currency.LTC, Currency.ETH);
+
+    private CurrencyGraph graph;
+
+    @Before
+    public void setUp() {
+        graph = new CurrencyGraph("Exchange");
+    }
+
+    @Test
+    public void testUpdate() {
+        List<CurrencyGraph.Edge> edges = update(CurrencyPair.BTC_USD, "99", "101");
+
+        assertEquals(2, graph.getNodeCount());
+
+        CurrencyGraph.Edge sell = edges.get(0);
+        CurrencyGraph.Edge buy = edges.get(1);
+
+        assertEquals(Currency.BTC, sell.getFrom());
+        assertEquals(Currency.USD, sell.getTo());
+        assertEquals(Order.OrderType.ASK, sell.getType());
+        assertEquals(-Math.log(99), sell.getWeight(), 1e-9);
+
+        assertEquals(Currency.USD, buy.getFrom());
+        assertEquals(Currency.BTC, buy.getTo());
+        assertEquals(Order.OrderType.BID, buy.getType());
+        assertEquals(Math.log(101), buy.getWeight(), 1e-9);
+
+        // the same edges are updated in place
+        assertEquals(edges, update(CurrencyPair.BTC_USD, "100", "102"));
+        assertEquals(-Math.log(100), sell.getWeight(), 1e-9);
+    }
+
+    @Test
+    public void testFindsTriangle() {
+        update(CurrencyPair.BTC_USD, "100", "100");
+        update(ETH_BTC, "0.1", "0.1");
+
+        // USD buys 0.01 BTC, which buys 0.1 ETH, which sells for 1.1 USD
+        List<CurrencyGraph.Edge> edges = update(CurrencyPair.ETH_USD, "11", "11");
+        Cycle cycle = graph.findCycle(edges.get(0), 3);
+
+        assertNotNull(cycle);
+        assertEquals(3, cycle.getLegs().size());
+        assertEquals(0.1, cycle.getProfit(), 1e-9);
+        assertEquals(Currency.ETH, cycle.getLegs().get(0).getFrom());
+        assertEquals(Currency.USD, cycle.getLegs().get(1).getFrom());
+        assertEquals(Currency.BTC, cycle.getLegs().get(2).getFrom());
+
+        // the other direction loses money
+        assertNull(graph.findCycle(edges.get(1), 3));
+    }
+
+    @Test
+    public void testSameCycleSameKey() {
+        List<CurrencyGraph.Edge> btcEdges = update(CurrencyPair.BTC_USD, "100", "100");
+        update(ETH_BTC, "0.1", "0.1");
+        List<CurrencyGraph.Edge> ethEdges = update(CurrencyPair.ETH_USD, "11", "11");
+
+        Cycle fromEth = graph.findCycle(ethEdges.get(0), 3);
+        Cycle fromBtc = graph.findCycle(btcEdges.get(1), 3);
+
+        assertNotNull(fromEth);
+        assertNotNull(fromBtc);
+        assertEquals(fromEth.getKey(), fromBtc.getKey());
+    }
+
+    @Test
+    public void testNoCycle() {
+        update(CurrencyPair.BTC_USD, "99.9", "100.1");
+        update(ETH_BTC, "0.0999", "0.1001");
+
+        List<CurrencyGraph.Edge> edges = update(CurrencyPair.ETH_USD, "9.99", "10.01");
+
+        assertNull(graph.findCycle(edges.get(0), 3));
+        assertNull(graph.findCycle(edges.get(1), 3));
+    }
+
+    @Test
+    public void testFeesEatProfit() {
+        update(CurrencyPair.BTC_USD, "100", "100", "0.04");
+        update(ETH_BTC, "0.1", "0.1", "0.04");
+
+        // 10% before fees but 0.96^3 * 1.1 is less than 1
+        List<CurrencyGraph.Edge> edges = update(CurrencyPair.ETH_USD, "11", "11", "0.04");
+
+        assertNull(graph.findCycle(edges.get(0), 3));
+    }
+
+    @Test
+    public void testCrossedTickerRemovesEdges() {
+        update(CurrencyPair.BTC_USD, "100", "100");
+        update(ETH_BTC, "0.1", "0.1");
+
+        List<CurrencyGraph.Edge> edges = update(CurrencyPair.ETH_USD, "12", "11");
+
+        assertFalse(edges.get(0).isUsable());
+        assertFalse(edges.get(1).isUsable());
+        assertNull(graph.findCycle(edges.get(0), 3));
+    }
+
+    @Test
+    public void testMaxHops() {
+        update(CurrencyPair.BTC_USD, "100", "100");
+        update(ETH_BTC, "0.1", "0.1");
+        update(LTC_ETH, "0.5", "0.5");
+
+        // USD buys 0.01 BTC, which buys 0.1 ETH, which buys 0.2 LTC, which sells for 1.1 USD
+        List<CurrencyGraph.Edge> edges = update(CurrencyPair.LTC_USD, "5.5", "5.5");
+
+        assertNull(graph.findCycle(edges.get(0), 3));
+
+        Cycle cycle = graph.findCycle(edges.get(0), 4);
+
+        assertNotNull(cycle);
+        assertEquals(4, cycle.getLegs().size());
+        assertEquals(0.1, cycle.getProfit(), 1e-9);
+    }
+
+    @Test
+    public void testBestCycle() {
+        update(CurrencyPair.BTC_USD, "100", "100");
+        update(ETH_BTC, "0.1", "0.1");
+        update(CurrencyPair.ETH_USD, "10.5", "10.5");
+        update(LTC_ETH, "0.5", "0.5");
+
+        // buying LTC with ETH bought for USD makes about 5%, but buying the ETH with BTC makes 10%
+        List<CurrencyGraph.Edge> edges = update(CurrencyPair.LTC_USD, "5.5", "5.5");
+        Cycle cycle = graph.findCycle(edges.get(0), 4);
+
+        assertNotNull(cycle);
+        assertEquals(0.1, cycle.getProfit(), 1e-9);
+    }
+
+    private List<CurrencyGraph.Edge> update(CurrencyPair currencyPair, String bid, String ask) {
+        return update(currencyPair, bid, ask, "0");
+    }
+
+    private List<CurrencyGraph.Edge> update(CurrencyPair currencyPair, String bid, String ask, String fee) {
+        return graph.update(currencyPair, new BigDecimal(bid), new BigDecimal(ask), new BigDecimal(fee));
+    }
+}
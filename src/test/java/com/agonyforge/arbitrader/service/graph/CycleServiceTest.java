@@ -0,0 +1,167 @@
+package com.agonyforge.arbitrader.service.graph;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.ExchangeBuilder;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.ExchangeService;
+import com.agonyforge.arbitrader.service.TickerService;
+import com.agonyforge.arbitrader.service.model.ExchangeFee;
+import com.agonyforge.arbitrader.service.model.TickerEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.marketdata.Ticker;
+import org.mockito.Mock;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CycleServiceTest extends BaseTestCase {
+    private static final CurrencyPair ETH_BTC = new CurrencyPair(Currency.ETH, Currency.BTC);
+
+    private Exchange exchange;
+    private Exchange otherExchange;
+    private TradingConfiguration tradingConfiguration;
+
+    @Mock
+    private ExchangeService exchangeService;
+
+    @Mock
+    private TickerService tickerService;
+
+    private CycleService cycleService;
+
+    @Before
+    public void setUp() throws IOException {
+        exchange = new ExchangeBuilder("Exchange", CurrencyPair.BTC_USD).build();
+        otherExchange = new ExchangeBuilder("Other", CurrencyPair.BTC_USD).build();
+
+        tradingConfiguration = new TradingConfiguration();
+        tradingConfiguration.getCycles().setActive(true);
+        tradingConfiguration.getCycles().setMaxHops(3);
+        tradingConfiguration.getCycles().setMinimumProfit(new BigDecimal("0.01"));
+
+        when(exchangeService.getExchangeFee(any(Exchange.class), any(CurrencyPair.class), anyBoolean()))
+            .thenReturn(new ExchangeFee(BigDecimal.ZERO, null));
+
+        cycleService = new CycleService(tradingConfiguration, exchangeService, tickerService, Runnable::run);
+    }
+
+    @Test
+    public void testInactive() {
+        tradingConfiguration.getCycles().setActive(false);
+
+        submit(exchange, CurrencyPair.BTC_USD, "100", "100");
+
+        verify(exchangeService, never()).getExchangeFee(any(Exchange.class), any(CurrencyPair.class), anyBoolean());
+        assertEquals(0, cycleService.getUpdateCount());
+    }
+
+    @Test
+    public void testFindsCycle() {
+        submit(exchange, CurrencyPair.BTC_USD, "100", "100");
+        submit(exchange, ETH_BTC, "0.1", "0.1");
+        submit(exchange, CurrencyPair.ETH_USD, "11", "11");
+
+        assertEquals(3, cycleService.getUpdateCount());
+        assertEquals(1, cycleService.getFoundCount());
+        assertEquals(1, cycleService.getCycles().size());
+        assertTrue(cycleService.getCycles().containsKey("Exchange:BTC:ETH:USD"));
+    }
+
+    @Test
+    public void testFoundOnce() {
+        submit(exchange, CurrencyPair.BTC_USD, "100", "100");
+        submit(exchange, ETH_BTC, "0.1", "0.1");
+        submit(exchange, CurrencyPair.ETH_USD, "11", "11");
+
+        // still open, so it isn't counted again
+        submit(exchange, CurrencyPair.BTC_USD, "99", "99");
+
+        assertEquals(1, cycleService.getFoundCount());
+        assertEquals(1, cycleService.getCycles().size());
+    }
+
+    @Test
+    public void testCycleCloses() {
+        submit(exchange, CurrencyPair.BTC_USD, "100", "100");
+        submit(exchange, ETH_BTC, "0.1", "0.1");
+        submit(exchange, CurrencyPair.ETH_USD, "11", "11");
+        submit(exchange, CurrencyPair.ETH_USD, "10", "10.1");
+
+        assertEquals(1, cycleService.getFoundCount());
+        assertTrue(cycleService.getCycles().isEmpty());
+    }
+
+    @Test
+    public void testBelowMinimumProfit() {
+        submit(exchange, CurrencyPair.BTC_USD, "100", "100");
+        submit(exchange, ETH_BTC, "0.1", "0.1");
+        submit(exchange, CurrencyPair.ETH_USD, "10.05", "10.05");
+
+        assertEquals(0, cycleService.getFoundCount());
+    }
+
+    @Test
+    public void testStaleTicker() {
+        when(tickerService.isStale(eq(exchange), eq(ETH_BTC))).thenReturn(true);
+
+        submit(exchange, CurrencyPair.BTC_USD, "100", "100");
+        submit(exchange, ETH_BTC, "0.1", "0.1");
+        submit(exchange, CurrencyPair.ETH_USD, "11", "11");
+
+        assertEquals(0, cycleService.getFoundCount());
+    }
+
+    @Test
+    public void testExchangesAreSeparate() {
+        submit(exchange, CurrencyPair.BTC_USD, "100", "100");
+        submit(exchange, ETH_BTC, "0.1", "0.1");
+        submit(otherExchange, CurrencyPair.ETH_USD, "11", "11");
+
+        assertEquals(0, cycleService.getFoundCount());
+    }
+
+    @Test
+    public void testCoalesced() {
+        final List<Runnable> queued = new ArrayList<>();
+
+        cycleService = new CycleService(tradingConfiguration, exchangeService, tickerService, queued::add);
+
+        submit(exchange, CurrencyPair.BTC_USD, "100", "100");
+        submit(exchange, CurrencyPair.BTC_USD, "101", "101");
+        submit(exchange, ETH_BTC, "0.1", "0.1");
+
+        assertEquals(2, queued.size());
+        assertEquals(1, cycleService.getCoalescedCount());
+
+        queued.forEach(Runnable::run);
+
+        // the graph only saw the latest ticker for each pair
+        assertEquals(2, cycleService.getUpdateCount());
+        verify(exchangeService).getExchangeFee(exchange, CurrencyPair.BTC_USD, true);
+    }
+
+    private void submit(Exchange exchange, CurrencyPair currencyPair, String bid, String ask) {
+        final Ticker ticker = new Ticker.Builder()
+            .instrument(currencyPair)
+            .bid(new BigDecimal(bid))
+            .ask(new BigDecimal(ask))
+            .build();
+
+        cycleService.submit(new TickerEvent(ticker, exchange));
+    }
+}
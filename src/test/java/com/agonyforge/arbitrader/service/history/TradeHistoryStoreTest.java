@@ -0,0 +1,201 @@
+package com.agonyforge.arbitrader.service.history;
+
+import com.agonyforge.arbitrader.service.model.ArbitrageLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TradeHistoryStoreTest {
+    private static final int CSV_NUMBER_OF_COLUMNS = 12;
+    private static final OffsetDateTime JULY = OffsetDateTime.parse("2022-07-15T12:00:00Z");
+    private static final OffsetDateTime AUGUST = OffsetDateTime.parse("2022-08-02T12:00:00Z");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path historyPath;
+    private TradeHistoryStore tradeHistoryStore;
+
+    @Before
+    public void setUp() {
+        historyPath = temporaryFolder.getRoot().toPath().resolve("history.csv");
+        tradeHistoryStore = new TradeHistoryStore(historyPath);
+        tradeHistoryStore.open();
+    }
+
+    @Test
+    public void testLogArbitrageToCsv() throws IOException {
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "0.01", JULY));
+        tradeHistoryStore.flush();
+
+        List<String> lines = Files.readAllLines(historyPath, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+
+        // Get headers
+        String[] split = lines.get(0).split("\",\"");
+        assertEquals("Header size does not match number of columns", CSV_NUMBER_OF_COLUMNS, split.length);
+
+        // Assert headers does not end with a comma
+        final String lastColumn = split[split.length - 1];
+        assertFalse(lastColumn.endsWith(","));
+
+        // Append one line
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "0.01", JULY));
+        tradeHistoryStore.flush();
+
+        lines = Files.readAllLines(historyPath, StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+
+        split = lines.get(2).split("\",\"");
+        assertEquals("Number of elements (columns) per line does not match the number of columns", CSV_NUMBER_OF_COLUMNS, split.length);
+    }
+
+    @Test
+    public void testQueries() {
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "1.00", JULY));
+        tradeHistoryStore.append(buildArbitrageLog("Kraken", "Bitstamp", "-0.50", JULY.plusHours(1)));
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "2.00", JULY.plusHours(2)));
+
+        assertEquals(3, tradeHistoryStore.getTrades(JULY, JULY.plusDays(1)).size());
+        assertEquals(1, tradeHistoryStore.getTrades(JULY.plusMinutes(30), JULY.plusHours(2)).size());
+        assertEquals(2, tradeHistoryStore.getTradesForExchanges("Bitstamp", "CoinbasePro", JULY, JULY.plusDays(1)).size());
+        assertEquals(1, tradeHistoryStore.getTradesForExchanges("Bitstamp", "CoinbasePro", JULY.plusHours(1), JULY.plusDays(1)).size());
+        assertEquals(0, tradeHistoryStore.getTradesForExchanges("Bitstamp", "Gemini", JULY, JULY.plusDays(1)).size());
+        assertEquals(3, tradeHistoryStore.getTradesForCurrency("BTC/USD", JULY, JULY.plusDays(1)).size());
+
+        TradeHistorySummary summary = tradeHistoryStore.getSummary(JULY, JULY.plusDays(1));
+
+        assertEquals(3, summary.getCount());
+        assertEquals(0, new BigDecimal("2.50").compareTo(summary.getTotalProfit()));
+        assertEquals(0, new BigDecimal("2.00").compareTo(summary.getBestProfit()));
+        assertEquals(0, new BigDecimal("-0.50").compareTo(summary.getWorstProfit()));
+        assertEquals(0, new BigDecimal("0.83").compareTo(summary.getAverageProfit()));
+    }
+
+    @Test
+    public void testReadRecord() {
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "1.00", JULY));
+
+        TradeHistoryEntry entry = tradeHistoryStore.getTrades(JULY, JULY.plusDays(1)).get(0);
+        Optional<String> record = tradeHistoryStore.readRecord(entry);
+
+        assertTrue(record.isPresent());
+        assertTrue(record.get().startsWith("\"CoinbasePro\""));
+    }
+
+    @Test
+    public void testRollover() throws IOException {
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "1.00", JULY));
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "2.00", AUGUST));
+        tradeHistoryStore.flush();
+
+        Path rolledPath = historyPath.resolveSibling("history-2022-07.csv");
+
+        assertTrue(Files.exists(rolledPath));
+        assertEquals(2, Files.readAllLines(rolledPath, StandardCharsets.UTF_8).size());
+        assertEquals(2, Files.readAllLines(historyPath, StandardCharsets.UTF_8).size());
+
+        TradeHistoryEntry july = tradeHistoryStore.getTrades(JULY, AUGUST).get(0);
+
+        assertEquals("2022-07", july.getSegment());
+        assertTrue(tradeHistoryStore.readRecord(july).isPresent());
+    }
+
+    @Test
+    public void testRolloverIntoExistingFile() throws IOException {
+        ArbitrageLog earlier = buildArbitrageLog("Kraken", "Bitstamp", "0.50", JULY.minusDays(1));
+        Path rolledPath = historyPath.resolveSibling("history-2022-07.csv");
+
+        // left behind from before a restart
+        Files.write(rolledPath, (earlier.csvHeaders() + earlier.toCsv()).getBytes(StandardCharsets.UTF_8));
+
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "1.00", JULY));
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "2.00", AUGUST));
+        tradeHistoryStore.flush();
+
+        assertEquals(3, Files.readAllLines(rolledPath, StandardCharsets.UTF_8).size());
+        assertEquals(2, Files.readAllLines(historyPath, StandardCharsets.UTF_8).size());
+
+        List<TradeHistoryEntry> july = tradeHistoryStore.getTrades(JULY.minusDays(2), AUGUST);
+
+        assertEquals(2, july.size());
+        assertTrue(tradeHistoryStore.readRecord(july.get(0)).get().startsWith("\"Kraken\""));
+        assertTrue(tradeHistoryStore.readRecord(july.get(1)).get().startsWith("\"CoinbasePro\""));
+
+        // the August trade went into the new file
+        TradeHistoryEntry august = tradeHistoryStore.getTrades(AUGUST, AUGUST.plusDays(1)).get(0);
+
+        assertEquals("2022-08", august.getSegment());
+        assertEquals(0, new BigDecimal("2.00").compareTo(august.getProfit()));
+
+        tradeHistoryStore.close();
+
+        TradeHistoryStore reloaded = new TradeHistoryStore(historyPath);
+
+        reloaded.open();
+
+        assertEquals(3, reloaded.size());
+    }
+
+    @Test
+    public void testReloadIndex() {
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "1.00", JULY));
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "2.00", AUGUST));
+        tradeHistoryStore.close();
+
+        TradeHistoryStore reloaded = new TradeHistoryStore(historyPath);
+
+        reloaded.open();
+
+        assertEquals(2, reloaded.size());
+        assertEquals(0, new BigDecimal("3.00").compareTo(reloaded.getSummary(JULY, AUGUST.plusDays(1)).getTotalProfit()));
+    }
+
+    @Test
+    public void testRebuildIndex() throws IOException {
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "1.00", JULY));
+        tradeHistoryStore.append(buildArbitrageLog("CoinbasePro", "Bitstamp", "2.00", AUGUST));
+        tradeHistoryStore.close();
+
+        Files.delete(historyPath.resolveSibling("history.idx"));
+
+        TradeHistoryStore rebuilt = new TradeHistoryStore(historyPath);
+
+        rebuilt.open();
+
+        assertEquals(2, rebuilt.size());
+        assertEquals(1, rebuilt.getTradesForExchanges("Bitstamp", "CoinbasePro", AUGUST, AUGUST.plusDays(1)).size());
+        assertTrue(Files.exists(historyPath.resolveSibling("history.idx")));
+    }
+
+    private static ArbitrageLog buildArbitrageLog(String shortExchange, String longExchange, String profit, OffsetDateTime timestamp) {
+        return ArbitrageLog.ArbitrageLogBuilder.builder()
+            .withShortExchange(shortExchange)
+            .withShortCurrency("BTC/USD")
+            .withShortSpread(new BigDecimal("0.008"))
+            .withShortSlip(new BigDecimal("-0.001"))
+            .withShortAmount(BigDecimal.valueOf(10))
+            .withLongExchange(longExchange)
+            .withLongCurrency("BTC/USD")
+            .withLongSpread(new BigDecimal("-0.003"))
+            .withLongSlip(new BigDecimal("-0.001"))
+            .withLongAmount(BigDecimal.valueOf(10))
+            .withProfit(new BigDecimal(profit))
+            .withTimestamp(timestamp)
+            .build();
+    }
+}
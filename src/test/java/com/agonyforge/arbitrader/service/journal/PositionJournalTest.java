@@ -0,0 +1,173 @@
+package com.agonyforge.arbitrader.service.journal;
+
+import com.agonyforge.arbitrader.config.JsonConfiguration;
+import com.agonyforge.arbitrader.service.model.ActivePosition;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PositionJournalTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ObjectMapper objectMapper;
+    private Path journalPath;
+    private Path legacyStatePath;
+
+    @Before
+    public void setUp() {
+        objectMapper = new JsonConfiguration().objectMapper();
+        journalPath = temporaryFolder.getRoot().toPath().resolve("position.journal");
+        legacyStatePath = temporaryFolder.getRoot().toPath().resolve("state.json");
+    }
+
+    @Test
+    public void testReplayEmpty() throws IOException {
+        PositionJournal journal = new PositionJournal(objectMapper, journalPath, legacyStatePath);
+
+        assertFalse(journal.replay().isPresent());
+
+        journal.shutdown();
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        PositionJournal journal = new PositionJournal(objectMapper, journalPath, legacyStatePath);
+        ActivePosition first = buildActivePosition("first");
+        ActivePosition second = buildActivePosition("second");
+
+        journal.replay();
+        journal.record(first);
+        journal.record(second).get();
+        journal.shutdown();
+
+        Optional<ActivePosition> replayed = new PositionJournal(objectMapper, journalPath, legacyStatePath).replay();
+
+        assertTrue(replayed.isPresent());
+        assertEquals(second, replayed.get());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        PositionJournal journal = new PositionJournal(objectMapper, journalPath, legacyStatePath);
+
+        journal.replay();
+        journal.record(buildActivePosition("first"));
+        journal.clear().get();
+        journal.shutdown();
+
+        assertFalse(new PositionJournal(objectMapper, journalPath, legacyStatePath).replay().isPresent());
+    }
+
+    @Test
+    public void testRecordBeforeReplay() {
+        PositionJournal journal = new PositionJournal(objectMapper, journalPath, legacyStatePath);
+
+        assertTrue(journal.record(buildActivePosition("first")).isCompletedExceptionally());
+        assertTrue(journal.clear().isCompletedExceptionally());
+    }
+
+    @Test
+    public void testRecordAfterShutdown() throws IOException {
+        PositionJournal journal = new PositionJournal(objectMapper, journalPath, legacyStatePath);
+
+        journal.replay();
+        journal.shutdown();
+
+        assertTrue(journal.record(buildActivePosition("first")).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testDamagedTail() throws Exception {
+        PositionJournal journal = new PositionJournal(objectMapper, journalPath, legacyStatePath);
+        ActivePosition first = buildActivePosition("first");
+
+        journal.replay();
+        journal.record(first).get();
+        journal.shutdown();
+
+        // simulate a crash halfway through writing a record
+        long length = Files.size(journalPath);
+
+        Files.write(journalPath, new byte[] { 0, 0, 1, 0, 42, 42 }, StandardOpenOption.APPEND);
+
+        Optional<ActivePosition> replayed = new PositionJournal(objectMapper, journalPath, legacyStatePath).replay();
+
+        assertTrue(replayed.isPresent());
+        assertEquals(first, replayed.get());
+        assertEquals(length, Files.size(journalPath));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        PositionJournal journal = new PositionJournal(objectMapper, journalPath, legacyStatePath);
+        ActivePosition last = null;
+
+        journal.replay();
+
+        for (int i = 0; i < PositionJournal.COMPACTION_THRESHOLD * 2; i++) {
+            last = buildActivePosition("order" + i);
+            journal.record(last);
+        }
+
+        journal.compact();
+        journal.clear();
+        journal.record(last).get();
+        journal.shutdown();
+
+        long compactedSize = Files.size(journalPath);
+        Optional<ActivePosition> replayed = new PositionJournal(objectMapper, journalPath, legacyStatePath).replay();
+
+        assertTrue(replayed.isPresent());
+        assertEquals(last, replayed.get());
+        assertTrue(compactedSize < objectMapper.writeValueAsBytes(last).length * 4L);
+    }
+
+    @Test
+    public void testMigrateLegacyStateFile() throws IOException {
+        ActivePosition legacy = buildActivePosition("legacy");
+
+        Files.write(legacyStatePath, objectMapper.writeValueAsBytes(legacy));
+
+        Optional<ActivePosition> replayed = new PositionJournal(objectMapper, journalPath, legacyStatePath).replay();
+
+        assertTrue(replayed.isPresent());
+        assertEquals(legacy, replayed.get());
+        assertFalse(Files.exists(legacyStatePath));
+        assertTrue(Files.size(journalPath) > 0);
+    }
+
+    private static ActivePosition buildActivePosition(String orderId) {
+        ActivePosition activePosition = new ActivePosition();
+
+        activePosition.setEntryTime(OffsetDateTime.now());
+        activePosition.setEntryBalance(new BigDecimal("1337.00"));
+        activePosition.setCurrencyPair(CurrencyPair.BTC_USD);
+        activePosition.setExitTarget(new BigDecimal("0.003"));
+        activePosition.getLongTrade().setExchange("Long");
+        activePosition.getLongTrade().setOrderId(orderId + "-long");
+        activePosition.getLongTrade().setVolume(new BigDecimal("1000.00"));
+        activePosition.getLongTrade().setEntry(new BigDecimal("5000.00"));
+        activePosition.getShortTrade().setExchange("Short");
+        activePosition.getShortTrade().setOrderId(orderId + "-short");
+        activePosition.getShortTrade().setVolume(new BigDecimal("1000.00"));
+        activePosition.getShortTrade().setEntry(new BigDecimal("5000.00"));
+
+        return activePosition;
+    }
+}
@@ -0,0 +1,306 @@
+package com.agonyforge.arbitrader.service.outbox;
+
+import com.agonyforge.arbitrader.BaseTestCase;
+import com.agonyforge.arbitrader.config.JsonConfiguration;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.agonyforge.arbitrader.service.outbox.NotificationOutbox.DIGEST_DELAY;
+import static com.agonyforge.arbitrader.service.outbox.NotificationOutbox.DIGEST_SUBJECT;
+import static com.agonyforge.arbitrader.service.outbox.NotificationOutbox.INITIAL_BACKOFF;
+import static com.agonyforge.arbitrader.service.outbox.NotificationOutbox.MAXIMUM_ATTEMPTS;
+import static com.agonyforge.arbitrader.service.outbox.NotificationOutbox.MAXIMUM_BACKOFF;
+import static com.agonyforge.arbitrader.service.outbox.NotificationOutbox.MAXIMUM_DIGEST_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class NotificationOutboxTest extends BaseTestCase {
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private OutboxSender mailSender;
+
+    @Mock
+    private OutboxSender telegramSender;
+
+    private ObjectMapper objectMapper;
+    private Path outboxPath;
+    private NotificationOutbox outbox;
+
+    @Before
+    public void setUp() throws Exception {
+        objectMapper = new JsonConfiguration().objectMapper();
+        outboxPath = temporaryFolder.newFolder().toPath().resolve("outbox.json");
+        outbox = new NotificationOutbox(objectMapper, outboxPath);
+
+        outbox.register("mail", mailSender);
+        outbox.register("telegram", telegramSender);
+    }
+
+    @After
+    public void tearDown() {
+        outbox.shutdown();
+    }
+
+    @Test
+    public void testSendSingle() throws Exception {
+        outbox.add("Subject", "Body", NOW);
+
+        assertEquals(2, outbox.size());
+
+        outbox.dispatch(NOW);
+
+        verify(mailSender).send(eq("Subject"), eq("Body"));
+        verify(telegramSender).send(eq("Subject"), eq("Body"));
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void testSendDigest() throws Exception {
+        outbox.add("Subject A", "Body A", NOW);
+        outbox.add("Subject B", "Body B", NOW + 1);
+        outbox.add("Subject C", "Body C", NOW + 2);
+
+        outbox.dispatch(NOW + 2);
+
+        verify(mailSender).send(eq(String.format(DIGEST_SUBJECT, 3)), eq("Subject A\nBody A\n\nSubject B\nBody B\n\nSubject C\nBody C"));
+        verify(telegramSender).send(eq(String.format(DIGEST_SUBJECT, 3)), eq("Subject A\nBody A\n\nSubject B\nBody B\n\nSubject C\nBody C"));
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void testDigestLengthLimit() throws Exception {
+        NotificationOutbox limited = new NotificationOutbox(objectMapper, null);
+
+        try {
+            // room for two of these in a digest, but not three
+            limited.register("telegram", telegramSender, 40);
+
+            limited.add("Subject A", "Body A", NOW);
+            limited.add("Subject B", "Body B", NOW + 1);
+            limited.add("Subject C", "Body C", NOW + 2);
+
+            limited.dispatch(NOW + 2);
+
+            verify(telegramSender).send(eq(String.format(DIGEST_SUBJECT, 2)), eq("Subject A\nBody A\n\nSubject B\nBody B"));
+            assertEquals(1, limited.size());
+
+            limited.dispatch(NOW + 2);
+
+            verify(telegramSender).send(eq("Subject C"), eq("Body C"));
+            assertEquals(0, limited.size());
+        } finally {
+            limited.shutdown();
+        }
+    }
+
+    @Test
+    public void testLongMessageTruncated() throws Exception {
+        NotificationOutbox limited = new NotificationOutbox(objectMapper, null);
+
+        try {
+            limited.register("telegram", telegramSender, 4);
+
+            limited.add("Subject", "Body that is too long", NOW);
+            limited.add("Subject", "Body", NOW + 1);
+
+            limited.dispatch(NOW + 1);
+
+            // the long one goes on its own, cut short, instead of failing every retry
+            verify(telegramSender).send(eq("Subject"), eq("Body"));
+            assertEquals(1, limited.size());
+        } finally {
+            limited.shutdown();
+        }
+    }
+
+    @Test
+    public void testDigestSizeLimit() throws Exception {
+        for (int i = 0; i < MAXIMUM_DIGEST_SIZE + 1; i++) {
+            outbox.add("Subject", "Body", NOW + i);
+        }
+
+        outbox.dispatch(NOW + MAXIMUM_DIGEST_SIZE);
+
+        verify(mailSender).send(eq(String.format(DIGEST_SUBJECT, MAXIMUM_DIGEST_SIZE)), anyString());
+        assertEquals(2, outbox.size());
+
+        outbox.dispatch(NOW + MAXIMUM_DIGEST_SIZE);
+
+        verify(mailSender).send(eq("Subject"), eq("Body"));
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void testNotDueYet() throws Exception {
+        outbox.add("Subject", "Body", NOW);
+
+        outbox.dispatch(NOW - 1);
+
+        verify(mailSender, never()).send(anyString(), anyString());
+        assertEquals(2, outbox.size());
+    }
+
+    @Test
+    public void testRetryWithBackoff() throws Exception {
+        doThrow(new RuntimeException("Boom!")).when(mailSender).send(anyString(), anyString());
+
+        outbox.add("Subject", "Body", NOW);
+        outbox.dispatch(NOW);
+
+        // telegram was delivered, mail is waiting to try again
+        verify(telegramSender).send(eq("Subject"), eq("Body"));
+        assertEquals(1, outbox.size());
+
+        outbox.dispatch(NOW + INITIAL_BACKOFF - 1);
+        verify(mailSender, times(1)).send(anyString(), anyString());
+
+        outbox.dispatch(NOW + INITIAL_BACKOFF);
+        verify(mailSender, times(2)).send(anyString(), anyString());
+
+        // the second failure waits twice as long
+        outbox.dispatch(NOW + INITIAL_BACKOFF + INITIAL_BACKOFF * 2 - 1);
+        verify(mailSender, times(2)).send(anyString(), anyString());
+
+        outbox.dispatch(NOW + INITIAL_BACKOFF + INITIAL_BACKOFF * 2);
+        verify(mailSender, times(3)).send(anyString(), anyString());
+        verify(telegramSender, times(1)).send(anyString(), anyString());
+    }
+
+    @Test
+    public void testGiveUp() throws Exception {
+        doThrow(new RuntimeException("Boom!")).when(mailSender).send(anyString(), anyString());
+
+        outbox.add("Subject", "Body", NOW);
+
+        long now = NOW;
+
+        for (int i = 0; i < MAXIMUM_ATTEMPTS; i++) {
+            outbox.dispatch(now);
+            now += MAXIMUM_BACKOFF;
+        }
+
+        verify(mailSender, times(MAXIMUM_ATTEMPTS)).send(anyString(), anyString());
+        assertEquals(0, outbox.size());
+
+        outbox.dispatch(now);
+
+        verify(mailSender, times(MAXIMUM_ATTEMPTS)).send(anyString(), anyString());
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        doThrow(new RuntimeException("Boom!")).when(mailSender).send(anyString(), anyString());
+
+        outbox.add("Subject", "Body", NOW);
+        outbox.dispatch(NOW);
+
+        NotificationOutbox restarted = new NotificationOutbox(objectMapper, outboxPath);
+
+        try {
+            restarted.register("mail", telegramSender);
+            restarted.load();
+
+            assertEquals(1, restarted.size());
+
+            // the backoff from before the restart still applies
+            restarted.dispatch(NOW + INITIAL_BACKOFF - 1);
+            verify(telegramSender, times(1)).send(anyString(), anyString());
+
+            restarted.dispatch(NOW + INITIAL_BACKOFF);
+            verify(telegramSender, times(2)).send(eq("Subject"), eq("Body"));
+            assertEquals(0, restarted.size());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnregisteredChannelDropped() throws Exception {
+        outbox.add("Subject", "Body", NOW);
+
+        NotificationOutbox restarted = new NotificationOutbox(objectMapper, outboxPath);
+
+        try {
+            // telegram was turned off before the restart
+            restarted.register("mail", mailSender);
+            restarted.load();
+
+            assertEquals(2, restarted.size());
+
+            restarted.dispatch(NOW);
+
+            verify(mailSender).send(eq("Subject"), eq("Body"));
+            verify(telegramSender, never()).send(anyString(), anyString());
+            assertEquals(0, restarted.size());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    public void testSingleScheduledDispatch() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final ExecutorService notificationExecutor = Executors.newSingleThreadExecutor();
+        final NotificationOutbox counting = new NotificationOutbox(objectMapper, null, runnable -> {
+            executions.incrementAndGet();
+            notificationExecutor.execute(runnable);
+        });
+
+        try {
+            counting.register("mail", mailSender);
+
+            counting.enqueue("Subject A", () -> "Body A");
+            counting.enqueue("Subject B", () -> "Body B");
+            counting.enqueue("Subject C", () -> "Body C");
+
+            verify(mailSender, timeout(DIGEST_DELAY * 3)).send(eq(String.format(DIGEST_SUBJECT, 3)), anyString());
+
+            // a timer for each notification would have gone off right after the first one
+            Thread.sleep(500L);
+
+            // three to queue the notifications and one to send them
+            assertEquals(4, executions.get());
+            assertEquals(0, counting.size());
+        } finally {
+            counting.shutdown();
+            notificationExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoPersistence() throws Exception {
+        NotificationOutbox memoryOnly = new NotificationOutbox(objectMapper, null);
+
+        try {
+            memoryOnly.register("mail", mailSender);
+            memoryOnly.load();
+            memoryOnly.add("Subject", "Body", NOW);
+            memoryOnly.dispatch(NOW);
+
+            verify(mailSender).send(eq("Subject"), eq("Body"));
+            assertEquals(0, memoryOnly.size());
+        } finally {
+            memoryOnly.shutdown();
+        }
+    }
+}
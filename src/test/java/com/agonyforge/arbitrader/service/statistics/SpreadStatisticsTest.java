@@ -0,0 +1,94 @@
+package com.agonyforge.arbitrader.service.statistics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpreadStatisticsTest {
+    private static final long NOW = 1657886400000L; // 2022-07-15T12:00:00Z
+
+    @Test
+    public void testQuantileAccuracy() {
+        QuantileSketch sketch = new QuantileSketch();
+
+        // -0.0050 through 0.0049 in steps of 0.0001
+        for (int i = -50; i < 50; i++) {
+            sketch.add(i * 0.0001);
+        }
+
+        QuantileSketch.Snapshot snapshot = sketch.snapshot();
+
+        assertEquals(100, snapshot.getCount());
+        assertEquals(-0.0050, snapshot.getQuantile(0.0), 0.0050 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(0.0049, snapshot.getQuantile(1.0), 0.0049 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(0.0039, snapshot.getQuantile(0.9), 0.0039 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(-0.0001, snapshot.getQuantile(0.5), 0.0001 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void testQuantileEmpty() {
+        assertTrue(Double.isNaN(new QuantileSketch().snapshot().getQuantile(0.5)));
+    }
+
+    @Test
+    public void testMerge() {
+        QuantileSketch low = new QuantileSketch();
+        QuantileSketch high = new QuantileSketch();
+
+        for (int i = 1; i <= 50; i++) {
+            low.add(i * 0.0001);
+            high.add((i + 50) * 0.0001);
+        }
+
+        QuantileSketch.Snapshot merged = low.snapshot().merge(high.snapshot());
+
+        assertEquals(100, merged.getCount());
+        assertEquals(0.0050, merged.getQuantile(0.5), 0.0050 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(0.0100, merged.getQuantile(1.0), 0.0100 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void testMinMaxEwma() {
+        SpreadSeries series = new SpreadSeries();
+
+        assertEquals(Double.POSITIVE_INFINITY, series.getMin(), 0.0);
+        assertEquals(Double.NEGATIVE_INFINITY, series.getMax(), 0.0);
+        assertTrue(Double.isNaN(series.getEwma()));
+
+        series.update(0.002, NOW);
+        series.update(-0.001, NOW);
+        series.update(0.005, NOW);
+
+        assertEquals(3, series.getCount());
+        assertEquals(-0.001, series.getMin(), 0.0);
+        assertEquals(0.005, series.getMax(), 0.0);
+
+        double ewma = 0.002 + SpreadSeries.EWMA_ALPHA * (-0.001 - 0.002);
+
+        ewma = ewma + SpreadSeries.EWMA_ALPHA * (0.005 - ewma);
+
+        assertEquals(ewma, series.getEwma(), 0.0000001);
+    }
+
+    @Test
+    public void testRollingWindow() {
+        SpreadSeries series = new SpreadSeries();
+        long hour = TimeUnit.HOURS.toMillis(1);
+
+        series.update(0.009, NOW - 30 * hour);
+        series.update(0.005, NOW - 3 * hour);
+        series.update(0.001, NOW);
+
+        assertEquals(0.009, series.getMax(), 0.0);
+        assertEquals(0.005, series.getRollingMax(SpreadSeries.MAXIMUM_WINDOW_MILLIS, NOW), 0.0);
+        assertEquals(0.001, series.getRollingMax(hour, NOW), 0.0);
+        assertEquals(0.001, series.getRollingMin(SpreadSeries.MAXIMUM_WINDOW_MILLIS, NOW), 0.0);
+        assertEquals(2, series.getRollingSnapshot(SpreadSeries.MAXIMUM_WINDOW_MILLIS, NOW).getCount());
+
+        // a day later everything has rotated out of the window
+        assertEquals(Double.NEGATIVE_INFINITY, series.getRollingMax(SpreadSeries.MAXIMUM_WINDOW_MILLIS, NOW + 25 * hour), 0.0);
+    }
+}
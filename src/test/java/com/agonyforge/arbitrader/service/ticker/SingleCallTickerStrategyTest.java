@@ -24,6 +24,7 @@ import java.util.List;
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
@@ -62,6 +63,8 @@ public class SingleCallTickerStrategyTest {
                 Collections.singletonList(CurrencyPair.BTC_USD))
             .build();
 
+        doReturn(true).when(tickerService).putTicker(eq(exchange), any(Ticker.class));
+
         tickerStrategy.getTickers(exchange, currencyPairs, tickerService);
 
         assertTrue(errorCollectorService.isEmpty());
@@ -70,6 +73,25 @@ public class SingleCallTickerStrategyTest {
         verify(tickerEventPublisher).publishTicker(any(TickerEvent.class));
     }
 
+    @Test
+    public void testGetTickersUnchanged() throws IOException {
+        Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
+            .withTickerStrategy(tickerStrategy)
+            .withTickers(
+                true,
+                Collections.singletonList(CurrencyPair.BTC_USD))
+            .build();
+
+        doReturn(false).when(tickerService).putTicker(eq(exchange), any(Ticker.class));
+
+        tickerStrategy.getTickers(exchange, currencyPairs, tickerService);
+
+        assertTrue(errorCollectorService.isEmpty());
+
+        verify(tickerService).putTicker(eq(exchange), any(Ticker.class));
+        verify(tickerEventPublisher, never()).publishTicker(any(TickerEvent.class));
+    }
+
     @Test
     public void testGetTickersExchangeException() throws IOException {
         Exchange exchange = new ExchangeBuilder("CrazyCoinz", CurrencyPair.BTC_USD)
@@ -1,28 +1,50 @@
 package com.agonyforge.arbitrader.service.ticker;
 
 import com.agonyforge.arbitrader.ExchangeBuilder;
+import com.agonyforge.arbitrader.config.ExchangeConfiguration;
+import com.agonyforge.arbitrader.config.TradingConfiguration;
+import com.agonyforge.arbitrader.service.CircuitBreakerService;
 import com.agonyforge.arbitrader.service.ErrorCollectorService;
 import com.agonyforge.arbitrader.service.ExchangeService;
 import com.agonyforge.arbitrader.service.TickerService;
+import com.agonyforge.arbitrader.service.clock.ExchangeClockService;
 import com.agonyforge.arbitrader.service.event.TickerEventPublisher;
 import com.agonyforge.arbitrader.service.model.TickerEvent;
+import info.bitrich.xchangestream.core.ProductSubscription;
+import info.bitrich.xchangestream.core.StreamingExchange;
+import info.bitrich.xchangestream.core.StreamingMarketDataService;
+import io.reactivex.Completable;
+import io.reactivex.subjects.PublishSubject;
 import org.junit.Before;
 import org.junit.Test;
 import org.knowm.xchange.Exchange;
+import org.knowm.xchange.ExchangeSpecification;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.knowm.xchange.dto.marketdata.Ticker;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
-import static org.junit.Assert.assertTrue;
+import static com.agonyforge.arbitrader.service.ticker.StreamingTickerStrategy.INITIAL_BACKOFF;
+import static com.agonyforge.arbitrader.service.ticker.StreamingTickerStrategy.MAXIMUM_BACKOFF;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class StreamingTickerStrategyTest {
+    private static final long NOW = 1_600_000_000_000L;
+    private static final long MAX_AGE = 1000L;
+    private static final List<CurrencyPair> PAIRS = Arrays.asList(CurrencyPair.BTC_USD, CurrencyPair.ETH_USD);
+
     @Mock
     private ErrorCollectorService errorCollectorService;
 
@@ -35,13 +57,53 @@ public class StreamingTickerStrategyTest {
     @Mock
     private TickerEventPublisher tickerEventPublisher;
 
+    @Mock
+    private ExchangeClockService exchangeClockService;
+
+    @Mock
+    private StreamingExchange streamingExchange;
+
+    @Mock
+    private ExchangeSpecification exchangeSpecification;
+
+    @Mock
+    private StreamingMarketDataService streamingMarketDataService;
+
+    private PublishSubject<Ticker> btcTickers;
+    private PublishSubject<Ticker> ethTickers;
+    private StreamingTickerMonitor streamingTickerMonitor;
     private StreamingTickerStrategy streamingTickerStrategy;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
 
-        streamingTickerStrategy = new StreamingTickerStrategy(errorCollectorService, exchangeService, tickerEventPublisher);
+        btcTickers = PublishSubject.create();
+        ethTickers = PublishSubject.create();
+
+        when(streamingExchange.getExchangeSpecification()).thenReturn(exchangeSpecification);
+        when(exchangeSpecification.getExchangeName()).thenReturn("StreamCoin");
+        when(streamingExchange.getStreamingMarketDataService()).thenReturn(streamingMarketDataService);
+        when(streamingExchange.connect(any(ProductSubscription.class))).thenReturn(Completable.complete());
+        when(streamingExchange.disconnect()).thenReturn(Completable.complete());
+        when(streamingMarketDataService.getTicker(eq(CurrencyPair.BTC_USD))).thenAnswer(invocation -> btcTickers);
+        when(streamingMarketDataService.getTicker(eq(CurrencyPair.ETH_USD))).thenAnswer(invocation -> ethTickers);
+
+        when(exchangeService.convertExchangePair(any(Exchange.class), any(CurrencyPair.class))).thenAnswer(invocation -> invocation.getArgument(1));
+        when(exchangeService.getExchangeMetadata(any(Exchange.class))).thenReturn(new ExchangeConfiguration());
+
+        when(tickerService.getTickerMaxAge(any(Exchange.class))).thenReturn(MAX_AGE);
+        when(tickerService.getReceived(any(Exchange.class), any(CurrencyPair.class))).thenReturn(-1L);
+
+        streamingTickerMonitor = new StreamingTickerMonitor();
+
+        // run connections on the calling thread so the tests don't have to wait for them
+        streamingTickerStrategy = new StreamingTickerStrategy(
+            errorCollectorService,
+            exchangeService,
+            tickerEventPublisher,
+            streamingTickerMonitor,
+            Runnable::run);
     }
 
     @Test
@@ -56,4 +118,212 @@ public class StreamingTickerStrategyTest {
         verify(tickerService, never()).putTicker(eq(nonStreamingExchange), any(Ticker.class));
         verify(tickerEventPublisher, never()).publishTicker(any(TickerEvent.class));
     }
+
+    @Test
+    public void testConnectAndPublish() {
+        Ticker ticker = buildTicker(CurrencyPair.BTC_USD);
+
+        when(tickerService.putTicker(eq(streamingExchange), eq(ticker))).thenReturn(true);
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW);
+
+        verify(streamingExchange).connect(any(ProductSubscription.class));
+        verify(streamingExchange, never()).disconnect();
+        verify(streamingMarketDataService).getTicker(eq(CurrencyPair.BTC_USD));
+        verify(streamingMarketDataService).getTicker(eq(CurrencyPair.ETH_USD));
+
+        btcTickers.onNext(ticker);
+
+        verify(tickerService).putTicker(eq(streamingExchange), eq(ticker));
+        verify(tickerEventPublisher).publishTicker(any(TickerEvent.class));
+    }
+
+    @Test
+    public void testUnchangedTickerNotPublished() {
+        Ticker ticker = buildTicker(CurrencyPair.BTC_USD);
+
+        when(tickerService.putTicker(eq(streamingExchange), eq(ticker))).thenReturn(false);
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW);
+        btcTickers.onNext(ticker);
+
+        verify(tickerService).putTicker(eq(streamingExchange), eq(ticker));
+        verify(tickerEventPublisher, never()).publishTicker(any(TickerEvent.class));
+    }
+
+    @Test
+    public void testHealthyStreamsLeftAlone() {
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW);
+
+        when(tickerService.getReceived(any(Exchange.class), any(CurrencyPair.class))).thenReturn(NOW + MAX_AGE);
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW + MAX_AGE * 2);
+
+        verify(streamingExchange, times(1)).connect(any(ProductSubscription.class));
+        verify(streamingMarketDataService, times(1)).getTicker(eq(CurrencyPair.BTC_USD));
+        verify(streamingMarketDataService, times(1)).getTicker(eq(CurrencyPair.ETH_USD));
+        assertEquals(0, streamingTickerMonitor.getResubscribeCount("StreamCoin"));
+    }
+
+    @Test
+    public void testResubscribeSilentPair() {
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW);
+
+        // BTC is still coming in, ETH hasn't said anything
+        when(tickerService.getReceived(eq(streamingExchange), eq(CurrencyPair.BTC_USD))).thenReturn(NOW + MAX_AGE * 2);
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW + MAX_AGE / 2);
+
+        verify(streamingMarketDataService, times(1)).getTicker(eq(CurrencyPair.ETH_USD));
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW + MAX_AGE * 2);
+
+        verify(streamingExchange, times(1)).connect(any(ProductSubscription.class));
+        verify(streamingExchange, never()).disconnect();
+        verify(streamingMarketDataService, times(1)).getTicker(eq(CurrencyPair.BTC_USD));
+        verify(streamingMarketDataService, times(2)).getTicker(eq(CurrencyPair.ETH_USD));
+        assertEquals(1, streamingTickerMonitor.getResubscribeCount("StreamCoin"));
+        assertEquals(0, streamingTickerMonitor.getReconnectCount("StreamCoin"));
+    }
+
+    @Test
+    public void testSameTimestampTickersKeepStreamsAlive() throws Exception {
+        final TradingConfiguration tradingConfiguration = new TradingConfiguration();
+
+        tradingConfiguration.setTickerMaxAge(MAX_AGE);
+
+        final TickerService realTickerService = new TickerService(
+            tradingConfiguration,
+            exchangeService,
+            errorCollectorService,
+            new CircuitBreakerService(errorCollectorService),
+            exchangeClockService);
+
+        // the exchange stamps its tickers with the last trade, which doesn't change while the market is quiet
+        final Date lastTrade = new Date(NOW);
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, realTickerService, System.currentTimeMillis());
+
+        btcTickers.onNext(buildTicker(CurrencyPair.BTC_USD, lastTrade));
+        ethTickers.onNext(buildTicker(CurrencyPair.ETH_USD, lastTrade));
+
+        final long firstReceived = realTickerService.getReceived(streamingExchange, CurrencyPair.BTC_USD);
+
+        Thread.sleep(10);
+
+        btcTickers.onNext(buildTicker(CurrencyPair.BTC_USD, lastTrade));
+        ethTickers.onNext(buildTicker(CurrencyPair.ETH_USD, lastTrade));
+
+        // too long since the first tickers, but not since the ones that just arrived
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, realTickerService, firstReceived + MAX_AGE + 1);
+
+        verify(streamingExchange, times(1)).connect(any(ProductSubscription.class));
+        verify(streamingExchange, never()).disconnect();
+        verify(streamingMarketDataService, times(1)).getTicker(eq(CurrencyPair.BTC_USD));
+        verify(streamingMarketDataService, times(1)).getTicker(eq(CurrencyPair.ETH_USD));
+        assertEquals(0, streamingTickerMonitor.getResubscribeCount("StreamCoin"));
+        assertEquals(0, streamingTickerMonitor.getReconnectCount("StreamCoin"));
+    }
+
+    @Test
+    public void testResubscribeBacksOff() {
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW);
+
+        when(tickerService.getReceived(eq(streamingExchange), eq(CurrencyPair.BTC_USD))).thenReturn(Long.MAX_VALUE / 2);
+
+        // the first resubscribe happens as soon as the pair is silent
+        long now = NOW + MAX_AGE * 2;
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, now);
+        verify(streamingMarketDataService, times(2)).getTicker(eq(CurrencyPair.ETH_USD));
+
+        // the next ones wait INITIAL_BACKOFF, then twice that, on top of the pair being silent again
+        now += MAX_AGE * 2;
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, now);
+        verify(streamingMarketDataService, times(3)).getTicker(eq(CurrencyPair.ETH_USD));
+
+        now += Math.max(MAX_AGE * 2, INITIAL_BACKOFF * 2);
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, now);
+        verify(streamingMarketDataService, times(4)).getTicker(eq(CurrencyPair.ETH_USD));
+
+        // silent for long enough, but still backing off
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, now + INITIAL_BACKOFF * 4 - 1);
+        verify(streamingMarketDataService, times(4)).getTicker(eq(CurrencyPair.ETH_USD));
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, now + INITIAL_BACKOFF * 4);
+        verify(streamingMarketDataService, times(5)).getTicker(eq(CurrencyPair.ETH_USD));
+        assertEquals(4, streamingTickerMonitor.getResubscribeCount("StreamCoin"));
+    }
+
+    @Test
+    public void testResubscribeFailedStream() {
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW);
+
+        ethTickers.onError(new RuntimeException("Boom!"));
+        ethTickers = PublishSubject.create();
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW + MAX_AGE / 2);
+
+        verify(errorCollectorService).collect(eq(streamingExchange), any(RuntimeException.class));
+        verify(streamingMarketDataService, times(1)).getTicker(eq(CurrencyPair.BTC_USD));
+        verify(streamingMarketDataService, times(2)).getTicker(eq(CurrencyPair.ETH_USD));
+    }
+
+    @Test
+    public void testReconnectWhenEverythingIsSilent() {
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW);
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW + MAX_AGE * 2);
+
+        verify(streamingExchange).disconnect();
+        verify(streamingExchange, times(2)).connect(any(ProductSubscription.class));
+        verify(streamingMarketDataService, times(2)).getTicker(eq(CurrencyPair.BTC_USD));
+        verify(streamingMarketDataService, times(2)).getTicker(eq(CurrencyPair.ETH_USD));
+        assertEquals(1, streamingTickerMonitor.getReconnectCount("StreamCoin"));
+        assertEquals(0, streamingTickerMonitor.getResubscribeCount("StreamCoin"));
+    }
+
+    @Test
+    public void testConnectFailureBacksOff() {
+        when(streamingExchange.connect(any(ProductSubscription.class))).thenReturn(Completable.error(new RuntimeException("Boom!")));
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW);
+
+        assertEquals(1, streamingTickerMonitor.getConnectFailureCount("StreamCoin"));
+        verify(errorCollectorService).collect(eq(streamingExchange), any(RuntimeException.class));
+        verify(streamingMarketDataService, never()).getTicker(any(CurrencyPair.class));
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW + INITIAL_BACKOFF - 1);
+        verify(streamingExchange, times(1)).connect(any(ProductSubscription.class));
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW + INITIAL_BACKOFF);
+        verify(streamingExchange, times(2)).connect(any(ProductSubscription.class));
+
+        // the second failure waits twice as long
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW + INITIAL_BACKOFF * 3 - 1);
+        verify(streamingExchange, times(2)).connect(any(ProductSubscription.class));
+
+        streamingTickerStrategy.supervise(streamingExchange, PAIRS, tickerService, NOW + INITIAL_BACKOFF * 3);
+        verify(streamingExchange, times(3)).connect(any(ProductSubscription.class));
+        assertEquals(3, streamingTickerMonitor.getConnectFailureCount("StreamCoin"));
+    }
+
+    @Test
+    public void testBackoff() {
+        assertEquals(INITIAL_BACKOFF, StreamingTickerStrategy.backoff(INITIAL_BACKOFF, 0));
+        assertEquals(INITIAL_BACKOFF * 2, StreamingTickerStrategy.backoff(INITIAL_BACKOFF, 1));
+        assertEquals(INITIAL_BACKOFF * 4, StreamingTickerStrategy.backoff(INITIAL_BACKOFF, 2));
+        assertEquals(MAXIMUM_BACKOFF, StreamingTickerStrategy.backoff(INITIAL_BACKOFF, 100));
+    }
+
+    private Ticker buildTicker(CurrencyPair currencyPair) {
+        return buildTicker(currencyPair, null);
+    }
+
+    private Ticker buildTicker(CurrencyPair currencyPair, Date timestamp) {
+        return new Ticker.Builder()
+            .instrument(currencyPair)
+            .bid(new BigDecimal("100.00"))
+            .ask(new BigDecimal("100.10"))
+            .timestamp(timestamp)
+            .build();
+    }
 }